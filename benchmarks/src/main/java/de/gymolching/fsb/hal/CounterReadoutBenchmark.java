@@ -0,0 +1,55 @@
+package de.gymolching.fsb.hal;
+
+import com.pi4j.gpio.extension.mcp.MCP23017GpioProvider;
+import com.pi4j.gpio.extension.pca.PCA9685GpioProvider;
+import com.pi4j.gpio.extension.pca.PCA9685Pin;
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioPinPwmOutput;
+import com.pi4j.io.gpio.impl.GpioControllerImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading an arm's counter through the Pi4J pin layer, with the I2C bus stubbed out.
+ * This is the CPU cost of a readout; on the Pi the cached pin states are refreshed by Pi4J's own I2C polling.
+ * @author sschaeffner
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CounterReadoutBenchmark {
+
+    private MCP23017GpioProvider expGpioProvider;
+    private ArmImpl arm;
+
+    @Setup
+    public void setUp() throws IOException {
+        StubI2CBus bus = new StubI2CBus();
+        PCA9685GpioProvider pwmGpioProvider = new PCA9685GpioProvider(bus, 0x40, new BigDecimal(40));
+        GpioController gpio = new GpioControllerImpl(pwmGpioProvider);
+        GpioPinPwmOutput pwmPin = gpio.provisionPwmOutputPin(pwmGpioProvider, PCA9685Pin.ALL[0]);
+        expGpioProvider = new MCP23017GpioProvider(bus, 0x20);
+        arm = new ArmImpl(0, gpio, expGpioProvider, pwmPin);
+    }
+
+    @TearDown
+    public void tearDown() {
+        expGpioProvider.shutdown();
+    }
+
+    @Benchmark
+    public int readCurrentCounterValue() {
+        return arm.readCurrentCounterValue();
+    }
+
+    @Benchmark
+    public int getPosition() {
+        return arm.getPosition();
+    }
+}
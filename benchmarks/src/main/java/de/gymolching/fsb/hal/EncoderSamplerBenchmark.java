@@ -0,0 +1,119 @@
+package de.gymolching.fsb.hal;
+
+import com.pi4j.gpio.extension.mcp.MCP23017GpioProvider;
+import com.pi4j.gpio.extension.pca.PCA9685GpioProvider;
+import com.pi4j.gpio.extension.pca.PCA9685Pin;
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.impl.GpioControllerImpl;
+import de.gymolching.fsb.clock.Clock;
+import de.gymolching.fsb.halApi.ArmInterface;
+import de.gymolching.fsb.kinematics.PlatformGeometry;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what encoder sampling costs: one sampling tick over all six arms, read through the Pi4J pin layer with the I2C bus stubbed out,
+ * and the queries on a full history. The cpu share of the sampler is the tick time times encoder.sampleRate.
+ * The group benchmark records and queries a history at the same time, so the cost of readers retrying and of the writer next to them shows.
+ * @author sschaeffner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncoderSamplerBenchmark {
+
+    //samples per arm and sampling rate of the filled history
+    private static final int HISTORY = 1024;
+    private static final long PERIOD_NANOS = 1000000;
+
+    private MCP23017GpioProvider[] expGpioProviders;
+    private EncoderSampler sampler;
+    private EncoderHistory history;
+    private long[] times;
+    private int[] counts;
+    private long nanos;
+    private int count;
+
+    @Setup
+    public void setUp() throws IOException {
+        StubI2CBus bus = new StubI2CBus();
+        PCA9685GpioProvider pwmGpioProvider = new PCA9685GpioProvider(bus, 0x40, new BigDecimal(40));
+        GpioController gpio = new GpioControllerImpl(pwmGpioProvider);
+        ArmInterface[] arms = new ArmInterface[PlatformGeometry.DEFAULT_ARM_AMOUNT];
+        expGpioProviders = new MCP23017GpioProvider[arms.length];
+        for (int i = 0; i < arms.length; i++) {
+            expGpioProviders[i] = new MCP23017GpioProvider(bus, 0x20 + i);
+            arms[i] = new ArmImpl(i, gpio, expGpioProviders[i], gpio.provisionPwmOutputPin(pwmGpioProvider, PCA9685Pin.ALL[i]));
+        }
+
+        //never started, the benchmark calls sample() itself
+        sampler = new EncoderSampler("benchmark", arms, 1000, HISTORY, EncoderHistory.DEFAULT_WINDOW_NANOS, Clock.system());
+
+        //an arm driving at about 100 steps/s, sampled at 1 kHz
+        history = new EncoderHistory(HISTORY, EncoderHistory.DEFAULT_WINDOW_NANOS);
+        for (int i = 0; i < HISTORY; i++) {
+            record();
+        }
+        times = new long[HISTORY];
+        counts = new int[HISTORY];
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (MCP23017GpioProvider expGpioProvider : expGpioProviders) {
+            expGpioProvider.shutdown();
+        }
+    }
+
+    private void record() {
+        nanos += PERIOD_NANOS;
+        count = (int) (nanos / 10000000);
+        history.record(nanos, count);
+    }
+
+    /**
+     * One sampling tick: every arm's counter read and recorded with its time.
+     */
+    @Benchmark
+    public void sampleTick() {
+        sampler.sample();
+    }
+
+    @Benchmark
+    public double velocity() {
+        return history.getVelocity();
+    }
+
+    @Benchmark
+    public double acceleration() {
+        return history.getAcceleration();
+    }
+
+    /**
+     * Copies the last 100 ms of samples.
+     */
+    @Benchmark
+    public int copyWindow() {
+        return history.copySince(history.getLatestNanos() - EncoderHistory.DEFAULT_WINDOW_NANOS, times, counts);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void contendedRecord() {
+        record();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public double contendedVelocity() {
+        return history.getVelocity();
+    }
+}
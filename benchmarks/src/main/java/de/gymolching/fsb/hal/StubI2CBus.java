@@ -0,0 +1,83 @@
+package de.gymolching.fsb.hal;
+
+import com.pi4j.io.i2c.I2CBus;
+import com.pi4j.io.i2c.I2CDevice;
+
+/**
+ * I2C bus without hardware behind it, so ArmImpl can be benchmarked on any machine.
+ * Writes are discarded, register reads return a fixed bit pattern.
+ * @author sschaeffner
+ */
+class StubI2CBus implements I2CBus {
+
+    //value returned by every register read
+    private static final int REGISTER_VALUE = 0x5A;
+
+    @Override
+    public I2CDevice getDevice(int address) {
+        return new StubI2CDevice();
+    }
+
+    @Override
+    public String getFileName() {
+        return "stub";
+    }
+
+    @Override
+    public int getFileDescriptor() {
+        return -1;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static class StubI2CDevice implements I2CDevice {
+
+        @Override
+        public void write(byte data) {
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int size) {
+        }
+
+        @Override
+        public void write(int address, byte data) {
+        }
+
+        @Override
+        public void write(int address, byte[] buffer, int offset, int size) {
+        }
+
+        @Override
+        public int read() {
+            return REGISTER_VALUE;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int size) {
+            return fill(buffer, offset, size);
+        }
+
+        @Override
+        public int read(int address) {
+            return REGISTER_VALUE;
+        }
+
+        @Override
+        public int read(int address, byte[] buffer, int offset, int size) {
+            return fill(buffer, offset, size);
+        }
+
+        @Override
+        public int read(byte[] writeBuffer, int writeOffset, int writeSize, byte[] readBuffer, int readOffset, int readSize) {
+            return fill(readBuffer, readOffset, readSize);
+        }
+
+        private static int fill(byte[] buffer, int offset, int size) {
+            for (int i = offset; i < offset + size; i++) buffer[i] = (byte) REGISTER_VALUE;
+            return size;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package de.gymolching.fsb.kinematics;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures solving a pose into arm lengths with StewartKinematics.
+ * The platform is loaded from the geometry file given with -p geometry=..., or a symmetric example platform is used.
+ * @author sschaeffner
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KinematicsBenchmark {
+
+    //how many different poses are cycled through
+    private static final int POSE_AMOUNT = 1024;
+
+    /**
+     * Geometry file of the platform, empty for the symmetric example platform.
+     */
+    @Param({""})
+    public String geometry;
+
+    private StewartKinematics kinematics;
+    private double[] poses;
+    private double[] lengths;
+    private int pose;
+
+    @Setup
+    public void setUp() throws IOException {
+        PlatformGeometry platform = geometry.isEmpty()
+                ? PlatformGeometry.symmetric(300, 20, 200, 20, 400, 600, 460)
+                : PlatformGeometry.load(geometry);
+        kinematics = new StewartKinematics(platform);
+        lengths = new double[kinematics.getArmAmount()];
+
+        //poses sweeping through all six degrees of freedom, precomputed so only the solver is measured
+        poses = new double[POSE_AMOUNT * 6];
+        for (int i = 0; i < POSE_AMOUNT; i++) {
+            double t = 2 * Math.PI * i / POSE_AMOUNT;
+            poses[i * 6] = 20 * Math.sin(t);
+            poses[i * 6 + 1] = 20 * Math.cos(t);
+            poses[i * 6 + 2] = 30 * Math.sin(3 * t);
+            poses[i * 6 + 3] = 0.1 * Math.sin(5 * t);
+            poses[i * 6 + 4] = 0.1 * Math.cos(7 * t);
+            poses[i * 6 + 5] = 0.15 * Math.sin(2 * t);
+        }
+    }
+
+    /**
+     * One pose to arm lengths, cycling through the precomputed poses.
+     */
+    @Benchmark
+    public boolean solve() {
+        int p = (pose++ % POSE_AMOUNT) * 6;
+        return kinematics.solve(poses[p], poses[p + 1], poses[p + 2], poses[p + 3], poses[p + 4], poses[p + 5], lengths);
+    }
+}
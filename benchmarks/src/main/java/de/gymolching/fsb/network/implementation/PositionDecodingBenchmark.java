@@ -0,0 +1,83 @@
+package de.gymolching.fsb.network.implementation;
+
+import de.gymolching.fsb.api.FSBPosition;
+import de.gymolching.fsb.kinematics.PlatformGeometry;
+import de.gymolching.fsb.kinematics.StewartKinematics;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding a received message into arm lengths.
+ * @author sschaeffner
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PositionDecodingBenchmark {
+
+    /**
+     * FSBPosition string to parse, in the wire format of the FSB API in use.
+     */
+    @Param({"50;50;50;50;50;50"})
+    public String position;
+
+    private MessageDecoder decoder;
+    private byte[] positionBytes;
+    private byte[] poseBytes;
+    private double[] lengths;
+
+    @Setup
+    public void setUp() {
+        checkPosition(position);
+        decoder = new MessageDecoder(new StewartKinematics(PlatformGeometry.symmetric(300, 20, 200, 20, 400, 600, 460)));
+        positionBytes = position.getBytes(StandardCharsets.UTF_8);
+        poseBytes = "POSE:10.5;-3.25;12;1.5;-2;4.75".getBytes(StandardCharsets.UTF_8);
+        lengths = new double[6];
+    }
+
+    /**
+     * new FSBPosition(String) on its own.
+     */
+    @Benchmark
+    public FSBPosition parseFSBPosition() {
+        return new FSBPosition(position);
+    }
+
+    /**
+     * Received bytes of an FSBPosition string to normalized lengths.
+     */
+    @Benchmark
+    public double[] decodePosition() {
+        decoder.decode(positionBytes, positionBytes.length, lengths);
+        return lengths;
+    }
+
+    /**
+     * Received bytes of a pose message to normalized lengths, including the inverse kinematics.
+     */
+    @Benchmark
+    public double[] decodePose() {
+        decoder.decode(poseBytes, poseBytes.length, lengths);
+        return lengths;
+    }
+
+    /**
+     * Makes sure a string is understood by FSBPosition, so benchmarks do not silently measure the error path.
+     * @param position  FSBPosition string
+     * @return the string
+     * @throws IllegalArgumentException if FSBPosition cannot parse the string
+     */
+    static String checkPosition(String position) {
+        try {
+            new FSBPosition(position);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("FSBPosition cannot parse \"" + position + "\". Pass a valid one with -p position=...", e);
+        }
+        return position;
+    }
+}
@@ -0,0 +1,63 @@
+package de.gymolching.fsb.network.implementation;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency from the server thread publishing a position until the regulation thread
+ * returns from getMostRecentPositionUpdate() with it.
+ * @author sschaeffner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PositionHandOffBenchmark {
+
+    private FSBServer server;
+    private Thread consumer;
+    private double[] position;
+
+    //how many positions the consumer has taken
+    private volatile long consumed;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        server = new FSBServer(0);
+        position = new double[]{0.1, 0.2, 0.3, 0.4, 0.5, 0.6};
+
+        consumer = new Thread(() -> {
+            double[] lengths = new double[6];
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    server.getMostRecentPositionUpdate(lengths);
+                    consumed++;
+                }
+            } catch (InterruptedException e) {
+                //benchmark finished
+            }
+        }, "consumer");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        consumer.interrupt();
+        server.stop();
+    }
+
+    @Benchmark
+    public long handOff() {
+        long target = consumed + 1;
+        server.publish(position, System.nanoTime());
+        while (consumed < target) {
+            //spin until the consumer has the position
+        }
+        return target;
+    }
+}
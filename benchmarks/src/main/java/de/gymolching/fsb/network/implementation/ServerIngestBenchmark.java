@@ -0,0 +1,83 @@
+package de.gymolching.fsb.network.implementation;
+
+import de.gymolching.fsb.kinematics.PlatformGeometry;
+import de.gymolching.fsb.kinematics.StewartKinematics;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many messages per second FSBServer ingests from one client over loopback.
+ * Every message is flushed on its own like a client sending one position at a time,
+ * and a consumer thread keeps taking positions like the regulation does.
+ * @author sschaeffner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerIngestBenchmark {
+
+    /**
+     * pose: a POSE message solved by the inverse kinematics;
+     * position: an FSBPosition string as given by the position parameter.
+     */
+    @Param({"pose", "position"})
+    public String message;
+
+    /**
+     * FSBPosition string sent for message=position, in the wire format of the FSB API in use.
+     */
+    @Param({"50;50;50;50;50;50"})
+    public String position;
+
+    private FSBServer server;
+    private Socket socket;
+    private DataOutputStream out;
+    private Thread consumer;
+    private String payload;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        payload = message.equals("pose") ? "POSE:10.5;-3.25;12;1.5;-2;4.75" : PositionDecodingBenchmark.checkPosition(position);
+
+        StewartKinematics kinematics = new StewartKinematics(PlatformGeometry.symmetric(300, 20, 200, 20, 400, 600, 460));
+        server = new FSBServer(0, false, kinematics);
+        socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        socket.setTcpNoDelay(true);
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        consumer = new Thread(() -> {
+            double[] lengths = new double[6];
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    server.getMostRecentPositionUpdate(lengths);
+                }
+            } catch (InterruptedException e) {
+                //benchmark finished
+            }
+        }, "consumer");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        socket.close();
+        consumer.interrupt();
+        server.stop();
+    }
+
+    @Benchmark
+    public void send() throws IOException {
+        out.writeUTF(payload);
+        out.flush();
+    }
+}
@@ -0,0 +1,47 @@
+package de.gymolching.fsb.regulation;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the regulation's per-position and per-tick work: converting normalized lengths into goal steps
+ * and advancing an arm's motion profile by one control tick.
+ * @author sschaeffner
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegulationStepBenchmark {
+
+    private double[] position;
+    private int[] steps;
+    private MotionProfile profile;
+    private int tick;
+
+    @Setup
+    public void setUp() {
+        position = new double[]{0.1, 0.25, 0.5, 0.75, 0.9, 1.0};
+        steps = new int[6];
+        profile = new MotionProfile(new MotionLimits(10, 20, 100, 12, 15, 1));
+    }
+
+    @Benchmark
+    public int[] lengthConversion() {
+        SimpleRegulationImpl.toSteps(position, steps);
+        return steps;
+    }
+
+    /**
+     * One control tick of a profile that is retargeted every second, so it never settles.
+     */
+    @Benchmark
+    public double profileTick() {
+        if (++tick % 50 == 0) profile.setTarget((tick / 50) % 2 == 0 ? 0 : 37);
+        profile.update(0.02);
+        return profile.getPosition();
+    }
+}
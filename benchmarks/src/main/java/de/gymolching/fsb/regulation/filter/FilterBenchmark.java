@@ -0,0 +1,90 @@
+package de.gymolching.fsb.regulation.filter;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures filtering one position through every filter stage and through the full chain.
+ * The input follows a sawtooth, so the stages never settle.
+ * @author sschaeffner
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+
+    //how many arm lengths a position consists of
+    private static final int WIDTH = 6;
+
+    //time between two positions in seconds
+    private static final double DT = 0.01;
+
+    private FilterStage washout;
+    private FilterStage lowPass;
+    private FilterStage rateLimit;
+    private FilterStage clamp;
+    private FilterStage[] chain;
+    private double[] lengths;
+    private int sample;
+
+    @Setup
+    public void setUp() {
+        washout = new WashoutFilter(WIDTH, 3.0, 0.5);
+        lowPass = new LowPassFilter(WIDTH, 5.0);
+        rateLimit = new RateLimitFilter(WIDTH, 0.5);
+        clamp = new ClampFilter(WIDTH, 0.05, 0.95);
+        chain = new FilterStage[]{new WashoutFilter(WIDTH, 3.0, 0.5), new LowPassFilter(WIDTH, 5.0),
+                new RateLimitFilter(WIDTH, 0.5), new ClampFilter(WIDTH, 0.05, 0.95)};
+
+        lengths = new double[WIDTH];
+        for (FilterStage stage : new FilterStage[]{washout, lowPass, rateLimit, clamp}) stage.reset(lengths);
+        for (FilterStage stage : chain) stage.reset(lengths);
+    }
+
+    @Benchmark
+    public double[] washout() {
+        next();
+        washout.process(lengths, DT);
+        return lengths;
+    }
+
+    @Benchmark
+    public double[] lowPass() {
+        next();
+        lowPass.process(lengths, DT);
+        return lengths;
+    }
+
+    @Benchmark
+    public double[] rateLimit() {
+        next();
+        rateLimit.process(lengths, DT);
+        return lengths;
+    }
+
+    @Benchmark
+    public double[] clamp() {
+        next();
+        clamp.process(lengths, DT);
+        return lengths;
+    }
+
+    @Benchmark
+    public double[] fullChain() {
+        next();
+        for (FilterStage stage : chain) stage.process(lengths, DT);
+        return lengths;
+    }
+
+    /**
+     * Sets the next position of the sawtooth.
+     */
+    private void next() {
+        double value = 0.5 + 0.4 * ((sample++ & 1023) / 1024.0 - 0.5);
+        for (int j = 0; j < WIDTH; j++) lengths[j] = value;
+    }
+}
@@ -0,0 +1,178 @@
+package de.gymolching.fsb;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Startup configuration read from a properties file.
+ * Every value has a default, so a missing file or key keeps the built-in behaviour.
+ * @author sschaeffner
+ */
+public class Config {
+
+    //default location of the configuration file
+    public static final String DEFAULT_FILE = "fsb.properties";
+
+    //singleton instance of Config
+    private static Config instance = null;
+
+    //loaded key/value pairs
+    private final Properties properties;
+
+    private Config(Properties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Loads the configuration from a file and makes it the instance returned by getInstance().
+     * A file that does not exist results in an empty configuration.
+     * @param fileName  path of the properties file
+     * @return the loaded configuration
+     */
+    public static Config load(String fileName) {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(fileName)) {
+            properties.load(in);
+            System.out.println("[CFG] loaded " + fileName);
+        } catch (IOException e) {
+            System.out.println("[CFG] " + fileName + " not readable, using defaults");
+        }
+
+        synchronized (Config.class) {
+            instance = new Config(properties);
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the configuration loaded last or an empty configuration if none was loaded.
+     * @return instance of Config
+     */
+    public static Config getInstance() {
+        synchronized (Config.class) {
+            if (instance == null) instance = new Config(new Properties());
+        }
+        return instance;
+    }
+
+    /**
+     * Returns a view of this configuration in which keys starting with a prefix override the same keys without it.
+     * Used for the settings of one of several platforms, e.g. platform.left.server.port overriding server.port.
+     * @param prefix    prefix of the overriding keys, e.g. "platform.left."
+     * @return the view
+     */
+    public Config withPrefix(String prefix) {
+        Properties view = new Properties(properties);
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(prefix)) view.setProperty(key.substring(prefix.length()), properties.getProperty(key));
+        }
+        return new Config(view);
+    }
+
+    /**
+     * Returns a view of this configuration in which a key is set to a value, whatever it is set to here.
+     * @param key   key of the value
+     * @param value the value
+     * @return the view
+     */
+    public Config with(String key, String value) {
+        Properties view = new Properties(properties);
+        view.setProperty(key, value);
+        return new Config(view);
+    }
+
+    /**
+     * Returns a view of this configuration in which a key is not set, so its default applies.
+     * @param key   key of the value
+     * @return the view
+     */
+    public Config without(String key) {
+        Properties view = new Properties();
+        for (String name : properties.stringPropertyNames()) {
+            if (!name.equals(key)) view.setProperty(name, properties.getProperty(name));
+        }
+        return new Config(view);
+    }
+
+    /**
+     * Returns a string value.
+     * @param key           key of the value
+     * @param defaultValue  value returned when the key is not set
+     * @return the value
+     */
+    public String getString(String key, String defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : value.trim();
+    }
+
+    /**
+     * Returns an int value.
+     * @param key           key of the value
+     * @param defaultValue  value returned when the key is not set
+     * @return the value
+     * @throws IllegalArgumentException when the value is not an int
+     */
+    public int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("config value of " + key + " must be an int but was " + value);
+        }
+    }
+
+    /**
+     * Returns a double value.
+     * @param key           key of the value
+     * @param defaultValue  value returned when the key is not set
+     * @return the value
+     * @throws IllegalArgumentException when the value is not a number
+     */
+    public double getDouble(String key, double defaultValue) {
+        String value = getString(key, null);
+        if (value == null) return defaultValue;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("config value of " + key + " must be a number but was " + value);
+        }
+    }
+
+    /**
+     * Returns a boolean value.
+     * @param key           key of the value
+     * @param defaultValue  value returned when the key is not set
+     * @return the value
+     */
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    /**
+     * Returns a per-arm double value.
+     * Looks up "arm.[armId].[name]" first, then "arm.[name]".
+     * @param armId         id of the arm
+     * @param name          name of the value
+     * @param defaultValue  value returned when neither key is set
+     * @return the value
+     */
+    public double getArmDouble(int armId, String name, double defaultValue) {
+        return getDouble("arm." + armId + "." + name, getDouble("arm." + name, defaultValue));
+    }
+
+    /**
+     * Returns a per-arm int value.
+     * Looks up "arm.[armId].[name]" first, then "arm.[name]".
+     * @param armId         id of the arm
+     * @param name          name of the value
+     * @param defaultValue  value returned when neither key is set
+     * @return the value
+     */
+    public int getArmInt(int armId, String name, int defaultValue) {
+        return getInt("arm." + armId + "." + name, getInt("arm." + name, defaultValue));
+    }
+}
@@ -1,13 +1,27 @@
 package de.gymolching.fsb;
 
 import com.pi4j.io.gpio.GpioFactory;
-import de.gymolching.fsb.hal.ArmFactory;
-import de.gymolching.fsb.halApi.ArmInterface;
-import de.gymolching.fsb.network.api.FSBServerInterface;
-import de.gymolching.fsb.network.implementation.FSBServer;
+import de.gymolching.fsb.hal.EncoderHistory;
+import de.gymolching.fsb.hal.EncoderSampler;
+import de.gymolching.fsb.jfr.FlightRecording;
+import de.gymolching.fsb.logging.AsyncLogger;
+import de.gymolching.fsb.logging.Level;
+import de.gymolching.fsb.metrics.MetricsRegistry;
+import de.gymolching.fsb.regulation.ArrivalStatistics;
+import de.gymolching.fsb.regulation.BrakingModel;
+import de.gymolching.fsb.regulation.MotorIdentification;
+import de.gymolching.fsb.regulation.RegulationInterface;
+import de.gymolching.fsb.regulation.SimpleRegulationImpl;
+import de.gymolching.fsb.regulation.prediction.PredictingPositionProvider;
+import de.gymolching.fsb.simulation.ShadowController;
+import de.gymolching.fsb.simulation.TrackingStatistics;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This checks for pi4j and launches the program.
@@ -20,24 +34,33 @@ public class Launcher {
     //program version
     private static final String VERSION = "0.1";
 
+    //how long exit() waits for remaining log events to be written
+    private static final long LOG_CLOSE_TIMEOUT_MILLIS = 1000;
+
     //whether the program should currently be running
-    private static boolean running;
+    private static volatile boolean running;
 
     //whether the program is currently exiting
     private static boolean exiting;
 
+    //thread starting the program, null if started by a tool
+    private static Thread program;
+
     public static void main(String[] args) {
         if (checkForPi4J()) {
+            Config.load(args.length > 0 ? args[0] : Config.DEFAULT_FILE);
+            AsyncLogger.getInstance().configure(Config.getInstance());
+
             running = true;
             exiting = false;
 
             //create thread for program
-            Thread t = new Thread(() -> {
+            program = new Thread(() -> {
 
-                MainLoopHandler.getInstance().mainLoop();
+                MainLoopHandler.getInstance().start();
 
             }, "program");
-            t.start();
+            program.start();
 
             //start MiniConsole (blocking until user inputs "exit")
             new MiniConsole().start();
@@ -55,24 +78,29 @@ public class Launcher {
 
             //stop program
             System.out.println("waiting for shutdown...");
+            long shutdownNanos = System.nanoTime();
             stop();
+            //platforms still starting return early, waiting at most for an arm being provisioned
+            boolean ended = MainLoopHandler.getInstance().shutdown();
+            try {
+                if (program != null) program.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
             try {
                 GpioFactory.getInstance().shutdown();
             } catch (UnsupportedOperationException | NullPointerException e) {
                 //do nothing
             }
 
-            //wait for other threads to stop
-            for (int i = 1; i < 20; i++) {
-                System.out.print(".");
-                if (i % 10 == 0) System.out.println();
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+            try {
+                AsyncLogger.getInstance().close(LOG_CLOSE_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
             }
-            System.out.println("shutdown completed");
+
+            System.out.println("shutdown completed in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - shutdownNanos) + " ms"
+                    + (ended ? "" : ", some threads did not stop"));
             System.exit(0);
         }
     }
@@ -115,6 +143,7 @@ public class Launcher {
         private static final String WELCOME_MESSAGE = "Welcome to " + NAME + " v" + VERSION + "!" + System.lineSeparator() + "Enter help for a list of commands.";
         private static final String EXIT_COMMAND = "exit";
         private static final String CONSOLE_PROMPT = "$ ";
+        private static final long DEFAULT_RECORDING_SECONDS = 60;
 
         public MiniConsole() {
             scanner = new Scanner(System.in);
@@ -130,15 +159,64 @@ public class Launcher {
             System.out.print(CONSOLE_PROMPT);
             String input;
             while (!(input = scanner.nextLine()).equalsIgnoreCase(EXIT_COMMAND)) {
+                //arguments like file names keep their case
+                String line = input.trim();
                 input = input.toLowerCase();
 
                 switch (input) {
                     case "help":
                         System.out.println(NAME + " v" + VERSION);
-                        System.out.println("exit    exits the program");
-                        System.out.println("help    prints this help");
+                        System.out.println("braking [reset]     prints (or clears) the learned coasting time and overshoot per arm");
+                        System.out.println("encoders            prints the sampled position, velocity and acceleration per arm");
+                        System.out.println("exit                exits the program");
+                        System.out.println("help                prints this help");
+                        System.out.println("log [level]         prints (or sets) the log level");
+                        System.out.println("motors              prints the identified dead time, time constant, gain and dead band per arm");
+                        System.out.println("prediction [reset]  prints (or clears) the prediction error per arm");
+                        System.out.println("record [s] [file]   records a JFR session for s seconds (default 60), written to file");
+                        System.out.println("record stop         ends the recording early and writes it");
+                        System.out.println("shadow [reset]      compares (or clears) tracking error and latency of the live and the shadow regulation");
+                        System.out.println("stats               prints the runtime metrics");
+                        System.out.println("sync [reset]        prints (or clears) the arrival-time spread of the arms");
+                        break;
+                    case "log":
+                        System.out.println("log level " + AsyncLogger.getInstance().getLevel().name().toLowerCase()
+                                + ", " + AsyncLogger.getInstance().getDropped() + " events dropped");
+                        break;
+                    case "stats":
+                        printStats();
+                        break;
+                    case "sync":
+                    case "sync reset":
+                        printSync(input.endsWith("reset"));
+                        break;
+                    case "prediction":
+                    case "prediction reset":
+                        printPrediction(input.endsWith("reset"));
+                        break;
+                    case "braking":
+                    case "braking reset":
+                        printBraking(input.endsWith("reset"));
+                        break;
+                    case "encoders":
+                        printEncoders();
+                        break;
+                    case "motors":
+                        printMotors();
+                        break;
+                    case "shadow":
+                    case "shadow reset":
+                        printShadow(input.endsWith("reset"));
                         break;
                     default:
+                        if (input.equals("record") || input.startsWith("record ")) {
+                            record(line.substring("record".length()).trim());
+                            break;
+                        }
+                        if (input.startsWith("log ")) {
+                            setLogLevel(input.substring(4).trim());
+                            break;
+                        }
                         System.err.println("Unknown command. Enter help for a list of commands.");
                         break;
                 }
@@ -146,5 +224,230 @@ public class Launcher {
                 System.out.print(CONSOLE_PROMPT);
             }
         }
+
+        /**
+         * Sets the log level.
+         * @param name  name of the level
+         */
+        private void setLogLevel(String name) {
+            try {
+                AsyncLogger.getInstance().setLevel(Level.forName(name));
+                System.out.println("log level " + name);
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+
+        /**
+         * Starts or stops a flight recording.
+         * @param arguments "stop", or the duration in seconds optionally followed by the destination file
+         */
+        private void record(String arguments) {
+            FlightRecording recording = FlightRecording.getInstance();
+            if (arguments.equalsIgnoreCase("stop")) {
+                if (!recording.isRecording()) {
+                    System.out.println("no recording running");
+                    return;
+                }
+                System.out.println("recording written to " + recording.stop().toAbsolutePath());
+                return;
+            }
+            if (recording.isRecording()) {
+                System.out.println("already recording to " + recording.getDestination().toAbsolutePath() + ", enter record stop to end it");
+                return;
+            }
+
+            String[] parts = arguments.isEmpty() ? new String[0] : arguments.split("\\s+", 2);
+            try {
+                long seconds = parts.length > 0 ? Long.parseLong(parts[0]) : DEFAULT_RECORDING_SECONDS;
+                Path destination = Paths.get(parts.length > 1 ? parts[1] : FlightRecording.defaultFileName());
+                recording.start(Duration.ofSeconds(seconds), destination);
+                System.out.println("recording for " + seconds + " s to " + destination.toAbsolutePath());
+            } catch (NumberFormatException e) {
+                System.err.println("usage: record [seconds] [file] or record stop");
+            } catch (IOException | IllegalStateException e) {
+                System.err.println("cannot record: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Prints which platform the following lines are about, if there are several.
+         * @param platform  the platform
+         */
+        private void printPlatform(Platform platform) {
+            if (MainLoopHandler.getInstance().getPlatforms().size() > 1) {
+                System.out.println("platform " + platform.getId() + " (port " + platform.getServerPort() + "):");
+            }
+        }
+
+        /**
+         * Prints the runtime metrics.
+         */
+        private void printStats() {
+            StringBuilder stats = new StringBuilder();
+            MetricsRegistry.getInstance().writeSummary(stats);
+            System.out.print(stats);
+        }
+
+        /**
+         * Prints the arrival-time spread of the arms and their measured velocities.
+         * @param reset whether the statistics should be cleared afterwards
+         */
+        private void printSync(boolean reset) {
+            for (Platform platform : MainLoopHandler.getInstance().getPlatforms()) {
+                printPlatform(platform);
+                printSync(platform, reset);
+            }
+        }
+
+        /**
+         * Prints the arrival-time spread of a platform's arms and their measured velocities.
+         * @param platform  the platform
+         * @param reset     whether the statistics should be cleared afterwards
+         */
+        private void printSync(Platform platform, boolean reset) {
+            RegulationInterface regulation = platform.getRegulation();
+            if (!(regulation instanceof SimpleRegulationImpl)) {
+                System.out.println("regulation does not record arrival times");
+                return;
+            }
+
+            SimpleRegulationImpl simpleRegulation = (SimpleRegulationImpl) regulation;
+            ArrivalStatistics statistics = simpleRegulation.getArrivalStatistics();
+            System.out.println("coordinated mode " + (simpleRegulation.isCoordinated() ? "on" : "off"));
+            System.out.printf("%d positions completed, %d abandoned%n", statistics.getCompleted(), statistics.getAbandoned());
+            System.out.printf("arrival spread: last %.1f ms, mean %.1f ms, max %.1f ms%n",
+                    statistics.getLastSpreadMillis(), statistics.getMeanSpreadMillis(), statistics.getMaxSpreadMillis());
+            for (int i = 0; i < platform.getArmAmount(); i++) {
+                System.out.printf("arm %d: %.1f steps/s at 100%%%n", i, simpleRegulation.getMeasuredFullSpeed(i));
+            }
+            if (reset) statistics.reset();
+        }
+
+        /**
+         * Prints the sampled position, velocity and acceleration per arm and what sampling costs.
+         */
+        private void printEncoders() {
+            for (Platform platform : MainLoopHandler.getInstance().getPlatforms()) {
+                printPlatform(platform);
+                EncoderSampler sampler = platform.getEncoderSampler();
+                if (sampler == null) {
+                    System.out.println("encoder sampling off, set encoder.sampleRate to turn it on");
+                    continue;
+                }
+
+                System.out.printf("sampling at %.0f Hz, %.3f s cpu used, %d ticks missed%n",
+                        sampler.getSampleRate(), sampler.getCpuSeconds(), sampler.getMissedSamples());
+                for (int i = 0; i < platform.getArmAmount(); i++) {
+                    EncoderHistory history = sampler.getHistory(i);
+                    System.out.printf("arm %d: position %d, velocity %.1f steps/s, acceleration %.1f steps/s^2 (%d samples)%n",
+                            i, history.getLatestCount(), history.getVelocity(), history.getAcceleration(), history.getRecorded());
+                }
+            }
+        }
+
+        /**
+         * Prints tracking error and latency of the live and the shadow regulation side by side.
+         * @param reset whether the statistics should be cleared afterwards
+         */
+        private void printShadow(boolean reset) {
+            for (Platform platform : MainLoopHandler.getInstance().getPlatforms()) {
+                printPlatform(platform);
+                ShadowController shadow = platform.getShadowController();
+                if (shadow == null) {
+                    System.out.println("no shadow controller running");
+                    continue;
+                }
+
+                System.out.println("candidate " + shadow.getCandidate().getClass().getName() + ", " + shadow.getSkippedPositions() + " positions missed");
+                printTracking("live", shadow.getLiveStatistics());
+                printTracking("shadow", shadow.getShadowStatistics());
+                if (reset) shadow.resetStatistics();
+            }
+        }
+
+        private void printTracking(String name, TrackingStatistics statistics) {
+            System.out.printf("%-6s rms %.2f, max %d steps, latency %.0f ms over %d samples%n",
+                    name, statistics.getRmsError(), statistics.getMaxError(), statistics.getLatencyMillis(), statistics.getSamples());
+        }
+
+        /**
+         * Prints the identified motor parameters per arm.
+         */
+        private void printMotors() {
+            for (Platform platform : MainLoopHandler.getInstance().getPlatforms()) {
+                printPlatform(platform);
+                RegulationInterface regulation = platform.getRegulation();
+                if (!(regulation instanceof SimpleRegulationImpl)) {
+                    System.out.println("regulation does not identify motors");
+                    continue;
+                }
+
+                SimpleRegulationImpl simpleRegulation = (SimpleRegulationImpl) regulation;
+                for (int i = 0; i < platform.getArmAmount(); i++) {
+                    MotorIdentification identification = simpleRegulation.getIdentification(i);
+                    if (identification == null) {
+                        System.out.printf("arm %d: not identified, %.1f steps/s at 100%%%n", i, simpleRegulation.getMeasuredFullSpeed(i));
+                        continue;
+                    }
+                    System.out.printf("arm %d: dead time %.0f ms, time constant %.0f ms, gain %.3f steps/s per %%, dead band %.1f%%, %.1f steps/s at 100%%, coasting %.0f ms%n",
+                            i, identification.getDeadTimeSeconds() * 1000, identification.getTimeConstantSeconds() * 1000, identification.getGain(),
+                            identification.getDeadBand(), identification.getFullSpeedVelocity(), identification.getCoastSeconds() * 1000);
+                }
+            }
+        }
+
+        /**
+         * Prints the learned coasting time and the overshoot per arm.
+         * @param reset whether the overshoot statistics should be cleared afterwards
+         */
+        private void printBraking(boolean reset) {
+            for (Platform platform : MainLoopHandler.getInstance().getPlatforms()) {
+                printPlatform(platform);
+                RegulationInterface regulation = platform.getRegulation();
+                if (!(regulation instanceof SimpleRegulationImpl)) {
+                    System.out.println("regulation does not learn braking distances");
+                    continue;
+                }
+
+                SimpleRegulationImpl simpleRegulation = (SimpleRegulationImpl) regulation;
+                for (int i = 0; i < platform.getArmAmount(); i++) {
+                    BrakingModel braking = simpleRegulation.getBrakingModel(i);
+                    System.out.printf("arm %d: coasting time %.0f ms (%d stops learned), overshoot last %+d, mean %+.2f, mean |%.2f|, max %+d steps over %d stops%n",
+                            i, braking.getCoastSeconds() * 1000, braking.getStops(), braking.getLastOvershoot(), braking.getMeanOvershoot(),
+                            braking.getMeanAbsoluteOvershoot(), braking.getMaxOvershoot(), braking.getGoalStops());
+                    if (reset) braking.resetStatistics();
+                }
+            }
+        }
+
+        /**
+         * Prints the prediction error per arm.
+         * @param reset whether the statistics should be cleared afterwards
+         */
+        private void printPrediction(boolean reset) {
+            for (Platform platform : MainLoopHandler.getInstance().getPlatforms()) {
+                printPlatform(platform);
+                printPrediction(platform.getPredictingPositionProvider(), reset);
+            }
+        }
+
+        /**
+         * Prints the prediction error per arm of a platform.
+         * @param predictor the platform's predictor stage or null
+         * @param reset     whether the statistics should be cleared afterwards
+         */
+        private void printPrediction(PredictingPositionProvider predictor, boolean reset) {
+            if (predictor == null) {
+                System.out.println("no predictor configured");
+                return;
+            }
+
+            System.out.println("horizon " + predictor.getHorizonMillis() + " ms, " + predictor.getErrorSamples() + " predictions evaluated");
+            for (int i = 0; i < predictor.getWidth(); i++) {
+                System.out.printf("arm %d: rms %.4f, max %.4f%n", i, predictor.getRmsError(i), predictor.getMaxError(i));
+            }
+            if (reset) predictor.resetStatistics();
+        }
     }
 }
@@ -1,75 +1,191 @@
 package de.gymolching.fsb;
 
-import com.pi4j.io.gpio.GpioFactory;
-import de.gymolching.fsb.api.FSBPosition;
-import de.gymolching.fsb.hal.ArmFactory;
-import de.gymolching.fsb.halApi.ArmInterface;
-import de.gymolching.fsb.network.api.FSBServerInterface;
-import de.gymolching.fsb.network.implementation.FSBServer;
-import de.gymolching.fsb.regulation.PositionProvider;
-import de.gymolching.fsb.regulation.RegulationInterface;
+import de.gymolching.fsb.logging.Level;
+import de.gymolching.fsb.logging.LogEvent;
+import de.gymolching.fsb.metrics.MetricsHttpServer;
+import de.gymolching.fsb.metrics.MetricsRegistry;
 import de.gymolching.fsb.regulation.SimpleRegulationImpl;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Handles the main loop connecting server, regulation and hal.
+ * Handles the main loop connecting server, regulation and hal of every platform.
+ * The platforms are listed in the platforms setting, e.g. platforms=left,right; by default there is one platform with id 0.
  * @author sschaeffner
  */
 public class MainLoopHandler {
 
-    //amount of arms of the hexapod
-    private static final int ARM_AMOUNT = 6;
+    //default port of the metrics endpoint
+    private static final int DEFAULT_METRICS_PORT = 9400;
 
-    //port of the network server
-    private static final int SERVER_PORT = 1234;
+    //log events
+    private static final LogEvent LOG_CANNOT_START = new LogEvent(Level.ERROR, "[MLH] cannot start: {}");
+    private static final LogEvent LOG_READY = new LogEvent(Level.INFO, "[MLH] {} platform(s) ready after {} ms");
+    private static final LogEvent LOG_NOT_READY = new LogEvent(Level.ERROR, "[MLH] only {} of {} platform(s) ready");
+    private static final LogEvent LOG_METRICS = new LogEvent(Level.INFO, "[MLH] serving metrics on port {}");
+    private static final LogEvent LOG_NO_METRICS = new LogEvent(Level.WARN, "[MLH] cannot serve metrics on port {}");
 
     //singleton instance of MainLoopHandler
     private static MainLoopHandler instance = null;
 
-    //network server
-    private FSBServerInterface server;
+    //the platforms, empty until start() has read them
+    private volatile List<Platform> platforms = Collections.emptyList();
 
-    //regulation
-    private RegulationInterface regulationInterface;
+    //threads starting the platforms, empty until start() has started them
+    private Thread[] startThreads = new Thread[0];
 
-    //hal arm factory
-    private ArmFactory armFactory;
+    //whether shutdown() was called, guarded by this
+    private boolean stopped = false;
 
-    //array of arms
-    private ArmInterface[] arms;
+    //serves the metrics to Prometheus, null if disabled
+    private volatile MetricsHttpServer metricsHttpServer;
 
     private MainLoopHandler() {
+    }
+
+    /**
+     * Starts every platform, each one in its own thread, and waits until all of them are ready.
+     * Returns early if shutdown() is called meanwhile.
+     * @throws IllegalArgumentException if the platform settings are malformed or platforms share a port or i2c address
+     */
+    public void start() {
+        long startNanos = System.nanoTime();
+        List<Platform> platforms;
         try {
-            this.server = new FSBServer(SERVER_PORT, false);
-        } catch (IOException | InterruptedException e) {
-            e.printStackTrace();
+            platforms = readPlatforms(Config.getInstance());
+        } catch (IllegalArgumentException e) {
+            LOG_CANNOT_START.log(e.getMessage());
+            return;
         }
 
-        this.armFactory = ArmFactory.getInstance(GpioFactory.getInstance());
-        this.arms = new ArmInterface[ARM_AMOUNT];
+        Thread[] threads = new Thread[platforms.size()];
+        boolean[] ready = new boolean[platforms.size()];
+        synchronized (this) {
+            if (stopped) return;
+            this.platforms = platforms;
+            this.metricsHttpServer = startMetricsHttpServer();
+            MetricsRegistry.getInstance().gauge("fsb_platforms", "Platforms driven by this process").set(platforms.size());
+
+            for (int i = 0; i < threads.length; i++) {
+                final Platform platform = platforms.get(i);
+                final int index = i;
+                threads[i] = new Thread(() -> ready[index] = platform.start(), "platform-" + platform.getId());
+                threads[i].start();
+            }
+            this.startThreads = threads;
+        }
 
-        for (int i = 0; i < ARM_AMOUNT; i++) {
+        int readyAmount = 0;
+        for (int i = 0; i < threads.length; i++) {
             try {
-                this.arms[i] = armFactory.provideArm(i);
-            } catch (IOException e) {
+                threads[i].join();
+            } catch (InterruptedException e) {
                 e.printStackTrace();
             }
+            if (ready[i]) readyAmount++;
         }
 
-        regulationInterface = new SimpleRegulationImpl(arms);
+        synchronized (this) {
+            //platforms stopped by shutdown() are not ready, but did not fail either
+            if (stopped) return;
+        }
+        if (readyAmount == platforms.size()) {
+            LOG_READY.log(readyAmount, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        } else {
+            LOG_NOT_READY.log(readyAmount, platforms.size());
+        }
     }
 
+    /**
+     * Reads the platforms from the platforms setting and checks that they do not get in each other's way.
+     * @param config    the configuration
+     * @return the platforms
+     * @throws IllegalArgumentException if platforms share an id, a port or an i2c address
+     */
+    static List<Platform> readPlatforms(Config config) {
+        List<Platform> platforms = new ArrayList<>();
+        String[] ids = config.getString("platforms", SimpleRegulationImpl.DEFAULT_PLATFORM).split("\\s*,\\s*");
+        for (int i = 0; i < ids.length; i++) {
+            Platform platform = new Platform(ids[i], i, config);
+            for (Platform other : platforms) {
+                if (platform.getId().equals(other.getId())) {
+                    throw new IllegalArgumentException("platform " + platform.getId() + " is listed twice.");
+                }
+                if (platform.getServerPort() == other.getServerPort()) {
+                    throw new IllegalArgumentException("platforms " + other.getId() + " and " + platform.getId() + " both use port " + platform.getServerPort() + ".");
+                }
+                if (platform.getI2cBus() == other.getI2cBus() && (platform.getPcaAddress() == other.getPcaAddress()
+                        || (platform.getMcpBaseAddress() < other.getMcpBaseAddress() + other.getArmAmount()
+                        && other.getMcpBaseAddress() < platform.getMcpBaseAddress() + platform.getArmAmount()))) {
+                    throw new IllegalArgumentException("platforms " + other.getId() + " and " + platform.getId() + " use the same i2c addresses on bus " + platform.getI2cBus() + ".");
+                }
+            }
+            platforms.add(platform);
+        }
+        return Collections.unmodifiableList(platforms);
+    }
 
     /**
-     * Starts the main loop.
+     * Starts serving the metrics on the port configured as metrics.port.
+     * @return the metrics server or null if metrics.port is 0 or the port cannot be opened
      */
-    public void mainLoop() {
-        if (server instanceof PositionProvider) {
-            regulationInterface.setPositionProvider((PositionProvider) server);
-        } else {
-            throw new IllegalStateException("FSBServer has to be a PositionProvider!");
+    private static MetricsHttpServer startMetricsHttpServer() {
+        int port = Config.getInstance().getInt("metrics.port", DEFAULT_METRICS_PORT);
+        if (port == 0) return null;
+
+        try {
+            MetricsHttpServer metricsHttpServer = new MetricsHttpServer(port, MetricsRegistry.getInstance());
+            LOG_METRICS.log(metricsHttpServer.getPort());
+            return metricsHttpServer;
+        } catch (IOException e) {
+            LOG_NO_METRICS.log(port + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stops every platform, also one that is still starting, and the metrics endpoint and waits for their threads to end.
+     * @return whether all threads ended in time
+     */
+    public boolean shutdown() {
+        List<Platform> platforms;
+        Thread[] threads;
+        synchronized (this) {
+            stopped = true;
+            platforms = this.platforms;
+            threads = this.startThreads;
+        }
+
+        //platforms still starting return early, then everything they started is stopped
+        for (Platform platform : platforms) {
+            platform.stop();
         }
+        boolean ended = true;
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                ended = false;
+            }
+        }
+        for (Platform platform : platforms) {
+            ended &= platform.shutdown();
+        }
+        MetricsHttpServer metricsHttpServer = this.metricsHttpServer;
+        if (metricsHttpServer != null) metricsHttpServer.stop();
+        return ended;
+    }
+
+    /**
+     * Returns the platforms.
+     * @return the platforms in the order they are configured, empty before start()
+     */
+    public List<Platform> getPlatforms() {
+        return platforms;
     }
 
     /**
@@ -0,0 +1,447 @@
+package de.gymolching.fsb;
+
+import com.pi4j.io.gpio.GpioFactory;
+import de.gymolching.fsb.clock.Clock;
+import de.gymolching.fsb.hal.ArmFactory;
+import de.gymolching.fsb.hal.EncoderSampler;
+import de.gymolching.fsb.halApi.ArmInterface;
+import de.gymolching.fsb.kinematics.PlatformGeometry;
+import de.gymolching.fsb.kinematics.StewartKinematics;
+import de.gymolching.fsb.logging.Level;
+import de.gymolching.fsb.logging.LogEvent;
+import de.gymolching.fsb.metrics.MetricsRegistry;
+import de.gymolching.fsb.network.api.FSBServerInterface;
+import de.gymolching.fsb.network.implementation.FSBServer;
+import de.gymolching.fsb.realtime.WaitStrategy;
+import de.gymolching.fsb.regulation.PositionProvider;
+import de.gymolching.fsb.regulation.PositionTee;
+import de.gymolching.fsb.regulation.RegulationInterface;
+import de.gymolching.fsb.regulation.SimpleRegulationImpl;
+import de.gymolching.fsb.regulation.filter.FilteredPositionProvider;
+import de.gymolching.fsb.regulation.prediction.PredictingPositionProvider;
+import de.gymolching.fsb.simulation.ShadowController;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One hexapod with its own server, arms and regulation.
+ * Several platforms can run side by side in one JVM, sharing the gpio controller, i2c buses, logger and metrics.
+ * Settings are read from platform.[id].[key], falling back to [key]:
+ * arms, server.port, server.concurrentClients, i2c.bus, i2c.mcp.address, i2c.pca.address plus the encoder sampler's, the regulation's and the shadow controller's settings.
+ * A platform has six arms unless arms says otherwise; a geometry given with kinematics.geometry must have as many.
+ * @author sschaeffner
+ */
+public class Platform {
+
+    //port of the network server of the first platform, further ones count up
+    private static final int DEFAULT_SERVER_PORT = 1234;
+
+    //how long shutdown() waits for the regulation's threads
+    private static final long REGULATION_SHUTDOWN_TIMEOUT_MILLIS = 3000;
+
+    //how often start() checks for an exit while the arms drive to their starting position
+    private static final long HOMING_POLL_MILLIS = 100;
+
+    //id of the platform
+    private final String id;
+
+    //the platform's settings
+    private final Config config;
+
+    //amount of arms of the platform
+    private final int armAmount;
+
+    //where the platform's server listens and its chips are
+    private final int serverPort;
+    private final int i2cBus;
+    private final int mcpBaseAddress;
+    private final int pcaAddress;
+
+    //network server
+    private volatile FSBServerInterface server;
+
+    //regulation
+    private volatile RegulationInterface regulationInterface;
+
+    //predictor stage between server and regulation, null if disabled
+    private volatile PredictingPositionProvider predictingPositionProvider;
+
+    //samples the arms' counters, null if disabled
+    private volatile EncoderSampler encoderSampler;
+
+    //tee copying the regulation's positions for the shadow controller, null if disabled
+    private volatile PositionTee positionTee;
+
+    //candidate regulation run on the live positions with simulated arms, null if disabled
+    private volatile ShadowController shadowController;
+
+    //whether the platform should keep starting, cleared by stop()
+    private volatile boolean running = true;
+
+    //log events, the platform's id is part of their text
+    private final LogEvent logServerFailed;
+    private final LogEvent logArmFailed;
+    private final LogEvent logSampling;
+    private final LogEvent logShadowing;
+    private final LogEvent logNoShadow;
+    private final LogEvent logGeometryMismatch;
+    private final LogEvent logGeometryLoaded;
+    private final LogEvent logGeometryFailed;
+    private final LogEvent logFiltering;
+    private final LogEvent logPredicting;
+    private final LogEvent logClamping;
+    private final LogEvent logPhase;
+    private final LogEvent logShadowNotStopped;
+    private final LogEvent logRegulationNotStopped;
+    private final LogEvent logSamplerNotStopped;
+
+    /**
+     * Reads a platform's settings.
+     * @param id        id of the platform
+     * @param index     position of the platform in the platforms setting, used for the default server port
+     * @param config    the whole configuration
+     * @throws IllegalArgumentException if a setting is malformed
+     */
+    public Platform(String id, int index, Config config) {
+        this.id = id;
+        this.config = config.withPrefix("platform." + id + ".");
+        this.armAmount = this.config.getInt("arms", PlatformGeometry.DEFAULT_ARM_AMOUNT);
+        if (armAmount < PlatformGeometry.MIN_ARM_AMOUNT || armAmount > ArmFactory.MAX_ARMS) {
+            throw new IllegalArgumentException("config value of platform." + id + ".arms must be between "
+                    + PlatformGeometry.MIN_ARM_AMOUNT + " and " + ArmFactory.MAX_ARMS + " but was " + armAmount);
+        }
+        this.serverPort = this.config.getInt("server.port", DEFAULT_SERVER_PORT + index);
+        this.i2cBus = this.config.getInt("i2c.bus", ArmFactory.DEFAULT_I2C_BUS);
+        this.mcpBaseAddress = getAddress("i2c.mcp.address", ArmFactory.DEFAULT_MCP_BASE_ADDRESS);
+        this.pcaAddress = getAddress("i2c.pca.address", ArmFactory.DEFAULT_PCA_ADDRESS);
+
+        String prefix = "[MLH] platform " + id + ": ";
+        this.logServerFailed = new LogEvent(Level.ERROR, prefix + "cannot start the server on port " + serverPort + ": {}");
+        this.logArmFailed = new LogEvent(Level.ERROR, prefix + "cannot provide arm {}");
+        this.logSampling = new LogEvent(Level.INFO, prefix + "sampling encoders at {} Hz");
+        this.logShadowing = new LogEvent(Level.INFO, prefix + "shadowing with {}");
+        this.logNoShadow = new LogEvent(Level.WARN, prefix + "no shadow controller, {}");
+        this.logGeometryMismatch = new LogEvent(Level.ERROR, prefix + "geometry {} has {} arms but the platform has " + armAmount);
+        this.logGeometryLoaded = new LogEvent(Level.INFO, prefix + "geometry loaded from {}, accepting poses");
+        this.logGeometryFailed = new LogEvent(Level.ERROR, prefix + "cannot load geometry from {}");
+        this.logFiltering = new LogEvent(Level.INFO, prefix + "filtering positions through {}");
+        this.logPredicting = new LogEvent(Level.INFO, prefix + "predicting positions {} ms ahead");
+        this.logClamping = new LogEvent(Level.INFO, prefix + "clamping positions to {}..{}");
+        this.logPhase = new LogEvent(Level.INFO, prefix + "{} took {} ms");
+        this.logShadowNotStopped = new LogEvent(Level.WARN, prefix + "shadow controller did not stop within " + REGULATION_SHUTDOWN_TIMEOUT_MILLIS + " ms");
+        this.logRegulationNotStopped = new LogEvent(Level.WARN, prefix + "regulation did not stop within " + REGULATION_SHUTDOWN_TIMEOUT_MILLIS + " ms");
+        this.logSamplerNotStopped = new LogEvent(Level.WARN, prefix + "encoder sampler did not stop in time");
+    }
+
+    /**
+     * Reads an i2c address, given in decimal or as 0x hex.
+     */
+    private int getAddress(String key, int defaultValue) {
+        String value = config.getString(key, null);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.decode(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("config value of platform." + id + "." + key + " must be an i2c address but was " + value);
+        }
+    }
+
+    /**
+     * Starts server, hal and regulation and waits until all arms are at their starting position.
+     * The server accepts clients right away; arms are provisioned in parallel.
+     * Returns early if stop() is called meanwhile, and before the regulation is created if the server or an arm cannot be started.
+     * @return whether the platform is ready
+     */
+    public boolean start() {
+        long startNanos = System.nanoTime();
+        long phaseNanos = startNanos;
+
+        //server
+        try {
+            FSBServer fsbServer = new FSBServer(serverPort, false, loadKinematics(), armAmount);
+            fsbServer.getStatistics().register(MetricsRegistry.getInstance(), "platform", id);
+            fsbServer.setWaitStrategy(WaitStrategy.fromConfig(config));
+            fsbServer.setConcurrentClients(config.getBoolean("server.concurrentClients", false));
+            this.server = fsbServer;
+        } catch (IOException | InterruptedException e) {
+            logServerFailed.log(e.toString());
+            return false;
+        }
+        phaseNanos = phaseCompleted("server", phaseNanos);
+        if (!running) return false;
+
+        //hal
+        ArmInterface[] arms = provideArms(ArmFactory.getInstance(GpioFactory.getInstance(), i2cBus, mcpBaseAddress, pcaAddress));
+        if (arms == null) return false;
+        phaseNanos = phaseCompleted("provisioning", phaseNanos);
+        if (!running) return false;
+
+        EncoderSampler sampler = EncoderSampler.fromConfig(id, arms, config, Clock.system());
+        if (sampler != null) {
+            sampler.start();
+            logSampling.log(Math.round(sampler.getSampleRate()));
+            this.encoderSampler = sampler;
+        }
+
+        //regulation
+        SimpleRegulationImpl regulation = new SimpleRegulationImpl(id, arms, config);
+        connectPositionProvider(regulation);
+        this.regulationInterface = regulation;
+        phaseNanos = phaseCompleted("regulation", phaseNanos);
+
+        //arms driving to their starting position
+        try {
+            while (!regulation.awaitHomed(HOMING_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (!running) return false;
+            }
+        } catch (InterruptedException e) {
+            return false;
+        }
+        phaseNanos = phaseCompleted("homing", phaseNanos);
+
+        //shadow controller, once the arms' identified motor parameters are known
+        if (positionTee != null) {
+            try {
+                ShadowController shadow = ShadowController.fromConfig(id, regulation, positionTee, config, Clock.system());
+                shadow.start();
+                this.shadowController = shadow;
+                logShadowing.log(shadow.getCandidate().getClass().getName());
+            } catch (IllegalArgumentException e) {
+                logNoShadow.log(e.getMessage());
+            }
+            phaseCompleted("shadow", phaseNanos);
+        }
+
+        phaseCompleted("total", startNanos);
+        return true;
+    }
+
+    /**
+     * Creates the inverse kinematics from the geometry file configured as kinematics.geometry.
+     * @return inverse kinematics or null if no geometry is configured, in which case clients can only send arm lengths
+     */
+    private StewartKinematics loadKinematics() {
+        String geometryFile = config.getString("kinematics.geometry", null);
+        if (geometryFile == null) return null;
+
+        try {
+            PlatformGeometry geometry = PlatformGeometry.load(geometryFile);
+            if (geometry.getArmAmount() != armAmount) {
+                logGeometryMismatch.log(geometryFile, geometry.getArmAmount());
+                return null;
+            }
+            StewartKinematics kinematics = new StewartKinematics(geometry);
+            logGeometryLoaded.log(geometryFile);
+            return kinematics;
+        } catch (IOException | IllegalArgumentException e) {
+            logGeometryFailed.log(geometryFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Provides all arms, each one in its own thread.
+     * @param armFactory    factory of the platform's bus and addresses
+     * @return the arms or null if any arm could not be provided
+     */
+    private ArmInterface[] provideArms(ArmFactory armFactory) {
+        ArmInterface[] arms = new ArmInterface[armAmount];
+        Thread[] threads = new Thread[armAmount];
+
+        for (int i = 0; i < armAmount; i++) {
+            final int nr = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    arms[nr] = armFactory.provideArm(nr);
+                } catch (IOException e) {
+                    logArmFailed.log(nr + ": " + e.getMessage());
+                }
+            }, "provide-arm-" + i + "-" + id);
+            threads[i].start();
+        }
+
+        //join() also makes the arms written by the threads visible here
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+        for (ArmInterface arm : arms) {
+            if (arm == null) return null;
+        }
+        return arms;
+    }
+
+    /**
+     * Connects server and regulation through the configured filters and predictor.
+     * @param regulation    the platform's regulation
+     */
+    private void connectPositionProvider(RegulationInterface regulation) {
+        if (server instanceof PositionProvider) {
+            PositionProvider positionProvider = (PositionProvider) server;
+
+            //server -> filters -> predictor -> clamp -> regulation
+            FilteredPositionProvider filteredPositionProvider = FilteredPositionProvider.fromConfig(positionProvider, armAmount, config);
+            if (filteredPositionProvider != null) {
+                logFiltering.log(config.getString("filters", ""));
+                positionProvider = filteredPositionProvider;
+            }
+
+            predictingPositionProvider = PredictingPositionProvider.fromConfig(positionProvider, armAmount, config);
+            if (predictingPositionProvider != null) {
+                logPredicting.log(predictingPositionProvider.getHorizonMillis());
+                positionProvider = predictingPositionProvider;
+            }
+
+            FilteredPositionProvider clampingPositionProvider = FilteredPositionProvider.clampFromConfig(positionProvider, armAmount, config, Clock.system());
+            if (clampingPositionProvider != null) {
+                logClamping.log(config.getDouble("filter.clamp.min", 0.0), config.getDouble("filter.clamp.max", 1.0));
+                positionProvider = clampingPositionProvider;
+            }
+
+            if (config.getBoolean("shadow", false)) {
+                positionTee = new PositionTee(positionProvider, armAmount, Clock.system());
+                positionProvider = positionTee;
+            }
+
+            regulation.setPositionProvider(positionProvider);
+        } else {
+            throw new IllegalStateException("FSBServer has to be a PositionProvider!");
+        }
+    }
+
+    /**
+     * Logs how long a startup phase took and records it as fsb_startup_phase_seconds.
+     * @param phase         name of the phase
+     * @param phaseNanos    System.nanoTime() when the phase started
+     * @return System.nanoTime() now, when the next phase starts
+     */
+    private long phaseCompleted(String phase, long phaseNanos) {
+        long now = System.nanoTime();
+        double seconds = (now - phaseNanos) / 1e9;
+        MetricsRegistry.getInstance().gauge("fsb_startup_phase_seconds", "Duration of each startup phase", "platform", id, "phase", phase).set(seconds);
+        logPhase.log(phase, Math.round(seconds * 1000));
+        return now;
+    }
+
+    /**
+     * Makes a start() in progress return early, waiting at most for an arm being provisioned. Threads already started keep running
+     * until shutdown().
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Stops regulation and server and waits for their threads to end.
+     * @return whether all threads ended in time
+     */
+    public boolean shutdown() {
+        boolean ended = true;
+        ShadowController shadow = shadowController;
+        if (shadow != null) {
+            try {
+                if (!shadow.shutdown(REGULATION_SHUTDOWN_TIMEOUT_MILLIS)) {
+                    logShadowNotStopped.log();
+                    ended = false;
+                }
+            } catch (InterruptedException e) {
+                ended = false;
+            }
+        }
+        RegulationInterface regulation = regulationInterface;
+        if (regulation instanceof SimpleRegulationImpl) {
+            try {
+                if (!((SimpleRegulationImpl) regulation).shutdown(REGULATION_SHUTDOWN_TIMEOUT_MILLIS)) {
+                    logRegulationNotStopped.log();
+                    ended = false;
+                }
+            } catch (InterruptedException e) {
+                ended = false;
+            }
+        }
+        EncoderSampler sampler = encoderSampler;
+        if (sampler != null) {
+            try {
+                if (!sampler.stop()) {
+                    logSamplerNotStopped.log();
+                    ended = false;
+                }
+            } catch (InterruptedException e) {
+                ended = false;
+            }
+        }
+        FSBServerInterface server = this.server;
+        if (server != null) {
+            try {
+                server.stop();
+            } catch (InterruptedException e) {
+                ended = false;
+            }
+        }
+        return ended;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getServerPort() {
+        return serverPort;
+    }
+
+    public int getI2cBus() {
+        return i2cBus;
+    }
+
+    public int getMcpBaseAddress() {
+        return mcpBaseAddress;
+    }
+
+    public int getPcaAddress() {
+        return pcaAddress;
+    }
+
+    /**
+     * Returns how many arms the platform has.
+     * @return how many arms the platform has
+     */
+    public int getArmAmount() {
+        return armAmount;
+    }
+
+    /**
+     * Returns the regulation.
+     * @return the regulation or null while the platform is starting
+     */
+    public RegulationInterface getRegulation() {
+        return regulationInterface;
+    }
+
+    /**
+     * Returns the predictor stage between server and regulation.
+     * @return the predictor stage or null if no predictor is configured
+     */
+    public PredictingPositionProvider getPredictingPositionProvider() {
+        return predictingPositionProvider;
+    }
+
+    /**
+     * Returns the shadow controller running a candidate regulation next to the live one.
+     * @return the shadow controller or null if shadow is off or the platform is starting
+     */
+    public ShadowController getShadowController() {
+        return shadowController;
+    }
+
+    /**
+     * Returns the sampler of the arms' counters.
+     * @return the sampler or null if encoder sampling is off
+     */
+    public EncoderSampler getEncoderSampler() {
+        return encoderSampler;
+    }
+}
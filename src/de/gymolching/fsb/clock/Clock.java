@@ -0,0 +1,79 @@
+package de.gymolching.fsb.clock;
+
+/**
+ * Source of time and of every wait that depends on it, for the hal, the regulation and position playback.
+ * The system clock passes everything through to System.nanoTime(), Thread.sleep() and the monitors,
+ * a virtual clock runs simulations faster than real time.
+ * <p>
+ * Threads that wait on a clock have to be created by it. Instead of monitor.wait() and monitor.notifyAll(),
+ * such threads call await(monitor) and signalAll(monitor) while holding the monitor.
+ * @author sschaeffner
+ */
+public interface Clock {
+
+    /**
+     * Returns the current time.
+     * @return the current time in nanoseconds, only meaningful as difference to another value of the same clock
+     */
+    long nanoTime();
+
+    /**
+     * Waits for some time.
+     * @param millis    how long to wait in milliseconds
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    default void sleep(long millis) throws InterruptedException {
+        sleepNanos(millis * 1000000L);
+    }
+
+    /**
+     * Waits for some time.
+     * @param nanos how long to wait in nanoseconds
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    void sleepNanos(long nanos) throws InterruptedException;
+
+    /**
+     * Waits until signalAll(monitor) is called, like monitor.wait(). Must be called while holding the monitor.
+     * @param monitor   the monitor
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    void await(Object monitor) throws InterruptedException;
+
+    /**
+     * Wakes every thread waiting in await(monitor), like monitor.notifyAll(). Must be called while holding the monitor.
+     * @param monitor   the monitor
+     */
+    void signalAll(Object monitor);
+
+    /**
+     * Interrupts a thread created by this clock, also if it is waiting in sleep() or await().
+     * @param thread    the thread
+     */
+    void interrupt(Thread thread);
+
+    /**
+     * Waits for a thread created by this clock to end.
+     * @param thread        the thread
+     * @param deadlineNanos nanoTime() of this clock after which waiting is given up
+     * @return whether the thread has ended
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean join(Thread thread, long deadlineNanos) throws InterruptedException;
+
+    /**
+     * Creates a thread that may wait on this clock. The thread is not started.
+     * @param task  what the thread runs
+     * @param name  name of the thread
+     * @return the thread
+     */
+    Thread newThread(Runnable task, String name);
+
+    /**
+     * Returns the clock passing everything through to the system.
+     * @return the system clock
+     */
+    static Clock system() {
+        return SystemClock.INSTANCE;
+    }
+}
@@ -0,0 +1,63 @@
+package de.gymolching.fsb.clock;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wall-clock time, passing every wait through to the JVM. Allocates nothing.
+ * @author sschaeffner
+ */
+public final class SystemClock implements Clock {
+
+    //the only instance
+    static final SystemClock INSTANCE = new SystemClock();
+
+    private SystemClock() {
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+
+    @Override
+    public void sleepNanos(long nanos) throws InterruptedException {
+        TimeUnit.NANOSECONDS.sleep(nanos);
+    }
+
+    @Override
+    public void await(Object monitor) throws InterruptedException {
+        monitor.wait();
+    }
+
+    @Override
+    public void signalAll(Object monitor) {
+        monitor.notifyAll();
+    }
+
+    @Override
+    public void interrupt(Thread thread) {
+        thread.interrupt();
+    }
+
+    @Override
+    public boolean join(Thread thread, long deadlineNanos) throws InterruptedException {
+        long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        if (remainingMillis > 0) thread.join(remainingMillis);
+        return !thread.isAlive();
+    }
+
+    @Override
+    public Thread newThread(Runnable task, String name) {
+        return new Thread(task, name);
+    }
+
+    @Override
+    public String toString() {
+        return "system";
+    }
+}
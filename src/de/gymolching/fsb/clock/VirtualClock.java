@@ -0,0 +1,352 @@
+package de.gymolching.fsb.clock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Discrete-event clock running simulations as fast as the cpu allows instead of in real time.
+ * Threads created by the clock take turns: exactly one of them runs at a time, until it waits in sleep() or await() or ends.
+ * Time only moves on while a thread not created by the clock drives the simulation with advance(), advanceUntil() or join();
+ * it then jumps straight to the next wake-up. Wake-ups at the same time run in the order their waits began.
+ * <p>
+ * As long as the threads only interact through the clock and the monitors they await on, the same simulation runs the same way every time.
+ * A thread of the clock blocking on anything else (a socket, an unrelated monitor, Thread.sleep()) stalls the simulation.
+ * @author sschaeffner
+ */
+public class VirtualClock implements Clock {
+
+    //time of the simulation
+    private long now;
+
+    //counts every wake-up scheduled, ordering wake-ups at the same time
+    private long sequence;
+
+    //threads due to run, earliest wake-up first
+    private final PriorityQueue<Participant> runQueue = new PriorityQueue<>();
+
+    //threads created by this clock that have been started and not ended
+    private final Map<Thread, Participant> participants = new HashMap<>();
+
+    //threads waiting in await(), by monitor, in the order they began waiting
+    private final Map<Object, List<Participant>> waiting = new IdentityHashMap<>();
+
+    //thread whose turn it is, null while the simulation is not driven
+    private volatile Participant running;
+
+    //thread driving the simulation, woken whenever a turn ends
+    private volatile Thread driver;
+
+    /**
+     * Creates a virtual clock at time 0.
+     */
+    public VirtualClock() {
+    }
+
+    @Override
+    public synchronized long nanoTime() {
+        return now;
+    }
+
+    @Override
+    public void sleepNanos(long nanos) throws InterruptedException {
+        Participant participant;
+        synchronized (this) {
+            participant = current();
+            throwIfInterrupted(participant);
+            schedule(participant, now + Math.max(0, nanos));
+            yieldTurn(participant);
+        }
+        awaitTurn(participant);
+
+        synchronized (this) {
+            throwIfInterrupted(participant);
+        }
+    }
+
+    @Override
+    public void await(Object monitor) throws InterruptedException {
+        Participant participant;
+        synchronized (this) {
+            participant = current();
+            throwIfInterrupted(participant);
+            participant.monitor = monitor;
+            waiting.computeIfAbsent(monitor, m -> new ArrayList<>()).add(participant);
+            yieldTurn(participant);
+        }
+
+        //the monitor is released while waiting so the thread running next can take it
+        while (!participant.dispatched) {
+            try {
+                monitor.wait();
+            } catch (InterruptedException e) {
+                synchronized (this) {
+                    participant.interrupted = true;
+                }
+            }
+        }
+
+        synchronized (this) {
+            throwIfInterrupted(participant);
+        }
+    }
+
+    @Override
+    public synchronized void signalAll(Object monitor) {
+        List<Participant> waiters = waiting.remove(monitor);
+        if (waiters == null) return;
+        for (Participant participant : waiters) {
+            schedule(participant, now);
+        }
+    }
+
+    @Override
+    public void interrupt(Thread thread) {
+        synchronized (this) {
+            Participant participant = participants.get(thread);
+            if (participant != null) {
+                participant.interrupted = true;
+                if (participant != running) {
+                    //a waiting thread is due at once, wherever it waits
+                    if (!runQueue.remove(participant)) {
+                        List<Participant> waiters = waiting.get(participant.monitor);
+                        waiters.remove(participant);
+                        if (waiters.isEmpty()) waiting.remove(participant.monitor);
+                    }
+                    schedule(participant, now);
+                }
+                return;
+            }
+        }
+        thread.interrupt();
+    }
+
+    /**
+     * Drives the simulation until a thread of this clock has ended.
+     * Must not be called by one of the clock's threads.
+     */
+    @Override
+    public boolean join(Thread thread, long deadlineNanos) throws InterruptedException {
+        Participant participant;
+        long timeoutNanos;
+        synchronized (this) {
+            participant = participants.get(thread);
+            timeoutNanos = deadlineNanos - now;
+        }
+        if (participant != null && !advanceUntil(() -> participant.ended, timeoutNanos)) return false;
+
+        //the thread has left the simulation and is only finishing
+        if (thread.isAlive()) thread.join();
+        return true;
+    }
+
+    @Override
+    public Thread newThread(Runnable task, String name) {
+        Participant participant = new Participant();
+        return new Thread(() -> run(participant, task), name) {
+            @Override
+            public synchronized void start() {
+                synchronized (VirtualClock.this) {
+                    if (participant.thread != null) throw new IllegalThreadStateException("thread " + getName() + " was already started");
+                    participant.thread = this;
+                    participants.put(this, participant);
+                    schedule(participant, now);
+                }
+                super.start();
+            }
+        };
+    }
+
+    /**
+     * Runs a thread of this clock, starting once it is its turn.
+     * @param participant   the thread's state
+     * @param task          what the thread runs
+     */
+    private void run(Participant participant, Runnable task) {
+        awaitTurn(participant);
+
+        try {
+            task.run();
+        } finally {
+            synchronized (this) {
+                participant.ended = true;
+                participants.remove(participant.thread);
+                yieldTurn(participant);
+            }
+        }
+    }
+
+    /**
+     * Drives the simulation for some time.
+     * Must not be called by one of the clock's threads.
+     * @param nanos how far time moves on in nanoseconds
+     */
+    public void advance(long nanos) {
+        advanceUntil(() -> false, nanos);
+    }
+
+    /**
+     * Drives the simulation until a condition is met, checking it whenever no thread of the clock is running.
+     * If no thread is due anymore before the timeout, time moves on to the timeout.
+     * Must not be called by one of the clock's threads.
+     * @param condition     the condition
+     * @param timeoutNanos  how far time may move on at most in nanoseconds
+     * @return whether the condition is met
+     */
+    public boolean advanceUntil(BooleanSupplier condition, long timeoutNanos) {
+        long deadline;
+        synchronized (this) {
+            if (participants.containsKey(Thread.currentThread())) {
+                throw new IllegalStateException("a virtual clock cannot be driven by one of its own threads");
+            }
+            deadline = now + timeoutNanos;
+            driver = Thread.currentThread();
+        }
+
+        while (!condition.getAsBoolean()) {
+            if (!step(deadline)) {
+                synchronized (this) {
+                    now = Math.max(now, deadline);
+                }
+                return condition.getAsBoolean();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lets the thread due next run until it waits again or ends.
+     * @param deadlineNanos time up to which threads may be run
+     * @return whether a thread was due before the deadline
+     */
+    private boolean step(long deadlineNanos) {
+        Participant next;
+        Object monitor;
+        synchronized (this) {
+            next = runQueue.peek();
+            if (next == null || next.wakeNanos > deadlineNanos) return false;
+
+            runQueue.poll();
+            now = Math.max(now, next.wakeNanos);
+            monitor = next.monitor;
+            next.monitor = null;
+            running = next;
+            next.dispatched = true;
+        }
+        if (monitor != null) {
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        } else {
+            LockSupport.unpark(next.thread);
+        }
+
+        //the running thread finishes its turn even if the driver is interrupted
+        boolean interrupted = false;
+        while (running != null) {
+            LockSupport.park(this);
+            interrupted |= Thread.interrupted();
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        return true;
+    }
+
+    /**
+     * Parks the calling thread of this clock until it is its turn.
+     * Only interrupt() may wake the thread early, other interrupts are rethrown once it is the thread's turn.
+     * @param participant   the state of the calling thread
+     */
+    private void awaitTurn(Participant participant) {
+        while (!participant.dispatched) {
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                synchronized (this) {
+                    participant.interrupted = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the calling thread's state. Must be called while holding the lock on this clock.
+     * @return the state of the calling thread
+     * @throws IllegalStateException if the calling thread was not created by this clock
+     */
+    private Participant current() {
+        Participant participant = participants.get(Thread.currentThread());
+        if (participant == null || participant != running) {
+            throw new IllegalStateException("only threads created by a virtual clock can wait on it");
+        }
+        return participant;
+    }
+
+    /**
+     * Queues a thread to run at a point in time. Must be called while holding the lock on this clock.
+     */
+    private void schedule(Participant participant, long wakeNanos) {
+        participant.wakeNanos = wakeNanos;
+        participant.sequence = sequence++;
+        runQueue.add(participant);
+    }
+
+    /**
+     * Ends the calling thread's turn. Must be called while holding the lock on this clock.
+     */
+    private void yieldTurn(Participant participant) {
+        participant.dispatched = false;
+        running = null;
+        LockSupport.unpark(driver);
+    }
+
+    /**
+     * Throws an InterruptedException if the thread was interrupted, clearing the interrupt.
+     * Must be called while holding the lock on this clock.
+     */
+    private static void throwIfInterrupted(Participant participant) throws InterruptedException {
+        if (participant.interrupted || Thread.interrupted()) {
+            participant.interrupted = false;
+            throw new InterruptedException();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "virtual";
+    }
+
+    /**
+     * State of a thread created by the clock.
+     */
+    private static final class Participant implements Comparable<Participant> {
+
+        //the thread, null until started
+        private Thread thread;
+
+        //when the thread is due to run and in which order among threads due at the same time
+        private long wakeNanos;
+        private long sequence;
+
+        //set once it is the thread's turn, cleared when the turn ends
+        private volatile boolean dispatched;
+
+        //monitor the thread waits on in await(), null otherwise
+        private Object monitor;
+
+        //whether interrupt() was called and not yet rethrown
+        private boolean interrupted;
+
+        //whether the thread's task has returned
+        private volatile boolean ended;
+
+        @Override
+        public int compareTo(Participant other) {
+            if (wakeNanos != other.wakeNanos) return Long.compare(wakeNanos, other.wakeNanos);
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -4,14 +4,16 @@ import com.pi4j.gpio.extension.mcp.MCP23017GpioProvider;
 import com.pi4j.gpio.extension.pca.PCA9685GpioProvider;
 import com.pi4j.gpio.extension.pca.PCA9685Pin;
 import com.pi4j.io.gpio.GpioController;
-import com.pi4j.io.gpio.GpioFactory;
 import com.pi4j.io.gpio.GpioPinPwmOutput;
 import com.pi4j.io.i2c.I2CBus;
 import com.pi4j.io.i2c.I2CFactory;
 import de.gymolching.fsb.halApi.ArmInterface;
+import de.gymolching.fsb.metrics.MetricsRegistry;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Creates instances of hexapod arms.
@@ -19,38 +21,80 @@ import java.math.BigDecimal;
  */
 public class ArmFactory {
 
-    //singleton instance of ArmFactory
-    private static ArmFactory instance;
+    //i2c bus used by default
+    public static final int DEFAULT_I2C_BUS = I2CBus.BUS_1;
+
+    //i2c base address of mcp gpio expander chips used by default
+    public static final int DEFAULT_MCP_BASE_ADDRESS = 0x20;
+
+    //i2c address of pca pwm chip used by default
+    public static final int DEFAULT_PCA_ADDRESS = 0x40;
+
+    //the most arms one factory can provide: every arm needs its own mcp gpio expander, which can take 8 addresses
+    public static final int MAX_ARMS = 8;
+
+    //pwm target frequency for pca chip
+    private static final BigDecimal PCA_TARGET_FREQUENCY = new BigDecimal(40);
+
+    //instances of ArmFactory by bus and addresses
+    private static final Map<String, ArmFactory> instances = new HashMap<>();
+
+    //opened i2c buses by id, shared by all factories on the same bus
+    private static final Map<Integer, I2CBus> buses = new HashMap<>();
 
     /**
-     * Returns an instance of an ArmFactory to provide arms.
+     * Returns the ArmFactory providing arms on the default bus and addresses.
      * @param gpioController    a GpioController
      * @return instance of an ArmFactory to provide arms.
      */
     public static ArmFactory getInstance(final GpioController gpioController) {
-        if (instance == null) instance = new ArmFactory(gpioController);
-        return instance;
+        return getInstance(gpioController, DEFAULT_I2C_BUS, DEFAULT_MCP_BASE_ADDRESS, DEFAULT_PCA_ADDRESS);
     }
 
-    //i2c bus id
-    private static final int I2CBUS_ID = I2CBus.BUS_1;
-
-    //the amount of arms available
-    private static final int NR_OF_ARMS_AVAILABLE = 6;
-
-    //i2c base address of mcp gpio expander chip
-    private static final byte MCP_BASE_ADDR = 0x20;
-
-    //i2c base address of pca pwm chip
-    private static final byte PCA_BASE_ADDR = 0x40;
+    /**
+     * Returns the ArmFactory providing arms on a bus and addresses, so several platforms can be driven at once.
+     * Factories on the same bus share it; their operations take turns on the bus.
+     * @param gpioController    a GpioController
+     * @param busId             i2c bus id
+     * @param mcpBaseAddress    i2c address of the first arm's mcp gpio expander, arm nr uses mcpBaseAddress + nr
+     * @param pcaAddress        i2c address of the pca pwm chip
+     * @return instance of an ArmFactory to provide arms.
+     */
+    public static ArmFactory getInstance(final GpioController gpioController, int busId, int mcpBaseAddress, int pcaAddress) {
+        synchronized (ArmFactory.class) {
+            String key = busId + "/" + mcpBaseAddress + "/" + pcaAddress;
+            ArmFactory instance = instances.get(key);
+            if (instance == null) {
+                instance = new ArmFactory(gpioController, busId, mcpBaseAddress, pcaAddress);
+                instances.put(key, instance);
+            }
+            return instance;
+        }
+    }
 
-    //pwm target frequency for pca chip
-    private static final BigDecimal PCA_TARGET_FREQUENCY = new BigDecimal(40);
+    /**
+     * Opens a bus or returns it if it is already open.
+     * Must be called while holding the lock on ArmFactory.class.
+     * @param busId i2c bus id
+     * @return the bus, counting its operations and letting one at a time onto it
+     * @throws IOException if the bus cannot be opened
+     */
+    private static I2CBus openBus(int busId) throws IOException {
+        I2CBus bus = buses.get(busId);
+        if (bus == null) {
+            bus = new CountingI2CBus(new SynchronizedI2CBus(I2CFactory.getInstance(busId)), MetricsRegistry.getInstance(), "bus", Integer.toString(busId));
+            buses.put(busId, bus);
+        }
+        return bus;
+    }
 
     //gpio controller from pi4j
     private final GpioController gpio;
 
-    //i2c bus instance of I2CBUS_ID
+    //i2c base address of the mcp gpio expander chips
+    private final int mcpBaseAddress;
+
+    //i2c bus instance of the factory's bus id
     private I2CBus i2cBus;
 
     //gpio provider instance of pca pwm chip
@@ -58,14 +102,18 @@ public class ArmFactory {
 
     /**
      * Initializes an ArmFactory with a GpioController.
-     * @param gpio an instance of a pi4j GpioController
+     * @param gpio              an instance of a pi4j GpioController
+     * @param busId             i2c bus id
+     * @param mcpBaseAddress    i2c address of the first arm's mcp gpio expander
+     * @param pcaAddress        i2c address of the pca pwm chip
      */
-    private ArmFactory(final GpioController gpio) {
+    private ArmFactory(final GpioController gpio, int busId, int mcpBaseAddress, int pcaAddress) {
         this.gpio = gpio;
+        this.mcpBaseAddress = mcpBaseAddress;
 
         try {
-            this.i2cBus = I2CFactory.getInstance(I2CBUS_ID);
-            this.pwmGpioProvider = new PCA9685GpioProvider(i2cBus, PCA_BASE_ADDR, PCA_TARGET_FREQUENCY);
+            this.i2cBus = openBus(busId);
+            this.pwmGpioProvider = new PCA9685GpioProvider(i2cBus, pcaAddress, PCA_TARGET_FREQUENCY);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -73,6 +121,8 @@ public class ArmFactory {
 
     /**
      * Provides an arm with a given port nr.
+     * May be called from several threads at once; bus accesses and pin provisioning take turns,
+     * waiting for the arm's counter to clear runs in parallel.
      * @param nr    which arm to provide
      * @return      provided arm
      * @throws IOException when i2c bus is not initialized
@@ -82,13 +132,16 @@ public class ArmFactory {
             throw new IOException("i2c bus not initialized. Cannot provide arm.");
         }
 
-        if (nr < 0 || nr > NR_OF_ARMS_AVAILABLE) {
-            throw new IllegalArgumentException("there are only " + NR_OF_ARMS_AVAILABLE + " arms available. nr must be between 0 and " + (NR_OF_ARMS_AVAILABLE - 1) + ".");
+        if (nr < 0 || nr >= MAX_ARMS) {
+            throw new IllegalArgumentException("there are only " + MAX_ARMS + " arms available. nr must be between 0 and " + (MAX_ARMS - 1) + ".");
         }
 
-        MCP23017GpioProvider expGpioProvider = new MCP23017GpioProvider(i2cBus, MCP_BASE_ADDR + nr);
-        GpioPinPwmOutput hBridgeEnPwmOutputPin = GpioFactory.getInstance().provisionPwmOutputPin(pwmGpioProvider, PCA9685Pin.ALL[nr]);
+        MCP23017GpioProvider expGpioProvider = new MCP23017GpioProvider(i2cBus, mcpBaseAddress + nr);
+        GpioPinPwmOutput hBridgeEnPwmOutputPin;
+        synchronized (gpio) {
+            hBridgeEnPwmOutputPin = gpio.provisionPwmOutputPin(pwmGpioProvider, PCA9685Pin.ALL[nr]);
+        }
 
-        return new ArmImpl(gpio, expGpioProvider, hBridgeEnPwmOutputPin);
+        return new ArmImpl(nr, gpio, expGpioProvider, hBridgeEnPwmOutputPin);
     }
 }
@@ -6,7 +6,13 @@ import com.pi4j.gpio.extension.pca.PCA9685GpioProvider;
 import com.pi4j.io.gpio.*;
 import com.pi4j.io.gpio.event.GpioPinDigitalStateChangeEvent;
 import com.pi4j.io.gpio.event.GpioPinListenerDigital;
+import de.gymolching.fsb.clock.Clock;
 import de.gymolching.fsb.halApi.ArmInterface;
+import de.gymolching.fsb.jfr.CounterClearEvent;
+import de.gymolching.fsb.jfr.CounterOverflowEvent;
+import de.gymolching.fsb.jfr.CounterReadEvent;
+import de.gymolching.fsb.jfr.MotorStartEvent;
+import de.gymolching.fsb.jfr.MotorStopEvent;
 
 /**
  * Hardware access to a hexapod's arm.
@@ -41,6 +47,12 @@ public class ArmImpl implements ArmInterface {
     //how much time should by between every poll while driving to starting position
     private final static int STARTING_POSITION_POLLING_TIME_MILLIS = 1000;
 
+    //port nr of the arm, used to tell arms apart in recorded events
+    private final int nr;
+
+    //clock timing the counter clear, reverse stops and homing polls
+    private final Clock clock;
+
     //pwm output pin connected to the h-driver's enable pin
     private final GpioPinPwmOutput hDriverEnPwmOutputPin;
 
@@ -76,10 +88,26 @@ public class ArmImpl implements ArmInterface {
 
     /**
      * Initializes an arm.
+     * @param nr                    port nr of the arm
+     * @param gpio                  pi4j gpio controller the pins are provisioned with
+     * @param expGpioProvider       GPIO expansion provider for the arm's counter and h-bridge
+     * @param hDriverEnPwmOutputPin pwmPin to control the motor's speed
+     */
+    public ArmImpl(final int nr, final GpioController gpio, final MCP23017GpioProvider expGpioProvider, final GpioPinPwmOutput hDriverEnPwmOutputPin) {
+        this(nr, gpio, expGpioProvider, hDriverEnPwmOutputPin, Clock.system());
+    }
+
+    /**
+     * Initializes an arm timed by a clock.
+     * @param nr                    port nr of the arm
+     * @param gpio                  pi4j gpio controller the pins are provisioned with
      * @param expGpioProvider       GPIO expansion provider for the arm's counter and h-bridge
      * @param hDriverEnPwmOutputPin pwmPin to control the motor's speed
+     * @param clock                 clock timing the counter clear, reverse stops and homing polls
      */
-    public ArmImpl(final GpioController gpio, final MCP23017GpioProvider expGpioProvider, final GpioPinPwmOutput hDriverEnPwmOutputPin) {
+    public ArmImpl(final int nr, final GpioController gpio, final MCP23017GpioProvider expGpioProvider, final GpioPinPwmOutput hDriverEnPwmOutputPin, final Clock clock) {
+        this.nr = nr;
+        this.clock = clock;
         this.hDriverEnPwmOutputPin = hDriverEnPwmOutputPin;
 
         //gets the pwm pin's gpio provider used to set the pin to off
@@ -90,21 +118,25 @@ public class ArmImpl implements ArmInterface {
             throw new IllegalArgumentException("hDriverEnPwmOutputPin must be provided by PCA9685GpioProvider");
         }
 
-        //initializes pins connected to the H-Driver
-        this.hDriver1A = gpio.provisionDigitalOutputPin(expGpioProvider, H_DRIVER_1A_PIN, H_DRIVER_1A_PIN.getName() + " (hDriver 1A)", PinState.LOW);
-        this.hDriver2A = gpio.provisionDigitalOutputPin(expGpioProvider, H_DRIVER_2A_PIN, H_DRIVER_2A_PIN.getName() + " (hDriver 2A)", PinState.LOW);
-
-        //initializes pins connected to the counter chip's output pins
-        this.counterQ = new GpioPinDigitalInput[COUNTER_BITS];
-        for (int i = 0; i < COUNTER_BITS; i++) {
-            this.counterQ[i] = gpio.provisionDigitalInputPin(expGpioProvider, MCP23017Pin.ALL[i], MCP23017Pin.ALL[i].getName() + " (counter " + i + ")");
-            if (i == COUNTER_BITS - 2) {
-                this.counterQ[i].addListener(new CounterOverflowListener());
+        //provisioning is not thread-safe in pi4j, arms provisioned in parallel take turns here
+        synchronized (gpio) {
+            //initializes pins connected to the H-Driver
+            this.hDriver1A = gpio.provisionDigitalOutputPin(expGpioProvider, H_DRIVER_1A_PIN, H_DRIVER_1A_PIN.getName() + " (hDriver 1A)", PinState.LOW);
+            this.hDriver2A = gpio.provisionDigitalOutputPin(expGpioProvider, H_DRIVER_2A_PIN, H_DRIVER_2A_PIN.getName() + " (hDriver 2A)", PinState.LOW);
+
+            //initializes pins connected to the counter chip's output pins
+            this.counterQ = new GpioPinDigitalInput[COUNTER_BITS];
+            for (int i = 0; i < COUNTER_BITS; i++) {
+                this.counterQ[i] = gpio.provisionDigitalInputPin(expGpioProvider, MCP23017Pin.ALL[i], MCP23017Pin.ALL[i].getName() + " (counter " + i + ")");
+                if (i == COUNTER_BITS - 2) {
+                    this.counterQ[i].addListener(new CounterOverflowListener());
+                }
             }
+
+            this.counterClr = gpio.provisionDigitalOutputPin(expGpioProvider, COUNTER_CLEAR_PIN, COUNTER_CLEAR_PIN.getName() + " (counter clr)", PinState.LOW);
         }
 
         //initializes others and clear counter
-        this.counterClr = gpio.provisionDigitalOutputPin(expGpioProvider, COUNTER_CLEAR_PIN, COUNTER_CLEAR_PIN.getName() + " (counter clr)", PinState.LOW);
         this.currentDirection = 0;
         this.counterBuffer = 0;
         this.counterBlocked = false;
@@ -137,6 +169,7 @@ public class ArmImpl implements ArmInterface {
         this.hDriver2A.low();
         this.hDriver1A.high();
         this.currentDirection = 1;
+        recordStart();
     }
 
     /**
@@ -148,6 +181,20 @@ public class ArmImpl implements ArmInterface {
         this.hDriver1A.low();
         this.hDriver2A.high();
         this.currentDirection = -1;
+        recordStart();
+    }
+
+    /**
+     * Records a MotorStartEvent for the current direction and speed.
+     */
+    private void recordStart() {
+        if (!MotorStartEvent.TYPE.isEnabled()) return;
+
+        MotorStartEvent event = new MotorStartEvent();
+        event.arm = this.nr;
+        event.direction = this.currentDirection;
+        event.pwm = this.lastSpeed;
+        event.commit();
     }
 
     /**
@@ -170,6 +217,7 @@ public class ArmImpl implements ArmInterface {
      */
     @Override
     public void stop(boolean reverse) {
+        MotorStopEvent event = beginStop(reverse ? "reverse" : "h-driver");
         if (reverse) {
             if (this.currentDirection == 1) {
                 //startBackward without setting direction!
@@ -185,7 +233,7 @@ public class ArmImpl implements ArmInterface {
                 throw new IllegalStateException("cannot reverse the motor as the motor's current direction is unclear");
             }
             try {
-                Thread.sleep(STOP_REVERSE_DURATION_MILLIS);
+                this.clock.sleep(STOP_REVERSE_DURATION_MILLIS);
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
@@ -195,6 +243,7 @@ public class ArmImpl implements ArmInterface {
         this.hDriver2A.high();
         putCurrentPositionIntoBuffer();
         this.currentDirection = 0;
+        commitStop(event);
     }
 
     /**
@@ -203,9 +252,33 @@ public class ArmImpl implements ArmInterface {
      */
     @Override
     public void stopByPwm() {
+        MotorStopEvent event = beginStop("pwm");
         this.pwmGpioProvider.setAlwaysOff(this.hDriverEnPwmOutputPin.getPin());
         putCurrentPositionIntoBuffer();
         this.currentDirection = 0;
+        commitStop(event);
+    }
+
+    /**
+     * Begins a MotorStopEvent.
+     * @param method    how the motor is stopped
+     * @return the event or null if it is not recorded
+     */
+    private MotorStopEvent beginStop(String method) {
+        if (!MotorStopEvent.TYPE.isEnabled()) return null;
+
+        MotorStopEvent event = new MotorStopEvent();
+        event.arm = this.nr;
+        event.method = method;
+        event.begin();
+        return event;
+    }
+
+    private void commitStop(MotorStopEvent event) {
+        if (event == null) return;
+
+        event.position = this.counterBuffer;
+        event.commit();
     }
 
     /**
@@ -237,7 +310,7 @@ public class ArmImpl implements ArmInterface {
         //loop as long as position changes at least every second
         do {
             try {
-                Thread.sleep(STARTING_POSITION_POLLING_TIME_MILLIS);
+                this.clock.sleep(STARTING_POSITION_POLLING_TIME_MILLIS);
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
@@ -272,38 +345,60 @@ public class ArmImpl implements ArmInterface {
 
     /**
      * Reads the counter chip's current value
+     * Package-private so it can be benchmarked on its own.
      * @return  counter chip's value
      */
-    private int readCurrentCounterValue() {
-        if (!this.counterBlocked) {
-            String ins = "";
+    int readCurrentCounterValue() {
+        CounterReadEvent event = null;
+        if (CounterReadEvent.TYPE.isEnabled()) {
+            event = new CounterReadEvent();
+            event.begin();
+        }
+
+        int value = 0;
+        boolean blocked = this.counterBlocked;
+        if (!blocked) {
             for (int i = this.counterQ.length - 1; i >= 0; i--) {
-                ins += (this.counterQ[i].getState().isHigh()) ? "1" : "0";
+                value = (value << 1) | (this.counterQ[i].getState().isHigh() ? 1 : 0);
             }
-            return Integer.valueOf(ins, 2);
-        } else {
-            return 0;
         }
+
+        if (event != null) {
+            event.arm = this.nr;
+            event.value = value;
+            event.blocked = blocked;
+            event.commit();
+        }
+        return value;
     }
 
     /**
      * Clears the counter chip's value.
      */
     private void clearCounter() {
+        CounterClearEvent event = null;
+        if (CounterClearEvent.TYPE.isEnabled()) {
+            event = new CounterClearEvent();
+            event.arm = this.nr;
+            event.begin();
+        }
+
         this.counterBlocked = true;
         this.counterClr.high();
         try {
-            Thread.sleep(COUNTER_CLEAR_HIGH_TIME_MILLIS);
+            this.clock.sleep(COUNTER_CLEAR_HIGH_TIME_MILLIS);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
         this.counterClr.low();
         try {
-            Thread.sleep(COUNTER_CLEAR_WAIT_TIME_MILLIS);
+            this.clock.sleep(COUNTER_CLEAR_WAIT_TIME_MILLIS);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
         this.counterBlocked = false;
+
+        if (event != null) event.commit();
     }
 
     /**
@@ -319,6 +414,13 @@ public class ArmImpl implements ArmInterface {
         public void handleGpioPinDigitalStateChangeEvent(GpioPinDigitalStateChangeEvent gpioPinDigitalStateChangeEvent) {
             clearCounter();
             counterBuffer += Math.pow(2, COUNTER_BITS - 2) * currentDirection;
+
+            if (CounterOverflowEvent.TYPE.isEnabled()) {
+                CounterOverflowEvent event = new CounterOverflowEvent();
+                event.arm = nr;
+                event.buffer = counterBuffer;
+                event.commit();
+            }
         }
     }
 }
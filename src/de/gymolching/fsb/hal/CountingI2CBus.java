@@ -0,0 +1,227 @@
+package de.gymolching.fsb.hal;
+
+import com.pi4j.io.i2c.I2CBus;
+import com.pi4j.io.i2c.I2CDevice;
+import de.gymolching.fsb.jfr.I2COperationEvent;
+import de.gymolching.fsb.metrics.Counter;
+import de.gymolching.fsb.metrics.MetricsRegistry;
+
+import java.io.IOException;
+
+/**
+ * I2C bus counting the operations of all devices on it.
+ * Every read or write call is one operation, whatever the amount of bytes transferred.
+ * While a flight recording runs, every operation is also recorded as an I2COperationEvent.
+ * @author sschaeffner
+ */
+public class CountingI2CBus implements I2CBus {
+
+    //the actual bus
+    private final I2CBus bus;
+
+    private final Counter reads;
+    private final Counter writes;
+    private final Counter errors;
+
+    /**
+     * Wraps a bus.
+     * @param bus       the actual bus
+     * @param registry  registry the counters are added to
+     * @param labels    label names and values in turns, telling this bus apart from others
+     */
+    public CountingI2CBus(I2CBus bus, MetricsRegistry registry, String... labels) {
+        this.bus = bus;
+        this.reads = registry.counter("fsb_i2c_reads_total", "I2C read operations", labels);
+        this.writes = registry.counter("fsb_i2c_writes_total", "I2C write operations", labels);
+        this.errors = registry.counter("fsb_i2c_errors_total", "I2C operations that failed", labels);
+    }
+
+    @Override
+    public I2CDevice getDevice(int address) throws IOException {
+        return new CountingI2CDevice(bus.getDevice(address), address);
+    }
+
+    @Override
+    public String getFileName() {
+        return bus.getFileName();
+    }
+
+    @Override
+    public int getFileDescriptor() {
+        return bus.getFileDescriptor();
+    }
+
+    @Override
+    public void close() throws IOException {
+        bus.close();
+    }
+
+    /**
+     * Device counting its operations into the bus's counters and recording them.
+     */
+    private class CountingI2CDevice implements I2CDevice {
+
+        private final I2CDevice device;
+        private final int address;
+
+        private CountingI2CDevice(I2CDevice device, int address) {
+            this.device = device;
+            this.address = address;
+        }
+
+        /**
+         * Begins an I2COperationEvent.
+         * @param write whether the operation writes to the device
+         * @param bytes amount of bytes transferred
+         * @return the event or null if it is not recorded
+         */
+        private I2COperationEvent begin(boolean write, int bytes) {
+            if (!I2COperationEvent.TYPE.isEnabled()) return null;
+
+            I2COperationEvent event = new I2COperationEvent();
+            event.address = address;
+            event.write = write;
+            event.bytes = bytes;
+            event.begin();
+            return event;
+        }
+
+        private void end(I2COperationEvent event, boolean failed) {
+            if (event == null) return;
+
+            event.failed = failed;
+            event.commit();
+        }
+
+        @Override
+        public void write(byte data) throws IOException {
+            writes.increment();
+            I2COperationEvent event = begin(true, 1);
+            try {
+                device.write(data);
+                end(event, false);
+            } catch (IOException e) {
+                errors.increment();
+                end(event, true);
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int size) throws IOException {
+            writes.increment();
+            I2COperationEvent event = begin(true, size);
+            try {
+                device.write(buffer, offset, size);
+                end(event, false);
+            } catch (IOException e) {
+                errors.increment();
+                end(event, true);
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(int address, byte data) throws IOException {
+            writes.increment();
+            I2COperationEvent event = begin(true, 1);
+            try {
+                device.write(address, data);
+                end(event, false);
+            } catch (IOException e) {
+                errors.increment();
+                end(event, true);
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(int address, byte[] buffer, int offset, int size) throws IOException {
+            writes.increment();
+            I2COperationEvent event = begin(true, size);
+            try {
+                device.write(address, buffer, offset, size);
+                end(event, false);
+            } catch (IOException e) {
+                errors.increment();
+                end(event, true);
+                throw e;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            reads.increment();
+            I2COperationEvent event = begin(false, 1);
+            try {
+                int result = device.read();
+                end(event, false);
+                return result;
+            } catch (IOException e) {
+                errors.increment();
+                end(event, true);
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int size) throws IOException {
+            reads.increment();
+            I2COperationEvent event = begin(false, size);
+            try {
+                int result = device.read(buffer, offset, size);
+                end(event, false);
+                return result;
+            } catch (IOException e) {
+                errors.increment();
+                end(event, true);
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(int address) throws IOException {
+            reads.increment();
+            I2COperationEvent event = begin(false, 1);
+            try {
+                int result = device.read(address);
+                end(event, false);
+                return result;
+            } catch (IOException e) {
+                errors.increment();
+                end(event, true);
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(int address, byte[] buffer, int offset, int size) throws IOException {
+            reads.increment();
+            I2COperationEvent event = begin(false, size);
+            try {
+                int result = device.read(address, buffer, offset, size);
+                end(event, false);
+                return result;
+            } catch (IOException e) {
+                errors.increment();
+                end(event, true);
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] writeBuffer, int writeOffset, int writeSize, byte[] readBuffer, int readOffset, int readSize) throws IOException {
+            reads.increment();
+            I2COperationEvent event = begin(false, writeSize + readSize);
+            try {
+                int result = device.read(writeBuffer, writeOffset, writeSize, readBuffer, readOffset, readSize);
+                end(event, false);
+                return result;
+            } catch (IOException e) {
+                errors.increment();
+                end(event, true);
+                throw e;
+            }
+        }
+    }
+}
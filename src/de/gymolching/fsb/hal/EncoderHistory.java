@@ -0,0 +1,237 @@
+package de.gymolching.fsb.hal;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Timestamped counter samples of one arm, kept in a ring buffer of primitives.
+ * There is exactly one writer, the encoder sampler. Readers only ever read optimistically and retry if a sample was written meanwhile,
+ * so they never block the sampler and the sampler never waits for them. Neither side allocates.
+ * Velocity and acceleration are fitted by least squares over a window of the most recent samples,
+ * which smooths the counter's quantization into whole steps.
+ * @author sschaeffner
+ */
+public class EncoderHistory {
+
+    //window velocity and acceleration are fitted over if none is given
+    public static final long DEFAULT_WINDOW_NANOS = 100000000L;
+
+    //times in nanoseconds and counts of the samples, sample n is at index n % capacity
+    private final long[] times;
+    private final int[] counts;
+
+    //guards the samples against being read while one is written
+    private final StampedLock lock = new StampedLock();
+
+    //amount of samples written so far, only changed by the writer
+    private long written;
+
+    //window velocity and acceleration are fitted over in nanoseconds
+    private final long windowNanos;
+
+    /**
+     * Creates an empty history.
+     * @param capacity      amount of samples kept
+     * @param windowNanos   window velocity and acceleration are fitted over in nanoseconds
+     */
+    public EncoderHistory(int capacity, long windowNanos) {
+        if (capacity < 3) throw new IllegalArgumentException("capacity must be at least 3.");
+        if (windowNanos <= 0) throw new IllegalArgumentException("windowNanos must be positive.");
+        this.times = new long[capacity];
+        this.counts = new int[capacity];
+        this.windowNanos = windowNanos;
+    }
+
+    /**
+     * Records a sample, overwriting the oldest one once the history is full. Must only be called by the one writer.
+     * @param nanos time of the sample in nanoseconds
+     * @param count counter value, the arm's position in steps
+     */
+    public void record(long nanos, int count) {
+        long stamp = lock.writeLock();
+        int index = (int) (written % times.length);
+        times[index] = nanos;
+        counts[index] = count;
+        written++;
+        lock.unlockWrite(stamp);
+    }
+
+    /**
+     * Returns the amount of samples recorded so far, including ones that have been overwritten.
+     * @return samples recorded
+     */
+    public long getRecorded() {
+        while (true) {
+            long stamp = lock.tryOptimisticRead();
+            long recorded = written;
+            if (lock.validate(stamp)) return recorded;
+        }
+    }
+
+    /**
+     * Returns the most recent counter value.
+     * @return position in steps, 0 before the first sample
+     */
+    public int getLatestCount() {
+        while (true) {
+            long stamp = lock.tryOptimisticRead();
+            long n = written;
+            int count = n <= 0 ? 0 : counts[(int) ((n - 1) % counts.length)];
+            if (lock.validate(stamp)) return count;
+        }
+    }
+
+    /**
+     * Returns the time of the most recent sample.
+     * @return time in nanoseconds, 0 before the first sample
+     */
+    public long getLatestNanos() {
+        while (true) {
+            long stamp = lock.tryOptimisticRead();
+            long n = written;
+            long nanos = n <= 0 ? 0 : times[(int) ((n - 1) % times.length)];
+            if (lock.validate(stamp)) return nanos;
+        }
+    }
+
+    /**
+     * Copies the samples of a time window, oldest first.
+     * @param sinceNanos    samples older than this are left out
+     * @param timesNanos    receives the times of the samples in nanoseconds
+     * @param positions     receives the counter values
+     * @return amount of samples copied, at most the length of the arrays
+     */
+    public int copySince(long sinceNanos, long[] timesNanos, int[] positions) {
+        int max = Math.min(timesNanos.length, positions.length);
+        while (true) {
+            long stamp = lock.tryOptimisticRead();
+            long n = written;
+
+            //walk back from the newest sample to find where the window starts
+            long first = n;
+            long oldest = Math.max(0, n - Math.min(times.length, max));
+            while (first > oldest && times[(int) ((first - 1) % times.length)] >= sinceNanos) first--;
+            if (!lock.validate(stamp)) continue;
+
+            int amount = (int) (n - first);
+            for (int i = 0; i < amount; i++) {
+                int index = (int) ((first + i) % times.length);
+                timesNanos[i] = times[index];
+                positions[i] = counts[index];
+            }
+            if (lock.validate(stamp)) return amount;
+        }
+    }
+
+    /**
+     * Returns the velocity, the slope of a line fitted through the samples of the default window.
+     * @return velocity in steps per second, 0 with less than two samples
+     */
+    public double getVelocity() {
+        return getVelocity(windowNanos);
+    }
+
+    /**
+     * Returns the velocity, the slope of a line fitted through the samples of a window.
+     * The fitted line is the average over the window, so it lags the arm by half the window.
+     * @param windowNanos   window before the most recent sample in nanoseconds
+     * @return velocity in steps per second, 0 with less than two samples
+     */
+    public double getVelocity(long windowNanos) {
+        while (true) {
+            long stamp = lock.tryOptimisticRead();
+            long n = written;
+            long last = n - 1;
+            long end = n <= 0 ? 0 : times[(int) (last % times.length)];
+            int base = n <= 0 ? 0 : counts[(int) (last % counts.length)];
+
+            //sums over the window with times in seconds before and counts relative to the newest sample
+            int samples = 0;
+            double st = 0, stt = 0, sy = 0, sty = 0;
+            for (long i = last; i >= 0 && i > n - 1 - times.length; i--) {
+                int index = (int) (i % times.length);
+                long age = end - times[index];
+                if (age > windowNanos) break;
+                double t = -age / 1e9;
+                double y = counts[index] - base;
+                samples++;
+                st += t;
+                stt += t * t;
+                sy += y;
+                sty += t * y;
+            }
+            if (!lock.validate(stamp)) continue;
+
+            double denominator = samples * stt - st * st;
+            if (samples < 2 || denominator <= 0) return 0;
+            return (samples * sty - st * sy) / denominator;
+        }
+    }
+
+    /**
+     * Returns the acceleration, twice the curvature of a parabola fitted through the samples of the default window.
+     * @return acceleration in steps per second squared, 0 with less than three samples
+     */
+    public double getAcceleration() {
+        return getAcceleration(windowNanos);
+    }
+
+    /**
+     * Returns the acceleration, twice the curvature of a parabola fitted through the samples of a window.
+     * Being a second derivative of whole steps, it needs a window several times longer than the velocity to be useful.
+     * @param windowNanos   window before the most recent sample in nanoseconds
+     * @return acceleration in steps per second squared, 0 with less than three samples
+     */
+    public double getAcceleration(long windowNanos) {
+        while (true) {
+            long stamp = lock.tryOptimisticRead();
+            long n = written;
+            long last = n - 1;
+            long end = n <= 0 ? 0 : times[(int) (last % times.length)];
+            int base = n <= 0 ? 0 : counts[(int) (last % counts.length)];
+
+            //sums of the normal equations of y = a + b t + c t^2
+            int samples = 0;
+            double s1 = 0, s2 = 0, s3 = 0, s4 = 0, sy = 0, sty = 0, stty = 0;
+            for (long i = last; i >= 0 && i > n - 1 - times.length; i--) {
+                int index = (int) (i % times.length);
+                long age = end - times[index];
+                if (age > windowNanos) break;
+                double t = -age / 1e9;
+                double tt = t * t;
+                double y = counts[index] - base;
+                samples++;
+                s1 += t;
+                s2 += tt;
+                s3 += tt * t;
+                s4 += tt * tt;
+                sy += y;
+                sty += t * y;
+                stty += tt * y;
+            }
+            if (!lock.validate(stamp)) continue;
+            if (samples < 3) return 0;
+
+            //Cramer's rule for c
+            double determinant = samples * (s2 * s4 - s3 * s3) - s1 * (s1 * s4 - s3 * s2) + s2 * (s1 * s3 - s2 * s2);
+            if (Math.abs(determinant) < 1e-30) return 0;
+            double c = samples * (s2 * stty - sty * s3) - s1 * (s1 * stty - sty * s2) + sy * (s1 * s3 - s2 * s2);
+            return 2 * c / determinant;
+        }
+    }
+
+    /**
+     * Returns how many samples are kept.
+     * @return capacity of the history
+     */
+    public int getCapacity() {
+        return times.length;
+    }
+
+    /**
+     * Returns the window velocity and acceleration are fitted over by default.
+     * @return window in nanoseconds
+     */
+    public long getWindowNanos() {
+        return windowNanos;
+    }
+}
@@ -0,0 +1,214 @@
+package de.gymolching.fsb.hal;
+
+import de.gymolching.fsb.Config;
+import de.gymolching.fsb.clock.Clock;
+import de.gymolching.fsb.halApi.ArmInterface;
+import de.gymolching.fsb.metrics.Counter;
+import de.gymolching.fsb.metrics.MetricsRegistry;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the counters of a platform's arms at a fixed rate into one timestamped history per arm.
+ * Higher layers read positions, velocities and accelerations from the histories instead of guessing them from their own sleep intervals.
+ * Reading a history never blocks the sampler.
+ * <p>
+ * Configured by encoder.sampleRate in Hz (0, the default, turns sampling off), encoder.history in samples per arm (default 1024)
+ * and encoder.window in ms, the window velocity and acceleration are fitted over (default 100).
+ * @author sschaeffner
+ */
+public class EncoderSampler {
+
+    //samples kept per arm if not configured
+    private static final int DEFAULT_HISTORY = 1024;
+
+    //how long stop() waits for the sampling thread
+    private static final long STOP_TIMEOUT_MILLIS = 1000;
+
+    //the arms, null where an arm could not be provided
+    private final ArmInterface[] arms;
+
+    //one history per arm
+    private final EncoderHistory[] histories;
+
+    //time between two samples in nanoseconds
+    private final long periodNanos;
+
+    //clock the samples are timed by
+    private final Clock clock;
+
+    //sampling ticks taken and ticks skipped because the previous one overran
+    private final Counter samples;
+    private final Counter missedSamples;
+
+    //the sampling thread
+    private final Thread thread;
+
+    //whether the sampling thread should keep running
+    private volatile boolean running;
+
+    /**
+     * Creates a sampler. It has to be started with start().
+     * @param platformId    id of the platform, used as metrics label
+     * @param arms          the arms, null where an arm could not be provided
+     * @param sampleRate    samples per second and arm
+     * @param capacity      samples kept per arm
+     * @param windowNanos   window velocity and acceleration are fitted over in nanoseconds
+     * @param clock         clock the samples are timed by
+     */
+    public EncoderSampler(String platformId, ArmInterface[] arms, double sampleRate, int capacity, long windowNanos, Clock clock) {
+        if (sampleRate <= 0) throw new IllegalArgumentException("sampleRate must be positive.");
+
+        this.arms = arms;
+        this.periodNanos = Math.max(1, Math.round(1e9 / sampleRate));
+        this.clock = clock;
+        this.histories = new EncoderHistory[arms.length];
+        for (int i = 0; i < arms.length; i++) {
+            histories[i] = new EncoderHistory(capacity, windowNanos);
+        }
+
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        this.samples = registry.counter("fsb_encoder_samples_total", "Sampling ticks, each reading every arm once", "platform", platformId);
+        this.missedSamples = registry.counter("fsb_encoder_missed_samples_total", "Sampling ticks skipped because a tick overran", "platform", platformId);
+        registry.gauge("fsb_encoder_sampler_cpu_seconds", "Cpu time used by the encoder sampler", this::getCpuSeconds, "platform", platformId);
+        for (int i = 0; i < arms.length; i++) {
+            EncoderHistory history = histories[i];
+            registry.gauge("fsb_arm_velocity_steps_per_second", "Velocity of an arm fitted over the encoder samples", history::getVelocity,
+                    "platform", platformId, "arm", Integer.toString(i));
+        }
+
+        this.thread = clock.newThread(this::run, "encoder-sampler-" + platformId);
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Creates the sampler configured with encoder.sampleRate, encoder.history and encoder.window.
+     * @param platformId    id of the platform, used as metrics label
+     * @param arms          the arms, null where an arm could not be provided
+     * @param config        the configuration
+     * @param clock         clock the samples are timed by
+     * @return the sampler, not started yet, or null if sampling is off
+     * @throws IllegalArgumentException if a setting is out of range
+     */
+    public static EncoderSampler fromConfig(String platformId, ArmInterface[] arms, Config config, Clock clock) {
+        double sampleRate = config.getDouble("encoder.sampleRate", 0);
+        if (sampleRate <= 0) return null;
+
+        int capacity = config.getInt("encoder.history", DEFAULT_HISTORY);
+        long windowNanos = TimeUnit.MILLISECONDS.toNanos(config.getInt("encoder.window", (int) TimeUnit.NANOSECONDS.toMillis(EncoderHistory.DEFAULT_WINDOW_NANOS)));
+        return new EncoderSampler(platformId, arms, sampleRate, capacity, windowNanos, clock);
+    }
+
+    /**
+     * Starts sampling.
+     */
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stops sampling and waits for the sampling thread to end.
+     * @return whether the thread ended in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean stop() throws InterruptedException {
+        running = false;
+        clock.interrupt(thread);
+        return clock.join(thread, clock.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STOP_TIMEOUT_MILLIS));
+    }
+
+    /**
+     * Takes samples at a fixed rate. Ticks the thread was too late for are skipped, not caught up on.
+     */
+    private void run() {
+        long next = clock.nanoTime();
+        while (running) {
+            sample();
+
+            next += periodNanos;
+            long wait = next - clock.nanoTime();
+            if (wait < 0) {
+                long missed = -wait / periodNanos + 1;
+                missedSamples.add(missed);
+                next += missed * periodNanos;
+                wait += missed * periodNanos;
+            }
+            try {
+                clock.sleepNanos(wait);
+            } catch (InterruptedException e) {
+                //stop() interrupts, running tells whether to go on
+            }
+        }
+    }
+
+    /**
+     * Samples every arm once, each with the time it was read at.
+     * Package-private so the cost of a sampling tick can be benchmarked.
+     */
+    void sample() {
+        for (int i = 0; i < arms.length; i++) {
+            ArmInterface arm = arms[i];
+            if (arm == null) continue;
+            int position = arm.getPosition();
+            histories[i].record(clock.nanoTime(), position);
+        }
+        samples.increment();
+    }
+
+    /**
+     * Returns the history of an arm.
+     * @param arm   number of the arm
+     * @return the arm's history
+     */
+    public EncoderHistory getHistory(int arm) {
+        return histories[arm];
+    }
+
+    /**
+     * Returns an arm's velocity fitted over the default window.
+     * @param arm   number of the arm
+     * @return velocity in steps per second
+     */
+    public double getVelocity(int arm) {
+        return histories[arm].getVelocity();
+    }
+
+    /**
+     * Returns an arm's acceleration fitted over the default window.
+     * @param arm   number of the arm
+     * @return acceleration in steps per second squared
+     */
+    public double getAcceleration(int arm) {
+        return histories[arm].getAcceleration();
+    }
+
+    /**
+     * Returns the samples taken per second and arm.
+     * @return sample rate in Hz
+     */
+    public double getSampleRate() {
+        return 1e9 / periodNanos;
+    }
+
+    /**
+     * Returns how many sampling ticks were skipped because a tick overran.
+     * @return ticks skipped
+     */
+    public long getMissedSamples() {
+        return missedSamples.get();
+    }
+
+    /**
+     * Returns the cpu time the sampling thread has used, which is what sampling costs.
+     * @return cpu time in seconds, 0 if the JVM does not measure cpu time per thread or the thread is not running
+     */
+    public double getCpuSeconds() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadCpuTimeSupported()) return 0;
+        long nanos = threads.getThreadCpuTime(thread.getId());
+        return nanos < 0 ? 0 : nanos / 1e9;
+    }
+}
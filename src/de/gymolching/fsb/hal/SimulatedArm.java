@@ -0,0 +1,180 @@
+package de.gymolching.fsb.hal;
+
+import de.gymolching.fsb.clock.Clock;
+import de.gymolching.fsb.halApi.ArmInterface;
+
+/**
+ * Simulated hexapod arm for running the server without hardware.
+ * The motor's velocity follows the commanded direction and speed with a first-order lag,
+ * and the counter counts whole steps between the arm's end stops.
+ * The simulation is advanced to the clock's current time whenever the arm is accessed.
+ * @author sschaeffner
+ */
+public class SimulatedArm implements ArmInterface {
+
+    //speed used while driving to the starting position
+    private static final int STARTING_POSITION_SPEED = 50;
+
+    //least time between two polls while driving to starting position
+    private static final int STARTING_POSITION_POLLING_TIME_MILLIS = 100;
+
+    //steps the arm has to be able to drive between two polls, so a moving arm is never taken to be at its end stop
+    private static final double STARTING_POSITION_POLLING_STEPS = 2;
+
+    //velocity at 100% speed in steps per second
+    private final double fullSpeedVelocity;
+
+    //time constant of the motor's response to a new speed in seconds
+    private final double timeConstant;
+
+    //position of the upper end stop in steps
+    private final double strokeSteps;
+
+    //clock the simulation follows
+    private final Clock clock;
+
+    //speed percentage that was set last
+    private int speed;
+
+    //the current direction the motor is turning in
+    private int direction;
+
+    //position in steps, not rounded
+    private double position;
+
+    //velocity in steps per second
+    private double velocity;
+
+    //position at which the counter was reset
+    private double positionOffset;
+
+    //clock.nanoTime() of the last simulation step
+    private long lastNanos;
+
+    /**
+     * Creates a simulated arm resting at its lower end stop.
+     * @param fullSpeedVelocity velocity at 100% speed in steps per second
+     * @param timeConstant      time constant of the motor's response to a new speed in seconds
+     * @param strokeSteps       position of the upper end stop in steps
+     */
+    public SimulatedArm(double fullSpeedVelocity, double timeConstant, double strokeSteps) {
+        this(fullSpeedVelocity, timeConstant, strokeSteps, Clock.system());
+    }
+
+    /**
+     * Creates a simulated arm resting at its lower end stop, following a clock.
+     * @param fullSpeedVelocity velocity at 100% speed in steps per second
+     * @param timeConstant      time constant of the motor's response to a new speed in seconds
+     * @param strokeSteps       position of the upper end stop in steps
+     * @param clock             clock the simulation follows
+     */
+    public SimulatedArm(double fullSpeedVelocity, double timeConstant, double strokeSteps, Clock clock) {
+        this.fullSpeedVelocity = fullSpeedVelocity;
+        this.timeConstant = timeConstant;
+        this.strokeSteps = strokeSteps;
+        this.clock = clock;
+        this.lastNanos = clock.nanoTime();
+    }
+
+    @Override
+    public synchronized void setSpeed(int percentage) {
+        if (percentage < 0 || percentage > 100) {
+            throw new IllegalArgumentException("percentage for setSpeed must be between 0 and 100.");
+        }
+        advance();
+        this.speed = percentage;
+    }
+
+    @Override
+    public synchronized void startForward() {
+        advance();
+        this.direction = 1;
+    }
+
+    @Override
+    public synchronized void startBackward() {
+        advance();
+        this.direction = -1;
+    }
+
+    @Override
+    public void stop() {
+        stop(false);
+    }
+
+    @Override
+    public synchronized void stop(boolean reverse) {
+        advance();
+        this.direction = 0;
+        if (reverse) this.velocity = 0;
+    }
+
+    @Override
+    public synchronized void stopByPwm() {
+        advance();
+        this.direction = 0;
+    }
+
+    @Override
+    public synchronized int getPosition() {
+        advance();
+        return (int) Math.floor(this.position - this.positionOffset);
+    }
+
+    @Override
+    public void moveToStartingPosition() {
+        int lastSpeed;
+        synchronized (this) {
+            lastSpeed = this.speed;
+        }
+        setSpeed(STARTING_POSITION_SPEED);
+        startBackward();
+
+        //loop as long as position changes
+        long pollMillis = Math.max(STARTING_POSITION_POLLING_TIME_MILLIS,
+                (long) Math.ceil(STARTING_POSITION_POLLING_STEPS / (fullSpeedVelocity * STARTING_POSITION_SPEED / 100) * 1000));
+        int lastPos;
+        int newPos = Integer.MIN_VALUE;
+        do {
+            try {
+                clock.sleep(pollMillis);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            lastPos = newPos;
+        } while ((newPos = getPosition()) != lastPos);
+
+        stop();
+        resetPositionBuffer();
+        setSpeed(lastSpeed);
+    }
+
+    @Override
+    public synchronized void resetPositionBuffer() {
+        advance();
+        this.positionOffset = this.position;
+    }
+
+    /**
+     * Advances the simulation to the current time.
+     */
+    private void advance() {
+        long now = clock.nanoTime();
+        double dt = (now - this.lastNanos) / 1e9;
+        this.lastNanos = now;
+
+        double commanded = this.direction * this.speed * this.fullSpeedVelocity / 100;
+        double newVelocity = commanded + (this.velocity - commanded) * Math.exp(-dt / this.timeConstant);
+        this.position += (this.velocity + newVelocity) / 2 * dt;
+        this.velocity = newVelocity;
+
+        //end stops
+        if (this.position <= 0) {
+            this.position = 0;
+            this.velocity = Math.max(0, this.velocity);
+        } else if (this.position >= this.strokeSteps) {
+            this.position = this.strokeSteps;
+            this.velocity = Math.min(0, this.velocity);
+        }
+    }
+}
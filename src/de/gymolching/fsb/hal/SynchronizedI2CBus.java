@@ -0,0 +1,128 @@
+package de.gymolching.fsb.hal;
+
+import com.pi4j.io.i2c.I2CBus;
+import com.pi4j.io.i2c.I2CDevice;
+
+import java.io.IOException;
+
+/**
+ * I2C bus letting only one device operation at a time onto the bus.
+ * Pi4J selects a device's address and then transfers in two separate calls on the bus's file descriptor,
+ * so devices used from different threads at once could end up talking to each other's address.
+ * @author sschaeffner
+ */
+public class SynchronizedI2CBus implements I2CBus {
+
+    //the actual bus
+    private final I2CBus bus;
+
+    //held during every operation of any device on this bus
+    private final Object lock = new Object();
+
+    /**
+     * Wraps a bus.
+     * @param bus   the actual bus
+     */
+    public SynchronizedI2CBus(I2CBus bus) {
+        this.bus = bus;
+    }
+
+    @Override
+    public I2CDevice getDevice(int address) throws IOException {
+        synchronized (lock) {
+            return new SynchronizedI2CDevice(bus.getDevice(address));
+        }
+    }
+
+    @Override
+    public String getFileName() {
+        return bus.getFileName();
+    }
+
+    @Override
+    public int getFileDescriptor() {
+        return bus.getFileDescriptor();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            bus.close();
+        }
+    }
+
+    /**
+     * Device holding the bus's lock during every operation.
+     */
+    private class SynchronizedI2CDevice implements I2CDevice {
+
+        private final I2CDevice device;
+
+        private SynchronizedI2CDevice(I2CDevice device) {
+            this.device = device;
+        }
+
+        @Override
+        public void write(byte data) throws IOException {
+            synchronized (lock) {
+                device.write(data);
+            }
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int size) throws IOException {
+            synchronized (lock) {
+                device.write(buffer, offset, size);
+            }
+        }
+
+        @Override
+        public void write(int address, byte data) throws IOException {
+            synchronized (lock) {
+                device.write(address, data);
+            }
+        }
+
+        @Override
+        public void write(int address, byte[] buffer, int offset, int size) throws IOException {
+            synchronized (lock) {
+                device.write(address, buffer, offset, size);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            synchronized (lock) {
+                return device.read();
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int size) throws IOException {
+            synchronized (lock) {
+                return device.read(buffer, offset, size);
+            }
+        }
+
+        @Override
+        public int read(int address) throws IOException {
+            synchronized (lock) {
+                return device.read(address);
+            }
+        }
+
+        @Override
+        public int read(int address, byte[] buffer, int offset, int size) throws IOException {
+            synchronized (lock) {
+                return device.read(address, buffer, offset, size);
+            }
+        }
+
+        @Override
+        public int read(byte[] writeBuffer, int writeOffset, int writeSize, byte[] readBuffer, int readOffset, int readSize) throws IOException {
+            synchronized (lock) {
+                return device.read(writeBuffer, writeOffset, writeSize, readBuffer, readOffset, readSize);
+            }
+        }
+    }
+}
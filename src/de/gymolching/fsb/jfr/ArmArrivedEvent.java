@@ -0,0 +1,37 @@
+package de.gymolching.fsb.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * An arm stopped at its goal position.
+ * @author sschaeffner
+ */
+@Name("de.gymolching.fsb.ArmArrived")
+@Label("Arm Arrived")
+@Category({"FSB", "Regulation"})
+@StackTrace(false)
+public class ArmArrivedEvent extends Event {
+
+    public static final EventType TYPE = EventType.getEventType(ArmArrivedEvent.class);
+
+    @Label("Arm")
+    public int arm;
+
+    @Label("Goal")
+    public int goal;
+
+    @Label("Position")
+    public int position;
+
+    @Label("Travel Time")
+    @Description("Time since the goal was set")
+    @Timespan
+    public long travelTime;
+}
@@ -0,0 +1,24 @@
+package de.gymolching.fsb.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A client connected to FSBServer.
+ * @author sschaeffner
+ */
+@Name("de.gymolching.fsb.ClientConnected")
+@Label("Client Connected")
+@Category({"FSB", "Network"})
+@StackTrace(false)
+public class ClientConnectedEvent extends Event {
+
+    @Label("Address")
+    public String address;
+
+    @Label("Port")
+    public int port;
+}
@@ -0,0 +1,27 @@
+package de.gymolching.fsb.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A client disconnected from FSBServer.
+ * @author sschaeffner
+ */
+@Name("de.gymolching.fsb.ClientDisconnected")
+@Label("Client Disconnected")
+@Category({"FSB", "Network"})
+@StackTrace(false)
+public class ClientDisconnectedEvent extends Event {
+
+    @Label("Address")
+    public String address;
+
+    @Label("Port")
+    public int port;
+
+    @Label("Messages")
+    public long messages;
+}
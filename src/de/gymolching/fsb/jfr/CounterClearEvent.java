@@ -0,0 +1,22 @@
+package de.gymolching.fsb.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * An arm's counter chip was cleared, lasting while the counter is blocked.
+ * @author sschaeffner
+ */
+@Name("de.gymolching.fsb.CounterClear")
+@Label("Counter Clear")
+@Category({"FSB", "HAL"})
+public class CounterClearEvent extends Event {
+
+    public static final EventType TYPE = EventType.getEventType(CounterClearEvent.class);
+
+    @Label("Arm")
+    public int arm;
+}
@@ -0,0 +1,27 @@
+package de.gymolching.fsb.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * An arm's counter chip was close to overflowing and was emptied into the position buffer.
+ * @author sschaeffner
+ */
+@Name("de.gymolching.fsb.CounterOverflow")
+@Label("Counter Overflow")
+@Category({"FSB", "HAL"})
+public class CounterOverflowEvent extends Event {
+
+    public static final EventType TYPE = EventType.getEventType(CounterOverflowEvent.class);
+
+    @Label("Arm")
+    public int arm;
+
+    @Label("Position Buffer")
+    @Description("Position buffer after the counter was added to it")
+    public int buffer;
+}
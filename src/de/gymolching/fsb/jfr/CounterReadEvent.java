@@ -0,0 +1,30 @@
+package de.gymolching.fsb.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * An arm's counter chip was read.
+ * @author sschaeffner
+ */
+@Name("de.gymolching.fsb.CounterRead")
+@Label("Counter Read")
+@Category({"FSB", "HAL"})
+@StackTrace(false)
+public class CounterReadEvent extends Event {
+
+    public static final EventType TYPE = EventType.getEventType(CounterReadEvent.class);
+
+    @Label("Arm")
+    public int arm;
+
+    @Label("Value")
+    public int value;
+
+    @Label("Blocked")
+    public boolean blocked;
+}
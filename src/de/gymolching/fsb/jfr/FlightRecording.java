@@ -0,0 +1,120 @@
+package de.gymolching.fsb.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.util.Date;
+
+/**
+ * Records a JFR session with the JDK's profile settings plus all FSB events, to be opened in JDK Mission Control.
+ * Only one recording runs at a time.
+ * The FSB events are referenced from the server's hot paths, so the server needs a JVM with the jdk.jfr module, i.e. Java 11 or later.
+ * They cost a check of TYPE.isEnabled() while no recording runs.
+ * @author sschaeffner
+ */
+public class FlightRecording {
+
+    //FSB events, all enabled without threshold
+    private static final Class<?>[] EVENTS = {
+            PoseReceivedEvent.class, ClientConnectedEvent.class, ClientDisconnectedEvent.class,
+            TargetSetEvent.class, ArmArrivedEvent.class, OvershootEvent.class,
+            CounterReadEvent.class, CounterClearEvent.class, CounterOverflowEvent.class,
+            MotorStartEvent.class, MotorStopEvent.class, I2COperationEvent.class
+    };
+
+    //singleton instance of FlightRecording
+    private static FlightRecording instance = null;
+
+    //the running recording, null if none
+    private Recording recording;
+
+    /**
+     * Returns the flight recording of the running program.
+     * @return instance of FlightRecording
+     */
+    public static FlightRecording getInstance() {
+        synchronized (FlightRecording.class) {
+            if (instance == null) instance = new FlightRecording();
+        }
+        return instance;
+    }
+
+    private FlightRecording() {
+    }
+
+    /**
+     * Starts a recording that stops by itself and is then written to a file.
+     * @param duration      how long to record
+     * @param destination   file the recording is written to
+     * @throws IOException if the JDK's profile settings cannot be read or the destination is not writable
+     * @throws IllegalStateException if a recording is already running
+     */
+    public synchronized void start(Duration duration, Path destination) throws IOException {
+        if (isRecording()) throw new IllegalStateException("a recording is already running.");
+
+        Configuration profile;
+        try {
+            profile = Configuration.getConfiguration("profile");
+        } catch (ParseException e) {
+            throw new IOException("cannot read JFR profile settings", e);
+        }
+
+        Recording recording = new Recording(profile);
+        recording.setName("FSB");
+        for (Class<?> event : EVENTS) {
+            recording.enable(event.getName()).withoutThreshold();
+        }
+        recording.setDuration(duration);
+        recording.setDestination(destination);
+        recording.setToDisk(true);
+        recording.start();
+
+        if (this.recording != null) this.recording.close();
+        this.recording = recording;
+    }
+
+    /**
+     * Stops the running recording early, which writes it to its file.
+     * @return the file the recording was written to
+     * @throws IllegalStateException if no recording is running
+     */
+    public synchronized Path stop() {
+        if (!isRecording()) throw new IllegalStateException("no recording is running.");
+
+        Path destination = recording.getDestination();
+        recording.stop();
+        recording.close();
+        recording = null;
+        return destination;
+    }
+
+    /**
+     * Returns whether a recording is running.
+     * @return whether a recording is running
+     */
+    public synchronized boolean isRecording() {
+        return recording != null && recording.getState() == RecordingState.RUNNING;
+    }
+
+    /**
+     * Returns the file the running or last recording is written to.
+     * @return the destination or null if there was no recording
+     */
+    public synchronized Path getDestination() {
+        return recording == null ? null : recording.getDestination();
+    }
+
+    /**
+     * Returns a file name containing the current time, e.g. fsb-20170401-153000.jfr.
+     * @return file name for a new recording
+     */
+    public static String defaultFileName() {
+        return "fsb-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".jfr";
+    }
+}
@@ -0,0 +1,35 @@
+package de.gymolching.fsb.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A read or write on the I2C bus.
+ * @author sschaeffner
+ */
+@Name("de.gymolching.fsb.I2COperation")
+@Label("I2C Operation")
+@Category({"FSB", "HAL"})
+@StackTrace(false)
+public class I2COperationEvent extends Event {
+
+    public static final EventType TYPE = EventType.getEventType(I2COperationEvent.class);
+
+    @Label("Device Address")
+    public int address;
+
+    @Label("Write")
+    public boolean write;
+
+    @Label("Size")
+    @DataAmount
+    public int bytes;
+
+    @Label("Failed")
+    public boolean failed;
+}
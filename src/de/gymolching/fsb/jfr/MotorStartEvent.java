@@ -0,0 +1,32 @@
+package de.gymolching.fsb.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * An arm's motor was started.
+ * @author sschaeffner
+ */
+@Name("de.gymolching.fsb.MotorStart")
+@Label("Motor Start")
+@Category({"FSB", "HAL"})
+@StackTrace(false)
+public class MotorStartEvent extends Event {
+
+    public static final EventType TYPE = EventType.getEventType(MotorStartEvent.class);
+
+    @Label("Arm")
+    public int arm;
+
+    @Label("Direction")
+    @Description("1 forward, -1 backward")
+    public int direction;
+
+    @Label("PWM Value")
+    public int pwm;
+}
@@ -0,0 +1,32 @@
+package de.gymolching.fsb.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * An arm's motor was stopped, lasting until the counter was emptied into the position buffer.
+ * @author sschaeffner
+ */
+@Name("de.gymolching.fsb.MotorStop")
+@Label("Motor Stop")
+@Category({"FSB", "HAL"})
+@StackTrace(false)
+public class MotorStopEvent extends Event {
+
+    public static final EventType TYPE = EventType.getEventType(MotorStopEvent.class);
+
+    @Label("Arm")
+    public int arm;
+
+    @Label("Method")
+    @Description("h-driver, reverse or pwm")
+    public String method;
+
+    @Label("Position")
+    public int position;
+}
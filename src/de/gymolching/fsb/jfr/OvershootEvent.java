@@ -0,0 +1,35 @@
+package de.gymolching.fsb.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * An arm drove past its goal position.
+ * @author sschaeffner
+ */
+@Name("de.gymolching.fsb.Overshoot")
+@Label("Overshoot")
+@Category({"FSB", "Regulation"})
+@StackTrace(false)
+public class OvershootEvent extends Event {
+
+    public static final EventType TYPE = EventType.getEventType(OvershootEvent.class);
+
+    @Label("Arm")
+    public int arm;
+
+    @Label("Goal")
+    public int goal;
+
+    @Label("Position")
+    public int position;
+
+    @Label("Overshoot")
+    @Description("Steps past the goal")
+    public int overshoot;
+}
@@ -0,0 +1,35 @@
+package de.gymolching.fsb.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A message received by FSBServer, lasting while it is decoded and published.
+ * @author sschaeffner
+ */
+@Name("de.gymolching.fsb.PoseReceived")
+@Label("Pose Received")
+@Category({"FSB", "Network"})
+@Description("A position or pose message received from a client, lasting while it is decoded and published")
+@StackTrace(false)
+public class PoseReceivedEvent extends Event {
+
+    public static final EventType TYPE = EventType.getEventType(PoseReceivedEvent.class);
+
+    @Label("Client Port")
+    public int clientPort;
+
+    @Label("Message Size")
+    @DataAmount
+    public int messageBytes;
+
+    @Label("Accepted")
+    @Description("Whether the message was well-formed and within reach")
+    public boolean accepted;
+}
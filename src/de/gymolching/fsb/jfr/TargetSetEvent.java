@@ -0,0 +1,40 @@
+package de.gymolching.fsb.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * An arm's motion profile was given a new target.
+ * @author sschaeffner
+ */
+@Name("de.gymolching.fsb.TargetSet")
+@Label("Target Set")
+@Category({"FSB", "Regulation"})
+@StackTrace(false)
+public class TargetSetEvent extends Event {
+
+    public static final EventType TYPE = EventType.getEventType(TargetSetEvent.class);
+
+    @Label("Arm")
+    public int arm;
+
+    @Label("Target")
+    @Description("New goal position in steps")
+    public int target;
+
+    @Label("Previous Target")
+    public double previousTarget;
+
+    @Label("Position")
+    @Description("Measured position in steps when the target was set")
+    public int position;
+
+    @Label("Scale")
+    @Description("Factor applied to the arm's motion limits in coordinated mode")
+    public double scale;
+}
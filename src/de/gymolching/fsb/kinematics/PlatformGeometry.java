@@ -0,0 +1,236 @@
+package de.gymolching.fsb.kinematics;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Geometry of a Stewart platform with any amount of arms from MIN_ARM_AMOUNT up, six for a hexapod.
+ * Anchor points are given in millimeters: base anchors in the base frame, platform anchors in the platform frame,
+ * both frames having their z axis pointing up. At the neutral pose the platform frame sits homeHeight above the base frame.
+ *
+ * A geometry file is a properties file with the following keys:
+ * <pre>
+ * base.0 = x, y, z          (one line per arm, numbered from 0 without gaps)
+ * platform.0 = x, y, z      (one line per arm, numbered like the base anchors)
+ * length.min = ...          (arm length at 0%)
+ * length.max = ...          (arm length at 100%)
+ * home.height = ...         (platform height at the neutral pose)
+ * </pre>
+ * @author sschaeffner
+ */
+public class PlatformGeometry {
+
+    //amount of arms of a hexapod, the usual platform
+    public static final int DEFAULT_ARM_AMOUNT = 6;
+
+    //least amount of arms a platform can have
+    public static final int MIN_ARM_AMOUNT = 3;
+
+    private final int armAmount;
+    private final double[] baseX, baseY, baseZ;
+    private final double[] platformX, platformY, platformZ;
+    private final double minLength;
+    private final double maxLength;
+    private final double homeHeight;
+
+    /**
+     * Creates a platform geometry.
+     * @param base          base anchor points, one {x, y, z} per arm
+     * @param platform      platform anchor points, one {x, y, z} per arm
+     * @param minLength     arm length at 0%
+     * @param maxLength     arm length at 100%
+     * @param homeHeight    platform height at the neutral pose
+     */
+    public PlatformGeometry(double[][] base, double[][] platform, double minLength, double maxLength, double homeHeight) {
+        if (base.length != platform.length) {
+            throw new IllegalArgumentException("geometry must have as many base as platform anchor points.");
+        }
+        if (base.length < MIN_ARM_AMOUNT) {
+            throw new IllegalArgumentException("geometry must have at least " + MIN_ARM_AMOUNT + " arms.");
+        }
+        if (minLength <= 0 || maxLength <= minLength) {
+            throw new IllegalArgumentException("arm lengths must satisfy 0 < length.min < length.max.");
+        }
+
+        this.armAmount = base.length;
+        this.baseX = new double[armAmount];
+        this.baseY = new double[armAmount];
+        this.baseZ = new double[armAmount];
+        this.platformX = new double[armAmount];
+        this.platformY = new double[armAmount];
+        this.platformZ = new double[armAmount];
+        for (int i = 0; i < armAmount; i++) {
+            this.baseX[i] = base[i][0];
+            this.baseY[i] = base[i][1];
+            this.baseZ[i] = base[i][2];
+            this.platformX[i] = platform[i][0];
+            this.platformY[i] = platform[i][1];
+            this.platformZ[i] = platform[i][2];
+        }
+        this.minLength = minLength;
+        this.maxLength = maxLength;
+        this.homeHeight = homeHeight;
+    }
+
+    /**
+     * Loads a platform geometry from a geometry file. The platform has as many arms as there are base anchors.
+     * @param fileName  path of the geometry file
+     * @return the platform geometry
+     * @throws IOException when the file cannot be read
+     * @throws IllegalArgumentException when the file is incomplete or malformed
+     */
+    public static PlatformGeometry load(String fileName) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(fileName)) {
+            properties.load(in);
+        }
+
+        int armAmount = 0;
+        while (properties.getProperty("base." + armAmount) != null) armAmount++;
+
+        double[][] base = new double[armAmount][];
+        double[][] platform = new double[armAmount][];
+        for (int i = 0; i < armAmount; i++) {
+            base[i] = readPoint(properties, "base." + i);
+            platform[i] = readPoint(properties, "platform." + i);
+        }
+        if (properties.getProperty("platform." + armAmount) != null) {
+            throw new IllegalArgumentException("geometry has platform." + armAmount + " but no base." + armAmount);
+        }
+
+        return new PlatformGeometry(base, platform,
+                readNumber(properties, "length.min"),
+                readNumber(properties, "length.max"),
+                readNumber(properties, "home.height"));
+    }
+
+    /**
+     * Creates the geometry of a symmetric hexapod.
+     * Base anchors come in pairs centered around 0, 120 and 240 degrees, platform anchors in pairs centered around
+     * 60, 180 and 300 degrees, and each arm connects a base anchor to the nearest platform anchor of the neighbouring pair.
+     * @param baseRadius            radius of the base anchor circle
+     * @param baseSeparation        angle between the two base anchors of a pair in degrees
+     * @param platformRadius        radius of the platform anchor circle
+     * @param platformSeparation    angle between the two platform anchors of a pair in degrees
+     * @param minLength             arm length at 0%
+     * @param maxLength             arm length at 100%
+     * @param homeHeight            platform height at the neutral pose
+     * @return the platform geometry
+     */
+    public static PlatformGeometry symmetric(double baseRadius, double baseSeparation, double platformRadius, double platformSeparation,
+                                             double minLength, double maxLength, double homeHeight) {
+        return symmetric(DEFAULT_ARM_AMOUNT, baseRadius, baseSeparation, platformRadius, platformSeparation, minLength, maxLength, homeHeight);
+    }
+
+    /**
+     * Creates the geometry of a symmetric platform with any amount of arms.
+     * With an even amount, anchors come in pairs as on the hexapod, the pairs spread evenly around the circles.
+     * With an odd amount, anchors are spread evenly, platform anchors halfway between base anchors; the separations are not used.
+     * @param armAmount             amount of arms, at least MIN_ARM_AMOUNT
+     * @param baseRadius            radius of the base anchor circle
+     * @param baseSeparation        angle between the two base anchors of a pair in degrees
+     * @param platformRadius        radius of the platform anchor circle
+     * @param platformSeparation    angle between the two platform anchors of a pair in degrees
+     * @param minLength             arm length at 0%
+     * @param maxLength             arm length at 100%
+     * @param homeHeight            platform height at the neutral pose
+     * @return the platform geometry
+     */
+    public static PlatformGeometry symmetric(int armAmount, double baseRadius, double baseSeparation, double platformRadius, double platformSeparation,
+                                             double minLength, double maxLength, double homeHeight) {
+        if (armAmount < MIN_ARM_AMOUNT) throw new IllegalArgumentException("a platform must have at least " + MIN_ARM_AMOUNT + " arms.");
+
+        double[][] base = new double[armAmount][];
+        double[][] platform = new double[armAmount][];
+        for (int i = 0; i < armAmount; i++) {
+            double baseAngle, platformAngle;
+            if (armAmount % 2 == 0) {
+                double spacing = 720.0 / armAmount;
+                double side = (i % 2 == 0) ? -1 : 1;
+                baseAngle = Math.toRadians(spacing * (i / 2) + side * baseSeparation / 2);
+                platformAngle = Math.toRadians(spacing * (i / 2) + side * (spacing / 2 - platformSeparation / 2));
+            } else {
+                double spacing = 360.0 / armAmount;
+                baseAngle = Math.toRadians(spacing * i);
+                platformAngle = Math.toRadians(spacing * i + spacing / 2);
+            }
+            base[i] = new double[]{baseRadius * Math.cos(baseAngle), baseRadius * Math.sin(baseAngle), 0};
+            platform[i] = new double[]{platformRadius * Math.cos(platformAngle), platformRadius * Math.sin(platformAngle), 0};
+        }
+        return new PlatformGeometry(base, platform, minLength, maxLength, homeHeight);
+    }
+
+    private static double[] readPoint(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        if (value == null) throw new IllegalArgumentException("geometry is missing " + key);
+
+        String[] parts = value.split(",");
+        if (parts.length != 3) throw new IllegalArgumentException(key + " must be given as x, y, z");
+
+        double[] point = new double[3];
+        for (int i = 0; i < 3; i++) {
+            try {
+                point[i] = Double.parseDouble(parts[i].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(key + " contains a malformed number: " + parts[i]);
+            }
+        }
+        return point;
+    }
+
+    private static double readNumber(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        if (value == null) throw new IllegalArgumentException("geometry is missing " + key);
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " must be a number but was " + value);
+        }
+    }
+
+    /**
+     * Returns how many arms the platform has.
+     * @return amount of arms
+     */
+    public int getArmAmount() {
+        return armAmount;
+    }
+
+    double getBaseX(int arm) {
+        return baseX[arm];
+    }
+
+    double getBaseY(int arm) {
+        return baseY[arm];
+    }
+
+    double getBaseZ(int arm) {
+        return baseZ[arm];
+    }
+
+    double getPlatformX(int arm) {
+        return platformX[arm];
+    }
+
+    double getPlatformY(int arm) {
+        return platformY[arm];
+    }
+
+    double getPlatformZ(int arm) {
+        return platformZ[arm];
+    }
+
+    public double getMinLength() {
+        return minLength;
+    }
+
+    public double getMaxLength() {
+        return maxLength;
+    }
+
+    public double getHomeHeight() {
+        return homeHeight;
+    }
+}
@@ -0,0 +1,89 @@
+package de.gymolching.fsb.kinematics;
+
+/**
+ * Inverse kinematics of a Stewart platform.
+ * Computes the arm lengths needed for a platform pose. Solving allocates nothing and holds no mutable state,
+ * so one instance may be shared between threads.
+ * @author sschaeffner
+ */
+public class StewartKinematics {
+
+    private final int armAmount;
+    private final double[] baseX, baseY, baseZ;
+    private final double[] platformX, platformY, platformZ;
+    private final double minLength;
+    private final double lengthRange;
+    private final double homeHeight;
+
+    /**
+     * Creates an inverse kinematics solver for a platform geometry.
+     * @param geometry  the platform's geometry
+     */
+    public StewartKinematics(PlatformGeometry geometry) {
+        this.armAmount = geometry.getArmAmount();
+        this.baseX = new double[armAmount];
+        this.baseY = new double[armAmount];
+        this.baseZ = new double[armAmount];
+        this.platformX = new double[armAmount];
+        this.platformY = new double[armAmount];
+        this.platformZ = new double[armAmount];
+        for (int i = 0; i < armAmount; i++) {
+            this.baseX[i] = geometry.getBaseX(i);
+            this.baseY[i] = geometry.getBaseY(i);
+            this.baseZ[i] = geometry.getBaseZ(i);
+            this.platformX[i] = geometry.getPlatformX(i);
+            this.platformY[i] = geometry.getPlatformY(i);
+            this.platformZ[i] = geometry.getPlatformZ(i);
+        }
+        this.minLength = geometry.getMinLength();
+        this.lengthRange = geometry.getMaxLength() - geometry.getMinLength();
+        this.homeHeight = geometry.getHomeHeight();
+    }
+
+    /**
+     * Computes the arm lengths for a platform pose.
+     * The pose is the platform's translation from its neutral position and its rotation,
+     * applied as yaw around z, then pitch around y, then roll around x.
+     * @param x         translation along x in mm
+     * @param y         translation along y in mm
+     * @param z         translation along z in mm
+     * @param roll      rotation around x in radians
+     * @param pitch     rotation around y in radians
+     * @param yaw       rotation around z in radians
+     * @param lengths   receives one length per arm, normalized to 0..1 between the arm's minimum and maximum length;
+     *                  its contents are undefined when the pose is out of reach
+     * @return whether every arm can reach the pose
+     */
+    public boolean solve(double x, double y, double z, double roll, double pitch, double yaw, double[] lengths) {
+        double cr = Math.cos(roll), sr = Math.sin(roll);
+        double cp = Math.cos(pitch), sp = Math.sin(pitch);
+        double cy = Math.cos(yaw), sy = Math.sin(yaw);
+
+        //rotation matrix Rz(yaw) * Ry(pitch) * Rx(roll)
+        double r00 = cy * cp, r01 = cy * sp * sr - sy * cr, r02 = cy * sp * cr + sy * sr;
+        double r10 = sy * cp, r11 = sy * sp * sr + cy * cr, r12 = sy * sp * cr - cy * sr;
+        double r20 = -sp, r21 = cp * sr, r22 = cp * cr;
+
+        double tz = z + homeHeight;
+
+        for (int i = 0; i < armAmount; i++) {
+            double px = platformX[i], py = platformY[i], pz = platformZ[i];
+            double dx = r00 * px + r01 * py + r02 * pz + x - baseX[i];
+            double dy = r10 * px + r11 * py + r12 * pz + y - baseY[i];
+            double dz = r20 * px + r21 * py + r22 * pz + tz - baseZ[i];
+
+            double normalized = (Math.sqrt(dx * dx + dy * dy + dz * dz) - minLength) / lengthRange;
+            if (normalized < 0 || normalized > 1) return false;
+            lengths[i] = normalized;
+        }
+        return true;
+    }
+
+    /**
+     * Returns how many arms the platform has.
+     * @return how many arms the platform has
+     */
+    public int getArmAmount() {
+        return armAmount;
+    }
+}
@@ -0,0 +1,313 @@
+package de.gymolching.fsb.loadtest;
+
+import de.gymolching.fsb.metrics.LatencyHistogram;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One connection of the load generator.
+ * Streams pose messages at a fixed rate, sending every message that is due in one write when woken up late.
+ * Messages are encoded without allocating so the generator itself stays cheap at high rates.
+ * With flow control the client asks the server for send credits and sends one message per credit, spread over the server's
+ * grant period, dropping the poses that become due while it may not send.
+ * @author sschaeffner
+ */
+public class LoadClient implements Runnable {
+
+    //most messages sent in one write; if more are due the client has fallen behind and skips them
+    private static final int MAX_BATCH = 64;
+
+    //largest encoded pose message
+    private static final int MAX_MESSAGE_LENGTH = 128;
+
+    //amplitudes of x, y, z in mm and roll, pitch, yaw in degrees
+    private static final double[] AMPLITUDES = {20, 20, 30, 5, 5, 8};
+
+    private static final byte[] POSE_PREFIX = {'P', 'O', 'S', 'E', ':'};
+
+    //message asking the server for flow control and prefix of its grants
+    private static final byte[] FLOW_REQUEST = {'F', 'L', 'O', 'W', ':', '1'};
+    private static final byte[] CREDIT_PREFIX = {'C', 'R', 'E', 'D', 'I', 'T', ':'};
+
+    private final InetSocketAddress address;
+    private final double rate;
+    private final Waveform waveform;
+    private final double frequency;
+
+    //time offset in seconds so several clients do not send identical poses
+    private final double timeOffset;
+
+    //buffer messages are encoded into before writing
+    private final byte[] buffer;
+
+    //how many messages were sent
+    private final AtomicLong sent;
+
+    //how many due messages were skipped because the client could not keep up
+    private final AtomicLong skipped;
+
+    //how long writing and flushing a batch blocked, which grows when the server does not read fast enough
+    private final LatencyHistogram writeLatency;
+
+    //whether the client asks for send credits and keeps to them
+    private final boolean flowControl;
+
+    //messages the client may still send, the time between them that spreads them over a grant period
+    //and when the next may be sent, only used by run()
+    private long credits;
+    private long creditInterval;
+    private long notBefore;
+
+    //how many due messages were dropped because the client had no credits
+    private final AtomicLong withheld;
+
+    //positions per second the server's regulation took, as last reported by the server
+    private volatile long applyRate = -1;
+
+    //buffer grants are read into
+    private final byte[] receiveBuffer = new byte[MAX_MESSAGE_LENGTH];
+
+    private volatile Socket socket;
+
+    /**
+     * Creates a client; run() connects it.
+     * @param address       address of the server
+     * @param rate          messages per second
+     * @param waveform      shape of the motion
+     * @param frequency     frequency of the motion in Hz
+     * @param timeOffset    time offset of the motion in seconds
+     * @param writeLatency  records how long writing and flushing a batch blocked, may be shared between clients
+     */
+    public LoadClient(InetSocketAddress address, double rate, Waveform waveform, double frequency, double timeOffset, LatencyHistogram writeLatency) {
+        this(address, rate, waveform, frequency, timeOffset, writeLatency, false);
+    }
+
+    /**
+     * Creates a client; run() connects it.
+     * @param address       address of the server
+     * @param rate          messages per second at most
+     * @param waveform      shape of the motion
+     * @param frequency     frequency of the motion in Hz
+     * @param timeOffset    time offset of the motion in seconds
+     * @param writeLatency  records how long writing and flushing a batch blocked, may be shared between clients
+     * @param flowControl   whether to ask the server for send credits and keep to them
+     */
+    public LoadClient(InetSocketAddress address, double rate, Waveform waveform, double frequency, double timeOffset, LatencyHistogram writeLatency,
+                      boolean flowControl) {
+        this.address = address;
+        this.rate = rate;
+        this.waveform = waveform;
+        this.frequency = frequency;
+        this.timeOffset = timeOffset;
+        this.buffer = new byte[MAX_BATCH * MAX_MESSAGE_LENGTH];
+        this.sent = new AtomicLong();
+        this.skipped = new AtomicLong();
+        this.writeLatency = writeLatency;
+        this.flowControl = flowControl;
+        this.withheld = new AtomicLong();
+    }
+
+    @Override
+    public void run() {
+        try (Socket socket = new Socket()) {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            socket.connect(address);
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), buffer.length);
+            BufferedInputStream in = new BufferedInputStream(socket.getInputStream());
+            if (flowControl) {
+                out.write(0);
+                out.write(FLOW_REQUEST.length);
+                out.write(FLOW_REQUEST);
+                out.flush();
+            }
+
+            long interval = (long) (1e9 / rate);
+            long start = System.nanoTime();
+            long next = start;
+            while (!Thread.currentThread().isInterrupted()) {
+                long now = System.nanoTime();
+                if (now < next) {
+                    LockSupport.parkNanos(next - now);
+                    continue;
+                }
+
+                int length = 0;
+                int batch = 0;
+                if (flowControl) {
+                    //at most the current pose, once the credits' spacing allows it; the other due poses are dropped
+                    readGrants(in, now);
+                    long due = (now - next) / interval + 1;
+                    next += due * interval;
+                    if (credits > 0 && now >= notBefore) {
+                        length = encode((now - start) / 1e9 + timeOffset, 0);
+                        batch = 1;
+                        credits--;
+                        notBefore = now + creditInterval;
+                    }
+                    withheld.addAndGet(due - batch);
+                    if (batch == 0) continue;
+                } else {
+                    while (next <= now && batch < MAX_BATCH) {
+                        length = encode((next - start) / 1e9 + timeOffset, length);
+                        next += interval;
+                        batch++;
+                    }
+                    if (next <= now) {
+                        skipped.addAndGet((now - next) / interval + 1);
+                        next = now + interval;
+                    }
+                }
+
+                long before = System.nanoTime();
+                out.write(buffer, 0, length);
+                out.flush();
+                writeLatency.record(System.nanoTime() - before);
+                sent.addAndGet(batch);
+            }
+        } catch (IOException e) {
+            if (!Thread.currentThread().isInterrupted()) {
+                System.err.println("[LOAD] connection to " + address + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reads the grants that arrived so far without waiting for more.
+     */
+    private void readGrants(BufferedInputStream in, long now) throws IOException {
+        while (in.available() >= 2) {
+            in.mark(2 + receiveBuffer.length);
+            int length = in.read() << 8 | in.read();
+            if (in.available() < length) {
+                //rest of the grant still in flight
+                in.reset();
+                return;
+            }
+            int read = 0;
+            while (read < length) read += in.read(receiveBuffer, read, length - read);
+            parseGrant(length, now);
+        }
+    }
+
+    /**
+     * Adds the credits of a grant "CREDIT:n;rate;period" and takes over the reported rate; other messages are ignored.
+     */
+    private void parseGrant(int length, long now) {
+        if (length < CREDIT_PREFIX.length) return;
+        for (int i = 0; i < CREDIT_PREFIX.length; i++) {
+            if (receiveBuffer[i] != CREDIT_PREFIX[i]) return;
+        }
+
+        long granted = 0;
+        int i = CREDIT_PREFIX.length;
+        for (; i < length && receiveBuffer[i] != ';'; i++) granted = granted * 10 + (receiveBuffer[i] - '0');
+        long rate = 0;
+        for (i++; i < length && receiveBuffer[i] != ';'; i++) rate = rate * 10 + (receiveBuffer[i] - '0');
+        long periodMillis = 0;
+        for (i++; i < length; i++) periodMillis = periodMillis * 10 + (receiveBuffer[i] - '0');
+
+        //spread over three quarters of the period, so credits are not lost to a client that wakes up a little late;
+        //the first send is shifted by the client's time offset so several clients do not send in lockstep after each grant
+        credits += granted;
+        creditInterval = periodMillis * 750000 / Math.max(1, credits);
+        notBefore = now + (long) (creditInterval * (timeOffset * frequency % 1));
+        applyRate = rate;
+    }
+
+    /**
+     * Closes the connection, which also ends run().
+     */
+    public void close() {
+        Socket socket = this.socket;
+        if (socket == null) return;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * Returns how many due messages were dropped because the server granted no credits for them.
+     * @return messages withheld by flow control
+     */
+    public long getWithheld() {
+        return withheld.get();
+    }
+
+    /**
+     * Returns the rate at which the server's regulation took positions, as last reported by the server.
+     * @return positions per second or -1 if there was no report yet or flow control is off
+     */
+    public long getApplyRate() {
+        return applyRate;
+    }
+
+    /**
+     * Encodes the pose at a point in time as a message the way DataOutputStream.writeUTF would.
+     * @param time      time in seconds
+     * @param offset    where in the buffer the message starts
+     * @return where in the buffer the message ends
+     */
+    private int encode(double time, int offset) {
+        int i = offset + 2;
+        for (byte b : POSE_PREFIX) buffer[i++] = b;
+        for (int dof = 0; dof < AMPLITUDES.length; dof++) {
+            if (dof > 0) buffer[i++] = ';';
+            //every degree of freedom runs a quarter period behind the previous one
+            i = encodeNumber(AMPLITUDES[dof] * waveform.value(time + dof / (4 * frequency), frequency), i);
+        }
+
+        int length = i - offset - 2;
+        buffer[offset] = (byte) (length >>> 8);
+        buffer[offset + 1] = (byte) length;
+        return i;
+    }
+
+    /**
+     * Encodes a number with three decimals.
+     * @return where in the buffer the number ends
+     */
+    private int encodeNumber(double value, int i) {
+        long fixed = Math.round(value * 1000);
+        if (fixed < 0) {
+            buffer[i++] = '-';
+            fixed = -fixed;
+        }
+
+        long integer = fixed / 1000;
+        int digitsStart = i;
+        do {
+            buffer[i++] = (byte) ('0' + integer % 10);
+            integer /= 10;
+        } while (integer > 0);
+        for (int low = digitsStart, high = i - 1; low < high; low++, high--) {
+            byte swap = buffer[low];
+            buffer[low] = buffer[high];
+            buffer[high] = swap;
+        }
+
+        int fraction = (int) (fixed % 1000);
+        buffer[i++] = '.';
+        buffer[i++] = (byte) ('0' + fraction / 100);
+        buffer[i++] = (byte) ('0' + fraction / 10 % 10);
+        buffer[i++] = (byte) ('0' + fraction % 10);
+        return i;
+    }
+}
@@ -0,0 +1,392 @@
+package de.gymolching.fsb.loadtest;
+
+import de.gymolching.fsb.Config;
+import de.gymolching.fsb.hal.SimulatedArm;
+import de.gymolching.fsb.halApi.ArmInterface;
+import de.gymolching.fsb.kinematics.PlatformGeometry;
+import de.gymolching.fsb.kinematics.StewartKinematics;
+import de.gymolching.fsb.metrics.LatencyHistogram;
+import de.gymolching.fsb.metrics.MetricsHttpServer;
+import de.gymolching.fsb.metrics.MetricsRegistry;
+import de.gymolching.fsb.network.implementation.FSBServer;
+import de.gymolching.fsb.network.implementation.ServerStatistics;
+import de.gymolching.fsb.regulation.MotionLimits;
+import de.gymolching.fsb.regulation.SimpleRegulationImpl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * Streams synthetic poses to an FSBServer over one or more connections and reports how the server copes.
+ * Without --connect, a server is started in this JVM with the regulation driving simulated arms,
+ * so the server's own counters can be reported as well: received, rejected and conflated messages
+ * and the latency from reading a message until the regulation takes its position.
+ * Heap and thread counts are reported periodically to find leaks in long soak runs.
+ * <p>
+ * Usage: java -cp fsb.jar de.gymolching.fsb.loadtest.LoadGenerator [options]
+ * <pre>
+ * --connect host:port  send to a running server instead of starting one
+ * --port n             port of the first started server, further ones count up (default: any free port)
+ * --config file        configuration of the started server (default: fsb.properties)
+ * --connections n      parallel connections, spread over the platforms (default: 1 per platform); a running server
+ *                      only accepts more than one if it has server.concurrentClients=true
+ * --platforms n        platforms started side by side in this JVM, each with its own server and regulation (default: 1)
+ * --rate hz            messages per second per connection (default: 100)
+ * --waveform name      sine, square, triangle, sweep or noise (default: sine)
+ * --frequency hz       frequency of the motion (default: 0.5)
+ * --duration s         how long to run, 0 runs until killed (default: 60)
+ * --report s           seconds between reports (default: 10)
+ * --metrics-port n     serve the started server's metrics for Prometheus on this port
+ * --flow-control       clients ask for send credits and send no more than the server grants
+ * --verbose            keep the log output of server and regulation
+ * </pre>
+ * The started server needs kinematics.geometry to be configured or uses a symmetric example platform.
+ * With several platforms, latency percentiles are those of the worst platform; the summary lists every platform,
+ * which shows how many platforms one host can drive.
+ * @author sschaeffner
+ */
+public class LoadGenerator {
+
+    //how long to wait for messages still in flight before the final report
+    private static final int DRAIN_MILLIS = 500;
+
+    //simulated arm: time constant of the motor and length of the stroke in steps
+    private static final double SIMULATED_TIME_CONSTANT = 0.08;
+    private static final double SIMULATED_STROKE_STEPS = 40;
+
+    //how long to wait for the regulation's threads at the end
+    private static final long REGULATION_SHUTDOWN_TIMEOUT_MILLIS = 1000;
+
+    private InetSocketAddress connect;
+    private int port = 0;
+    private String configFile = Config.DEFAULT_FILE;
+    private int connections = 0;
+    private int platforms = 1;
+    private double rate = 100;
+    private Waveform waveform = Waveform.SINE;
+    private double frequency = 0.5;
+    private int durationSeconds = 60;
+    private int reportSeconds = 10;
+    private boolean verbose = false;
+    private boolean flowControl = false;
+    private int metricsPort = -1;
+
+    //reports are written here, System.out may be silenced
+    private final PrintStream report = System.out;
+
+    private FSBServer[] servers;
+    private SimpleRegulationImpl[] regulations;
+    private MetricsHttpServer metricsHttpServer;
+    private LoadClient[] clients;
+
+    //how long the clients' writes blocked
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    //values at the previous report, to compute rates
+    private long lastReportNanos;
+    private long lastSent;
+    private long lastReceived;
+    private long lastDelivered;
+    private long firstLiveHeap = -1;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        try {
+            generator.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        generator.run();
+        System.exit(0);
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--verbose")) {
+                verbose = true;
+                continue;
+            }
+            if (option.equals("--flow-control")) {
+                flowControl = true;
+                continue;
+            }
+            if (i + 1 >= args.length) throw new IllegalArgumentException("missing value for " + option);
+            String value = args[++i];
+            try {
+                switch (option) {
+                    case "--connect":
+                        int colon = value.lastIndexOf(':');
+                        if (colon < 0) throw new IllegalArgumentException("--connect needs host:port");
+                        connect = new InetSocketAddress(value.substring(0, colon), Integer.parseInt(value.substring(colon + 1)));
+                        break;
+                    case "--port":
+                        port = Integer.parseInt(value);
+                        break;
+                    case "--config":
+                        configFile = value;
+                        break;
+                    case "--connections":
+                        connections = Integer.parseInt(value);
+                        break;
+                    case "--platforms":
+                        platforms = Integer.parseInt(value);
+                        break;
+                    case "--rate":
+                        rate = Double.parseDouble(value);
+                        break;
+                    case "--waveform":
+                        waveform = Waveform.valueOf(value.toUpperCase());
+                        break;
+                    case "--frequency":
+                        frequency = Double.parseDouble(value);
+                        break;
+                    case "--duration":
+                        durationSeconds = Integer.parseInt(value);
+                        break;
+                    case "--report":
+                        reportSeconds = Integer.parseInt(value);
+                        break;
+                    case "--metrics-port":
+                        metricsPort = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown option " + option);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid value for " + option + ": " + value);
+            }
+        }
+        if (connections == 0) connections = connect == null ? platforms : 1;
+        if (connections < 1 || platforms < 1 || rate <= 0 || frequency <= 0 || reportSeconds < 1 || durationSeconds < 0) {
+            throw new IllegalArgumentException("connections, platforms, rate, frequency and report must be positive, duration must not be negative");
+        }
+    }
+
+    private void run() throws IOException, InterruptedException {
+        if (!verbose) System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+
+        InetSocketAddress[] addresses;
+        if (connect == null) {
+            startServers();
+            addresses = new InetSocketAddress[servers.length];
+            for (int i = 0; i < servers.length; i++) {
+                addresses[i] = new InetSocketAddress(InetAddress.getLoopbackAddress(), servers[i].getPort());
+            }
+            report.printf("[LOAD] %d platform(s) started%n", servers.length);
+        } else {
+            addresses = new InetSocketAddress[]{connect};
+        }
+
+        report.printf("[LOAD] %d connection(s) to %s%s, %.0f messages/s each, %s at %.2f Hz%s%n",
+                connections, addresses[0], addresses.length > 1 ? " and following ports" : "", rate, waveform.name().toLowerCase(), frequency,
+                flowControl ? ", flow controlled" : "");
+
+        clients = new LoadClient[connections];
+        Thread[] clientThreads = new Thread[connections];
+        for (int i = 0; i < connections; i++) {
+            clients[i] = new LoadClient(addresses[i % addresses.length], rate, waveform, frequency, i / (connections * frequency), writeLatency, flowControl);
+            clientThreads[i] = new Thread(clients[i], "load-" + i);
+            clientThreads[i].start();
+        }
+
+        long start = System.nanoTime();
+        lastReportNanos = start;
+        long end = durationSeconds == 0 ? Long.MAX_VALUE : start + durationSeconds * 1000000000L;
+        while (System.nanoTime() < end) {
+            long sleepNanos = Math.min(reportSeconds * 1000000000L, end - System.nanoTime());
+            if (sleepNanos > 0) Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+            printReport(start);
+        }
+
+        for (int i = 0; i < connections; i++) {
+            clientThreads[i].interrupt();
+            clients[i].close();
+        }
+        for (Thread clientThread : clientThreads) clientThread.join();
+        Thread.sleep(DRAIN_MILLIS);
+        printSummary(start);
+
+        if (servers != null) {
+            for (int i = 0; i < servers.length; i++) {
+                regulations[i].shutdown(REGULATION_SHUTDOWN_TIMEOUT_MILLIS);
+                servers[i].stop();
+            }
+            if (metricsHttpServer != null) metricsHttpServer.stop();
+        }
+    }
+
+    /**
+     * Starts a server per platform in this JVM with the regulation driving simulated arms.
+     */
+    private void startServers() throws IOException, InterruptedException {
+        Config config = Config.load(configFile);
+
+        String geometryFile = config.getString("kinematics.geometry", null);
+        PlatformGeometry geometry = geometryFile != null
+                ? PlatformGeometry.load(geometryFile)
+                : PlatformGeometry.symmetric(300, 20, 200, 20, 400, 600, 460);
+        if (metricsPort >= 0) {
+            metricsHttpServer = new MetricsHttpServer(metricsPort, MetricsRegistry.getInstance());
+            report.println("[LOAD] serving metrics on port " + metricsHttpServer.getPort());
+        }
+
+        servers = new FSBServer[platforms];
+        regulations = new SimpleRegulationImpl[platforms];
+        for (int p = 0; p < platforms; p++) {
+            String id = Integer.toString(p);
+            Config platformConfig = config.withPrefix("platform." + id + ".");
+
+            servers[p] = new FSBServer(port == 0 ? 0 : port + p, false, new StewartKinematics(geometry));
+            servers[p].setConcurrentClients(connections > platforms);
+            servers[p].getStatistics().register(MetricsRegistry.getInstance(), "platform", id);
+
+            ArmInterface[] arms = new ArmInterface[geometry.getArmAmount()];
+            for (int i = 0; i < arms.length; i++) {
+                double fullSpeedVelocity = MotionLimits.fromConfig(platformConfig, i).getFullSpeedVelocity();
+                arms[i] = new SimulatedArm(fullSpeedVelocity, SIMULATED_TIME_CONSTANT, SIMULATED_STROKE_STEPS);
+            }
+
+            regulations[p] = new SimpleRegulationImpl(id, arms, platformConfig);
+            regulations[p].setPositionProvider(servers[p]);
+        }
+    }
+
+    /**
+     * Returns the delivery latency percentile of the platform where it is highest.
+     * @param percentile    the percentile, between 0 and 1
+     * @return latency in nanoseconds
+     */
+    private long worstLatency(double percentile) {
+        long worst = 0;
+        for (FSBServer server : servers) {
+            worst = Math.max(worst, server.getStatistics().getDeliveryLatency().getPercentile(percentile));
+        }
+        return worst;
+    }
+
+    private void printReport(long start) {
+        long now = System.nanoTime();
+        double seconds = (now - lastReportNanos) / 1e9;
+        lastReportNanos = now;
+
+        long sent = 0, skipped = 0, withheld = 0;
+        for (LoadClient client : clients) {
+            sent += client.getSent();
+            skipped += client.getSkipped();
+            withheld += client.getWithheld();
+        }
+
+        StringBuilder line = new StringBuilder();
+        line.append(String.format("[LOAD] %6ds sent %8.0f/s skipped %d", (now - start) / 1000000000L, (sent - lastSent) / seconds, skipped));
+        if (flowControl) line.append(String.format(" withheld %d applied %d/s", withheld, clients[0].getApplyRate()));
+        lastSent = sent;
+
+        if (servers != null) {
+            long received = 0, rejected = 0, conflated = 0, delivered = 0, max = 0;
+            for (FSBServer server : servers) {
+                ServerStatistics statistics = server.getStatistics();
+                received += statistics.getMessagesReceived();
+                rejected += statistics.getMessagesRejected();
+                conflated += statistics.getPositionsConflated();
+                delivered += statistics.getPositionsDelivered();
+                max = Math.max(max, statistics.getDeliveryLatency().getMax());
+            }
+            line.append(String.format(" | received %8.0f/s rejected %d conflated %d delivered %6.0f/s | latency p50 %s p99 %s p99.9 %s max %s",
+                    (received - lastReceived) / seconds, rejected, conflated,
+                    (delivered - lastDelivered) / seconds, formatNanos(worstLatency(0.5)), formatNanos(worstLatency(0.99)),
+                    formatNanos(worstLatency(0.999)), formatNanos(max)));
+            lastReceived = received;
+            lastDelivered = delivered;
+        }
+
+        line.append(" | write p99 ").append(formatNanos(writeLatency.getPercentile(0.99)));
+
+        long liveHeap = liveHeapBytes();
+        if (firstLiveHeap < 0) firstLiveHeap = liveHeap;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        line.append(String.format(" | heap %.1f MB (%+.1f) threads %d (peak %d)",
+                liveHeap / 1e6, (liveHeap - firstLiveHeap) / 1e6, threads.getThreadCount(), threads.getPeakThreadCount()));
+
+        report.println(line);
+    }
+
+    private void printSummary(long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long sent = 0, skipped = 0, withheld = 0;
+        for (LoadClient client : clients) {
+            sent += client.getSent();
+            skipped += client.getSkipped();
+            withheld += client.getWithheld();
+        }
+
+        report.println("[LOAD] summary after " + Math.round(seconds) + " s");
+        report.printf("[LOAD] sent %d messages (%.0f/s), %d skipped because the clients fell behind%n", sent, sent / seconds, skipped);
+        if (flowControl) report.printf("[LOAD] %d withheld for lack of credits, last reported apply rate %d/s%n", withheld, clients[0].getApplyRate());
+        report.printf("[LOAD] write+flush p50 %s p99 %s p99.9 %s max %s%n", formatNanos(writeLatency.getPercentile(0.5)),
+                formatNanos(writeLatency.getPercentile(0.99)), formatNanos(writeLatency.getPercentile(0.999)), formatNanos(writeLatency.getMax()));
+
+        if (servers != null) {
+            long received = 0;
+            for (FSBServer server : servers) {
+                received += server.getStatistics().getMessagesReceived();
+            }
+            report.printf("[LOAD] servers received %d (%d lost or still in flight)%n", received, sent - received);
+
+            for (int i = 0; i < servers.length; i++) {
+                ServerStatistics statistics = servers[i].getStatistics();
+                LatencyHistogram latency = statistics.getDeliveryLatency();
+                String platform = servers.length > 1 ? "[LOAD] platform " + i + ": " : "[LOAD] ";
+                report.printf("%sreceived %d, rejected %d, published %d, conflated %d (%.1f%%), delivered %d to the regulation%n", platform,
+                        statistics.getMessagesReceived(), statistics.getMessagesRejected(), statistics.getPositionsPublished(), statistics.getPositionsConflated(),
+                        100.0 * statistics.getPositionsConflated() / Math.max(1, statistics.getPositionsPublished()), statistics.getPositionsDelivered());
+                if (flowControl) report.printf("%s%d credits granted, %d messages over credit%n", platform,
+                        statistics.getCreditsGranted(), statistics.getMessagesOverCredit());
+                report.printf("%sdelivery latency p50 %s p99 %s p99.9 %s max %s mean %s%n", platform, formatNanos(latency.getPercentile(0.5)),
+                        formatNanos(latency.getPercentile(0.99)), formatNanos(latency.getPercentile(0.999)),
+                        formatNanos(latency.getMax()), formatNanos((long) latency.getMean()));
+            }
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        report.printf("[LOAD] heap after gc %.1f MB (%+.1f MB since first report), threads %d (peak %d)%n",
+                liveHeapBytes() / 1e6, (liveHeapBytes() - Math.max(0, firstLiveHeap)) / 1e6, threads.getThreadCount(), threads.getPeakThreadCount());
+    }
+
+    /**
+     * Returns the heap in use after the last garbage collection, or the heap in use now if there was none yet.
+     * Unlike the heap in use now, this does not grow with garbage and shows leaks.
+     */
+    private static long liveHeapBytes() {
+        long live = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP) continue;
+            MemoryUsage afterGc = pool.getCollectionUsage();
+            if (afterGc != null) live += afterGc.getUsed();
+        }
+        return live > 0 ? live : ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos < 10000) return nanos + "ns";
+        if (nanos < 10000000) return nanos / 1000 + "us";
+        return nanos / 1000000 + "ms";
+    }
+}
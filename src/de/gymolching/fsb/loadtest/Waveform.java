@@ -0,0 +1,77 @@
+package de.gymolching.fsb.loadtest;
+
+/**
+ * Shapes of the motion streamed by the load generator.
+ * Every waveform is periodic with a given frequency and swings between -1 and 1.
+ * @author sschaeffner
+ */
+public enum Waveform {
+
+    /**
+     * Smooth motion, what a flight simulator sends most of the time.
+     */
+    SINE {
+        @Override
+        public double value(double time, double frequency) {
+            return Math.sin(2 * Math.PI * frequency * time);
+        }
+    },
+
+    /**
+     * Jumps between the extremes, the hardest case for the regulation.
+     */
+    SQUARE {
+        @Override
+        public double value(double time, double frequency) {
+            return fraction(frequency * time) < 0.5 ? 1 : -1;
+        }
+    },
+
+    /**
+     * Constant velocity between the extremes.
+     */
+    TRIANGLE {
+        @Override
+        public double value(double time, double frequency) {
+            double phase = fraction(frequency * time);
+            return phase < 0.5 ? 4 * phase - 1 : 3 - 4 * phase;
+        }
+    },
+
+    /**
+     * Sine whose frequency rises to ten times the given frequency within every sweep, then starts over.
+     */
+    SWEEP {
+        @Override
+        public double value(double time, double frequency) {
+            double t = time % SWEEP_SECONDS;
+            return Math.sin(2 * Math.PI * frequency * (t + 9 * t * t / (2 * SWEEP_SECONDS)));
+        }
+    },
+
+    /**
+     * Irregular motion made of sines with incommensurate frequencies, like turbulence.
+     */
+    NOISE {
+        @Override
+        public double value(double time, double frequency) {
+            double t = 2 * Math.PI * frequency * time;
+            return (Math.sin(t) + Math.sin(2.71828 * t + 1) + Math.sin(7.389 * t + 2)) / 3;
+        }
+    };
+
+    //duration of one frequency sweep in seconds
+    private static final double SWEEP_SECONDS = 60;
+
+    /**
+     * Returns the waveform's value at a point in time.
+     * @param time      time in seconds
+     * @param frequency frequency in Hz
+     * @return value between -1 and 1
+     */
+    public abstract double value(double time, double frequency);
+
+    private static double fraction(double value) {
+        return value - Math.floor(value);
+    }
+}
@@ -0,0 +1,302 @@
+package de.gymolching.fsb.logging;
+
+import de.gymolching.fsb.Config;
+import de.gymolching.fsb.metrics.Counter;
+import de.gymolching.fsb.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Logger keeping console and file I/O off the threads that log.
+ * Logging threads claim a slot in a pre-allocated ring buffer and copy the event and its arguments into it, without locks or allocation.
+ * A writer thread formats the events and hands them to a sink. When the buffer is full events are dropped and counted instead of waiting.
+ * @author sschaeffner
+ */
+public class AsyncLogger implements Runnable {
+
+    //most arguments an event can carry
+    public static final int MAX_ARGS = 8;
+
+    //amount of events the ring buffer holds, a power of two
+    private static final int DEFAULT_CAPACITY = 8192;
+
+    //how long the writer thread sleeps when there is nothing to write
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    //default size of a log file before it is rolled over, in megabytes
+    private static final int DEFAULT_FILE_SIZE_MB = 10;
+
+    //default amount of rolled over log files kept
+    private static final int DEFAULT_FILE_BACKUPS = 5;
+
+    //logger of the running program
+    private static final AsyncLogger instance = new AsyncLogger(DEFAULT_CAPACITY, MetricsRegistry.getInstance());
+
+    /**
+     * Returns the logger of the running program. It logs to the console at level INFO until configured.
+     * @return instance of AsyncLogger
+     */
+    public static AsyncLogger getInstance() {
+        return instance;
+    }
+
+    private final int mask;
+
+    //slots of the ring buffer, stored column-wise
+    private final LogEvent[] events;
+    private final String[] texts;
+    private final String[] threads;
+    private final long[] times;
+    private final int[] argCounts;
+    private final double[] args;
+
+    //sequence number of the event in every slot once it is completely written
+    private final AtomicLongArray published;
+
+    //sequence number of the next slot to claim
+    private final AtomicLong claimed = new AtomicLong();
+
+    //sequence number of the next slot to be written by the writer thread
+    private volatile long consumed;
+
+    //ordinal of the lowest level that is written
+    private volatile int threshold = Level.INFO.ordinal();
+
+    //sink replacing the current one, taken over by the writer thread
+    private volatile LogSink nextSink;
+
+    //whether close() was called
+    private volatile boolean closed;
+
+    //events dropped because the ring buffer was full
+    private final Counter dropped;
+
+    //time base converting System.nanoTime() to wall-clock time
+    private final long baseMillis = System.currentTimeMillis();
+    private final long baseNanos = System.nanoTime();
+
+    private final Thread writer;
+
+    /**
+     * Creates a logger writing to the console and starts its writer thread.
+     * @param capacity  amount of events the ring buffer holds, a power of two
+     * @param registry  registry the dropped events are counted in
+     */
+    public AsyncLogger(int capacity, MetricsRegistry registry) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("capacity must be a power of two.");
+
+        this.mask = capacity - 1;
+        this.events = new LogEvent[capacity];
+        this.texts = new String[capacity];
+        this.threads = new String[capacity];
+        this.times = new long[capacity];
+        this.argCounts = new int[capacity];
+        this.args = new double[capacity * MAX_ARGS];
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+        this.dropped = registry.counter("fsb_log_dropped_total", "Log events dropped because the log buffer was full");
+        this.nextSink = new ConsoleSink();
+
+        this.writer = new Thread(this, "log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Applies the log.level and log.file settings.
+     * log.file.size sets the size in megabytes at which the file is rolled over, log.file.count how many old files are kept.
+     * @param config    the configuration
+     * @throws IllegalArgumentException if log.level is not a level
+     */
+    public void configure(Config config) {
+        setLevel(Level.forName(config.getString("log.level", "info")));
+
+        String fileName = config.getString("log.file", null);
+        if (fileName == null) return;
+        try {
+            long size = config.getInt("log.file.size", DEFAULT_FILE_SIZE_MB) * 1024L * 1024L;
+            nextSink = new RollingFileSink(fileName, size, config.getInt("log.file.count", DEFAULT_FILE_BACKUPS));
+            System.out.println("[LOG] logging to " + fileName);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("[LOG] cannot log to " + fileName + ", logging to the console: " + e.getMessage());
+        }
+    }
+
+    public Level getLevel() {
+        return Level.values()[threshold];
+    }
+
+    public void setLevel(Level level) {
+        this.threshold = level.ordinal();
+    }
+
+    /**
+     * Returns whether events of a level are written.
+     * @param level level of the event
+     * @return whether the level is at least the logger's level
+     */
+    public boolean isEnabled(Level level) {
+        return level.ordinal() >= threshold;
+    }
+
+    /**
+     * Returns how many events were dropped because the buffer was full.
+     * @return amount of dropped events
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Claims the next free slot.
+     * @return sequence number of the slot or -1 if the buffer is full
+     */
+    private long claim() {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed > mask) {
+                dropped.increment();
+                return -1;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        return sequence;
+    }
+
+    /**
+     * Fills in the rest of a claimed slot and hands it to the writer thread.
+     */
+    private void publish(long sequence, LogEvent event, String text, int argCount) {
+        int slot = (int) sequence & mask;
+        events[slot] = event;
+        texts[slot] = text;
+        threads[slot] = Thread.currentThread().getName();
+        times[slot] = System.nanoTime();
+        argCounts[slot] = argCount;
+        published.lazySet(slot, sequence);
+    }
+
+    void append(LogEvent event, String text, int argCount, double a, double b, double c) {
+        long sequence = claim();
+        if (sequence < 0) return;
+
+        int offset = ((int) sequence & mask) * MAX_ARGS;
+        args[offset] = a;
+        args[offset + 1] = b;
+        args[offset + 2] = c;
+        publish(sequence, event, text, argCount);
+    }
+
+    void append(LogEvent event, double[] values) {
+        long sequence = claim();
+        if (sequence < 0) return;
+
+        int argCount = Math.min(values.length, MAX_ARGS);
+        System.arraycopy(values, 0, args, ((int) sequence & mask) * MAX_ARGS, argCount);
+        publish(sequence, event, null, argCount);
+    }
+
+    /**
+     * Writes the remaining events and stops the writer thread. Events logged afterwards are not written.
+     * @param timeoutMillis how long to wait for the writer thread
+     * @return whether all events were written in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean close(long timeoutMillis) throws InterruptedException {
+        closed = true;
+        LockSupport.unpark(writer);
+        writer.join(timeoutMillis);
+        return !writer.isAlive();
+    }
+
+    //writer thread
+    @Override
+    public void run() {
+        LogSink sink = null;
+        StringBuilder message = new StringBuilder();
+        long next = 0;
+        long reportedDrops = 0;
+
+        while (true) {
+            LogSink newSink = nextSink;
+            if (newSink != null) {
+                nextSink = null;
+                closeQuietly(sink);
+                sink = newSink;
+            }
+
+            boolean written = false;
+            int slot;
+            while (published.get(slot = (int) next & mask) == next) {
+                message.setLength(0);
+                events[slot].format(message, texts[slot], args, slot * MAX_ARGS, argCounts[slot]);
+                sink = write(sink, events[slot].getLevel(), times[slot], threads[slot], message);
+
+                events[slot] = null;
+                texts[slot] = null;
+                consumed = ++next;
+                written = true;
+            }
+
+            long drops = dropped.get();
+            if (drops != reportedDrops) {
+                message.setLength(0);
+                message.append("[LOG] ").append(drops - reportedDrops).append(" events dropped, log buffer full");
+                sink = write(sink, Level.WARN, System.nanoTime(), writer.getName(), message);
+                reportedDrops = drops;
+                written = true;
+            }
+
+            if (written) {
+                try {
+                    sink.flush();
+                } catch (IOException e) {
+                    sink = fallBack(sink, e);
+                }
+            } else if (closed) {
+                break;
+            } else {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+
+        closeQuietly(sink);
+    }
+
+    /**
+     * Writes a line, switching to the console if the sink fails.
+     * @return the sink to use from now on
+     */
+    private LogSink write(LogSink sink, Level level, long timeNanos, String thread, CharSequence message) {
+        long timeMillis = baseMillis + TimeUnit.NANOSECONDS.toMillis(timeNanos - baseNanos);
+        try {
+            sink.write(level, timeMillis, thread, message);
+            return sink;
+        } catch (IOException e) {
+            ConsoleSink console = fallBack(sink, e);
+            console.write(level, timeMillis, thread, message);
+            return console;
+        }
+    }
+
+    private static ConsoleSink fallBack(LogSink sink, IOException e) {
+        System.err.println("[LOG] cannot write log, logging to the console: " + e.getMessage());
+        closeQuietly(sink);
+        return new ConsoleSink();
+    }
+
+    private static void closeQuietly(LogSink sink) {
+        if (sink == null) return;
+        try {
+            sink.close();
+        } catch (IOException e) {
+            //nothing left to report to
+        }
+    }
+}
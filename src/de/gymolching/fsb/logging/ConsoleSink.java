@@ -0,0 +1,28 @@
+package de.gymolching.fsb.logging;
+
+import java.io.PrintStream;
+
+/**
+ * Writes log lines to System.out, warnings and errors to System.err, looking like plain println() output.
+ * The streams are looked up for every line, so tools replacing System.out silence the log as well.
+ * @author sschaeffner
+ */
+public class ConsoleSink implements LogSink {
+
+    @Override
+    public void write(Level level, long timeMillis, String thread, CharSequence message) {
+        PrintStream out = level.compareTo(Level.WARN) >= 0 ? System.err : System.out;
+        out.println(message);
+    }
+
+    @Override
+    public void flush() {
+        System.out.flush();
+        System.err.flush();
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+}
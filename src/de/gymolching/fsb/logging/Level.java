@@ -0,0 +1,22 @@
+package de.gymolching.fsb.logging;
+
+/**
+ * Severity of a log event. A logger set to a level writes events of that level and above.
+ * @author sschaeffner
+ */
+public enum Level {
+    TRACE, DEBUG, INFO, WARN, ERROR, OFF;
+
+    /**
+     * Returns the level with a name, ignoring case.
+     * @param name  name of the level
+     * @return the level
+     * @throws IllegalArgumentException if there is no level with that name
+     */
+    public static Level forName(String name) {
+        for (Level level : values()) {
+            if (level.name().equalsIgnoreCase(name)) return level;
+        }
+        throw new IllegalArgumentException("unknown log level " + name + ", must be one of trace, debug, info, warn, error or off.");
+    }
+}
@@ -0,0 +1,162 @@
+package de.gymolching.fsb.logging;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A kind of log message, created once and logged many times.
+ * The message is a fixed text with placeholders: {} is replaced by the next argument, {[]} by all remaining arguments as a list.
+ * Arguments are numbers, integral ones are written without decimals; a text argument given to log(String) replaces the first {}.
+ * Logging only copies the arguments into the logger's ring buffer, formatting happens later on the logger's writer thread.
+ * Events below the logger's level cost a single volatile read.
+ * @author sschaeffner
+ */
+public class LogEvent {
+
+    //the logger events are written to
+    private final AsyncLogger logger;
+
+    private final Level level;
+
+    //text between the placeholders, one more than there are placeholders
+    private final String[] texts;
+
+    //whether a placeholder is {[]}
+    private final boolean[] lists;
+
+    /**
+     * Creates an event written to the logger of the running program.
+     * @param level     level of the event
+     * @param format    message text with {} and {[]} placeholders
+     */
+    public LogEvent(Level level, String format) {
+        this(AsyncLogger.getInstance(), level, format);
+    }
+
+    /**
+     * Creates an event.
+     * @param logger    the logger the event is written to
+     * @param level     level of the event
+     * @param format    message text with {} and {[]} placeholders
+     */
+    public LogEvent(AsyncLogger logger, Level level, String format) {
+        if (level == Level.OFF) throw new IllegalArgumentException("events cannot have level OFF.");
+        this.logger = logger;
+        this.level = level;
+
+        List<String> texts = new ArrayList<>();
+        List<Boolean> lists = new ArrayList<>();
+        int start = 0;
+        int placeholder;
+        while ((placeholder = nextPlaceholder(format, start)) >= 0) {
+            texts.add(format.substring(start, placeholder));
+            boolean list = format.startsWith("{[]}", placeholder);
+            lists.add(list);
+            start = placeholder + (list ? 4 : 2);
+        }
+        texts.add(format.substring(start));
+
+        this.texts = texts.toArray(new String[0]);
+        this.lists = new boolean[lists.size()];
+        for (int i = 0; i < this.lists.length; i++) {
+            this.lists[i] = lists.get(i);
+        }
+    }
+
+    private static int nextPlaceholder(String format, int from) {
+        int simple = format.indexOf("{}", from);
+        int list = format.indexOf("{[]}", from);
+        if (simple < 0) return list;
+        if (list < 0) return simple;
+        return Math.min(simple, list);
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns whether the event is currently written, useful to skip computing arguments.
+     * @return whether the logger's level lets this event pass
+     */
+    public boolean isEnabled() {
+        return logger.isEnabled(level);
+    }
+
+    public void log() {
+        if (logger.isEnabled(level)) logger.append(this, null, 0, 0, 0, 0);
+    }
+
+    public void log(double a) {
+        if (logger.isEnabled(level)) logger.append(this, null, 1, a, 0, 0);
+    }
+
+    public void log(double a, double b) {
+        if (logger.isEnabled(level)) logger.append(this, null, 2, a, b, 0);
+    }
+
+    public void log(double a, double b, double c) {
+        if (logger.isEnabled(level)) logger.append(this, null, 3, a, b, c);
+    }
+
+    /**
+     * Logs the event with up to AsyncLogger.MAX_ARGS arguments, further ones are left out.
+     * @param values    the arguments, copied
+     */
+    public void log(double[] values) {
+        if (logger.isEnabled(level)) logger.append(this, values);
+    }
+
+    /**
+     * Logs the event with a text replacing the first {}. Meant for events that are not on a hot path.
+     * @param text  the text
+     */
+    public void log(String text) {
+        if (logger.isEnabled(level)) logger.append(this, text, 0, 0, 0, 0);
+    }
+
+    /**
+     * Logs the event with a text replacing the first {} and a number for the next one. Meant for events that are not on a hot path.
+     * @param text  the text
+     * @param a     the number
+     */
+    public void log(String text, double a) {
+        if (logger.isEnabled(level)) logger.append(this, text, 1, a, 0, 0);
+    }
+
+    /**
+     * Formats the event's message.
+     * @param out       receives the message
+     * @param text      text replacing the first {}, or null
+     * @param args      holds the arguments
+     * @param offset    index of the first argument in args
+     * @param count     amount of arguments
+     */
+    void format(StringBuilder out, String text, double[] args, int offset, int count) {
+        int next = 0;
+        for (int i = 0; i < lists.length; i++) {
+            out.append(texts[i]);
+            if (lists[i]) {
+                out.append('[');
+                for (; next < count; next++) {
+                    appendNumber(out, args[offset + next]);
+                    if (next < count - 1) out.append(", ");
+                }
+                out.append(']');
+            } else if (text != null) {
+                out.append(text);
+                text = null;
+            } else if (next < count) {
+                appendNumber(out, args[offset + next++]);
+            } else {
+                out.append("{}");
+            }
+        }
+        out.append(texts[lists.length]);
+    }
+
+    private static void appendNumber(StringBuilder out, double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) out.append((long) value);
+        else out.append(value);
+    }
+}
@@ -0,0 +1,32 @@
+package de.gymolching.fsb.logging;
+
+import java.io.IOException;
+
+/**
+ * Destination of formatted log lines. Only ever called from the logger's writer thread.
+ * @author sschaeffner
+ */
+public interface LogSink {
+
+    /**
+     * Writes one line.
+     * @param level         level of the event
+     * @param timeMillis    wall-clock time of the event
+     * @param thread        name of the thread that logged the event
+     * @param message       formatted message without line separator
+     * @throws IOException if the line cannot be written
+     */
+    void write(Level level, long timeMillis, String thread, CharSequence message) throws IOException;
+
+    /**
+     * Flushes written lines, called whenever the logger has no more events to write.
+     * @throws IOException if the lines cannot be flushed
+     */
+    void flush() throws IOException;
+
+    /**
+     * Closes the sink.
+     * @throws IOException if the sink cannot be closed
+     */
+    void close() throws IOException;
+}
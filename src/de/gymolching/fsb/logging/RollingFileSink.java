@@ -0,0 +1,100 @@
+package de.gymolching.fsb.logging;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Writes log lines with time, level and thread to a file.
+ * Once the file exceeds a size it is renamed to file.1, file.1 to file.2 and so on, the oldest one is deleted.
+ * @author sschaeffner
+ */
+public class RollingFileSink implements LogSink {
+
+    //file lines are written to
+    private final File file;
+
+    //size in bytes after which the file is rolled over
+    private final long maxSize;
+
+    //how many rolled over files are kept
+    private final int maxBackups;
+
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    private final Date date = new Date();
+    private final StringBuilder line = new StringBuilder();
+
+    private Writer writer;
+
+    //bytes written to the current file, assuming one byte per char
+    private long size;
+
+    /**
+     * Opens a file for appending.
+     * @param fileName      path of the log file
+     * @param maxSize       size in bytes after which the file is rolled over
+     * @param maxBackups    how many rolled over files are kept
+     * @throws IOException if the file cannot be opened
+     */
+    public RollingFileSink(String fileName, long maxSize, int maxBackups) throws IOException {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be positive.");
+        if (maxBackups < 0) throw new IllegalArgumentException("maxBackups must not be negative.");
+
+        this.file = new File(fileName);
+        this.maxSize = maxSize;
+        this.maxBackups = maxBackups;
+        open();
+    }
+
+    private void open() throws IOException {
+        this.size = file.length();
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void write(Level level, long timeMillis, String thread, CharSequence message) throws IOException {
+        if (size >= maxSize) roll();
+
+        date.setTime(timeMillis);
+        line.setLength(0);
+        line.append(timeFormat.format(date)).append(' ').append(level).append(' ').append(thread).append(' ').append(message).append(System.lineSeparator());
+        writer.append(line);
+        size += line.length();
+    }
+
+    /**
+     * Closes the current file, shifts the backups and starts a new file.
+     * @throws IOException if the files cannot be renamed or opened
+     */
+    private void roll() throws IOException {
+        writer.close();
+
+        File oldest = new File(file.getPath() + "." + maxBackups);
+        if (oldest.exists() && !oldest.delete()) throw new IOException("cannot delete " + oldest);
+        for (int i = maxBackups - 1; i >= 0; i--) {
+            File from = i == 0 ? file : new File(file.getPath() + "." + i);
+            if (from.exists() && !from.renameTo(new File(file.getPath() + "." + (i + 1)))) {
+                throw new IOException("cannot rename " + from);
+            }
+        }
+        if (maxBackups == 0 && file.exists() && !file.delete()) throw new IOException("cannot delete " + file);
+
+        open();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,44 @@
+package de.gymolching.fsb.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonically increasing count.
+ * Striped internally, so threads counting at the same time do not contend.
+ * @author sschaeffner
+ */
+public class Counter implements Metric {
+
+    private final LongAdder value = new LongAdder();
+
+    public void increment() {
+        value.increment();
+    }
+
+    /**
+     * Adds to the count.
+     * @param amount    how much to add, must not be negative
+     */
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+
+    @Override
+    public String getType() {
+        return "counter";
+    }
+
+    @Override
+    public void writePrometheus(StringBuilder out, String name, String labels) {
+        MetricsRegistry.appendSample(out, name, labels, get());
+    }
+
+    @Override
+    public void writeSummary(StringBuilder out) {
+        out.append(get());
+    }
+}
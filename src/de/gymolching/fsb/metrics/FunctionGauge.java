@@ -0,0 +1,31 @@
+package de.gymolching.fsb.metrics;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * Gauge whose value is read from a function when the metrics are exported.
+ * @author sschaeffner
+ */
+class FunctionGauge implements Metric {
+
+    private final DoubleSupplier supplier;
+
+    FunctionGauge(DoubleSupplier supplier) {
+        this.supplier = supplier;
+    }
+
+    @Override
+    public String getType() {
+        return "gauge";
+    }
+
+    @Override
+    public void writePrometheus(StringBuilder out, String name, String labels) {
+        MetricsRegistry.appendSample(out, name, labels, supplier.getAsDouble());
+    }
+
+    @Override
+    public void writeSummary(StringBuilder out) {
+        MetricsRegistry.appendValue(out, supplier.getAsDouble());
+    }
+}
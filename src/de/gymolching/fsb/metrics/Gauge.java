@@ -0,0 +1,47 @@
+package de.gymolching.fsb.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Value that can go up and down.
+ * @author sschaeffner
+ */
+public class Gauge implements Metric {
+
+    //raw bits of the double value
+    private final AtomicLong bits = new AtomicLong(Double.doubleToRawLongBits(0));
+
+    public void set(double value) {
+        bits.set(Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Adds to the value.
+     * @param amount    how much to add, may be negative
+     */
+    public void add(double amount) {
+        long current;
+        do {
+            current = bits.get();
+        } while (!bits.compareAndSet(current, Double.doubleToRawLongBits(Double.longBitsToDouble(current) + amount)));
+    }
+
+    public double get() {
+        return Double.longBitsToDouble(bits.get());
+    }
+
+    @Override
+    public String getType() {
+        return "gauge";
+    }
+
+    @Override
+    public void writePrometheus(StringBuilder out, String name, String labels) {
+        MetricsRegistry.appendSample(out, name, labels, get());
+    }
+
+    @Override
+    public void writeSummary(StringBuilder out) {
+        MetricsRegistry.appendValue(out, get());
+    }
+}
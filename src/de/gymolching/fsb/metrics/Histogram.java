@@ -0,0 +1,92 @@
+package de.gymolching.fsb.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of values over fixed buckets, exported as a Prometheus histogram.
+ * Observing a value does not allocate or lock.
+ * @author sschaeffner
+ */
+public class Histogram implements Metric {
+
+    //upper bounds of the buckets in ascending order, without +Inf
+    private final double[] bounds;
+
+    //observations per bucket, the last one counts values above all bounds
+    private final LongAdder[] counts;
+
+    private final DoubleAdder sum;
+
+    /**
+     * Creates a histogram.
+     * @param bounds    upper bounds of the buckets in ascending order
+     */
+    public Histogram(double... bounds) {
+        if (bounds.length == 0) throw new IllegalArgumentException("a histogram needs at least one bucket bound.");
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i] <= bounds[i - 1]) throw new IllegalArgumentException("bucket bounds must be ascending.");
+        }
+        this.bounds = Arrays.copyOf(bounds, bounds.length);
+        this.counts = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < counts.length; i++) counts[i] = new LongAdder();
+        this.sum = new DoubleAdder();
+    }
+
+    /**
+     * Records a value.
+     * @param value the value
+     */
+    public void observe(double value) {
+        int bucket = Arrays.binarySearch(bounds, value);
+        if (bucket < 0) bucket = -bucket - 1;
+        counts[bucket].increment();
+        sum.add(value);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : counts) count += bucket.sum();
+        return count;
+    }
+
+    public double getSum() {
+        return sum.sum();
+    }
+
+    @Override
+    public String getType() {
+        return "histogram";
+    }
+
+    @Override
+    public void writePrometheus(StringBuilder out, String name, String labels) {
+        String separator = labels.isEmpty() ? "" : ",";
+        long cumulative = 0;
+        for (int i = 0; i <= bounds.length; i++) {
+            cumulative += counts[i].sum();
+            String le = i < bounds.length ? MetricsRegistry.formatValue(bounds[i]) : "+Inf";
+            MetricsRegistry.appendSample(out, name + "_bucket", labels + separator + "le=\"" + le + "\"", cumulative);
+        }
+        MetricsRegistry.appendSample(out, name + "_sum", labels, getSum());
+        MetricsRegistry.appendSample(out, name + "_count", labels, cumulative);
+    }
+
+    @Override
+    public void writeSummary(StringBuilder out) {
+        long count = getCount();
+        out.append("count ").append(count).append(", mean ");
+        MetricsRegistry.appendValue(out, count == 0 ? 0 : getSum() / count);
+
+        //bucket the median falls into
+        long seen = 0;
+        for (int i = 0; i <= bounds.length && count > 0; i++) {
+            seen += counts[i].sum();
+            if (seen * 2 >= count) {
+                out.append(", median ").append(i < bounds.length ? "<= " + MetricsRegistry.formatValue(bounds[i]) : "> " + MetricsRegistry.formatValue(bounds[bounds.length - 1]));
+                break;
+            }
+        }
+    }
+}
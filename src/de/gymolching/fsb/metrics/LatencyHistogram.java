@@ -0,0 +1,156 @@
+package de.gymolching.fsb.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in nanoseconds with log-linear buckets.
+ * Every power of two is split into SUB_BUCKETS buckets, so percentiles are accurate to about 6%
+ * over the whole range of long while the histogram stays a fixed size.
+ * Recording does not allocate or lock and may be done from several threads at once.
+ * Exported as a Prometheus summary in seconds.
+ * @author sschaeffner
+ */
+public class LatencyHistogram implements Metric {
+
+    //log2 of the amount of buckets every power of two is split into
+    private static final int SUB_BUCKET_BITS = 4;
+
+    //amount of buckets every power of two is split into
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    //quantiles exported to Prometheus
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    //amount of buckets needed to cover all non-negative longs
+    private static final int BUCKET_AMOUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKET_AMOUNT);
+        this.count = new AtomicLong();
+        this.sum = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * Records a duration.
+     * @param nanos duration in nanoseconds, negative durations are recorded as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucketOf(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+
+        long currentMax;
+        while (nanos > (currentMax = max.get()) && !max.compareAndSet(currentMax, nanos)) {
+            //retry until the maximum is updated or someone recorded a larger one
+        }
+    }
+
+    /**
+     * Returns how many durations were recorded.
+     * @return how many durations were recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the sum of all recorded durations.
+     * @return sum in nanoseconds
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * Returns the mean of all recorded durations.
+     * @return mean in nanoseconds or 0 if nothing was recorded
+     */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / (double) n;
+    }
+
+    /**
+     * Returns the largest recorded duration.
+     * @return maximum in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the duration below which a fraction of the recorded durations lie.
+     * The result is the upper edge of the bucket the percentile falls into, but never more than the maximum.
+     * @param fraction  between 0 and 1, e.g. 0.99 for the 99th percentile
+     * @return percentile in nanoseconds or 0 if nothing was recorded
+     */
+    public long getPercentile(double fraction) {
+        long n = 0;
+        for (int i = 0; i < BUCKET_AMOUNT; i++) n += counts.get(i);
+        if (n == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(fraction * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_AMOUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(upperEdgeOf(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Clears the histogram.
+     * Durations recorded while clearing may partly survive.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_AMOUNT; i++) counts.set(i, 0);
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String getType() {
+        return "summary";
+    }
+
+    @Override
+    public void writePrometheus(StringBuilder out, String name, String labels) {
+        String separator = labels.isEmpty() ? "" : ",";
+        for (double quantile : QUANTILES) {
+            MetricsRegistry.appendSample(out, name, labels + separator + "quantile=\"" + quantile + "\"", getPercentile(quantile) / 1e9);
+        }
+        MetricsRegistry.appendSample(out, name + "_sum", labels, getSum() / 1e9);
+        MetricsRegistry.appendSample(out, name + "_count", labels, getCount());
+    }
+
+    @Override
+    public void writeSummary(StringBuilder out) {
+        out.append("count ").append(getCount());
+        out.append(String.format(", p50 %.3f ms, p99 %.3f ms, max %.3f ms", getPercentile(0.5) / 1e6, getPercentile(0.99) / 1e6, getMax() / 1e6));
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperEdgeOf(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lowerEdge = (1L << exponent) + subBucket * width;
+        return lowerEdge + (width - 1);
+    }
+}
@@ -0,0 +1,28 @@
+package de.gymolching.fsb.metrics;
+
+/**
+ * A value kept in the MetricsRegistry.
+ * @author sschaeffner
+ */
+public interface Metric {
+
+    /**
+     * Returns the Prometheus type of the metric.
+     * @return counter, gauge, histogram or summary
+     */
+    String getType();
+
+    /**
+     * Appends the metric's samples in Prometheus text format.
+     * @param out       receives the samples
+     * @param name      name of the metric
+     * @param labels    labels of the metric without braces, e.g. arm="0", or an empty string
+     */
+    void writePrometheus(StringBuilder out, String name, String labels);
+
+    /**
+     * Appends the metric's value in a short human-readable form, without a line break.
+     * @param out   receives the value
+     */
+    void writeSummary(StringBuilder out);
+}
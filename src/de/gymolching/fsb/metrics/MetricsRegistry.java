@@ -0,0 +1,205 @@
+package de.gymolching.fsb.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * Holds the server's runtime metrics and writes them in Prometheus text format.
+ * Metrics are registered once, typically when a component is created, and then updated without going through the registry.
+ * Metrics with the same name form a family and are told apart by their labels, given as name/value pairs.
+ * @author sschaeffner
+ */
+public class MetricsRegistry {
+
+    //valid metric and label names
+    private static final Pattern NAME = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+
+    //singleton instance of MetricsRegistry
+    private static MetricsRegistry instance = null;
+
+    //metric families by name, in registration order
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    /**
+     * Returns the registry of the running server.
+     * @return instance of MetricsRegistry
+     */
+    public static MetricsRegistry getInstance() {
+        synchronized (MetricsRegistry.class) {
+            if (instance == null) instance = new MetricsRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the counter with a name and labels, creating it if necessary.
+     * @param name      metric name
+     * @param help      description of the metric
+     * @param labels    label names and values in turns
+     * @return the counter
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return getOrRegister(name, help, Counter.class, new Counter(), labels);
+    }
+
+    /**
+     * Returns the gauge with a name and labels, creating it if necessary.
+     * @param name      metric name
+     * @param help      description of the metric
+     * @param labels    label names and values in turns
+     * @return the gauge
+     */
+    public Gauge gauge(String name, String help, String... labels) {
+        return getOrRegister(name, help, Gauge.class, new Gauge(), labels);
+    }
+
+    /**
+     * Registers a gauge whose value is read from a function when the metrics are written.
+     * @param name      metric name
+     * @param help      description of the metric
+     * @param supplier  returns the gauge's value
+     * @param labels    label names and values in turns
+     */
+    public void gauge(String name, String help, DoubleSupplier supplier, String... labels) {
+        register(name, help, new FunctionGauge(supplier), labels);
+    }
+
+    /**
+     * Returns the histogram with a name and labels, creating it if necessary.
+     * @param name      metric name
+     * @param help      description of the metric
+     * @param bounds    upper bounds of the buckets in ascending order, used if the histogram is created
+     * @param labels    label names and values in turns
+     * @return the histogram
+     */
+    public Histogram histogram(String name, String help, double[] bounds, String... labels) {
+        return getOrRegister(name, help, Histogram.class, new Histogram(bounds), labels);
+    }
+
+    /**
+     * Registers a metric, replacing one registered with the same name and labels before.
+     * @param name      metric name
+     * @param help      description of the metric
+     * @param metric    the metric
+     * @param labels    label names and values in turns
+     * @return the metric
+     * @throws IllegalArgumentException if the name or labels are invalid or the family has a different type
+     */
+    public synchronized <M extends Metric> M register(String name, String help, M metric, String... labels) {
+        family(name, help, metric.getType()).metrics.put(formatLabels(labels), metric);
+        return metric;
+    }
+
+    private synchronized <M extends Metric> M getOrRegister(String name, String help, Class<M> type, M metric, String... labels) {
+        String formattedLabels = formatLabels(labels);
+        Family family = family(name, help, metric.getType());
+        Metric existing = family.metrics.get(formattedLabels);
+        if (type.isInstance(existing)) return type.cast(existing);
+
+        family.metrics.put(formattedLabels, metric);
+        return metric;
+    }
+
+    private Family family(String name, String help, String type) {
+        if (!NAME.matcher(name).matches()) throw new IllegalArgumentException("invalid metric name " + name);
+
+        Family family = families.get(name);
+        if (family == null) {
+            family = new Family(help, type);
+            families.put(name, family);
+        } else if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is already registered as " + family.type);
+        }
+        return family;
+    }
+
+    /**
+     * Writes all metrics in Prometheus text format, version 0.0.4.
+     * @param out   receives the metrics
+     */
+    public synchronized void writePrometheus(StringBuilder out) {
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Metric> metric : family.metrics.entrySet()) {
+                metric.getValue().writePrometheus(out, name, metric.getKey());
+            }
+        }
+    }
+
+    /**
+     * Writes all metrics in a short human-readable form, one line per metric.
+     * @param out   receives the metrics
+     */
+    public synchronized void writeSummary(StringBuilder out) {
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            for (Map.Entry<String, Metric> metric : entry.getValue().metrics.entrySet()) {
+                out.append(entry.getKey());
+                if (!metric.getKey().isEmpty()) out.append('{').append(metric.getKey()).append('}');
+                out.append(' ');
+                metric.getValue().writeSummary(out);
+                out.append(System.lineSeparator());
+            }
+        }
+    }
+
+    /**
+     * Formats label name/value pairs as name="value",... without braces.
+     */
+    private static String formatLabels(String[] labels) {
+        if (labels.length % 2 != 0) throw new IllegalArgumentException("labels must be given as name/value pairs.");
+
+        StringBuilder formatted = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (!NAME.matcher(labels[i]).matches()) throw new IllegalArgumentException("invalid label name " + labels[i]);
+            if (i > 0) formatted.append(',');
+            formatted.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return formatted.toString();
+    }
+
+    /**
+     * Appends one sample line.
+     */
+    static void appendSample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) out.append('{').append(labels).append('}');
+        out.append(' ');
+        appendValue(out, value);
+        out.append('\n');
+    }
+
+    static void appendValue(StringBuilder out, double value) {
+        out.append(formatValue(value));
+    }
+
+    /**
+     * Formats a value the way Prometheus expects it, integers without a fraction.
+     */
+    static String formatValue(double value) {
+        if (Double.isNaN(value)) return "NaN";
+        if (Double.isInfinite(value)) return value > 0 ? "+Inf" : "-Inf";
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) return Long.toString((long) value);
+        return Double.toString(value);
+    }
+
+    /**
+     * Metrics sharing a name.
+     */
+    private static class Family {
+        private final String help;
+        private final String type;
+        private final Map<String, Metric> metrics = new LinkedHashMap<>();
+
+        private Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
@@ -1,7 +1,5 @@
 package de.gymolching.fsb.network.api;
 
-import de.gymolching.fsb.api.FSBPosition;
-
 public interface FSBServerInterface
 {
 	/**
@@ -12,11 +10,12 @@ public interface FSBServerInterface
 	public void stop() throws InterruptedException;
 
 	/**
-	 * returns the most recent received FSBPosition. If no positions are in store, this method will block
+	 * copies the most recent received position into lengths. If no new position is in store, this method will block
 	 * 
+	 * @param lengths
+	 *            receives one length per arm, normalized to 0..1
 	 * @throws InterruptedException
 	 *             when the blocking is interrupted
-	 * @return
 	 */
-	public FSBPosition getMostRecentPositionUpdate() throws InterruptedException;
+	public void getMostRecentPositionUpdate(double[] lengths) throws InterruptedException;
 }
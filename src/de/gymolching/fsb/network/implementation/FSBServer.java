@@ -2,17 +2,65 @@ package de.gymolching.fsb.network.implementation;
 
 import java.io.*;
 import java.net.*;
-import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
 
-import de.gymolching.fsb.api.FSBPosition;
+import de.gymolching.fsb.jfr.ClientConnectedEvent;
+import de.gymolching.fsb.jfr.ClientDisconnectedEvent;
+import de.gymolching.fsb.jfr.PoseReceivedEvent;
+import de.gymolching.fsb.kinematics.StewartKinematics;
+import de.gymolching.fsb.logging.Level;
+import de.gymolching.fsb.logging.LogEvent;
 import de.gymolching.fsb.network.api.FSBServerInterface;
+import de.gymolching.fsb.realtime.WaitStrategy;
 import de.gymolching.fsb.regulation.PositionProvider;
 
 public class FSBServer implements FSBServerInterface, Runnable, PositionProvider
 {
+	// how many arm lengths a position consists of unless given, a hexapod's
+	private static final int DEFAULT_WIDTH = 6;
+
+	// largest payload DataOutputStream.writeUTF can produce
+	private static final int MAX_MESSAGE_LENGTH = 65535;
+
+	// log events, only logged if the server is verbose
+	private static final LogEvent LOG_INITIALIZING = new LogEvent(Level.INFO, "[Server] Initializing Server");
+	private static final LogEvent LOG_STARTING = new LogEvent(Level.INFO, "[Server] Waiting for Server to be fully started...");
+	private static final LogEvent LOG_GETTING = new LogEvent(Level.INFO, "[Server] Trying to get most recent position update");
+	private static final LogEvent LOG_IDLE = new LogEvent(Level.INFO, "[Server] No new position received yet. Staying Idle");
+	private static final LogEvent LOG_RETURNING = new LogEvent(Level.INFO, "[Server] Returning newly received position");
+	private static final LogEvent LOG_LISTENING = new LogEvent(Level.INFO, "[Server] Listening for incoming client connection attempts");
+	private static final LogEvent LOG_REFUSED = new LogEvent(Level.WARN, "[Server] Refused client {}, another client is in control");
+	private static final LogEvent LOG_CONNECTED = new LogEvent(Level.INFO, "[Server] Client connected {}");
+	private static final LogEvent LOG_RECEIVED = new LogEvent(Level.INFO, "[Server] Received new position: {[]}");
+	private static final LogEvent LOG_REJECTED = new LogEvent(Level.INFO, "[Server] Rejected position of {} bytes (malformed or out of reach)");
+	private static final LogEvent LOG_LEGACY_REFUSED = new LogEvent(Level.WARN,
+			"[Server] Closing client {}, it sends FSBPosition messages, which only fit 6 arms, but the platform has {}; it has to send LENGTHS: or POSE: messages");
+	private static final LogEvent LOG_FLOW = new LogEvent(Level.INFO, "[Server] Client {} asked for flow control");
+	private static final LogEvent LOG_DISCONNECTED = new LogEvent(Level.INFO, "[Server] Client disconnected {}");
+
 	private ServerSocket serverSocket = null;
 	private Thread serverThread = null;
-	private ArrayList<FSBPosition> positions = null;
+	private StewartKinematics kinematics = null;
+	private int width = DEFAULT_WIDTH;
+	private double[] positions = null;
+	private boolean positionAvailable = false;
+	private long positionReceivedNanos = 0;
+	private final Set<Socket> connections = new HashSet<>();
+
+	// how the regulation polls for new positions in real-time mode, null to block on the monitor
+	private volatile WaitStrategy waitStrategy = null;
+
+	// whether several clients may publish positions at the same time, otherwise only the first connected one controls the platform
+	private volatile boolean concurrentClients = false;
+
+	// how many positions were published, and which of them was taken last
+	private volatile long publishedSequence = 0;
+	private long takenSequence = 0;
+	private final ServerStatistics statistics = new ServerStatistics();
+
+	// grants send credits to clients that ask for flow control
+	private final FlowControl flowControl = new FlowControl(this.statistics);
 	private boolean verbose = false;
 
 	/**
@@ -26,17 +74,7 @@ public class FSBServer implements FSBServerInterface, Runnable, PositionProvider
 	 */
 	public FSBServer(int port) throws IOException, InterruptedException
 	{
-		this.verbose = false;
-
-		this.serverSocket = new ServerSocket(port);
-		this.serverThread = new Thread(this);
-		this.positions = new ArrayList<>();
-		this.serverThread.start();
-
-		synchronized (this.positions)
-		{
-			this.positions.wait();
-		}
+		this(port, false);
 	}
 
 	/**
@@ -51,19 +89,66 @@ public class FSBServer implements FSBServerInterface, Runnable, PositionProvider
 	 */
 	public FSBServer(int port, boolean verbose) throws IOException, InterruptedException
 	{
+		this(port, verbose, null);
+	}
+
+	/**
+	 * Creates new FSBServer and starts listening
+	 * 
+	 * @param port
+	 *            the port on which this server should listen
+	 * @param verbose
+	 *            whether this server should log it's actions verbosly
+	 * @param kinematics
+	 *            inverse kinematics used to accept platform poses from clients, or null if clients may only send arm
+	 *            lengths
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public FSBServer(int port, boolean verbose, StewartKinematics kinematics) throws IOException, InterruptedException
+	{
+		this(port, verbose, kinematics, kinematics != null ? kinematics.getArmAmount() : DEFAULT_WIDTH);
+	}
+
+	/**
+	 * Creates new FSBServer for a platform with any amount of arms and starts listening
+	 * 
+	 * @param port
+	 *            the port on which this server should listen
+	 * @param verbose
+	 *            whether this server should log it's actions verbosly
+	 * @param kinematics
+	 *            inverse kinematics used to accept platform poses from clients, or null if clients may only send arm
+	 *            lengths
+	 * @param width
+	 *            how many arm lengths a position consists of
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws IllegalArgumentException
+	 *             if the kinematics are for a different amount of arms
+	 */
+	public FSBServer(int port, boolean verbose, StewartKinematics kinematics, int width) throws IOException, InterruptedException
+	{
+		// fail before the socket is opened
+		new MessageDecoder(kinematics, width);
+
 		this.verbose = verbose;
 
 		if (this.verbose)
-			System.out.println("[Server] Initializing Server");
+			LOG_INITIALIZING.log();
 		this.serverSocket = new ServerSocket(port);
 		this.serverThread = new Thread(this);
-		this.positions = new ArrayList<>();
-		this.serverThread.start();
+		this.kinematics = kinematics;
+		this.width = width;
+		this.positions = new double[width];
 
 		synchronized (this.positions)
 		{
+			this.serverThread.start();
+			this.flowControl.start();
+
 			if (this.verbose)
-				System.out.println("[Server] Waiting for Server to be fully started...");
+				LOG_STARTING.log();
 			this.positions.wait();
 		}
 	}
@@ -71,108 +156,352 @@ public class FSBServer implements FSBServerInterface, Runnable, PositionProvider
 	public void stop() throws InterruptedException
 	{
 		this.serverThread.interrupt();
+
+		// accept() does not react to interrupts, closing the socket makes it throw instead
+		try
+		{
+			this.serverSocket.close();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+
 		this.serverThread.join();
+		this.flowControl.stop();
 	}
 
-	public FSBPosition getMostRecentPositionUpdate() throws InterruptedException
+	public void getMostRecentPositionUpdate(double[] lengths) throws InterruptedException
 	{
 
 		if (this.verbose)
-			System.out.println("[Server] Trying to get most recent position update");
+			LOG_GETTING.log();
 
-		boolean shouldWait = false;
-		do
+		// poll without taking the lock until a new position arrives, the monitor below then no longer waits
+		WaitStrategy waitStrategy = this.waitStrategy;
+		if (waitStrategy != null)
 		{
-			shouldWait = false;
-			synchronized (this.positions)
+			int idleCount = 0;
+			while (this.publishedSequence == this.takenSequence && waitStrategy.idle(idleCount++))
 			{
-				if (this.positions.size() == 0)
-				{
-					shouldWait = true;
-
-					if (this.verbose)
-						System.out.println("[Server] No new position received yet. Staying Idle");
-
-					this.positions.wait();
-				}
 			}
 		}
-		while (shouldWait == true);
 
 		synchronized (this.positions)
 		{
-			FSBPosition mostRecentPosition = this.positions.get(this.positions.size() - 1);
-			this.positions.clear();
+			while (!this.positionAvailable)
+			{
+				if (this.verbose)
+					LOG_IDLE.log();
+
+				this.positions.wait();
+			}
+
+			System.arraycopy(this.positions, 0, lengths, 0, this.width);
+			this.positionAvailable = false;
+			this.takenSequence = this.publishedSequence;
+			this.statistics.positionDelivered(System.nanoTime() - this.positionReceivedNanos);
 
 			if (this.verbose)
-				System.out.println("[Server] Returning newly received position");
-			return mostRecentPosition;
+				LOG_RETURNING.log();
 		}
 	}
 
+	/**
+	 * Stores a position as the most recent one and wakes up threads waiting for it
+	 * 
+	 * @param received
+	 *            normalized arm lengths
+	 * @param receivedNanos
+	 *            System.nanoTime() when the message was read off the socket
+	 */
+	void publish(double[] received, long receivedNanos)
+	{
+		synchronized (this.positions)
+		{
+			this.statistics.positionPublished(this.positionAvailable);
+			System.arraycopy(received, 0, this.positions, 0, this.width);
+			this.positionReceivedNanos = receivedNanos;
+			this.positionAvailable = true;
+			this.publishedSequence++;
+			this.positions.notifyAll();
+		}
+	}
+
+	/**
+	 * Switches to real-time mode: connections are served on maximum priority threads and the regulation waits for
+	 * positions with the given strategy. Connections accepted before are not affected.
+	 * 
+	 * @param waitStrategy
+	 *            how the regulation waits for new positions, or null to block on a monitor as in normal mode
+	 */
+	public void setWaitStrategy(WaitStrategy waitStrategy)
+	{
+		this.waitStrategy = waitStrategy;
+	}
+
+	/**
+	 * Lets several clients publish positions at the same time, interleaved into the same goals, e.g. for load tests. By default
+	 * only one client controls the platform: further clients are refused while it is connected. Connections accepted before are
+	 * not affected.
+	 * 
+	 * @param concurrentClients
+	 *            whether several clients may be connected at the same time
+	 */
+	public void setConcurrentClients(boolean concurrentClients)
+	{
+		this.concurrentClients = concurrentClients;
+	}
+
+	/**
+	 * @return counters about received messages and handed on positions
+	 */
+	public ServerStatistics getStatistics()
+	{
+		return this.statistics;
+	}
+
+	/**
+	 * @return how many arm lengths a position consists of
+	 */
+	public int getWidth()
+	{
+		return this.width;
+	}
+
+	/**
+	 * @return the port this server listens on
+	 */
+	public int getPort()
+	{
+		return this.serverSocket.getLocalPort();
+	}
+
 	public void run()
 	{
 		// Notify main thread that server is started and waiting to accept connection
 		synchronized (this.positions)
 		{
 			if (this.verbose)
-				System.out.println("[Server] Listening for incoming client connection attempts");
+				LOG_LISTENING.log();
 			this.positions.notifyAll();
 		}
 
 		while (!Thread.interrupted())
 		{
-			// Wait for incoming connection and
+			// Wait for incoming connection and serve it on its own thread so further clients are not blocked
+			Socket connSocket;
 			try
 			{
-				Socket connSocket = this.serverSocket.accept();
-				DataInputStream dis = new DataInputStream(connSocket.getInputStream());
-				if (this.verbose)
-					System.out.println("[Server] Client connected " + connSocket.getInetAddress() + ":" + connSocket.getPort());
+				connSocket = this.serverSocket.accept();
+			}
+			catch (IOException e)
+			{
+				// server socket was closed by stop()
+				break;
+			}
 
-				while (connSocket.isConnected())
+			// a second client steering the platform at the same time would interleave its positions with the first one's
+			boolean refused;
+			synchronized (this.connections)
+			{
+				refused = !this.concurrentClients && !this.connections.isEmpty();
+				if (!refused)
+					this.connections.add(connSocket);
+			}
+			if (refused)
+			{
+				LOG_REFUSED.log(connSocket.getInetAddress() + ":" + connSocket.getPort());
+				this.statistics.connectionRefused();
+				try
 				{
-					// Receive Input from client and store it in our positions list
-					String connInputString = null;
-					try
-					{
-						connInputString = dis.readUTF();
-					}
-					catch (EOFException e)
-					{
-//						e.printStackTrace();
-						break;
-					}
+					connSocket.close();
+				}
+				catch (IOException e)
+				{
+					e.printStackTrace();
+				}
+				continue;
+			}
+			this.statistics.connectionOpened();
+
+			Thread connThread = new Thread(() -> serve(connSocket), "FSBServer-" + connSocket.getPort());
+			connThread.setDaemon(true);
+			if (this.waitStrategy != null)
+				connThread.setPriority(Thread.MAX_PRIORITY);
+			connThread.start();
+		}
+
+		// disconnect remaining clients so their threads end
+		synchronized (this.connections)
+		{
+			for (Socket connSocket : this.connections)
+			{
+				try
+				{
+					connSocket.close();
+				}
+				catch (IOException e)
+				{
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Receives messages from one client until it disconnects
+	 * 
+	 * @param connSocket
+	 *            the client's socket
+	 */
+	private void serve(Socket connSocket)
+	{
+		if (this.verbose)
+			LOG_CONNECTED.log(connSocket.getInetAddress() + ":" + connSocket.getPort());
+
+		ClientConnectedEvent connectedEvent = new ClientConnectedEvent();
+		if (connectedEvent.shouldCommit())
+		{
+			connectedEvent.address = connSocket.getInetAddress().getHostAddress();
+			connectedEvent.port = connSocket.getPort();
+			connectedEvent.commit();
+		}
+		long messages = 0;
+
+		// every connection decodes on its own, MessageDecoder is not thread-safe
+		MessageDecoder decoder = new MessageDecoder(this.kinematics, this.width);
+		byte[] receiveBuffer = new byte[MAX_MESSAGE_LENGTH];
+		double[] received = new double[this.width];
+
+		// credits of the client, null unless it asked for flow control
+		FlowControl.Flow flow = null;
+
+		// whether the client's first position message was checked for a format the platform understands
+		boolean handshaken = false;
 
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(connSocket.getInputStream())))
+		{
+			while (true)
+			{
+				// Receive Input from client and store it as the most recent position
+				int messageLength;
+				try
+				{
+					messageLength = dis.readUnsignedShort();
+					dis.readFully(receiveBuffer, 0, messageLength);
+				}
+				catch (EOFException e)
+				{
+					break;
+				}
+				long receivedNanos = System.nanoTime();
+				this.statistics.messageReceived();
+				messages++;
+
+				if (flow == null && FlowControl.isRequest(receiveBuffer, messageLength))
+				{
 					if (this.verbose)
-						System.out.println("[Server] Received new position: " + connInputString);
+						LOG_FLOW.log(connSocket.getInetAddress() + ":" + connSocket.getPort());
+					flow = this.flowControl.open(connSocket);
+					continue;
+				}
+				if (flow != null && !flow.messageReceived())
+					this.statistics.messageOverCredit();
 
-					synchronized (this.positions)
+				// a legacy client would only ever have its messages rejected, so it is told off once instead
+				if (!handshaken)
+				{
+					handshaken = true;
+					if (!decoder.acceptsLegacy() && MessageDecoder.isLegacy(receiveBuffer, messageLength))
 					{
-						this.positions.add(new FSBPosition(connInputString));
-						this.positions.notifyAll();
+						LOG_LEGACY_REFUSED.log(connSocket.getInetAddress() + ":" + connSocket.getPort(), this.width);
+						this.statistics.messageRejected();
+						break;
 					}
 				}
 
+				// the event is only created while it is recorded, so the connection thread does not allocate otherwise
+				PoseReceivedEvent event = null;
+				if (PoseReceivedEvent.TYPE.isEnabled())
+				{
+					event = new PoseReceivedEvent();
+					event.begin();
+				}
+
+				if (!decoder.decode(receiveBuffer, messageLength, received))
+				{
+					this.statistics.messageRejected();
+					if (this.verbose)
+						LOG_REJECTED.log(messageLength);
+					commit(event, connSocket.getPort(), messageLength, false);
+					continue;
+				}
+
 				if (this.verbose)
-					System.out.println("[Server] Client disconnected. Closing socket and listening for new Connection...");
+					LOG_RECEIVED.log(received);
+
+				publish(received, receivedNanos);
+				commit(event, connSocket.getPort(), messageLength, true);
+			}
+		}
+		catch (IOException e)
+		{
+			// connection reset or closed by stop(), only this client is affected
+		}
+		finally
+		{
+			if (flow != null)
+				this.flowControl.close(flow);
+
+			if (this.verbose)
+				LOG_DISCONNECTED.log(connSocket.getInetAddress() + ":" + connSocket.getPort());
+
+			ClientDisconnectedEvent disconnectedEvent = new ClientDisconnectedEvent();
+			if (disconnectedEvent.shouldCommit())
+			{
+				disconnectedEvent.address = connSocket.getInetAddress().getHostAddress();
+				disconnectedEvent.port = connSocket.getPort();
+				disconnectedEvent.messages = messages;
+				disconnectedEvent.commit();
+			}
 
-				dis.close();
+			try
+			{
 				connSocket.close();
 			}
 			catch (IOException e)
 			{
-//				e.printStackTrace();
-				
-				try
-				{
-					this.serverSocket.close();
-				}
-				catch (IOException f)
-				{
-					f.printStackTrace();
-				}
+				e.printStackTrace();
+			}
+			synchronized (this.connections)
+			{
+				this.connections.remove(connSocket);
 			}
+			this.statistics.connectionClosed();
 		}
 	}
+
+	/**
+	 * Completes a pose received event
+	 * 
+	 * @param event
+	 *            the event, or null if it is not recorded
+	 * @param clientPort
+	 *            port of the client that sent the message
+	 * @param messageBytes
+	 *            size of the message
+	 * @param accepted
+	 *            whether the message was published
+	 */
+	private static void commit(PoseReceivedEvent event, int clientPort, int messageBytes, boolean accepted)
+	{
+		if (event == null)
+			return;
+
+		event.clientPort = clientPort;
+		event.messageBytes = messageBytes;
+		event.accepted = accepted;
+		event.commit();
+	}
 }
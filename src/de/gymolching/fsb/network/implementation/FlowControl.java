@@ -0,0 +1,320 @@
+package de.gymolching.fsb.network.implementation;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Credit-based flow control between FSBServer and the clients that ask for it.
+ * <p>
+ * A client opts in by sending the message "FLOW:1". From then on the server sends it messages framed like the client's own
+ * (an unsigned short length followed by the bytes, as DataOutputStream.writeUTF writes them):
+ * <ul>
+ * <li>"CREDIT:n;rate;period" right away and then every grant period: n more messages the client may send, the rate in
+ * positions per second at which the regulation took positions during the last grant period, and the grant period in ms</li>
+ * </ul>
+ * A client sends one message per credit and spreads its credits evenly over the grant period, since positions arriving in a burst
+ * overwrite each other before the regulation takes them. Once its credits are used up it sends nothing until the next grant,
+ * dropping the poses that became due meanwhile instead of sending them late.
+ * <p>
+ * The credits the clients together get per grant period follow the regulation: they grow by an eighth while the clients use them
+ * and hardly any positions are overwritten before the regulation takes them, and shrink by a quarter once more than
+ * MAX_CONFLATION of them are. So the clients send about as fast as the regulation applies positions and the conflation ratio
+ * falls toward zero. A client that does not opt in is not limited at all.
+ * <p>
+ * Every flow sends its grants on its own writer thread, so a client that stops reading only stalls its own grants. While a
+ * flow's previous grant is still being sent, the flow is skipped instead of queueing another one.
+ */
+class FlowControl implements Runnable
+{
+	// time between two grants
+	static final long GRANT_PERIOD_MILLIS = 100;
+
+	// credits a client gets when opting in, before the regulation's rate is known
+	static final int INITIAL_CREDITS = 10;
+
+	// fewest credits granted per period to all clients together, so a slow regulation does not starve them
+	private static final int MIN_CREDITS = 2;
+
+	// share of positions that may be overwritten before the regulation took them without the credits shrinking
+	private static final double MAX_CONFLATION = 0.01;
+
+	private static final byte[] REQUEST = "FLOW:1".getBytes(StandardCharsets.US_ASCII);
+
+	private final ServerStatistics statistics;
+
+	// connections that opted in, also the monitor guarding the fields below
+	private final List<Flow> flows = new ArrayList<>();
+
+	// counters at the previous grant
+	private long lastPublished = 0;
+	private long lastDelivered = 0;
+	private long lastConflated = 0;
+
+	// credits all clients together get per grant period
+	private long credits = INITIAL_CREDITS;
+
+	// positions per second the regulation took during the last grant period
+	private long applyRate = 0;
+
+	private final Thread thread;
+
+	/**
+	 * @param statistics
+	 *            counters of the server, the regulation's rate is measured from them
+	 */
+	FlowControl(ServerStatistics statistics)
+	{
+		this.statistics = statistics;
+		this.thread = new Thread(this, "flow-control");
+		this.thread.setDaemon(true);
+	}
+
+	/**
+	 * @param buffer
+	 *            a received message
+	 * @param length
+	 *            how many bytes of buffer belong to the message
+	 * @return whether the message asks for flow control
+	 */
+	static boolean isRequest(byte[] buffer, int length)
+	{
+		return length == REQUEST.length && MessageDecoder.startsWith(buffer, length, REQUEST);
+	}
+
+	void start()
+	{
+		this.thread.start();
+	}
+
+	void stop() throws InterruptedException
+	{
+		this.thread.interrupt();
+		this.thread.join();
+	}
+
+	/**
+	 * Puts a connection under flow control and grants it its initial credits
+	 *
+	 * @param connSocket
+	 *            the client's socket
+	 * @return the connection's flow, to be counted down for every message and closed when the client disconnects
+	 * @throws IOException
+	 *             if the client's socket cannot be written to
+	 */
+	Flow open(Socket connSocket) throws IOException
+	{
+		Flow flow = new Flow(this, connSocket);
+		synchronized (this.flows)
+		{
+			flow.offer(INITIAL_CREDITS, this.applyRate);
+			this.statistics.creditsGranted(INITIAL_CREDITS);
+			this.flows.add(flow);
+		}
+		flow.start();
+		this.statistics.flowOpened();
+		return flow;
+	}
+
+	/**
+	 * Ends flow control of a connection
+	 *
+	 * @param flow
+	 *            the connection's flow
+	 */
+	void close(Flow flow)
+	{
+		boolean removed;
+		synchronized (this.flows)
+		{
+			removed = this.flows.remove(flow);
+		}
+		flow.close();
+		if (removed)
+			this.statistics.flowClosed();
+	}
+
+	public void run()
+	{
+		while (true)
+		{
+			try
+			{
+				Thread.sleep(GRANT_PERIOD_MILLIS);
+			}
+			catch (InterruptedException e)
+			{
+				break;
+			}
+			grant();
+		}
+	}
+
+	/**
+	 * Measures the regulation's rate over the last period and tops every flow's credits up to its share of the next period's
+	 */
+	private void grant()
+	{
+		// offering a grant only hands it to the flow's writer thread, so the lock is never held while writing to a socket
+		synchronized (this.flows)
+		{
+			long published = this.statistics.getPositionsPublished();
+			long delivered = this.statistics.getPositionsDelivered();
+			long conflated = this.statistics.getPositionsConflated();
+			long sent = published - this.lastPublished;
+			long taken = delivered - this.lastDelivered;
+			long overwritten = conflated - this.lastConflated;
+			this.lastPublished = published;
+			this.lastDelivered = delivered;
+			this.lastConflated = conflated;
+
+			this.applyRate = Math.round(taken * 1000.0 / GRANT_PERIOD_MILLIS);
+			this.statistics.applyRateMeasured(this.applyRate);
+
+			if (this.flows.isEmpty())
+				return;
+
+			// clients that do not use their credits say nothing about whether the regulation could take more
+			if (overwritten > sent * MAX_CONFLATION)
+				this.credits = Math.max(MIN_CREDITS, this.credits - this.credits / 4);
+			else if (sent >= this.credits * 3 / 4)
+				this.credits += Math.max(1, this.credits / 8);
+
+			long share = (this.credits + this.flows.size() - 1) / this.flows.size();
+			for (Flow flow : this.flows)
+			{
+				long granted = Math.max(0, share - flow.getCredits());
+				if (flow.offer(granted, this.applyRate))
+					this.statistics.creditsGranted(granted);
+				else
+					this.statistics.grantSkipped();
+			}
+		}
+	}
+
+	/**
+	 * Credits of one connection and the thread sending its grants
+	 */
+	static class Flow implements Runnable
+	{
+		private final FlowControl flowControl;
+		private final DataOutputStream out;
+		private final Thread writer;
+
+		// messages the client may still send as far as the server knows, messages in flight are not counted yet
+		private long credits = 0;
+
+		// grant waiting for the writer thread, and whether it has not been sent completely yet
+		private long pendingCredits;
+		private long pendingApplyRate;
+		private boolean pending = false;
+
+		// whether flow control of the connection ended
+		private boolean closed = false;
+
+		private Flow(FlowControl flowControl, Socket connSocket) throws IOException
+		{
+			this.flowControl = flowControl;
+			this.out = new DataOutputStream(new BufferedOutputStream(connSocket.getOutputStream()));
+			this.writer = new Thread(this, "flow-" + connSocket.getPort());
+			this.writer.setDaemon(true);
+		}
+
+		private void start()
+		{
+			this.writer.start();
+		}
+
+		/**
+		 * Counts a position message received from the client
+		 *
+		 * @return whether the client had a credit for it
+		 */
+		synchronized boolean messageReceived()
+		{
+			if (this.credits == 0)
+				return false;
+			this.credits--;
+			return true;
+		}
+
+		private synchronized long getCredits()
+		{
+			return this.credits;
+		}
+
+		/**
+		 * Adds credits and hands them to the writer thread to tell the client about them, without waiting for it
+		 *
+		 * @return whether the credits were granted, false if the previous grant is still being sent
+		 */
+		private synchronized boolean offer(long credits, long applyRate)
+		{
+			if (this.pending || this.closed)
+				return false;
+			this.credits += credits;
+			this.pendingCredits = credits;
+			this.pendingApplyRate = applyRate;
+			this.pending = true;
+			notifyAll();
+			return true;
+		}
+
+		/**
+		 * Ends the writer thread once it is done with the grant it is sending
+		 */
+		private synchronized void close()
+		{
+			this.closed = true;
+			notifyAll();
+		}
+
+		public void run()
+		{
+			while (true)
+			{
+				long credits;
+				long applyRate;
+				synchronized (this)
+				{
+					while (!this.pending && !this.closed)
+					{
+						try
+						{
+							wait();
+						}
+						catch (InterruptedException e)
+						{
+							return;
+						}
+					}
+					if (this.closed)
+						return;
+					credits = this.pendingCredits;
+					applyRate = this.pendingApplyRate;
+				}
+
+				try
+				{
+					this.out.writeUTF("CREDIT:" + credits + ";" + applyRate + ";" + GRANT_PERIOD_MILLIS);
+					this.out.flush();
+				}
+				catch (IOException e)
+				{
+					// the client is gone, only its flow ends here, its connection thread ends on its own
+					this.flowControl.close(this);
+					return;
+				}
+
+				synchronized (this)
+				{
+					this.pending = false;
+				}
+			}
+		}
+	}
+}
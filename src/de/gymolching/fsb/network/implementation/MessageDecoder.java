@@ -0,0 +1,242 @@
+package de.gymolching.fsb.network.implementation;
+
+import java.nio.charset.StandardCharsets;
+
+import de.gymolching.fsb.api.FSBPosition;
+import de.gymolching.fsb.kinematics.StewartKinematics;
+
+/**
+ * Decodes the payload of a message sent by a client into normalized arm lengths, one per arm of the platform.
+ * Three kinds of messages are understood:
+ * <ul>
+ * <li>pose messages "POSE:x;y;z;roll;pitch;yaw" with the translation in mm and the rotation in degrees,
+ * solved into arm lengths by the server's inverse kinematics</li>
+ * <li>length messages "LENGTHS:l0;l1;..." with one length per arm from 0 to FSBPosition.MAX, for platforms of any width</li>
+ * <li>every other message is handed to FSBPosition as before, which only fits platforms with six arms; FSBServer refuses clients
+ * sending them to platforms of other widths, see acceptsLegacy()</li>
+ * </ul>
+ * Pose and length messages are decoded directly from the received bytes without allocating.
+ * Flow control requests never reach the decoder, FSBServer answers them itself, see FlowControl.
+ */
+public class MessageDecoder
+{
+	private static final byte[] POSE_PREFIX = "POSE:".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] LENGTHS_PREFIX = "LENGTHS:".getBytes(StandardCharsets.US_ASCII);
+
+	// amount of arms an FSBPosition has lengths for
+	private static final int FSB_POSITION_WIDTH = 6;
+
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18 };
+
+	private final StewartKinematics kinematics;
+
+	// amount of arm lengths a message is decoded into
+	private final int width;
+
+	// end of the number parsed last, in the receive buffer
+	private int parseEnd;
+
+	/**
+	 * Creates a decoder for a hexapod, or for the platform the kinematics are for
+	 *
+	 * @param kinematics
+	 *            inverse kinematics used to solve pose messages, or null if pose messages should be rejected
+	 */
+	public MessageDecoder(StewartKinematics kinematics)
+	{
+		this(kinematics, kinematics != null ? kinematics.getArmAmount() : FSB_POSITION_WIDTH);
+	}
+
+	/**
+	 * @param kinematics
+	 *            inverse kinematics used to solve pose messages, or null if pose messages should be rejected
+	 * @param width
+	 *            amount of arms of the platform
+	 * @throws IllegalArgumentException
+	 *             if the kinematics are for a different amount of arms
+	 */
+	public MessageDecoder(StewartKinematics kinematics, int width)
+	{
+		if (width <= 0)
+			throw new IllegalArgumentException("width must be positive.");
+		if (kinematics != null && kinematics.getArmAmount() != width)
+			throw new IllegalArgumentException("kinematics are for " + kinematics.getArmAmount() + " arms but the platform has " + width + ".");
+
+		this.kinematics = kinematics;
+		this.width = width;
+	}
+
+	/**
+	 * @param buffer
+	 *            a received message
+	 * @param length
+	 *            how many bytes of buffer belong to the message
+	 * @return whether the message is neither a pose nor a length message and would be handed to FSBPosition
+	 */
+	public static boolean isLegacy(byte[] buffer, int length)
+	{
+		return !startsWith(buffer, length, POSE_PREFIX) && !startsWith(buffer, length, LENGTHS_PREFIX);
+	}
+
+	/**
+	 * @return whether FSBPosition messages fit the platform, which needs it to have six arms
+	 */
+	public boolean acceptsLegacy()
+	{
+		return this.width == FSB_POSITION_WIDTH;
+	}
+
+	/**
+	 * Decodes a message
+	 *
+	 * @param buffer
+	 *            the message's modified UTF-8 bytes as written by DataOutputStream.writeUTF
+	 * @param length
+	 *            how many bytes of buffer belong to the message
+	 * @param lengths
+	 *            receives the normalized arm lengths, at least width of them; its contents are undefined when false is
+	 *            returned
+	 * @return whether the message was a valid position
+	 */
+	public boolean decode(byte[] buffer, int length, double[] lengths)
+	{
+		if (startsWith(buffer, length, POSE_PREFIX))
+			return decodePose(buffer, length, lengths);
+		if (startsWith(buffer, length, LENGTHS_PREFIX))
+			return decodeLengths(buffer, length, lengths);
+		if (!acceptsLegacy())
+			return false;
+
+		FSBPosition position;
+		try
+		{
+			position = new FSBPosition(new String(buffer, 0, length, StandardCharsets.UTF_8));
+		}
+		catch (RuntimeException e)
+		{
+			return false;
+		}
+		lengths[0] = position.getLength1() / (double) FSBPosition.MAX;
+		lengths[1] = position.getLength2() / (double) FSBPosition.MAX;
+		lengths[2] = position.getLength3() / (double) FSBPosition.MAX;
+		lengths[3] = position.getLength4() / (double) FSBPosition.MAX;
+		lengths[4] = position.getLength5() / (double) FSBPosition.MAX;
+		lengths[5] = position.getLength6() / (double) FSBPosition.MAX;
+		return true;
+	}
+
+	private boolean decodePose(byte[] buffer, int length, double[] lengths)
+	{
+		if (this.kinematics == null)
+			return false;
+
+		double x, y, z, roll, pitch, yaw;
+		this.parseEnd = POSE_PREFIX.length;
+		x = parseValue(buffer, length, true);
+		y = parseValue(buffer, length, false);
+		z = parseValue(buffer, length, false);
+		roll = parseValue(buffer, length, false);
+		pitch = parseValue(buffer, length, false);
+		yaw = parseValue(buffer, length, false);
+
+		if (Double.isNaN(x + y + z + roll + pitch + yaw) || this.parseEnd != length)
+			return false;
+
+		return this.kinematics.solve(x, y, z, Math.toRadians(roll), Math.toRadians(pitch), Math.toRadians(yaw), lengths);
+	}
+
+	private boolean decodeLengths(byte[] buffer, int length, double[] lengths)
+	{
+		this.parseEnd = LENGTHS_PREFIX.length;
+		for (int i = 0; i < this.width; i++)
+		{
+			double value = parseValue(buffer, length, i == 0);
+			if (Double.isNaN(value) || value < 0 || value > FSBPosition.MAX)
+				return false;
+			lengths[i] = value / FSBPosition.MAX;
+		}
+		return this.parseEnd == length;
+	}
+
+	/**
+	 * Parses one ';' separated decimal number starting at parseEnd and moves parseEnd behind it
+	 *
+	 * @param first
+	 *            whether this is the first number after the prefix, which is not preceded by a ';'
+	 * @return the number or NaN if it is malformed
+	 */
+	private double parseValue(byte[] buffer, int length, boolean first)
+	{
+		int i = this.parseEnd;
+		if (!first)
+		{
+			if (i >= length || buffer[i] != ';')
+				return Double.NaN;
+			i++;
+		}
+
+		boolean negative = false;
+		if (i < length && (buffer[i] == '-' || buffer[i] == '+'))
+		{
+			negative = buffer[i] == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int fractionDigits = 0;
+		boolean fraction = false;
+		for (; i < length && buffer[i] != ';'; i++)
+		{
+			byte b = buffer[i];
+			if (b == '.' && !fraction)
+			{
+				fraction = true;
+			}
+			else if (b >= '0' && b <= '9')
+			{
+				// digits beyond the 18th do not fit into the mantissa and are below the precision of a double anyway
+				if (digits < 18)
+				{
+					mantissa = mantissa * 10 + (b - '0');
+					if (fraction)
+						fractionDigits++;
+				}
+				else if (!fraction)
+				{
+					return Double.NaN;
+				}
+				digits++;
+			}
+			else
+			{
+				return Double.NaN;
+			}
+		}
+
+		this.parseEnd = i;
+		if (digits == 0)
+			return Double.NaN;
+
+		double value = mantissa / POWERS_OF_TEN[fractionDigits];
+		return negative ? -value : value;
+	}
+
+	/**
+	 * @return amount of arm lengths a message is decoded into
+	 */
+	public int getWidth()
+	{
+		return this.width;
+	}
+
+	static boolean startsWith(byte[] buffer, int length, byte[] prefix)
+	{
+		if (length < prefix.length)
+			return false;
+		for (int i = 0; i < prefix.length; i++)
+			if (buffer[i] != prefix[i])
+				return false;
+		return true;
+	}
+}
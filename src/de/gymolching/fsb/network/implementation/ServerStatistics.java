@@ -0,0 +1,239 @@
+package de.gymolching.fsb.network.implementation;
+
+import de.gymolching.fsb.metrics.Counter;
+import de.gymolching.fsb.metrics.Gauge;
+import de.gymolching.fsb.metrics.LatencyHistogram;
+import de.gymolching.fsb.metrics.MetricsRegistry;
+
+/**
+ * Counters kept by FSBServer about the messages it received and the positions it handed on.
+ * All counters are totals since the server was started.
+ */
+public class ServerStatistics
+{
+	private final Counter connectionsAccepted = new Counter();
+	private final Counter connectionsRefused = new Counter();
+	private final Gauge activeConnections = new Gauge();
+	private final Counter messagesReceived = new Counter();
+	private final Counter messagesRejected = new Counter();
+	private final Counter positionsPublished = new Counter();
+	private final Counter positionsConflated = new Counter();
+	private final Counter positionsDelivered = new Counter();
+
+	// flow control, see FlowControl
+	private final Gauge flowConnections = new Gauge();
+	private final Counter creditsGranted = new Counter();
+	private final Counter grantsSkipped = new Counter();
+	private final Counter messagesOverCredit = new Counter();
+	private final Gauge applyRate = new Gauge();
+
+	// time from a message being read off the socket until its position is taken by the regulation
+	private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+
+	/**
+	 * Adds the counters to a registry
+	 * 
+	 * @param registry
+	 *            the registry
+	 * @param labels
+	 *            label names and values in turns, telling this server apart from others
+	 */
+	public void register(MetricsRegistry registry, String... labels)
+	{
+		registry.register("fsb_server_connections_total", "Client connections accepted", this.connectionsAccepted, labels);
+		registry.register("fsb_server_connections_refused_total", "Client connections refused because another client was in control", this.connectionsRefused, labels);
+		registry.register("fsb_server_connections_active", "Clients currently connected", this.activeConnections, labels);
+		registry.register("fsb_server_messages_received_total", "Messages read from clients", this.messagesReceived, labels);
+		registry.register("fsb_server_messages_rejected_total", "Messages that were malformed or out of reach", this.messagesRejected, labels);
+		registry.register("fsb_server_positions_published_total", "Positions stored as the most recent one", this.positionsPublished, labels);
+		registry.register("fsb_server_positions_conflated_total", "Positions overwritten before the regulation took them", this.positionsConflated, labels);
+		registry.register("fsb_server_positions_delivered_total", "Positions taken by the regulation", this.positionsDelivered, labels);
+		registry.register("fsb_server_flow_connections_active", "Clients currently under flow control", this.flowConnections, labels);
+		registry.register("fsb_server_credits_granted_total", "Send credits granted to clients under flow control", this.creditsGranted, labels);
+		registry.register("fsb_server_grants_skipped_total", "Grants skipped because the client had not been sent its previous grant yet", this.grantsSkipped, labels);
+		registry.register("fsb_server_messages_over_credit_total", "Messages a client under flow control sent without a credit", this.messagesOverCredit, labels);
+		registry.register("fsb_server_apply_rate", "Positions per second the regulation took during the last grant period", this.applyRate, labels);
+		registry.register("fsb_server_delivery_latency_seconds", "Time from reading a message until the regulation takes its position", this.deliveryLatency, labels);
+	}
+
+	void connectionOpened()
+	{
+		this.connectionsAccepted.increment();
+		this.activeConnections.add(1);
+	}
+
+	void connectionRefused()
+	{
+		this.connectionsRefused.increment();
+	}
+
+	void connectionClosed()
+	{
+		this.activeConnections.add(-1);
+	}
+
+	void messageReceived()
+	{
+		this.messagesReceived.increment();
+	}
+
+	void messageRejected()
+	{
+		this.messagesRejected.increment();
+	}
+
+	void positionPublished(boolean conflated)
+	{
+		this.positionsPublished.increment();
+		if (conflated)
+			this.positionsConflated.increment();
+	}
+
+	void positionDelivered(long latencyNanos)
+	{
+		this.positionsDelivered.increment();
+		this.deliveryLatency.record(latencyNanos);
+	}
+
+	void flowOpened()
+	{
+		this.flowConnections.add(1);
+	}
+
+	void flowClosed()
+	{
+		this.flowConnections.add(-1);
+	}
+
+	void creditsGranted(long credits)
+	{
+		this.creditsGranted.add(credits);
+	}
+
+	void grantSkipped()
+	{
+		this.grantsSkipped.increment();
+	}
+
+	void messageOverCredit()
+	{
+		this.messagesOverCredit.increment();
+	}
+
+	void applyRateMeasured(double positionsPerSecond)
+	{
+		this.applyRate.set(positionsPerSecond);
+	}
+
+	/**
+	 * @return how many client connections were accepted
+	 */
+	public long getConnectionsAccepted()
+	{
+		return this.connectionsAccepted.get();
+	}
+
+	/**
+	 * @return how many client connections were refused because another client was in control
+	 */
+	public long getConnectionsRefused()
+	{
+		return this.connectionsRefused.get();
+	}
+
+	/**
+	 * @return how many clients are currently connected
+	 */
+	public long getActiveConnections()
+	{
+		return (long) this.activeConnections.get();
+	}
+
+	/**
+	 * @return how many messages were read from clients
+	 */
+	public long getMessagesReceived()
+	{
+		return this.messagesReceived.get();
+	}
+
+	/**
+	 * @return how many messages were malformed or out of reach
+	 */
+	public long getMessagesRejected()
+	{
+		return this.messagesRejected.get();
+	}
+
+	/**
+	 * @return how many positions were stored as the most recent one
+	 */
+	public long getPositionsPublished()
+	{
+		return this.positionsPublished.get();
+	}
+
+	/**
+	 * @return how many positions were overwritten by a newer one before the regulation took them
+	 */
+	public long getPositionsConflated()
+	{
+		return this.positionsConflated.get();
+	}
+
+	/**
+	 * @return how many positions the regulation took
+	 */
+	public long getPositionsDelivered()
+	{
+		return this.positionsDelivered.get();
+	}
+
+	/**
+	 * @return time from a message being read off the socket until its position is taken by the regulation
+	 */
+	public LatencyHistogram getDeliveryLatency()
+	{
+		return this.deliveryLatency;
+	}
+
+	/**
+	 * @return how many clients are currently under flow control
+	 */
+	public long getFlowConnections()
+	{
+		return (long) this.flowConnections.get();
+	}
+
+	/**
+	 * @return how many send credits were granted to clients under flow control
+	 */
+	public long getCreditsGranted()
+	{
+		return this.creditsGranted.get();
+	}
+
+	/**
+	 * @return how many grants were skipped because the client had not been sent its previous grant yet
+	 */
+	public long getGrantsSkipped()
+	{
+		return this.grantsSkipped.get();
+	}
+
+	/**
+	 * @return how many messages clients under flow control sent without having a credit for them
+	 */
+	public long getMessagesOverCredit()
+	{
+		return this.messagesOverCredit.get();
+	}
+
+	/**
+	 * @return positions per second the regulation took during the last grant period
+	 */
+	public double getApplyRate()
+	{
+		return this.applyRate.get();
+	}
+}
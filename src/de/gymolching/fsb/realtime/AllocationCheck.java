@@ -0,0 +1,141 @@
+package de.gymolching.fsb.realtime;
+
+import de.gymolching.fsb.Config;
+import de.gymolching.fsb.hal.SimulatedArm;
+import de.gymolching.fsb.halApi.ArmInterface;
+import de.gymolching.fsb.kinematics.PlatformGeometry;
+import de.gymolching.fsb.kinematics.StewartKinematics;
+import de.gymolching.fsb.loadtest.LoadClient;
+import de.gymolching.fsb.loadtest.Waveform;
+import de.gymolching.fsb.metrics.LatencyHistogram;
+import de.gymolching.fsb.network.implementation.FSBServer;
+import de.gymolching.fsb.regulation.MotionLimits;
+import de.gymolching.fsb.regulation.PositionProvider;
+import de.gymolching.fsb.regulation.SimpleRegulationImpl;
+import de.gymolching.fsb.regulation.filter.ClampFilter;
+import de.gymolching.fsb.regulation.filter.FilteredPositionProvider;
+import de.gymolching.fsb.regulation.filter.LowPassFilter;
+import de.gymolching.fsb.regulation.filter.RateLimitFilter;
+import de.gymolching.fsb.regulation.filter.WashoutFilter;
+import de.gymolching.fsb.regulation.prediction.KalmanPredictor;
+import de.gymolching.fsb.regulation.prediction.PredictingPositionProvider;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that the real-time hot path allocates nothing in steady state.
+ * Streams poses into a server in this JVM, through every filter stage and the Kalman predictor,
+ * to the regulation in real-time mode driving simulated arms. After a warm-up, the bytes allocated by
+ * the connection thread, the main watch thread and the arm threads are measured with the JVM's per-thread allocation counters.
+ * <p>
+ * Usage: java -cp fsb.jar de.gymolching.fsb.realtime.AllocationCheck [blocking|yielding|busyspin] [rate] [warm-up s] [measured s]
+ * <p>
+ * Exits with status 1 if any thread on the hot path allocated. Needs a JVM with per-thread allocation counters (HotSpot).
+ * @author sschaeffner
+ */
+public class AllocationCheck {
+
+    //defaults of the command line arguments
+    private static final String DEFAULT_WAIT_STRATEGY = "yielding";
+    private static final double DEFAULT_RATE = 1000;
+    private static final int DEFAULT_WARMUP_SECONDS = 30;
+    private static final int DEFAULT_MEASURED_SECONDS = 30;
+
+    //names of the threads on the hot path, connection threads are named after the client's port
+    private static final String CONNECTION_THREAD_PREFIX = "FSBServer-";
+    private static final String MAIN_WATCH_THREAD = "regulation";
+    private static final String ARM_THREAD_PREFIX = "arm-";
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.load(Config.DEFAULT_FILE);
+        String strategyName = args.length > 0 ? args[0] : DEFAULT_WAIT_STRATEGY;
+        double rate = args.length > 1 ? Double.parseDouble(args[1]) : DEFAULT_RATE;
+        int warmupSeconds = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_WARMUP_SECONDS;
+        int measuredSeconds = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_MEASURED_SECONDS;
+
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+            System.err.println("this JVM has no per-thread allocation counters");
+            System.exit(2);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) threadBean;
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        PrintStream report = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+
+        //server -> filters -> predictor -> regulation, as configured on a platform using all of them
+        WaitStrategy waitStrategy = WaitStrategy.forName(strategyName);
+        if (waitStrategy == null) throw new IllegalArgumentException("the allocation check needs a wait strategy, not off");
+        StewartKinematics kinematics = new StewartKinematics(PlatformGeometry.symmetric(300, 20, 200, 20, 400, 600, 460));
+        FSBServer server = new FSBServer(0, false, kinematics);
+        server.setWaitStrategy(waitStrategy);
+
+        int width = kinematics.getArmAmount();
+        PositionProvider provider = new FilteredPositionProvider(server,
+                new WashoutFilter(width, 3.0, 0.5), new LowPassFilter(width, 5), new RateLimitFilter(width, 0.5), new ClampFilter(width, 0, 1));
+        provider = new PredictingPositionProvider(provider, new KalmanPredictor(width, 50, 1e-5), width, 150);
+
+        ArmInterface[] arms = new ArmInterface[width];
+        MotionLimits[] limits = new MotionLimits[width];
+        for (int i = 0; i < width; i++) {
+            limits[i] = MotionLimits.fromConfig(config, i);
+            arms[i] = new SimulatedArm(limits[i].getFullSpeedVelocity(), 0.08, 40);
+        }
+        SimpleRegulationImpl regulation = new SimpleRegulationImpl(arms, limits, true, waitStrategy);
+        regulation.setPositionProvider(provider);
+
+        LoadClient client = new LoadClient(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()),
+                rate, Waveform.NOISE, 0.5, 0, new LatencyHistogram());
+        Thread clientThread = new Thread(client, "load");
+        clientThread.start();
+
+        report.printf("[ALLOC] %s wait strategy, %.0f poses/s, warming up for %d s%n", waitStrategy, rate, warmupSeconds);
+        Thread.sleep(warmupSeconds * 1000L);
+
+        List<Thread> hotThreads = new ArrayList<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            String name = thread.getName();
+            if (name.startsWith(CONNECTION_THREAD_PREFIX) || name.equals(MAIN_WATCH_THREAD) || name.startsWith(ARM_THREAD_PREFIX)) {
+                hotThreads.add(thread);
+            }
+        }
+        hotThreads.sort((a, b) -> a.getName().compareTo(b.getName()));
+
+        long[] before = new long[hotThreads.size()];
+        for (int i = 0; i < before.length; i++) before[i] = threads.getThreadAllocatedBytes(hotThreads.get(i).getId());
+        long deliveredBefore = server.getStatistics().getPositionsDelivered();
+
+        report.printf("[ALLOC] measuring %d threads for %d s%n", hotThreads.size(), measuredSeconds);
+        Thread.sleep(measuredSeconds * 1000L);
+
+        long delivered = server.getStatistics().getPositionsDelivered() - deliveredBefore;
+        boolean clean = true;
+        for (int i = 0; i < before.length; i++) {
+            long allocated = threads.getThreadAllocatedBytes(hotThreads.get(i).getId()) - before[i];
+            report.printf("[ALLOC] %-20s %10d bytes%n", hotThreads.get(i).getName(), allocated);
+            if (allocated != 0) clean = false;
+        }
+        report.printf("[ALLOC] %d positions delivered while measuring%n", delivered);
+        report.println(clean ? "[ALLOC] PASS: no allocation on the hot path" : "[ALLOC] FAIL: the hot path allocated");
+
+        clientThread.interrupt();
+        client.close();
+        regulation.shutdown(1000);
+        System.exit(clean && delivered > 0 && hotThreads.size() > 0 ? 0 : 1);
+    }
+}
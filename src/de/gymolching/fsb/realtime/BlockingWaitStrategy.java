@@ -0,0 +1,30 @@
+package de.gymolching.fsb.realtime;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Parks until the deadline and blocks on monitors for conditions.
+ * Lowest cpu usage, wake-up latency as the operating system's timer allows.
+ * @author sschaeffner
+ */
+public class BlockingWaitStrategy implements WaitStrategy {
+
+    @Override
+    public void awaitDeadline(long deadlineNanos) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+    }
+
+    @Override
+    public boolean idle(int idleCount) {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "blocking";
+    }
+}
@@ -0,0 +1,30 @@
+package de.gymolching.fsb.realtime;
+
+/**
+ * Spins on the cpu until the deadline is reached or the condition is met.
+ * Lowest wake-up latency, but every waiting thread keeps a core fully busy.
+ * Only useful with a free core for every thread on the hot path.
+ * @author sschaeffner
+ */
+public class BusySpinWaitStrategy implements WaitStrategy {
+
+    @Override
+    public void awaitDeadline(long deadlineNanos) throws InterruptedException {
+        while (deadlineNanos - System.nanoTime() > 0) {
+            Thread.onSpinWait();
+        }
+        if (Thread.interrupted()) throw new InterruptedException();
+    }
+
+    @Override
+    public boolean idle(int idleCount) throws InterruptedException {
+        Thread.onSpinWait();
+        if (Thread.interrupted()) throw new InterruptedException();
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "busyspin";
+    }
+}
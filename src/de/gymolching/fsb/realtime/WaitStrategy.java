@@ -0,0 +1,61 @@
+package de.gymolching.fsb.realtime;
+
+import de.gymolching.fsb.Config;
+
+/**
+ * How a thread on the real-time hot path waits: for the next control tick and for data from another thread.
+ * Blocking leaves the cpu to other threads but is woken up late by the operating system,
+ * spinning is woken up immediately but keeps a core busy.
+ * Implementations allocate nothing.
+ * @author sschaeffner
+ */
+public interface WaitStrategy {
+
+    /**
+     * Waits until System.nanoTime() has reached a deadline.
+     * @param deadlineNanos the deadline
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    void awaitDeadline(long deadlineNanos) throws InterruptedException;
+
+    /**
+     * Called repeatedly while polling for a condition that is not met yet.
+     * Strategies that do not poll return false at once; the caller then blocks on the condition's monitor instead.
+     * @param idleCount how often idle() was called since the condition was last checked
+     * @return whether the caller should check the condition again
+     * @throws InterruptedException if the thread is interrupted
+     */
+    boolean idle(int idleCount) throws InterruptedException;
+
+    /**
+     * Creates the wait strategy configured as realtime.
+     * @param config    the configuration
+     * @return the wait strategy or null if real-time mode is off
+     * @throws IllegalArgumentException if realtime is not off, blocking, yielding or busyspin
+     */
+    static WaitStrategy fromConfig(Config config) {
+        return forName(config.getString("realtime", "off"));
+    }
+
+    /**
+     * Creates a wait strategy by name.
+     * @param name  off, blocking, yielding or busyspin
+     * @return the wait strategy or null for off
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    static WaitStrategy forName(String name) {
+        String type = name.toLowerCase();
+        switch (type) {
+            case "off":
+                return null;
+            case "blocking":
+                return new BlockingWaitStrategy();
+            case "yielding":
+                return new YieldingWaitStrategy();
+            case "busyspin":
+                return new BusySpinWaitStrategy();
+            default:
+                throw new IllegalArgumentException("unknown wait strategy " + type + ". realtime must be off, blocking, yielding or busyspin.");
+        }
+    }
+}
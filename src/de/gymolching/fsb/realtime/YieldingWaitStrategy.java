@@ -0,0 +1,59 @@
+package de.gymolching.fsb.realtime;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Parks until shortly before the deadline, then yields the cpu until it is reached.
+ * Polls conditions by spinning briefly, then yielding, then parking for a little longer every time,
+ * so a condition that stays unmet for long, e.g. while no client is connected, does not keep a core busy.
+ * Wakes up almost on time while leaving the cpu to other runnable threads.
+ * @author sschaeffner
+ */
+public class YieldingWaitStrategy implements WaitStrategy {
+
+    //how long before the deadline parking stops and yielding starts, covering the operating system's wake-up latency
+    private static final long YIELD_MARGIN_NANOS = 1000000;
+
+    //how often a condition is polled by spinning before yielding
+    private static final int SPIN_TRIES = 100;
+
+    //how often a condition is polled by yielding before parking
+    private static final int YIELD_TRIES = 1000;
+
+    //how long the first and the longest park between two polls of a condition take
+    private static final long MIN_PARK_NANOS = 10000;
+    private static final long MAX_PARK_NANOS = 1000000;
+
+    @Override
+    public void awaitDeadline(long deadlineNanos) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > YIELD_MARGIN_NANOS) {
+            LockSupport.parkNanos(remaining - YIELD_MARGIN_NANOS);
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+        while (deadlineNanos - System.nanoTime() > 0) {
+            Thread.yield();
+        }
+        if (Thread.interrupted()) throw new InterruptedException();
+    }
+
+    @Override
+    public boolean idle(int idleCount) throws InterruptedException {
+        if (idleCount >= 0 && idleCount < SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else if (idleCount >= 0 && idleCount < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            //the park doubles with every poll until it reaches MAX_PARK_NANOS, also once idleCount overflowed
+            int parks = idleCount < 0 ? 7 : Math.min(idleCount - SPIN_TRIES - YIELD_TRIES, 7);
+            LockSupport.parkNanos(Math.min(MIN_PARK_NANOS << parks, MAX_PARK_NANOS));
+        }
+        if (Thread.interrupted()) throw new InterruptedException();
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "yielding";
+    }
+}
@@ -0,0 +1,160 @@
+package de.gymolching.fsb.regulation;
+
+import de.gymolching.fsb.metrics.Counter;
+import de.gymolching.fsb.metrics.LatencyHistogram;
+import de.gymolching.fsb.metrics.MetricsRegistry;
+
+/**
+ * Keeps track of how far apart in time the arms arrive at a new position.
+ * A position counts once every arm that had to move has arrived; positions replaced by a newer one before that are counted as abandoned.
+ * @author sschaeffner
+ */
+public class ArrivalStatistics {
+
+    //goal of every arm for the current position
+    private final int[] goals;
+
+    //whether an arm still has to arrive at the current position
+    private final boolean[] pending;
+
+    //whether an arm had to move for the current position
+    private final boolean[] involved;
+
+    //arrival time of every arm at the current position
+    private final long[] arrivalNanos;
+
+    //how many arms still have to arrive
+    private int pendingAmount;
+
+    private long completed;
+    private long abandoned;
+    private double lastSpreadMillis;
+    private double maxSpreadMillis;
+    private double spreadSumMillis;
+
+    //totals since creation for the metrics, not cleared by reset()
+    private final Counter completedTotal = new Counter();
+    private final Counter abandonedTotal = new Counter();
+    private final LatencyHistogram spread = new LatencyHistogram();
+
+    /**
+     * Creates arrival statistics.
+     * @param armAmount how many arms there are
+     */
+    public ArrivalStatistics(int armAmount) {
+        this.goals = new int[armAmount];
+        this.pending = new boolean[armAmount];
+        this.involved = new boolean[armAmount];
+        this.arrivalNanos = new long[armAmount];
+    }
+
+    /**
+     * Adds the statistics to a registry.
+     * @param registry  the registry
+     * @param labels    label names and values in turns, telling this regulation apart from others
+     */
+    public void register(MetricsRegistry registry, String... labels) {
+        registry.register("fsb_arrival_positions_completed_total", "Positions all moving arms arrived at", completedTotal, labels);
+        registry.register("fsb_arrival_positions_abandoned_total", "Positions replaced before all moving arms had arrived", abandonedTotal, labels);
+        registry.register("fsb_arrival_spread_seconds", "Time between the first and the last arm arriving at a position", spread, labels);
+    }
+
+    /**
+     * Starts tracking a new position.
+     * @param goals     goal of every arm
+     * @param moving    whether an arm has to move to reach its goal
+     */
+    public synchronized void startPosition(int[] goals, boolean[] moving) {
+        if (pendingAmount > 0) {
+            abandoned++;
+            abandonedTotal.increment();
+        }
+
+        pendingAmount = 0;
+        for (int i = 0; i < this.goals.length; i++) {
+            this.goals[i] = goals[i];
+            this.involved[i] = moving[i];
+            this.pending[i] = moving[i];
+            if (moving[i]) pendingAmount++;
+        }
+    }
+
+    /**
+     * Records that an arm has arrived at a goal.
+     * Ignored if the goal is not the arm's goal for the current position or the arm has already arrived.
+     * @param arm           id of the arm
+     * @param goal          goal the arm arrived at
+     * @param timeNanos     time of the arrival in nanoseconds
+     */
+    public synchronized void arrived(int arm, int goal, long timeNanos) {
+        if (!pending[arm] || goals[arm] != goal) return;
+
+        pending[arm] = false;
+        arrivalNanos[arm] = timeNanos;
+        if (--pendingAmount > 0) return;
+
+        long first = Long.MAX_VALUE, last = Long.MIN_VALUE;
+        for (int i = 0; i < involved.length; i++) {
+            if (!involved[i]) continue;
+            first = Math.min(first, arrivalNanos[i]);
+            last = Math.max(last, arrivalNanos[i]);
+        }
+        lastSpreadMillis = (last - first) / 1e6;
+        maxSpreadMillis = Math.max(maxSpreadMillis, lastSpreadMillis);
+        spreadSumMillis += lastSpreadMillis;
+        completed++;
+        completedTotal.increment();
+        spread.record(last - first);
+    }
+
+    /**
+     * Returns how many positions all moving arms have arrived at.
+     * @return how many positions were completed
+     */
+    public synchronized long getCompleted() {
+        return completed;
+    }
+
+    /**
+     * Returns how many positions were replaced before all moving arms had arrived.
+     * @return how many positions were abandoned
+     */
+    public synchronized long getAbandoned() {
+        return abandoned;
+    }
+
+    /**
+     * Returns the time between first and last arrival at the last completed position.
+     * @return arrival-time spread in milliseconds
+     */
+    public synchronized double getLastSpreadMillis() {
+        return lastSpreadMillis;
+    }
+
+    /**
+     * Returns the mean time between first and last arrival over all completed positions.
+     * @return arrival-time spread in milliseconds
+     */
+    public synchronized double getMeanSpreadMillis() {
+        return completed == 0 ? 0 : spreadSumMillis / completed;
+    }
+
+    /**
+     * Returns the largest time between first and last arrival over all completed positions.
+     * @return arrival-time spread in milliseconds
+     */
+    public synchronized double getMaxSpreadMillis() {
+        return maxSpreadMillis;
+    }
+
+    /**
+     * Clears the statistics, keeping track of the current position.
+     */
+    public synchronized void reset() {
+        completed = 0;
+        abandoned = 0;
+        lastSpreadMillis = 0;
+        maxSpreadMillis = 0;
+        spreadSumMillis = 0;
+    }
+}
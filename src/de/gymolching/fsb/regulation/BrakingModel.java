@@ -0,0 +1,228 @@
+package de.gymolching.fsb.regulation;
+
+/**
+ * Learns how far an arm coasts after its motor is stopped and keeps track of how far it overshoots its goals.
+ * Every stop is watched until the arm stands still; the coasting distance over the velocity at the stop gives the arm's coasting time,
+ * averaged over past stops. The regulation stops an arm once its goal is within the predicted coasting distance,
+ * so the arm coasts onto the goal instead of past it.
+ * @author sschaeffner
+ */
+public class BrakingModel {
+
+    //weight of a new stop against the previous averages
+    private static final double SMOOTHING = 0.2;
+
+    //slowest velocity in steps per second a stop is learned from, slower ones are mostly quantization noise
+    private static final double MIN_LEARNING_VELOCITY = 0.5;
+
+    //how long the position has to stay unchanged for the arm to count as standing still
+    private static final double STANDSTILL_SECONDS = 0.2;
+
+    //shortest predicted coasting distance in steps a stop locks the motor out for
+    private static final double MIN_LOCKOUT_STEPS = 1;
+
+    //how long a stop is watched at most
+    private static final double MAX_COAST_SECONDS = 2;
+
+    //averages of the velocity at a stop and of the distance coasted afterwards, weighted alike
+    private double averageVelocity;
+    private double averageDistance;
+
+    //coasting time learned from the averages in seconds
+    private volatile double coastSeconds;
+
+    //the stop being watched: where and how fast the arm was, its direction and its goal (Integer.MIN_VALUE if none)
+    private boolean coasting;
+    private int stopPosition;
+    private double stopVelocity;
+    private int stopDirection;
+    private int stopGoal;
+    private int lastPosition;
+    private double standstillSeconds;
+    private double coastedSeconds;
+
+    //stops learned from
+    private long stops;
+
+    //overshoot past the goal in steps at stops aimed at a goal, negative if the arm stopped short
+    private long goalStops;
+    private int lastOvershoot;
+    private int maxOvershoot;
+    private long overshootSum;
+    private long absoluteOvershootSum;
+
+    /**
+     * Predicts how far the arm coasts if its motor is stopped now.
+     * @param velocity  current velocity in steps per second
+     * @return coasting distance in steps
+     */
+    public double predictDistance(double velocity) {
+        return coastSeconds * Math.abs(velocity);
+    }
+
+    /**
+     * Starts watching a stop.
+     * @param position  position when the motor was stopped
+     * @param velocity  velocity when the motor was stopped in steps per second
+     * @param direction direction the motor was driving in
+     * @param goal      goal the arm was stopped for, Integer.MIN_VALUE if the stop was not aimed at a goal
+     */
+    public synchronized void stopped(int position, double velocity, int direction, int goal) {
+        coasting = true;
+        stopPosition = position;
+        stopVelocity = Math.abs(velocity);
+        stopDirection = direction;
+        stopGoal = goal;
+        lastPosition = position;
+        standstillSeconds = 0;
+        coastedSeconds = 0;
+    }
+
+    /**
+     * Abandons the stop being watched because the motor was started again.
+     */
+    public synchronized void started() {
+        coasting = false;
+    }
+
+    /**
+     * Follows the stop being watched. Once the arm stands still, the coasting distance is learned from and the overshoot recorded.
+     * @param position  position read in this control tick
+     * @param dt        time since the last control tick in seconds
+     * @return whether the arm came to a standstill in this tick
+     */
+    public synchronized boolean update(int position, double dt) {
+        if (!coasting) return false;
+
+        coastedSeconds += dt;
+        if (position != lastPosition) {
+            lastPosition = position;
+            standstillSeconds = 0;
+            if (coastedSeconds < MAX_COAST_SECONDS) return false;
+        } else {
+            standstillSeconds += dt;
+            if (standstillSeconds < STANDSTILL_SECONDS && coastedSeconds < MAX_COAST_SECONDS) return false;
+        }
+        coasting = false;
+
+        learn(stopVelocity, (position - stopPosition) * stopDirection);
+
+        if (stopGoal != Integer.MIN_VALUE) {
+            int overshoot = (position - stopGoal) * stopDirection;
+            lastOvershoot = overshoot;
+            if (goalStops == 0 || Math.abs(overshoot) > Math.abs(maxOvershoot)) maxOvershoot = overshoot;
+            overshootSum += overshoot;
+            absoluteOvershootSum += Math.abs(overshoot);
+            goalStops++;
+        }
+        return true;
+    }
+
+    /**
+     * Learns from a stop watched elsewhere, e.g. while the motor was identified.
+     * Stops too slow to learn from and arms that moved back are ignored.
+     * @param velocity  velocity when the motor was stopped in steps per second
+     * @param distance  distance coasted afterwards in steps
+     */
+    public synchronized void learn(double velocity, double distance) {
+        velocity = Math.abs(velocity);
+        if (velocity < MIN_LEARNING_VELOCITY || distance < 0) return;
+
+        if (stops == 0) {
+            averageVelocity = velocity;
+            averageDistance = distance;
+        } else {
+            averageVelocity += SMOOTHING * (velocity - averageVelocity);
+            averageDistance += SMOOTHING * (distance - averageDistance);
+        }
+        coastSeconds = averageDistance / averageVelocity;
+        stops++;
+    }
+
+    /**
+     * Returns whether a stop is being watched; the arm must keep being updated until it stands still.
+     * @return whether the arm is coasting
+     */
+    public synchronized boolean isCoasting() {
+        return coasting;
+    }
+
+    /**
+     * Returns whether the motor has to stay off while the stop being watched plays out.
+     * Only stops at speed lock the motor out, those the arm is predicted to coast at least MIN_LOCKOUT_STEPS after;
+     * until a stop was learned from, any stop fast enough to learn from. Slower stops, like those at a profile's reversal,
+     * would only keep the arm standing.
+     * @return whether the arm is coasting after a stop at speed
+     */
+    public synchronized boolean isLockedOut() {
+        if (!coasting) return false;
+        return stops == 0 ? stopVelocity >= MIN_LEARNING_VELOCITY : predictDistance(stopVelocity) >= MIN_LOCKOUT_STEPS;
+    }
+
+    /**
+     * Returns the learned coasting time, the coasting distance per velocity at the stop.
+     * @return coasting time in seconds, 0 until a stop was learned from
+     */
+    public double getCoastSeconds() {
+        return coastSeconds;
+    }
+
+    /**
+     * Returns how many stops were learned from.
+     * @return stops learned from
+     */
+    public synchronized long getStops() {
+        return stops;
+    }
+
+    /**
+     * Returns how many stops aimed at a goal were watched until standstill.
+     * @return stops aimed at a goal
+     */
+    public synchronized long getGoalStops() {
+        return goalStops;
+    }
+
+    /**
+     * Returns how far the arm came to rest past its goal at the last stop aimed at a goal.
+     * @return overshoot in steps, negative if the arm stopped short
+     */
+    public synchronized int getLastOvershoot() {
+        return lastOvershoot;
+    }
+
+    /**
+     * Returns the overshoot furthest from the goal, past or short.
+     * @return overshoot in steps, negative if the arm stopped short
+     */
+    public synchronized int getMaxOvershoot() {
+        return maxOvershoot;
+    }
+
+    /**
+     * Returns the mean overshoot, which is positive if the arm tends to stop past its goals.
+     * @return mean overshoot in steps
+     */
+    public synchronized double getMeanOvershoot() {
+        return goalStops == 0 ? 0 : overshootSum / (double) goalStops;
+    }
+
+    /**
+     * Returns the mean distance from the goal the arm came to rest at.
+     * @return mean absolute overshoot in steps
+     */
+    public synchronized double getMeanAbsoluteOvershoot() {
+        return goalStops == 0 ? 0 : absoluteOvershootSum / (double) goalStops;
+    }
+
+    /**
+     * Clears the overshoot statistics, keeping what was learned.
+     */
+    public synchronized void resetStatistics() {
+        goalStops = 0;
+        lastOvershoot = 0;
+        maxOvershoot = 0;
+        overshootSum = 0;
+        absoluteOvershootSum = 0;
+    }
+}
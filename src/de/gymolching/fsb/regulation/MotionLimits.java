@@ -0,0 +1,112 @@
+package de.gymolching.fsb.regulation;
+
+import de.gymolching.fsb.Config;
+
+/**
+ * Kinematic limits and motor characteristics of one arm.
+ * All distances are in counter steps, all times in seconds.
+ * @author sschaeffner
+ */
+public class MotionLimits {
+
+    //default maximum velocity in steps per second
+    private static final double DEFAULT_MAX_VELOCITY = 10;
+
+    //default maximum acceleration in steps per second^2
+    private static final double DEFAULT_MAX_ACCELERATION = 20;
+
+    //default maximum jerk in steps per second^3
+    private static final double DEFAULT_MAX_JERK = 100;
+
+    //default velocity of the arm at 100% pwm in steps per second
+    private static final double DEFAULT_FULL_SPEED_VELOCITY = 12;
+
+    //default lowest speed percentage at which the motor still turns
+    private static final int DEFAULT_MIN_SPEED = 15;
+
+    //default distance to the goal in steps at which the arm counts as arrived
+    private static final int DEFAULT_POSITION_TOLERANCE = 0;
+
+    private final double maxVelocity;
+    private final double maxAcceleration;
+    private final double maxJerk;
+    private final double fullSpeedVelocity;
+    private final int minSpeed;
+    private final int positionTolerance;
+
+    /**
+     * Creates motion limits.
+     * @param maxVelocity       maximum velocity in steps per second
+     * @param maxAcceleration   maximum acceleration in steps per second^2
+     * @param maxJerk           maximum jerk in steps per second^3
+     * @param fullSpeedVelocity velocity of the arm at 100% pwm in steps per second
+     * @param minSpeed          lowest speed percentage at which the motor still turns
+     * @param positionTolerance distance to the goal in steps at which the arm counts as arrived
+     */
+    public MotionLimits(double maxVelocity, double maxAcceleration, double maxJerk, double fullSpeedVelocity, int minSpeed, int positionTolerance) {
+        if (maxVelocity <= 0 || maxAcceleration <= 0 || maxJerk <= 0 || fullSpeedVelocity <= 0) {
+            throw new IllegalArgumentException("velocity, acceleration and jerk limits must be greater than 0.");
+        }
+        if (minSpeed < 0 || minSpeed > 100) {
+            throw new IllegalArgumentException("minSpeed must be between 0 and 100.");
+        }
+        if (positionTolerance < 0) {
+            throw new IllegalArgumentException("positionTolerance must not be negative.");
+        }
+        this.maxVelocity = maxVelocity;
+        this.maxAcceleration = maxAcceleration;
+        this.maxJerk = maxJerk;
+        this.fullSpeedVelocity = fullSpeedVelocity;
+        this.minSpeed = minSpeed;
+        this.positionTolerance = positionTolerance;
+    }
+
+    /**
+     * Reads the motion limits of an arm from the configuration.
+     * Keys are arm.[armId].maxVelocity, arm.[armId].maxAcceleration, arm.[armId].maxJerk,
+     * arm.[armId].fullSpeedVelocity, arm.[armId].minSpeed and arm.[armId].positionTolerance,
+     * each falling back to the same key without the arm id.
+     * @param config    configuration to read from
+     * @param armId     id of the arm
+     * @return the arm's motion limits
+     */
+    public static MotionLimits fromConfig(Config config, int armId) {
+        return new MotionLimits(
+                config.getArmDouble(armId, "maxVelocity", DEFAULT_MAX_VELOCITY),
+                config.getArmDouble(armId, "maxAcceleration", DEFAULT_MAX_ACCELERATION),
+                config.getArmDouble(armId, "maxJerk", DEFAULT_MAX_JERK),
+                config.getArmDouble(armId, "fullSpeedVelocity", DEFAULT_FULL_SPEED_VELOCITY),
+                config.getArmInt(armId, "minSpeed", DEFAULT_MIN_SPEED),
+                config.getArmInt(armId, "positionTolerance", DEFAULT_POSITION_TOLERANCE));
+    }
+
+    public double getMaxVelocity() {
+        return maxVelocity;
+    }
+
+    public double getMaxAcceleration() {
+        return maxAcceleration;
+    }
+
+    public double getMaxJerk() {
+        return maxJerk;
+    }
+
+    public double getFullSpeedVelocity() {
+        return fullSpeedVelocity;
+    }
+
+    public int getMinSpeed() {
+        return minSpeed;
+    }
+
+    public int getPositionTolerance() {
+        return positionTolerance;
+    }
+
+    @Override
+    public String toString() {
+        return "MotionLimits{v=" + maxVelocity + ", a=" + maxAcceleration + ", j=" + maxJerk
+                + ", fullSpeed=" + fullSpeedVelocity + ", minSpeed=" + minSpeed + "%, tolerance=" + positionTolerance + "}";
+    }
+}
@@ -0,0 +1,212 @@
+package de.gymolching.fsb.regulation;
+
+/**
+ * Online jerk-limited trajectory generator for one arm.
+ * The profile is advanced by calling update() once per control tick. The target may be changed at any time;
+ * the profile then bends smoothly from its current velocity and acceleration towards the new target
+ * without ever exceeding the velocity, acceleration and jerk limits.
+ * This yields a trapezoidal velocity curve with rounded (S-shaped) corners.
+ * A profile may be slowed down by a scale factor applied to all three limits, which stretches it in time
+ * without changing its shape; this is used to make several arms arrive at the same time.
+ * The velocity limit can also be lowered below the configured one, e.g. to the motor's measured full speed.
+ * @author sschaeffner
+ */
+public class MotionProfile {
+
+    //position distance in steps below which the profile snaps onto its target
+    private static final double SETTLE_POSITION = 0.02;
+
+    //velocity in steps per second below which the profile snaps onto its target
+    private static final double SETTLE_VELOCITY = 0.1;
+
+    //limits used while generating the profile
+    private final double maxVelocity;
+    private final double maxAcceleration;
+    private final double maxJerk;
+
+    //position loop gain, chosen so the braking phase does not ring with the jerk limit
+    private final double positionGain;
+
+    //velocity loop gain
+    private final double velocityGain;
+
+    //factor applied to velocity, acceleration and jerk limits, between 0 and 1
+    private double scale;
+
+    //velocity limit in steps per second the configured one is lowered to, before scaling
+    private double velocityLimit;
+
+    private double target;
+    private double position;
+    private double velocity;
+    private double acceleration;
+
+    /**
+     * Creates a profile resting at position 0.
+     * @param limits    the arm's motion limits
+     */
+    public MotionProfile(MotionLimits limits) {
+        this.maxVelocity = limits.getMaxVelocity();
+        this.maxAcceleration = limits.getMaxAcceleration();
+        this.maxJerk = limits.getMaxJerk();
+        this.positionGain = maxJerk / (2 * maxAcceleration);
+        this.velocityGain = maxJerk / maxAcceleration;
+        this.scale = 1;
+        this.velocityLimit = Double.POSITIVE_INFINITY;
+        reset(0);
+    }
+
+    /**
+     * Puts the profile to rest at a position.
+     * @param position  position in steps
+     */
+    public void reset(double position) {
+        this.target = position;
+        this.position = position;
+        this.velocity = 0;
+        this.acceleration = 0;
+    }
+
+    /**
+     * Sets a new target. May be called while the profile is moving.
+     * @param target    target position in steps
+     */
+    public void setTarget(double target) {
+        setTarget(target, 1);
+    }
+
+    /**
+     * Sets a new target and slows the profile down. May be called while the profile is moving.
+     * @param target    target position in steps
+     * @param scale     factor applied to velocity, acceleration and jerk limits, between 0 (exclusive) and 1
+     */
+    public void setTarget(double target, double scale) {
+        setTarget(target, scale, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Sets a new target, lowers the velocity limit and slows the profile down. May be called while the profile is moving.
+     * @param target        target position in steps
+     * @param scale         factor applied to velocity, acceleration and jerk limits, between 0 (exclusive) and 1
+     * @param velocityLimit velocity limit in steps per second used instead of the configured one if lower, before scaling
+     */
+    public void setTarget(double target, double scale, double velocityLimit) {
+        if (scale <= 0 || scale > 1) throw new IllegalArgumentException("scale must be in (0, 1].");
+        if (velocityLimit <= 0) throw new IllegalArgumentException("velocityLimit must be greater than 0.");
+        this.target = target;
+        this.scale = scale;
+        this.velocityLimit = velocityLimit;
+    }
+
+    /**
+     * Advances the profile by one control tick.
+     * @param dt    time since the last update in seconds
+     */
+    public void update(double dt) {
+        if (dt <= 0 || isSettled()) return;
+
+        double maxVelocity = Math.min(this.maxVelocity, velocityLimit) * scale;
+        double maxAcceleration = this.maxAcceleration * scale;
+        double maxJerk = this.maxJerk * scale;
+        double linearZone = maxAcceleration / (positionGain * positionGain);
+
+        //velocity from which the remaining distance can still be braked to zero
+        double distance = target - position;
+        double desiredVelocity;
+        if (Math.abs(distance) <= linearZone) {
+            desiredVelocity = positionGain * distance;
+        } else {
+            desiredVelocity = Math.signum(distance) * Math.sqrt(2 * maxAcceleration * (Math.abs(distance) - linearZone / 2));
+        }
+        desiredVelocity = clamp(desiredVelocity, maxVelocity);
+
+        //acceleration towards that velocity, changed no faster than the jerk limit allows
+        double desiredAcceleration = clamp((desiredVelocity - velocity) * velocityGain, maxAcceleration);
+        this.acceleration += clamp(desiredAcceleration - this.acceleration, maxJerk * dt);
+
+        double newVelocity = this.velocity + this.acceleration * dt;
+        this.position += (this.velocity + newVelocity) / 2 * dt;
+        this.velocity = newVelocity;
+
+        if (Math.abs(target - position) < SETTLE_POSITION && Math.abs(velocity) < SETTLE_VELOCITY) {
+            reset(target);
+        }
+    }
+
+    /**
+     * Returns whether the profile rests at its target.
+     * @return whether the profile rests at its target
+     */
+    public boolean isSettled() {
+        return position == target && velocity == 0 && acceleration == 0;
+    }
+
+    public double getTarget() {
+        return target;
+    }
+
+    public double getPosition() {
+        return position;
+    }
+
+    public double getVelocity() {
+        return velocity;
+    }
+
+    public double getAcceleration() {
+        return acceleration;
+    }
+
+    public double getScale() {
+        return scale;
+    }
+
+    public double getVelocityLimit() {
+        return velocityLimit;
+    }
+
+    /**
+     * Estimates how long a profile takes to travel a distance from rest to rest.
+     * @param distance          distance in steps
+     * @param maxVelocity       velocity limit in steps per second
+     * @param maxAcceleration   acceleration limit in steps per second^2
+     * @param maxJerk           jerk limit in steps per second^3
+     * @return estimated duration in seconds
+     */
+    public static double estimateDuration(double distance, double maxVelocity, double maxAcceleration, double maxJerk) {
+        distance = Math.abs(distance);
+        if (distance == 0) return 0;
+
+        //trapezoid, or triangle if the velocity limit is never reached, plus the time the jerk limit adds to the ramps
+        double cruise = distance >= maxVelocity * maxVelocity / maxAcceleration
+                ? distance / maxVelocity + maxVelocity / maxAcceleration
+                : 2 * Math.sqrt(distance / maxAcceleration);
+        return cruise + maxAcceleration / maxJerk;
+    }
+
+    /**
+     * Finds the scale factor that stretches a profile over a distance to a given duration.
+     * Scaling all limits by k takes as long as travelling distance / k with unscaled limits, which is searched for by bisection.
+     * @param distance          distance in steps
+     * @param maxVelocity       velocity limit in steps per second
+     * @param maxAcceleration   acceleration limit in steps per second^2
+     * @param maxJerk           jerk limit in steps per second^3
+     * @param duration          desired duration in seconds
+     * @return scale factor in (0, 1]; 1 if the distance cannot be travelled in the duration even unscaled
+     */
+    public static double scaleForDuration(double distance, double maxVelocity, double maxAcceleration, double maxJerk, double duration) {
+        if (distance == 0 || estimateDuration(distance, maxVelocity, maxAcceleration, maxJerk) >= duration) return 1;
+
+        double low = 1e-3, high = 1;
+        for (int i = 0; i < 30; i++) {
+            double mid = (low + high) / 2;
+            if (estimateDuration(distance / mid, maxVelocity, maxAcceleration, maxJerk) > duration) low = mid;
+            else high = mid;
+        }
+        return high;
+    }
+
+    private static double clamp(double value, double limit) {
+        return Math.max(-limit, Math.min(limit, value));
+    }
+}
@@ -0,0 +1,415 @@
+package de.gymolching.fsb.regulation;
+
+import de.gymolching.fsb.clock.Clock;
+import de.gymolching.fsb.halApi.ArmInterface;
+import de.gymolching.fsb.logging.Level;
+import de.gymolching.fsb.logging.LogEvent;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Dead time, gain, time constant and coasting time of an arm's motor, identified from two short pwm steps
+ * driven forward from the starting position.
+ * <p>
+ * Each step starts the motor from standstill, reads the position every few milliseconds and stops the motor again.
+ * The position of a motor with dead time d and time constant t behind a pwm step follows v (u - t (1 - e^(-u/t))), u being the time since d;
+ * a line fitted through the second half of the step gives the velocity v and, where it crosses zero, d + t, which are then split
+ * by fitting the curve through all samples. The velocities of the two steps at different speeds give the gain and the dead band below
+ * which the motor does not turn, the distances coasted after the stops give the coasting time.
+ * @author sschaeffner
+ */
+public class MotorIdentification {
+
+    //speeds of the two steps in percent
+    private static final int LOW_STEP_SPEED = 50;
+    private static final int HIGH_STEP_SPEED = 100;
+
+    //how long a step drives at most
+    private static final int STEP_MILLIS = 2000;
+
+    //time between two position reads during a step and while coasting
+    private static final int SAMPLE_MILLIS = 5;
+
+    //how long the position has to stay unchanged for the arm to count as standing still, and how long a stop is watched at most
+    private static final int STANDSTILL_MILLIS = 200;
+    private static final int MAX_COAST_MILLIS = 2000;
+
+    //least amount of counter changes in the second half of a step for its velocity to be trusted
+    private static final int MIN_FIT_STEPS = 3;
+
+    //amount of splits of d + t into dead time and time constant that are tried
+    private static final int DEAD_TIME_GRID = 200;
+
+    //speed in percent added to the dead band for the slowest speed the regulation creeps with
+    private static final int DEAD_BAND_MARGIN = 5;
+
+    //keys of the stored parameters, in the order of the constructor's arguments
+    private static final String[] KEYS = {"deadTime", "timeConstant", "gain", "deadBand", "coastTime"};
+
+    private static final LogEvent LOG_IGNORED = new LogEvent(Level.WARN, "[MID] ignoring stored parameters {}");
+
+    //dead time and time constant in seconds
+    private final double deadTimeSeconds;
+    private final double timeConstantSeconds;
+
+    //velocity gained per percent of speed above the dead band, in steps per second
+    private final double gain;
+
+    //speed in percent below which the motor does not turn
+    private final double deadBand;
+
+    //coasting distance per velocity at the stop in seconds
+    private final double coastSeconds;
+
+    /**
+     * Creates identified motor parameters.
+     * @param deadTimeSeconds       time between starting the motor and the arm starting to move in seconds
+     * @param timeConstantSeconds   time constant of the arm's velocity following the motor in seconds
+     * @param gain                  velocity gained per percent of speed above the dead band in steps per second
+     * @param deadBand              speed in percent below which the motor does not turn
+     * @param coastSeconds          coasting distance per velocity at the stop in seconds
+     */
+    public MotorIdentification(double deadTimeSeconds, double timeConstantSeconds, double gain, double deadBand, double coastSeconds) {
+        if (deadTimeSeconds < 0 || timeConstantSeconds < 0 || coastSeconds < 0) {
+            throw new IllegalArgumentException("dead time, time constant and coasting time must not be negative.");
+        }
+        if (gain <= 0) {
+            throw new IllegalArgumentException("gain must be greater than 0.");
+        }
+        if (deadBand < 0 || deadBand >= 100) {
+            throw new IllegalArgumentException("deadBand must be between 0 and 100.");
+        }
+        this.deadTimeSeconds = deadTimeSeconds;
+        this.timeConstantSeconds = timeConstantSeconds;
+        this.gain = gain;
+        this.deadBand = deadBand;
+        this.coastSeconds = coastSeconds;
+    }
+
+    /**
+     * Identifies an arm's motor. The arm must rest at its starting position and is left where the second step ended,
+     * so it has to be driven back to its starting position afterwards. This is a blocking method.
+     * @param arm       the arm
+     * @param clock     clock the steps are timed by
+     * @param maxSteps  how far the arm may drive forward in steps, both steps and their coasting together
+     * @return the motor's parameters or null if the arm did not move far enough to identify it
+     * @throws InterruptedException if interrupted, the motor is stopped first
+     */
+    public static MotorIdentification identify(ArmInterface arm, Clock clock, int maxSteps) throws InterruptedException {
+        Step low = new Step(LOW_STEP_SPEED);
+        Step high = new Step(HIGH_STEP_SPEED);
+        try {
+            low.drive(arm, clock, maxSteps / 3);
+            high.drive(arm, clock, maxSteps / 3);
+        } finally {
+            arm.stop();
+        }
+        if (!low.fit() || !high.fit()) return null;
+
+        //v = gain * (speed - deadBand) through both steps; a motor whose velocity does not grow with its speed is taken as linear
+        double gain = (high.velocity - low.velocity) / (HIGH_STEP_SPEED - LOW_STEP_SPEED);
+        double deadBand = gain > 0 ? HIGH_STEP_SPEED - high.velocity / gain : 0;
+        if (gain <= 0 || deadBand < 0 || deadBand >= LOW_STEP_SPEED) {
+            gain = high.velocity / HIGH_STEP_SPEED;
+            deadBand = 0;
+        }
+
+        //weighted by velocity, the faster step passes its steps sooner and so times the lag more precisely
+        double velocities = low.velocity + high.velocity;
+        return new MotorIdentification((low.velocity * low.deadTime + high.velocity * high.deadTime) / velocities,
+                (low.velocity * low.timeConstant + high.velocity * high.timeConstant) / velocities,
+                gain, deadBand, Math.max(0, low.coasted + high.coasted) / velocities);
+    }
+
+    /**
+     * One pwm step from standstill and the stop after it.
+     */
+    private static class Step {
+        private final int speed;
+
+        //times since the motor was started in seconds and positions relative to the start, read during the step
+        private final double[] seconds = new double[STEP_MILLIS / SAMPLE_MILLIS + 1];
+        private final int[] positions = new int[seconds.length];
+        private int samples;
+
+        //distance coasted after the stop in steps
+        private int coasted;
+
+        //fitted velocity in steps per second, dead time and time constant in seconds
+        private double velocity;
+        private double deadTime;
+        private double timeConstant;
+
+        private Step(int speed) {
+            this.speed = speed;
+        }
+
+        /**
+         * Drives the step and watches the arm coast after it.
+         * @param arm           the arm
+         * @param clock         clock the step is timed by
+         * @param maxDistance   distance in steps after which the step ends early
+         */
+        private void drive(ArmInterface arm, Clock clock, int maxDistance) throws InterruptedException {
+            int start = arm.getPosition();
+            arm.setSpeed(speed);
+            long startNanos = clock.nanoTime();
+            arm.startForward();
+
+            int distance = 0;
+            while (samples < seconds.length && distance < maxDistance) {
+                clock.sleep(SAMPLE_MILLIS);
+                distance = arm.getPosition() - start;
+                seconds[samples] = (clock.nanoTime() - startNanos) / 1e9;
+                positions[samples] = distance;
+                samples++;
+            }
+            arm.stop();
+
+            int stopped = distance;
+            int standstill = 0;
+            for (int coast = 0; coast < MAX_COAST_MILLIS && standstill < STANDSTILL_MILLIS; coast += SAMPLE_MILLIS) {
+                clock.sleep(SAMPLE_MILLIS);
+                int position = arm.getPosition() - start;
+                standstill = position == distance ? standstill + SAMPLE_MILLIS : 0;
+                distance = position;
+            }
+            coasted = distance - stopped;
+        }
+
+        /**
+         * Fits velocity, dead time and time constant to the times the counter changed at.
+         * The counter changes when the arm passes a whole step, which lies anywhere within the step the arm started in,
+         * so the arm is taken to have started in the middle of its step; this limits the lag found to about half a step over the velocity.
+         * @return whether the arm moved far enough for a fit
+         */
+        private boolean fit() {
+            if (samples < 2) return false;
+            double end = seconds[samples - 1];
+
+            //times the counter changed at, halfway between two reads, and the distance the arm had moved then
+            int transitions = 0;
+            double[] times = new double[Math.max(0, positions[samples - 1]) + 1];
+            double[] distances = new double[times.length];
+            int level = 0;
+            for (int i = 0; i < samples; i++) {
+                while (positions[i] > level && transitions < times.length) {
+                    level++;
+                    times[transitions] = i == 0 ? seconds[0] / 2 : (seconds[i - 1] + seconds[i]) / 2;
+                    distances[transitions] = level - 0.5;
+                    transitions++;
+                }
+            }
+
+            //line through the changes in the second half of the step: velocity, and where it crosses zero
+            int n = 0;
+            double st = 0, stt = 0, sx = 0, stx = 0;
+            for (int i = 0; i < transitions; i++) {
+                if (times[i] < end / 2) continue;
+                double t = times[i];
+                double x = distances[i];
+                n++;
+                st += t;
+                stt += t * t;
+                sx += x;
+                stx += t * x;
+            }
+            double denominator = n * stt - st * st;
+            if (n < MIN_FIT_STEPS || denominator <= 0) return false;
+            velocity = (n * stx - st * sx) / denominator;
+            if (velocity <= 0) return false;
+            double lag = Math.max(0, (st - sx / velocity) / n);
+
+            //split the lag into dead time and time constant where the curve fits all changes best
+            double bestError = Double.MAX_VALUE;
+            for (int g = 0; g <= DEAD_TIME_GRID; g++) {
+                double d = lag * g / DEAD_TIME_GRID;
+                double tau = lag - d;
+                double error = 0;
+                for (int i = 0; i < transitions; i++) {
+                    double u = times[i] - d;
+                    double x = u <= 0 ? 0 : tau <= 0 ? velocity * u : velocity * (u - tau * (1 - Math.exp(-u / tau)));
+                    double r = distances[i] - x;
+                    error += r * r;
+                }
+                if (error < bestError) {
+                    bestError = error;
+                    deadTime = d;
+                    timeConstant = tau;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Reads stored parameters.
+     * @param properties    the stored parameters
+     * @param prefix        prefix of the keys of one arm
+     * @return the arm's parameters or null if they are not stored completely
+     */
+    public static MotorIdentification fromProperties(Properties properties, String prefix) {
+        String[] values = new String[KEYS.length];
+        for (int i = 0; i < KEYS.length; i++) {
+            values[i] = properties.getProperty(prefix + KEYS[i]);
+            if (values[i] == null) return null;
+        }
+        try {
+            return new MotorIdentification(Double.parseDouble(values[0]), Double.parseDouble(values[1]),
+                    Double.parseDouble(values[2]), Double.parseDouble(values[3]), Double.parseDouble(values[4]));
+        } catch (IllegalArgumentException e) {
+            LOG_IGNORED.log(prefix + "*: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores the parameters.
+     * @param properties    receives the parameters
+     * @param prefix        prefix of the keys of one arm
+     */
+    public void toProperties(Properties properties, String prefix) {
+        double[] values = {deadTimeSeconds, timeConstantSeconds, gain, deadBand, coastSeconds};
+        for (int i = 0; i < KEYS.length; i++) {
+            properties.setProperty(prefix + KEYS[i], String.format(Locale.ROOT, "%.4f", values[i]));
+        }
+    }
+
+    /**
+     * Loads the stored parameters of a platform's arms.
+     * @param fileName      file the parameters are stored in
+     * @param platformId    id of the platform
+     * @param armAmount     how many arms there are
+     * @return parameters of every arm, null where none are stored; all null if the file is not readable
+     */
+    public static MotorIdentification[] load(String fileName, String platformId, int armAmount) {
+        MotorIdentification[] identifications = new MotorIdentification[armAmount];
+        Properties properties = new Properties();
+        synchronized (MotorIdentification.class) {
+            try (InputStream in = new FileInputStream(fileName)) {
+                properties.load(in);
+            } catch (IOException e) {
+                return identifications;
+            }
+        }
+        for (int i = 0; i < armAmount; i++) {
+            identifications[i] = fromProperties(properties, prefix(platformId, i));
+        }
+        return identifications;
+    }
+
+    /**
+     * Stores the parameters of a platform's arms, keeping those of other platforms stored in the same file.
+     * @param fileName          file the parameters are stored in
+     * @param platformId        id of the platform
+     * @param identifications   parameters of every arm, null where an arm was not identified
+     * @throws IOException if the file cannot be written
+     */
+    public static void save(String fileName, String platformId, MotorIdentification[] identifications) throws IOException {
+        synchronized (MotorIdentification.class) {
+            Properties properties = new Properties();
+            try (InputStream in = new FileInputStream(fileName)) {
+                properties.load(in);
+            } catch (IOException e) {
+                //nothing stored yet
+            }
+            for (int i = 0; i < identifications.length; i++) {
+                if (identifications[i] != null) identifications[i].toProperties(properties, prefix(platformId, i));
+            }
+
+            //sorted and without a date, so changes of the file diff cleanly
+            Map<String, String> sorted = new TreeMap<>();
+            for (String key : properties.stringPropertyNames()) {
+                sorted.put(key, properties.getProperty(key));
+            }
+            try (PrintStream out = new PrintStream(new FileOutputStream(fileName), false, "ISO-8859-1")) {
+                out.println("# motor parameters identified while homing, times in seconds, gain in steps per second and percent");
+                for (Map.Entry<String, String> entry : sorted.entrySet()) {
+                    out.println(entry.getKey() + "=" + entry.getValue());
+                }
+            }
+        }
+    }
+
+    private static String prefix(String platformId, int armId) {
+        return "platform." + platformId + ".arm." + armId + ".";
+    }
+
+    /**
+     * Returns the time between starting the motor and the arm starting to move.
+     * @return dead time in seconds
+     */
+    public double getDeadTimeSeconds() {
+        return deadTimeSeconds;
+    }
+
+    /**
+     * Returns the time constant of the arm's velocity following the motor.
+     * @return time constant in seconds
+     */
+    public double getTimeConstantSeconds() {
+        return timeConstantSeconds;
+    }
+
+    /**
+     * Returns how long the arm lags behind a change of speed, dead time and time constant together.
+     * @return lag in seconds
+     */
+    public double getLagSeconds() {
+        return deadTimeSeconds + timeConstantSeconds;
+    }
+
+    /**
+     * Returns the velocity gained per percent of speed above the dead band.
+     * @return gain in steps per second and percent
+     */
+    public double getGain() {
+        return gain;
+    }
+
+    /**
+     * Returns the speed below which the motor does not turn.
+     * @return dead band in percent
+     */
+    public double getDeadBand() {
+        return deadBand;
+    }
+
+    /**
+     * Returns the slowest speed the motor reliably turns with, the dead band plus a margin.
+     * @return speed in percent, 0 if the motor has no dead band
+     */
+    public int getMinSpeed() {
+        return deadBand <= 0 ? 0 : Math.min(100, (int) Math.ceil(deadBand) + DEAD_BAND_MARGIN);
+    }
+
+    /**
+     * Returns the arm's velocity at 100% pwm.
+     * @return velocity in steps per second
+     */
+    public double getFullSpeedVelocity() {
+        return gain * (100 - deadBand);
+    }
+
+    /**
+     * Returns the coasting distance per velocity at the stop.
+     * @return coasting time in seconds
+     */
+    public double getCoastSeconds() {
+        return coastSeconds;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "MotorIdentification{deadTime=%.0f ms, timeConstant=%.0f ms, gain=%.3f steps/s/%%, deadBand=%.1f%%, fullSpeed=%.1f steps/s, coast=%.0f ms}",
+                deadTimeSeconds * 1000, timeConstantSeconds * 1000, gain, deadBand, getFullSpeedVelocity(), coastSeconds * 1000);
+    }
+}
@@ -1,16 +1,14 @@
 package de.gymolching.fsb.regulation;
 
-import de.gymolching.fsb.api.FSBPosition;
-
 /**
  * @author sschaeffner
  */
 public interface PositionProvider {
     /**
-     * returns the most recent received FSBPosition. If no positions are in store, this method will block
+     * Copies the most recent received position into lengths. If no new position is in store, this method will block
      *
+     * @param lengths receives one length per arm, normalized to 0..1
      * @throws InterruptedException when the blocking is interrupted
-     * @return the most recent position
      */
-    public FSBPosition getMostRecentPositionUpdate() throws InterruptedException;
+    public void getMostRecentPositionUpdate(double[] lengths) throws InterruptedException;
 }
@@ -0,0 +1,129 @@
+package de.gymolching.fsb.regulation;
+
+import de.gymolching.fsb.clock.Clock;
+
+/**
+ * Passes the positions of a wrapped provider on unchanged and copies each of them to a branch, e.g. for a second regulation.
+ * The branch only holds the most recent copy: a branch reader that falls behind misses positions instead of holding up the
+ * reader of the tee, which only ever waits for the wrapped provider. Neither side allocates.
+ * @author sschaeffner
+ */
+public class PositionTee implements PositionProvider {
+
+    //the wrapped position provider
+    private final PositionProvider source;
+
+    //clock the branch reader waits with
+    private final Clock clock;
+
+    //most recent position, also the monitor guarding the fields below
+    private final double[] latest;
+
+    //positions passed on so far
+    private long published;
+
+    //positions the branch missed because a newer one arrived before it was read
+    private long skipped;
+
+    //whether the branch was closed, its reader then gets an InterruptedException
+    private boolean closed;
+
+    //the branch handed out by getBranch()
+    private final PositionProvider branch = new Branch();
+
+    /**
+     * Creates a tee.
+     * @param source    provider of the positions
+     * @param width     how many arm lengths a position consists of
+     * @param clock     clock the branch reader waits with
+     */
+    public PositionTee(PositionProvider source, int width, Clock clock) {
+        this.source = source;
+        this.clock = clock;
+        this.latest = new double[width];
+    }
+
+    @Override
+    public void getMostRecentPositionUpdate(double[] lengths) throws InterruptedException {
+        source.getMostRecentPositionUpdate(lengths);
+        synchronized (latest) {
+            System.arraycopy(lengths, 0, latest, 0, latest.length);
+            published++;
+            clock.signalAll(latest);
+        }
+    }
+
+    /**
+     * Returns the provider copies of the positions are read from. It blocks until a position newer than the last one read arrives.
+     * @return the branch
+     */
+    public PositionProvider getBranch() {
+        return branch;
+    }
+
+    /**
+     * Copies the most recent position without waiting.
+     * @param lengths   receives one length per arm, normalized to 0..1
+     * @return whether a position was passed on yet
+     */
+    public boolean copyLatest(double[] lengths) {
+        synchronized (latest) {
+            if (published == 0) return false;
+            System.arraycopy(latest, 0, lengths, 0, latest.length);
+            return true;
+        }
+    }
+
+    /**
+     * Closes the branch. Its reader, waiting or not, gets an InterruptedException from now on.
+     */
+    public void close() {
+        synchronized (latest) {
+            closed = true;
+            clock.signalAll(latest);
+        }
+    }
+
+    /**
+     * Returns how many positions were passed on.
+     * @return positions passed on
+     */
+    public long getPublished() {
+        synchronized (latest) {
+            return published;
+        }
+    }
+
+    /**
+     * Returns how many positions the branch missed because a newer one arrived before it was read.
+     * @return positions missed by the branch
+     */
+    public long getSkipped() {
+        synchronized (latest) {
+            return skipped;
+        }
+    }
+
+    /**
+     * The branch, reading the most recent copy.
+     */
+    private class Branch implements PositionProvider {
+
+        //positions passed on when the branch was read last
+        private long read;
+
+        @Override
+        public void getMostRecentPositionUpdate(double[] lengths) throws InterruptedException {
+            synchronized (latest) {
+                while (read == published && !closed) {
+                    clock.await(latest);
+                }
+                if (closed) throw new InterruptedException("branch closed");
+
+                System.arraycopy(latest, 0, lengths, 0, latest.length);
+                if (read > 0) skipped += published - read - 1;
+                read = published;
+            }
+        }
+    }
+}
@@ -1,21 +1,69 @@
 package de.gymolching.fsb.regulation;
 
-import de.gymolching.fsb.Launcher;
-import de.gymolching.fsb.api.FSBPosition;
+import de.gymolching.fsb.Config;
+import de.gymolching.fsb.clock.Clock;
+import de.gymolching.fsb.clock.SystemClock;
 import de.gymolching.fsb.halApi.ArmInterface;
-
-import java.util.ArrayList;
+import de.gymolching.fsb.jfr.ArmArrivedEvent;
+import de.gymolching.fsb.jfr.OvershootEvent;
+import de.gymolching.fsb.jfr.TargetSetEvent;
+import de.gymolching.fsb.logging.Level;
+import de.gymolching.fsb.logging.LogEvent;
+import de.gymolching.fsb.metrics.Counter;
+import de.gymolching.fsb.metrics.Gauge;
+import de.gymolching.fsb.metrics.Histogram;
+import de.gymolching.fsb.metrics.MetricsRegistry;
+import de.gymolching.fsb.realtime.WaitStrategy;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author sschaeffner
  */
 public class SimpleRegulationImpl implements RegulationInterface, Runnable {
 
+    //platform id used when only one platform is driven
+    public static final String DEFAULT_PLATFORM = "0";
+
     //how many steps are available to 100%
     private static final int MAX_STEPS = 37;
 
-    //how long to wait between each position poll
-    private static final int POLLING_RATE_TIME_MILLIS = 100;
+    //how long to wait between two control ticks of an arm
+    private static final int CONTROL_TICK_MILLIS = 20;
+
+    //how strongly (per second) an arm's speed is corrected when it lags behind or runs ahead of its profile
+    private static final double TRACKING_GAIN = 2.0;
+
+    //how many steps an arm has to drive before its velocity is measured
+    private static final int VELOCITY_WINDOW_STEPS = 4;
+
+    //weight of a new velocity measurement against the previous estimate
+    private static final double VELOCITY_SMOOTHING = 0.3;
+
+    //over how many control ticks an arm's current velocity is estimated
+    private static final int VELOCITY_ESTIMATE_TICKS = 8;
+
+    //bucket bounds of the control period histogram in seconds
+    private static final double[] CONTROL_PERIOD_BUCKETS = {0.019, 0.02, 0.021, 0.022, 0.025, 0.03, 0.04, 0.06, 0.1, 0.25};
+
+    //log events, per-position ones at DEBUG so they cost nothing by default
+    private static final LogEvent LOG_ALL_HOMED = new LogEvent(Level.INFO, "[MWT] all arms at starting position{}");
+    private static final LogEvent LOG_WAITING = new LogEvent(Level.DEBUG, "[MWT] waiting for new position...");
+    private static final LogEvent LOG_NEW_POSITION = new LogEvent(Level.DEBUG, "[MWT] new position: {[]}");
+    private static final LogEvent LOG_POSITION_DISPATCHED = new LogEvent(Level.DEBUG, "[MWT] received new position");
+    private static final LogEvent LOG_IDENTIFICATIONS_STORED = new LogEvent(Level.INFO, "[MWT] motor parameters stored in {}");
+    private static final LogEvent LOG_IDENTIFICATIONS_NOT_STORED = new LogEvent(Level.ERROR, "[MWT] could not store motor parameters in {}");
+    private static final LogEvent LOG_ARM_HOMING = new LogEvent(Level.INFO, "[ARM{}] moving to starting position");
+    private static final LogEvent LOG_ARM_HOMED = new LogEvent(Level.INFO, "[ARM{}] at starting position");
+    private static final LogEvent LOG_ARM_IDENTIFYING = new LogEvent(Level.INFO, "[ARM{}] identifying motor");
+    private static final LogEvent LOG_ARM_IDENTIFIED = new LogEvent(Level.INFO, "[ARM{}] motor identified: dead time {} ms, time constant {} ms, {} steps/s at 100%, dead band {}%, coasting {} ms");
+    private static final LogEvent LOG_ARM_NOT_IDENTIFIED = new LogEvent(Level.WARN, "[ARM{}] did not move far enough to identify its motor, keeping the configured parameters");
+    private static final LogEvent LOG_ARM_IDENTIFICATION_INTERRUPTED = new LogEvent(Level.WARN, "[ARM{}] interrupted while identifying its motor");
+    private static final LogEvent LOG_ARM_TICK_INTERRUPTED = new LogEvent(Level.WARN, "[ARM{}] interrupted while waiting for a control tick");
+    private static final LogEvent LOG_ARM_NEW_POSITION = new LogEvent(Level.DEBUG, "[ARM{}] received new position");
+    private static final LogEvent LOG_ARM_AT_GOAL = new LogEvent(Level.DEBUG, "[ARM{}] at goal position");
 
     //position provided (FSBServer)
     private PositionProvider positionProvider;
@@ -26,35 +74,228 @@ public class SimpleRegulationImpl implements RegulationInterface, Runnable {
     //one thread per arm
     private final Thread[] armThreads;
 
+    //controller run by each arm's thread
+    private final ArmThread[] armControllers;
+
+    //whether arm speeds are scaled so all arms arrive at a new position together
+    private final boolean coordinated;
+
+    //speed scale factor for every arm's current goal
+    private final double[] scales;
+
+    //velocity limit every arm's scales were computed for, infinite unless coordinated
+    private final double[] velocityLimits;
+
+    //whether an arm has to move to reach the current position
+    private final boolean[] movingToGoal;
+
+    //arrival-time spread of the arms
+    private final ArrivalStatistics arrivalStatistics;
+
     //current goal lengths for every arm
     private final int[] lengths;
 
     //whether an arm is currently moving
     private final boolean[] armMoving;
 
+    //counted down by every arm once it is at its starting position
+    private final CountDownLatch homed;
+
+    //id of the platform regulated
+    private final String platformId;
+
+    //whether the threads keep running, cleared by shutdown()
+    private volatile boolean running = true;
+
+    //how the arm threads wait for their control ticks in real-time mode, null in normal mode
+    private final WaitStrategy waitStrategy;
+
+    //clock every tick, wait and measurement is timed by
+    private final Clock clock;
+
+    //whether every arm's motor is identified after driving to its starting position
+    private final boolean identify;
+
+    //file identified motor parameters are stored in and read from, null if they are not stored
+    private final String identificationFile;
+
+    //identified or stored motor parameters of every arm, null where there are none
+    private final MotorIdentification[] identifications;
+
     //main watch thread
     private final Thread mainWatchThread;
 
+    /**
+     * Creates a regulation using the motion limits from the configuration.
+     * @param arms  the arms to regulate
+     */
     public SimpleRegulationImpl(ArmInterface[] arms) {
-        this.arms = arms;
+        this(DEFAULT_PLATFORM, arms, Config.getInstance());
+    }
+
+    /**
+     * Creates the regulation of one of several platforms using the motion limits from a configuration.
+     * @param platformId    id of the platform, used in thread names and metric labels
+     * @param arms          the arms to regulate
+     * @param config        the platform's configuration
+     */
+    public SimpleRegulationImpl(String platformId, ArmInterface[] arms, Config config) {
+        this(platformId, arms, config, Clock.system());
+    }
 
-        lengths = new int[6];
+    /**
+     * Creates the regulation of one of several platforms using the motion limits from a configuration, timed by a clock.
+     * @param platformId    id of the platform, used in thread names and metric labels
+     * @param arms          the arms to regulate
+     * @param config        the platform's configuration
+     * @param clock         clock every tick, wait and measurement is timed by
+     */
+    public SimpleRegulationImpl(String platformId, ArmInterface[] arms, Config config, Clock clock) {
+        this(platformId, arms, limitsFromConfig(config, arms.length), config.getBoolean("regulation.coordinated", false),
+                WaitStrategy.fromConfig(config), clock, config.getBoolean("regulation.identify", false),
+                config.getString("regulation.identificationFile", null));
+    }
 
+    /**
+     * Creates a regulation.
+     * @param arms          the arms to regulate
+     * @param limits        motion limits for every arm
+     * @param coordinated   whether arm speeds are scaled so all arms arrive at a new position together
+     */
+    public SimpleRegulationImpl(ArmInterface[] arms, MotionLimits[] limits, boolean coordinated) {
+        this(arms, limits, coordinated, null);
+    }
+
+    /**
+     * Creates a regulation, optionally in real-time mode.
+     * In real-time mode the arm threads and the main watch thread run at maximum priority, every arm is ticked at a fixed rate
+     * using the wait strategy, and nothing on the path from a new position to the motors logs, waits on a condition or allocates.
+     * The path still enters short monitors: the server's position hand-over, the goals shared between the main watch thread and
+     * the arm threads, and every arm's braking model and the arrival statistics. Each is only held to copy or update a few values,
+     * so a real-time thread can be held up for such a copy, e.g. by coordinate() or a status command, but never waits longer.
+     * Thread priorities only take effect if the JVM is allowed to change them, e.g. -XX:ThreadPriorityPolicy=1 on Linux.
+     * @param arms          the arms to regulate
+     * @param limits        motion limits for every arm
+     * @param coordinated   whether arm speeds are scaled so all arms arrive at a new position together
+     * @param waitStrategy  how the arm threads wait for their control ticks, or null for normal mode
+     */
+    public SimpleRegulationImpl(ArmInterface[] arms, MotionLimits[] limits, boolean coordinated, WaitStrategy waitStrategy) {
+        this(DEFAULT_PLATFORM, arms, limits, coordinated, waitStrategy);
+    }
+
+    /**
+     * Creates the regulation of one of several platforms, optionally in real-time mode.
+     * Threads are named after the platform unless it is the default platform, metrics are labelled with it.
+     * @param platformId    id of the platform
+     * @param arms          the arms to regulate
+     * @param limits        motion limits for every arm
+     * @param coordinated   whether arm speeds are scaled so all arms arrive at a new position together
+     * @param waitStrategy  how the arm threads wait for their control ticks, or null for normal mode
+     */
+    public SimpleRegulationImpl(String platformId, ArmInterface[] arms, MotionLimits[] limits, boolean coordinated, WaitStrategy waitStrategy) {
+        this(platformId, arms, limits, coordinated, waitStrategy, Clock.system());
+    }
+
+    /**
+     * Creates the regulation of one of several platforms timed by a clock, e.g. a virtual one for simulations.
+     * Real-time mode waits for System.nanoTime() deadlines and therefore needs the system clock.
+     * @param platformId    id of the platform
+     * @param arms          the arms to regulate
+     * @param limits        motion limits for every arm
+     * @param coordinated   whether arm speeds are scaled so all arms arrive at a new position together
+     * @param waitStrategy  how the arm threads wait for their control ticks, or null for normal mode
+     * @param clock         clock every tick, wait and measurement is timed by
+     */
+    public SimpleRegulationImpl(String platformId, ArmInterface[] arms, MotionLimits[] limits, boolean coordinated, WaitStrategy waitStrategy, Clock clock) {
+        this(platformId, arms, limits, coordinated, waitStrategy, clock, false, null);
+    }
+
+    /**
+     * Creates the regulation of one of several platforms timed by a clock, optionally identifying every arm's motor.
+     * Identification drives two short steps forward after an arm reached its starting position and then homes the arm again;
+     * the identified full-speed velocity, dead band, lag and coasting time replace the configured or default ones.
+     * Without identification, parameters stored in the identification file by an earlier run are used.
+     * @param platformId            id of the platform
+     * @param arms                  the arms to regulate
+     * @param limits                motion limits for every arm
+     * @param coordinated           whether arm speeds are scaled so all arms arrive at a new position together
+     * @param waitStrategy          how the arm threads wait for their control ticks, or null for normal mode
+     * @param clock                 clock every tick, wait and measurement is timed by
+     * @param identify              whether every arm's motor is identified after driving to its starting position
+     * @param identificationFile    file identified parameters are stored in and read from, or null
+     */
+    public SimpleRegulationImpl(String platformId, ArmInterface[] arms, MotionLimits[] limits, boolean coordinated, WaitStrategy waitStrategy, Clock clock,
+                                boolean identify, String identificationFile) {
+        if (limits.length != arms.length) {
+            throw new IllegalArgumentException("there must be exactly one MotionLimits per arm.");
+        }
+        if (waitStrategy != null && !(clock instanceof SystemClock)) {
+            throw new IllegalArgumentException("real-time mode needs the system clock.");
+        }
+
+        this.platformId = platformId;
+        this.arms = arms;
+        this.waitStrategy = waitStrategy;
+        this.clock = clock;
+        this.identify = identify;
+        this.identificationFile = identificationFile;
+        this.identifications = identificationFile != null && !identify
+                ? MotorIdentification.load(identificationFile, platformId, arms.length)
+                : new MotorIdentification[arms.length];
+
+        lengths = new int[arms.length];
+        this.coordinated = coordinated;
+        this.scales = new double[arms.length];
+        this.velocityLimits = new double[arms.length];
+        this.movingToGoal = new boolean[arms.length];
+        this.arrivalStatistics = new ArrivalStatistics(arms.length);
+        this.arrivalStatistics.register(MetricsRegistry.getInstance(), "platform", platformId);
+
+        homed = new CountDownLatch(arms.length);
         armMoving = new boolean[arms.length];
         for (int i = 0; i < arms.length; i++) {
             armMoving[i] = true;
         }
 
         this.armThreads = new Thread[arms.length];
+        this.armControllers = new ArmThread[arms.length];
         for (int i = 0; i < this.armThreads.length; i++) {
-            this.armThreads[i] = new Thread(new ArmThread(arms[i], i));
+            this.scales[i] = 1;
+            this.velocityLimits[i] = Double.POSITIVE_INFINITY;
+            this.armControllers[i] = new ArmThread(arms[i], i, limits[i]);
+            this.armThreads[i] = clock.newThread(this.armControllers[i], threadName("arm-" + i));
+            if (waitStrategy != null) this.armThreads[i].setPriority(Thread.MAX_PRIORITY);
             this.armThreads[i].start();
         }
 
-        mainWatchThread = new Thread(this);
+        mainWatchThread = clock.newThread(this, threadName("regulation"));
+        if (waitStrategy != null) mainWatchThread.setPriority(Thread.MAX_PRIORITY);
         mainWatchThread.start();
     }
 
+    /**
+     * Reads every arm's motion limits from a configuration.
+     * @param config    the configuration
+     * @param armAmount how many arms there are
+     * @return motion limits for every arm
+     */
+    private static MotionLimits[] limitsFromConfig(Config config, int armAmount) {
+        MotionLimits[] limits = new MotionLimits[armAmount];
+        for (int i = 0; i < armAmount; i++) {
+            limits[i] = MotionLimits.fromConfig(config, i);
+        }
+        return limits;
+    }
+
+    /**
+     * Returns a thread name, suffixed with the platform id unless this is the default platform.
+     * @param name  name of the thread on the default platform
+     * @return name of the thread
+     */
+    private String threadName(String name) {
+        return DEFAULT_PLATFORM.equals(platformId) ? name : name + "-" + platformId;
+    }
+
     @Override
     public void setPositionProvider(PositionProvider positionProvider) {
         this.positionProvider = positionProvider;
@@ -65,158 +306,638 @@ public class SimpleRegulationImpl implements RegulationInterface, Runnable {
     public void run() {
 
         //wait for all arms to be done moving to starting position
-        boolean allAtStartingPosition = false;
-        while (!allAtStartingPosition) {
-            allAtStartingPosition = true;
-            for (int i = 0; i < this.armMoving.length; i++) {
-                if (this.armMoving[i]) allAtStartingPosition = false;
-            }
-            if (!allAtStartingPosition) {
-                synchronized (this.armMoving) {
-                    try {
-                        this.armMoving.wait();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
+        synchronized (lengths) {
+            try {
+                while (homed.getCount() > 0 && running) {
+                    clock.await(lengths);
                 }
-                System.out.println("[MWT] change in armMoving");
+            } catch (InterruptedException e) {
+                //shut down before all arms were at their starting position
+                return;
             }
         }
+        if (!running) return;
 
-        System.out.println("[MWT] all arms at starting position");
+        LOG_ALL_HOMED.log(waitStrategy != null ? ", real-time mode " + waitStrategy : "");
+        if (identify && identificationFile != null) storeIdentifications();
 
-        while (Launcher.isRunning()) {
+        //most recent position, normalized lengths
+        double[] position = new double[lengths.length];
 
-            System.out.println("[MWT] waiting for new position...");
+        while (running) {
 
-            //get most recent position
-            FSBPosition position = null;
+            LOG_WAITING.log();
 
+            //get most recent position
             try {
-                position = positionProvider.getMostRecentPositionUpdate();
+                positionProvider.getMostRecentPositionUpdate(position);
             } catch (InterruptedException e) {
+                if (!running) break;
                 e.printStackTrace();
+                continue;
             }
 
-            //exit if position is null
-            if (position == null) {
-                System.err.println("PositionProvider provided empty (null) position");
-                Launcher.exit();
+            LOG_NEW_POSITION.log(position);
+
+            //set lengths and notify ArmThreads; arms still moving are retargeted mid-profile
+            synchronized (this.lengths) {
+                toSteps(position, lengths);
+                for (int i = 0; i < lengths.length; i++) {
+                    ArmThread controller = armControllers[i];
+                    movingToGoal[i] = Math.abs(lengths[i] - controller.lastPosition) > controller.limits.getPositionTolerance();
+                }
+                if (coordinated) coordinate();
+                arrivalStatistics.startPosition(lengths, movingToGoal);
+                clock.signalAll(this.lengths);
             }
 
+            LOG_POSITION_DISPATCHED.log();
+        }
+    }
 
-            System.out.println("[MWT] new position: " + position.toString());
+    /**
+     * Stores the identified motor parameters for the next start.
+     */
+    private void storeIdentifications() {
+        try {
+            MotorIdentification.save(identificationFile, platformId, identifications);
+            LOG_IDENTIFICATIONS_STORED.log(identificationFile);
+        } catch (IOException e) {
+            LOG_IDENTIFICATIONS_NOT_STORED.log(identificationFile + ": " + e.getMessage());
+        }
+    }
 
-            //set lengths
-            lengths[0] = (int) Math.round(((double) position.getLength1() / (double) FSBPosition.MAX) * (double) MAX_STEPS);
-            lengths[1] = (int) Math.round(((double) position.getLength2() / (double) FSBPosition.MAX) * (double) MAX_STEPS);
-            lengths[2] = (int) Math.round(((double) position.getLength3() / (double) FSBPosition.MAX) * (double) MAX_STEPS);
-            lengths[3] = (int) Math.round(((double) position.getLength4() / (double) FSBPosition.MAX) * (double) MAX_STEPS);
-            lengths[4] = (int) Math.round(((double) position.getLength5() / (double) FSBPosition.MAX) * (double) MAX_STEPS);
-            lengths[5] = (int) Math.round(((double) position.getLength6() / (double) FSBPosition.MAX) * (double) MAX_STEPS);
+    /**
+     * Converts normalized arm lengths into goal positions in steps.
+     * @param position  normalized arm lengths
+     * @param steps     receives the goal position of every arm in steps
+     */
+    public static void toSteps(double[] position, int[] steps) {
+        for (int i = 0; i < steps.length; i++) {
+            steps[i] = (int) Math.round(position[i] * MAX_STEPS);
+        }
+    }
 
-            System.out.println("[MWT] received new position");
+    /**
+     * Scales every arm's speed so all arms need as long as the slowest one for the way to their goals.
+     * The travel time of an arm is estimated from its motion limits, with the velocity capped at the arm's measured full-speed velocity;
+     * the arm's profile runs with the same cap, so it takes as long as estimated.
+     * Must be called while holding the lock on lengths.
+     */
+    private void coordinate() {
+        double slowest = 0;
+        for (int i = 0; i < lengths.length; i++) {
+            ArmThread controller = armControllers[i];
+            MotionLimits limits = controller.limits;
+            velocityLimits[i] = Math.min(limits.getMaxVelocity(), controller.measuredFullSpeed);
+            slowest = Math.max(slowest, MotionProfile.estimateDuration(lengths[i] - controller.lastPosition,
+                    velocityLimits[i], limits.getMaxAcceleration(), limits.getMaxJerk()));
+        }
 
-            //set armMoving to true, notify ArmThreads
-            for (int i = 0; i < armMoving.length; i++) armMoving[i] = true;
+        for (int i = 0; i < lengths.length; i++) {
+            ArmThread controller = armControllers[i];
+            MotionLimits limits = controller.limits;
+            scales[i] = MotionProfile.scaleForDuration(lengths[i] - controller.lastPosition,
+                    velocityLimits[i], limits.getMaxAcceleration(), limits.getMaxJerk(), slowest);
+        }
+    }
 
-            synchronized (this.lengths) {
-                this.lengths.notifyAll();
-            }
+    /**
+     * Waits until all arms are at their starting position.
+     * @param timeout   how long to wait at most
+     * @param unit      unit of timeout
+     * @return whether all arms are at their starting position
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitHomed(long timeout, TimeUnit unit) throws InterruptedException {
+        return homed.await(timeout, unit);
+    }
 
-            System.out.println("DEB notified");
+    /**
+     * Returns whether all arms are at their starting position, without waiting.
+     * @return whether all arms are at their starting position
+     */
+    public boolean isHomed() {
+        return homed.getCount() == 0;
+    }
 
-            //wait for all arms to be done moving
-            boolean allDone = false;
-            while (!allDone) {
-                allDone = true;
-                for (boolean anArmMoving : this.armMoving) {
-                    if (anArmMoving) allDone = false;
-                }
-                if (!allDone) {
-                    synchronized (this.armMoving) {
-                        try {
-                            this.armMoving.wait();
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }
-                System.out.println("[MWT] change in armMoving");
-            }
+    /**
+     * Ends the regulation's threads and waits for them.
+     * Arms still driving to their starting position finish that first, all arms are stopped.
+     * On a virtual clock, the simulation is driven while waiting and the timeout is in simulated time.
+     * @param timeoutMillis how long to wait for all threads together
+     * @return whether all threads ended in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean shutdown(long timeoutMillis) throws InterruptedException {
+        running = false;
+
+        //wake resting arm threads and the main watch thread waiting for a position
+        synchronized (lengths) {
+            clock.signalAll(lengths);
         }
+        clock.interrupt(mainWatchThread);
+
+        long deadline = clock.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        boolean ended = true;
+        for (Thread thread : armThreads) {
+            ended &= clock.join(thread, deadline);
+        }
+        return clock.join(mainWatchThread, deadline) && ended;
+    }
+
+    /**
+     * Returns the arrival-time spread of the arms.
+     * @return the arrival statistics
+     */
+    public ArrivalStatistics getArrivalStatistics() {
+        return arrivalStatistics;
+    }
+
+    /**
+     * Returns whether arm speeds are scaled so all arms arrive at a new position together.
+     * @return whether coordinated mode is on
+     */
+    public boolean isCoordinated() {
+        return coordinated;
+    }
+
+    /**
+     * Returns an arm's measured velocity at 100% pwm.
+     * @param arm   id of the arm
+     * @return the velocity in steps per second
+     */
+    public double getMeasuredFullSpeed(int arm) {
+        return armControllers[arm].measuredFullSpeed;
+    }
+
+    /**
+     * Returns how many arms are regulated.
+     * @return amount of arms
+     */
+    public int getArmAmount() {
+        return arms.length;
+    }
+
+    /**
+     * Returns an arm's position as read in its last control tick, without touching the hardware.
+     * @param arm   id of the arm
+     * @return the position in steps
+     */
+    public int getPosition(int arm) {
+        return armControllers[arm].lastPosition;
+    }
+
+    /**
+     * Returns an arm's identified or stored motor parameters.
+     * @param arm   id of the arm
+     * @return the parameters or null if the arm's motor was not identified
+     */
+    public MotorIdentification getIdentification(int arm) {
+        return identifications[arm];
+    }
+
+    /**
+     * Returns an arm's learned coasting behaviour and overshoot statistics.
+     * @param arm   id of the arm
+     * @return the arm's braking model
+     */
+    public BrakingModel getBrakingModel(int arm) {
+        return armControllers[arm].braking;
     }
 
     /**
      * One thread an arm.
+     * Follows a jerk-limited motion profile towards the arm's goal length, sampled every control tick.
      */
     private class ArmThread implements Runnable {
         private final ArmInterface arm;
         private final int armId;
+        private final MotionLimits limits;
+        private final MotionProfile profile;
+
+        //learns how far the arm coasts after a stop
+        private final BrakingModel braking;
+
+        //time between two control ticks
+        private final Histogram controlPeriod;
+
+        //distance of the arm from its goal and from its profile in steps
+        private final Gauge goalError;
+        private final Gauge trackingError;
+
+        //how long driving to the starting position took
+        private final Gauge homingSeconds;
+
+        //learned coasting time and how far the arm came to rest past its last goal
+        private final Gauge coastSeconds;
+        private final Gauge overshoot;
+
+        //identified dead time and time constant of the motor
+        private final Gauge deadTime;
+        private final Gauge timeConstant;
+
+        //control ticks skipped because a tick overran, only counted in real-time mode
+        private final Counter missedTicks;
+
+        //direction the motor is currently driving in (1 forward, -1 backward, 0 stopped)
+        private int direction;
 
-        private ArmThread(ArmInterface arm, int armId) {
+        //speed percentage that was set last
+        private int speed;
+
+        //position read in the last control tick
+        private volatile int lastPosition;
+
+        //measured velocity of the arm at 100% pwm in steps per second
+        private volatile double measuredFullSpeed;
+
+        //lowest speed percentage the arm creeps with
+        private int minSpeed;
+
+        //how long the arm lags behind a change of speed in seconds, the profile's acceleration is fed forward over it
+        private double lagSeconds;
+
+        //clock.nanoTime() when the profile was last retargeted
+        private long targetSetNanos;
+
+        //position at which the current velocity measurement started, or Integer.MIN_VALUE if none is running
+        private int windowStartPos = Integer.MIN_VALUE;
+
+        //seconds driven since the current velocity measurement started, weighted by the speed percentage
+        private double windowFullSpeedSeconds;
+
+        //positions and times in seconds of the last control ticks as a ring buffer, for the current velocity
+        private final int[] recentPositions = new int[VELOCITY_ESTIMATE_TICKS];
+        private final double[] recentSeconds = new double[VELOCITY_ESTIMATE_TICKS];
+        private int recentHead;
+        private int recentSize;
+        private double elapsedSeconds;
+
+        //current velocity estimated from the last control ticks in steps per second
+        private double currentVelocity;
+
+        private ArmThread(ArmInterface arm, int armId, MotionLimits limits) {
             this.arm = arm;
             this.armId = armId;
+            this.limits = limits;
+            this.profile = new MotionProfile(limits);
+            this.braking = new BrakingModel();
+            this.measuredFullSpeed = limits.getFullSpeedVelocity();
+            this.minSpeed = limits.getMinSpeed();
+
+            MetricsRegistry registry = MetricsRegistry.getInstance();
+            String armLabel = Integer.toString(armId);
+            this.controlPeriod = registry.histogram("fsb_control_period_seconds", "Time between two control ticks of an arm", CONTROL_PERIOD_BUCKETS, "platform", platformId, "arm", armLabel);
+            this.goalError = registry.gauge("fsb_arm_goal_error_steps", "Goal position minus measured position of an arm", "platform", platformId, "arm", armLabel);
+            this.trackingError = registry.gauge("fsb_arm_tracking_error_steps", "Motion profile position minus measured position of an arm", "platform", platformId, "arm", armLabel);
+            this.missedTicks = registry.counter("fsb_control_missed_ticks_total", "Control ticks of an arm skipped in real-time mode because a tick overran", "platform", platformId, "arm", armLabel);
+            this.homingSeconds = registry.gauge("fsb_arm_homing_seconds", "How long an arm took to drive to its starting position", "platform", platformId, "arm", armLabel);
+            this.coastSeconds = registry.gauge("fsb_arm_coast_seconds", "Learned coasting distance of an arm per velocity at the stop", "platform", platformId, "arm", armLabel);
+            this.overshoot = registry.gauge("fsb_arm_overshoot_steps", "How far an arm came to rest past its last goal, negative if short", "platform", platformId, "arm", armLabel);
+            this.deadTime = registry.gauge("fsb_arm_dead_time_seconds", "Identified time between starting an arm's motor and the arm moving", "platform", platformId, "arm", armLabel);
+            this.timeConstant = registry.gauge("fsb_arm_time_constant_seconds", "Identified time constant of an arm following its motor", "platform", platformId, "arm", armLabel);
         }
 
         @Override
         public void run() {
             //drive to starting position
-            System.out.println("[ARM" + armId + "] moving to starting position");
+            LOG_ARM_HOMING.log(armId);
+            long homingStart = clock.nanoTime();
             arm.moveToStartingPosition();
+            homingSeconds.set((clock.nanoTime() - homingStart) / 1e9);
+            if (identify && running) identifyMotor();
+            if (identifications[armId] != null) useIdentification(identifications[armId]);
+            lastPosition = arm.getPosition();
+            profile.reset(lastPosition);
             armMoving[armId] = false;
-            System.out.println("[ARM" + armId + "] at starting position");
+            LOG_ARM_HOMED.log(armId);
+            synchronized (lengths) {
+                homed.countDown();
+                clock.signalAll(lengths);
+            }
 
-            synchronized (armMoving) {
-                armMoving.notifyAll();
+            if (waitStrategy != null) {
+                runRealtime();
+                return;
             }
 
-            while (Launcher.isRunning()) {
+            long lastTick = clock.nanoTime();
+            while (running) {
 
+                //sleep while the arm rests at its goal
+                int goalPos;
+                double scale;
+                double velocityLimit;
                 synchronized (lengths) {
-                    try {
-                        lengths.wait();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
+                    while (direction == 0 && profile.isSettled() && lengths[armId] == profile.getTarget() && !braking.isCoasting() && running) {
+                        try {
+                            clock.await(lengths);
+                        } catch (InterruptedException e) {
+                            e.printStackTrace();
+                        }
+                        lastTick = clock.nanoTime();
                     }
+                    goalPos = lengths[armId];
+                    scale = scales[armId];
+                    velocityLimit = velocityLimits[armId];
                 }
 
-                System.out.println("[ARM" + armId + "] received new position");
-
-                if (lengths != null) {
-                    //drive to new position
-                    int currentPos = arm.getPosition();
-                    int goalPos = lengths[armId];
-                    if (currentPos > goalPos) {
-                        arm.setSpeed(100);
-                        arm.startBackward();
-                        while (currentPos > goalPos) {
-                            try {
-                                Thread.sleep(POLLING_RATE_TIME_MILLIS);
-                            } catch (InterruptedException e) {
-                                e.printStackTrace();
-                            }
-                            currentPos = arm.getPosition();
-                        }
-                    } else if (currentPos < goalPos) {
-                        arm.setSpeed(100);
-                        arm.startForward();
-                        while (currentPos < goalPos) {
-                            try {
-                                Thread.sleep(POLLING_RATE_TIME_MILLIS);
-                            } catch (InterruptedException e) {
-                                e.printStackTrace();
-                            }
-                            currentPos = arm.getPosition();
-                        }
-                    }
-                    arm.stop();
-                    armMoving[armId] = false;
-                    System.out.println("[ARM" + armId + "] at goal position");
-                    synchronized (armMoving) {
-                        armMoving.notifyAll();
-                    }
+                if (goalPos != profile.getTarget() || scale != profile.getScale() || velocityLimit != profile.getVelocityLimit()) {
+                    LOG_ARM_NEW_POSITION.log(armId);
+                    setTarget(goalPos, scale, velocityLimit);
+                }
+
+                try {
+                    clock.sleep(CONTROL_TICK_MILLIS);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+
+                long now = clock.nanoTime();
+                double dt = (now - lastTick) / 1e9;
+                controlPeriod.observe(dt);
+                profile.update(dt);
+                lastTick = now;
+
+                control(goalPos, dt);
+            }
+
+            drive(0, 0);
+        }
+
+        /**
+         * Identifies the arm's motor, then drives the arm back to its starting position.
+         */
+        private void identifyMotor() {
+            LOG_ARM_IDENTIFYING.log(armId);
+            try {
+                MotorIdentification identification = MotorIdentification.identify(arm, clock, MAX_STEPS);
+                if (identification != null) {
+                    identifications[armId] = identification;
+                    LOG_ARM_IDENTIFIED.log(new double[]{armId, identification.getDeadTimeSeconds() * 1000, identification.getTimeConstantSeconds() * 1000,
+                            identification.getFullSpeedVelocity(), identification.getDeadBand(), identification.getCoastSeconds() * 1000});
+                } else {
+                    LOG_ARM_NOT_IDENTIFIED.log(armId);
+                }
+            } catch (InterruptedException e) {
+                LOG_ARM_IDENTIFICATION_INTERRUPTED.log(armId);
+            }
+            arm.moveToStartingPosition();
+        }
+
+        /**
+         * Replaces the configured motor parameters with identified ones.
+         * The dead band only ever raises the configured minimum speed, so the arm does not creep slower than configured.
+         * @param identification    the arm's identified parameters
+         */
+        private void useIdentification(MotorIdentification identification) {
+            measuredFullSpeed = identification.getFullSpeedVelocity();
+            minSpeed = Math.max(limits.getMinSpeed(), identification.getMinSpeed());
+            lagSeconds = identification.getLagSeconds();
+            braking.learn(measuredFullSpeed, identification.getCoastSeconds() * measuredFullSpeed);
+            coastSeconds.set(braking.getCoastSeconds());
+            deadTime.set(identification.getDeadTimeSeconds());
+            timeConstant.set(identification.getTimeConstantSeconds());
+        }
+
+        /**
+         * Runs the control ticks at a fixed rate, waiting for each one with the wait strategy.
+         * The goal is picked up at every tick instead of being waited for, copied under the lengths monitor,
+         * which the main watch thread holds while it sets a new position and coordinates the arms.
+         */
+        private void runRealtime() {
+            long period = CONTROL_TICK_MILLIS * 1000000L;
+            long lastTick = System.nanoTime();
+            long nextTick = lastTick + period;
+            while (running) {
+                try {
+                    waitStrategy.awaitDeadline(nextTick);
+                } catch (InterruptedException e) {
+                    if (running) LOG_ARM_TICK_INTERRUPTED.log(armId);
+                    continue;
+                }
+
+                long now = System.nanoTime();
+                double dt = (now - lastTick) / 1e9;
+                lastTick = now;
+                nextTick += period;
+                if (nextTick - now <= 0) {
+                    missedTicks.add((now - nextTick) / period + 1);
+                    nextTick = now + period;
+                }
+
+                int goalPos;
+                double scale;
+                double velocityLimit;
+                synchronized (lengths) {
+                    goalPos = lengths[armId];
+                    scale = scales[armId];
+                    velocityLimit = velocityLimits[armId];
+                }
+                if (goalPos != profile.getTarget() || scale != profile.getScale() || velocityLimit != profile.getVelocityLimit()) {
+                    setTarget(goalPos, scale, velocityLimit);
                 }
+
+                controlPeriod.observe(dt);
+                profile.update(dt);
+                control(goalPos, dt);
+            }
+
+            drive(0, 0);
+        }
+
+        /**
+         * Retargets the motion profile.
+         * @param goalPos       goal position in steps
+         * @param scale         factor applied to the arm's motion limits
+         * @param velocityLimit velocity limit the scale was computed for
+         */
+        private void setTarget(int goalPos, double scale, double velocityLimit) {
+            if (TargetSetEvent.TYPE.isEnabled()) {
+                TargetSetEvent event = new TargetSetEvent();
+                event.arm = armId;
+                event.target = goalPos;
+                event.previousTarget = profile.getTarget();
+                event.position = lastPosition;
+                event.scale = scale;
+                event.commit();
+            }
+            profile.setTarget(goalPos, scale, velocityLimit);
+            targetSetNanos = clock.nanoTime();
+        }
+
+        /**
+         * Commands the motor for the current control tick.
+         * While the profile is moving, the motor follows the profile's velocity plus a correction for the tracking error.
+         * Once the profile has settled, the motor creeps onto the goal at minimum speed and stops there.
+         * Either way the motor is stopped early once the arm would coast onto the goal, and left off while the arm coasts after a stop at speed.
+         * @param goalPos   goal position in steps
+         * @param dt        time since the last control tick in seconds
+         */
+        private void control(int goalPos, double dt) {
+            int currentPos = arm.getPosition();
+            int error = goalPos - currentPos;
+            lastPosition = currentPos;
+            measureVelocity(currentPos, dt);
+            estimateVelocity(currentPos, dt);
+            goalError.set(error);
+            trackingError.set(profile.getPosition() - currentPos);
+
+            if (braking.update(currentPos, dt)) {
+                coastSeconds.set(braking.getCoastSeconds());
+                overshoot.set(braking.getLastOvershoot());
+            }
+            if (direction == 0 && braking.isLockedOut()) return;
+
+            if (direction != 0 && Integer.signum(error) == direction && Math.abs(error) - 0.5 <= braking.predictDistance(currentVelocity)) {
+                stopAtGoal(goalPos, currentPos, error);
+                return;
+            }
+
+            if (profile.isSettled()) {
+                if (Math.abs(error) <= limits.getPositionTolerance() || (direction != 0 && Integer.signum(error) != direction)) {
+                    stopAtGoal(goalPos, currentPos, error);
+                } else {
+                    drive(Integer.signum(error), minSpeed);
+                }
+                return;
+            }
+
+            double velocity = profile.getVelocity() + lagSeconds * profile.getAcceleration() + TRACKING_GAIN * (profile.getPosition() - currentPos);
+            int percentage = (int) Math.min(100, Math.round(Math.abs(velocity) / measuredFullSpeed * 100));
+            if (percentage < minSpeed / 2) {
+                drive(0, 0, aimedAt(goalPos, error));
+            } else {
+                drive((int) Math.signum(velocity), Math.max(percentage, minSpeed));
+            }
+        }
+
+        /**
+         * Stops the motor for the arm to come to rest at its goal.
+         * @param goalPos       goal position in steps
+         * @param currentPos    position read in this control tick
+         * @param error         goal position minus current position
+         */
+        private void stopAtGoal(int goalPos, int currentPos, int error) {
+            if (direction != 0) {
+                LOG_ARM_AT_GOAL.log(armId);
+                recordArrival(goalPos, currentPos, error);
+            }
+            drive(0, 0, aimedAt(goalPos, error));
+            arrivalStatistics.arrived(armId, goalPos, clock.nanoTime());
+        }
+
+        /**
+         * Decides whether a stop counts towards the overshoot: only if the arm is about to come to rest at the goal,
+         * not if the goal moved away faster than the arm could follow.
+         * @param goalPos   goal position in steps
+         * @param error     goal position minus current position
+         * @return the goal, or Integer.MIN_VALUE if the stop is not aimed at it
+         */
+        private int aimedAt(int goalPos, int error) {
+            double reach = limits.getPositionTolerance() + 1 + braking.predictDistance(currentVelocity);
+            return Math.abs(error) <= reach ? goalPos : Integer.MIN_VALUE;
+        }
+
+        /**
+         * Records JFR events for an arm stopping at its goal.
+         * @param goalPos       goal position in steps
+         * @param currentPos    position the arm stopped at
+         * @param error         goal position minus current position
+         */
+        private void recordArrival(int goalPos, int currentPos, int error) {
+            if (ArmArrivedEvent.TYPE.isEnabled()) {
+                ArmArrivedEvent event = new ArmArrivedEvent();
+                event.arm = armId;
+                event.goal = goalPos;
+                event.position = currentPos;
+                event.travelTime = clock.nanoTime() - targetSetNanos;
+                event.commit();
+            }
+            if (error != 0 && Integer.signum(error) != direction && OvershootEvent.TYPE.isEnabled()) {
+                OvershootEvent event = new OvershootEvent();
+                event.arm = armId;
+                event.goal = goalPos;
+                event.position = currentPos;
+                event.overshoot = Math.abs(error);
+                event.commit();
+            }
+        }
+
+        /**
+         * Measures the arm's velocity at 100% pwm over windows of at least VELOCITY_WINDOW_STEPS steps driven in one direction.
+         * @param currentPos    position read in this control tick
+         * @param dt            time since the last control tick in seconds
+         */
+        private void measureVelocity(int currentPos, double dt) {
+            if (direction == 0) {
+                windowStartPos = Integer.MIN_VALUE;
+                return;
+            }
+            if (windowStartPos == Integer.MIN_VALUE) {
+                windowStartPos = currentPos;
+                windowFullSpeedSeconds = 0;
+                return;
+            }
+
+            windowFullSpeedSeconds += dt * speed / 100.0;
+            int steps = Math.abs(currentPos - windowStartPos);
+            if (steps >= VELOCITY_WINDOW_STEPS && windowFullSpeedSeconds > 0) {
+                measuredFullSpeed += VELOCITY_SMOOTHING * (steps / windowFullSpeedSeconds - measuredFullSpeed);
+                windowStartPos = currentPos;
+                windowFullSpeedSeconds = 0;
+            }
+        }
+
+        /**
+         * Estimates the arm's current velocity from the positions of the last control ticks.
+         * @param currentPos    position read in this control tick
+         * @param dt            time since the last control tick in seconds
+         */
+        private void estimateVelocity(int currentPos, double dt) {
+            elapsedSeconds += dt;
+            if (recentSize == VELOCITY_ESTIMATE_TICKS) {
+                int oldest = recentHead;
+                currentVelocity = (currentPos - recentPositions[oldest]) / (elapsedSeconds - recentSeconds[oldest]);
+            } else {
+                recentSize++;
+            }
+            recentPositions[recentHead] = currentPos;
+            recentSeconds[recentHead] = elapsedSeconds;
+            recentHead = (recentHead + 1) % VELOCITY_ESTIMATE_TICKS;
+        }
+
+        /**
+         * Sets the motor's direction and speed, touching the hardware only when something changed.
+         * @param newDirection  1 forward, -1 backward, 0 stopped
+         * @param newSpeed      speed percentage
+         */
+        private void drive(int newDirection, int newSpeed) {
+            drive(newDirection, newSpeed, Integer.MIN_VALUE);
+        }
+
+        /**
+         * Sets the motor's direction and speed, touching the hardware only when something changed.
+         * A stop is watched by the braking model until the arm stands still.
+         * @param newDirection  1 forward, -1 backward, 0 stopped
+         * @param newSpeed      speed percentage
+         * @param goal          goal a stop is aimed at, Integer.MIN_VALUE if none
+         */
+        private void drive(int newDirection, int newSpeed, int goal) {
+            if (newDirection != 0 && newSpeed != speed) {
+                arm.setSpeed(newSpeed);
+                speed = newSpeed;
+            }
+            if (newDirection != direction) {
+                if (direction != 0) arm.stop();
+                if (newDirection == 0) braking.stopped(lastPosition, currentVelocity, direction, goal);
+                else braking.started();
+                if (newDirection == 1) arm.startForward();
+                else if (newDirection == -1) arm.startBackward();
+                direction = newDirection;
+                armMoving[armId] = direction != 0;
+                windowStartPos = Integer.MIN_VALUE;
             }
         }
     }
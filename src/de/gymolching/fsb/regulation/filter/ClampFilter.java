@@ -0,0 +1,36 @@
+package de.gymolching.fsb.regulation.filter;
+
+/**
+ * Keeps every arm length within a safe range.
+ * @author sschaeffner
+ */
+public class ClampFilter implements FilterStage {
+
+    private final int width;
+    private final double min;
+    private final double max;
+
+    /**
+     * Creates a clamp filter.
+     * @param width     how many arm lengths a position consists of
+     * @param min       smallest normalized length let through
+     * @param max       largest normalized length let through
+     */
+    public ClampFilter(int width, double min, double max) {
+        if (min > max) throw new IllegalArgumentException("min must not be greater than max.");
+        this.width = width;
+        this.min = min;
+        this.max = max;
+    }
+
+    @Override
+    public void reset(double[] lengths) {
+    }
+
+    @Override
+    public void process(double[] lengths, double dt) {
+        for (int i = 0; i < width; i++) {
+            lengths[i] = Math.max(min, Math.min(max, lengths[i]));
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package de.gymolching.fsb.regulation.filter;
+
+/**
+ * One stage of a position filter pipeline.
+ * Stages keep their state in primitive arrays sized at construction and allocate nothing per sample.
+ * @author sschaeffner
+ */
+public interface FilterStage {
+
+    /**
+     * Starts the stage over as if the position had been held forever.
+     * @param lengths   normalized arm lengths
+     */
+    void reset(double[] lengths);
+
+    /**
+     * Filters a position in place.
+     * @param lengths   normalized arm lengths, replaced by the filtered lengths
+     * @param dt        time since the previous position in seconds, at most FilteredPositionProvider.MAX_DT_SECONDS
+     */
+    void process(double[] lengths, double dt);
+}
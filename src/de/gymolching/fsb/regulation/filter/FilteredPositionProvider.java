@@ -0,0 +1,144 @@
+package de.gymolching.fsb.regulation.filter;
+
+import de.gymolching.fsb.Config;
+import de.gymolching.fsb.clock.Clock;
+import de.gymolching.fsb.regulation.PositionProvider;
+
+import java.util.Arrays;
+
+/**
+ * Runs every position received from a wrapped provider through a chain of filter stages.
+ * The stages advance by the time between two positions, at most MAX_DT_SECONDS, so a position arriving after a pause
+ * of the client moves the rate limit and the other stages no further than one regular step would.
+ * @author sschaeffner
+ */
+public class FilteredPositionProvider implements PositionProvider {
+
+    //longest time the stages advance by between two positions, about the gap of a slow but steady stream
+    static final double MAX_DT_SECONDS = 0.1;
+
+    //the wrapped position provider
+    private final PositionProvider source;
+
+    //stages in the order they are applied
+    private final FilterStage[] stages;
+
+    //clock the time between two positions is taken from
+    private final Clock clock;
+
+    //receipt time of the last position
+    private long lastTimeNanos;
+
+    //whether a position was received yet, a clock may well start at 0
+    private boolean started = false;
+
+    /**
+     * Creates a filtered position provider.
+     * @param source    provider of unfiltered positions
+     * @param stages    stages in the order they are applied
+     */
+    public FilteredPositionProvider(PositionProvider source, FilterStage... stages) {
+        this(source, Clock.system(), stages);
+    }
+
+    /**
+     * Creates a filtered position provider timed by a clock.
+     * @param source    provider of unfiltered positions
+     * @param clock     clock the time between two positions is taken from
+     * @param stages    stages in the order they are applied
+     */
+    public FilteredPositionProvider(PositionProvider source, Clock clock, FilterStage... stages) {
+        this.source = source;
+        this.clock = clock;
+        this.stages = stages;
+    }
+
+    /**
+     * Wraps a position provider with the stages configured as a comma separated list in filters,
+     * e.g. filters = washout, lowpass, ratelimit, clamp. Stages are configured by
+     * filter.washout.timeConstant, filter.washout.neutral, filter.lowpass.cutoffHz and filter.ratelimit.maxRate.
+     * The clamp is left out wherever it is listed: it has to be the very last stage, after the prediction, see clampFromConfig.
+     * @param source    provider of unfiltered positions
+     * @param width     how many arm lengths a position consists of
+     * @param config    configuration to read from
+     * @return the filtered position provider or null if no stages are configured
+     */
+    public static FilteredPositionProvider fromConfig(PositionProvider source, int width, Config config) {
+        return fromConfig(source, width, config, Clock.system());
+    }
+
+    /**
+     * Wraps a position provider with the configured stages, timed by a clock.
+     * @param source    provider of unfiltered positions
+     * @param width     how many arm lengths a position consists of
+     * @param config    configuration to read from
+     * @param clock     clock the time between two positions is taken from
+     * @return the filtered position provider or null if no stages are configured
+     */
+    public static FilteredPositionProvider fromConfig(PositionProvider source, int width, Config config, Clock clock) {
+        String list = config.getString("filters", "");
+        if (list.isEmpty()) return null;
+
+        String[] names = list.split(",");
+        FilterStage[] stages = new FilterStage[names.length];
+        int amount = 0;
+        for (String listed : names) {
+            String name = listed.trim().toLowerCase();
+            switch (name) {
+                case "washout":
+                    stages[amount++] = new WashoutFilter(width, config.getDouble("filter.washout.timeConstant", 3.0), config.getDouble("filter.washout.neutral", 0.5));
+                    break;
+                case "lowpass":
+                    stages[amount++] = new LowPassFilter(width, config.getDouble("filter.lowpass.cutoffHz", 5.0));
+                    break;
+                case "ratelimit":
+                    stages[amount++] = new RateLimitFilter(width, config.getDouble("filter.ratelimit.maxRate", 0.5));
+                    break;
+                case "clamp":
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown filter " + name + ". filters must be washout, lowpass, ratelimit or clamp.");
+            }
+        }
+        if (amount == 0) return null;
+        return new FilteredPositionProvider(source, clock, Arrays.copyOf(stages, amount));
+    }
+
+    /**
+     * Wraps a position provider with the clamp if filters lists it, configured by filter.clamp.min and filter.clamp.max.
+     * It belongs right before the regulation, so neither the other stages nor the prediction can leave the clamped range.
+     * @param source    provider of predicted or filtered positions
+     * @param width     how many arm lengths a position consists of
+     * @param config    configuration to read from
+     * @param clock     clock the time between two positions is taken from
+     * @return the clamping position provider or null if no clamp is configured
+     */
+    public static FilteredPositionProvider clampFromConfig(PositionProvider source, int width, Config config, Clock clock) {
+        for (String name : config.getString("filters", "").split(",")) {
+            if (name.trim().equalsIgnoreCase("clamp")) {
+                return new FilteredPositionProvider(source, clock,
+                        new ClampFilter(width, config.getDouble("filter.clamp.min", 0.0), config.getDouble("filter.clamp.max", 1.0)));
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void getMostRecentPositionUpdate(double[] lengths) throws InterruptedException {
+        source.getMostRecentPositionUpdate(lengths);
+        long now = clock.nanoTime();
+        double dt = Math.min((now - lastTimeNanos) / 1e9, MAX_DT_SECONDS);
+
+        //the first position initializes every stage's state
+        for (FilterStage stage : stages) {
+            if (!started) {
+                stage.reset(lengths);
+                stage.process(lengths, 0);
+            } else {
+                stage.process(lengths, dt);
+            }
+        }
+        lastTimeNanos = now;
+        started = true;
+    }
+}
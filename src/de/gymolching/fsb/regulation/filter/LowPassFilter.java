@@ -0,0 +1,39 @@
+package de.gymolching.fsb.regulation.filter;
+
+/**
+ * First order low-pass filter smoothing out jitter in the arm lengths.
+ * @author sschaeffner
+ */
+public class LowPassFilter implements FilterStage {
+
+    //cutoff frequency in radians per second
+    private final double cutoff;
+
+    //last output per arm
+    private final double[] output;
+
+    /**
+     * Creates a low-pass filter.
+     * @param width     how many arm lengths a position consists of
+     * @param cutoffHz  cutoff frequency in Hz
+     */
+    public LowPassFilter(int width, double cutoffHz) {
+        if (cutoffHz <= 0) throw new IllegalArgumentException("cutoffHz must be greater than 0.");
+        this.cutoff = 2 * Math.PI * cutoffHz;
+        this.output = new double[width];
+    }
+
+    @Override
+    public void reset(double[] lengths) {
+        System.arraycopy(lengths, 0, output, 0, output.length);
+    }
+
+    @Override
+    public void process(double[] lengths, double dt) {
+        double alpha = 1 - Math.exp(-cutoff * dt);
+        for (int i = 0; i < output.length; i++) {
+            output[i] += alpha * (lengths[i] - output[i]);
+            lengths[i] = output[i];
+        }
+    }
+}
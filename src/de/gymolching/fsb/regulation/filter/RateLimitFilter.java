@@ -0,0 +1,39 @@
+package de.gymolching.fsb.regulation.filter;
+
+/**
+ * Limits how fast each arm length may change.
+ * @author sschaeffner
+ */
+public class RateLimitFilter implements FilterStage {
+
+    //largest change of a normalized length per second
+    private final double maxRate;
+
+    //last output per arm
+    private final double[] output;
+
+    /**
+     * Creates a rate limit filter.
+     * @param width     how many arm lengths a position consists of
+     * @param maxRate   largest change of a normalized length per second
+     */
+    public RateLimitFilter(int width, double maxRate) {
+        if (maxRate <= 0) throw new IllegalArgumentException("maxRate must be greater than 0.");
+        this.maxRate = maxRate;
+        this.output = new double[width];
+    }
+
+    @Override
+    public void reset(double[] lengths) {
+        System.arraycopy(lengths, 0, output, 0, output.length);
+    }
+
+    @Override
+    public void process(double[] lengths, double dt) {
+        double maxStep = maxRate * dt;
+        for (int i = 0; i < output.length; i++) {
+            output[i] += Math.max(-maxStep, Math.min(maxStep, lengths[i] - output[i]));
+            lengths[i] = output[i];
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package de.gymolching.fsb.regulation.filter;
+
+/**
+ * First order high-pass (washout) filter used for motion cueing.
+ * Changes of the arm lengths are passed through, while sustained offsets slowly return to the neutral length,
+ * keeping the platform away from its limits during long manoeuvres.
+ * @author sschaeffner
+ */
+public class WashoutFilter implements FilterStage {
+
+    //time constant of the return to neutral in seconds
+    private final double timeConstant;
+
+    //length the platform returns to
+    private final double neutral;
+
+    //last input and high-passed output per arm
+    private final double[] lastInput;
+    private final double[] highPassed;
+
+    /**
+     * Creates a washout filter.
+     * @param width         how many arm lengths a position consists of
+     * @param timeConstant  time constant of the return to neutral in seconds
+     * @param neutral       normalized length the platform returns to
+     */
+    public WashoutFilter(int width, double timeConstant, double neutral) {
+        if (timeConstant <= 0) throw new IllegalArgumentException("timeConstant must be greater than 0.");
+        this.timeConstant = timeConstant;
+        this.neutral = neutral;
+        this.lastInput = new double[width];
+        this.highPassed = new double[width];
+    }
+
+    @Override
+    public void reset(double[] lengths) {
+        System.arraycopy(lengths, 0, lastInput, 0, lastInput.length);
+        for (int i = 0; i < highPassed.length; i++) {
+            highPassed[i] = 0;
+        }
+    }
+
+    @Override
+    public void process(double[] lengths, double dt) {
+        double decay = timeConstant / (timeConstant + dt);
+        for (int i = 0; i < highPassed.length; i++) {
+            highPassed[i] = decay * (highPassed[i] + lengths[i] - lastInput[i]);
+            lastInput[i] = lengths[i];
+            lengths[i] = neutral + highPassed[i];
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package de.gymolching.fsb.regulation.prediction;
+
+/**
+ * Alpha-beta filter tracking each arm length and its velocity.
+ * @author sschaeffner
+ */
+public class AlphaBetaPredictor implements Predictor {
+
+    //gap between two positions in seconds after which the filter starts over instead of tracking
+    private static final double RESET_GAP_SECONDS = 1.0;
+
+    //position correction gain
+    private final double alpha;
+
+    //velocity correction gain
+    private final double beta;
+
+    //estimated lengths and velocities (per second)
+    private final double[] lengths;
+    private final double[] velocities;
+
+    //receipt time of the last position
+    private long lastTimeNanos;
+
+    //whether a position was received yet, a clock may well start at 0
+    private boolean started = false;
+
+    /**
+     * Creates an alpha-beta predictor.
+     * @param width     how many arm lengths a position consists of
+     * @param alpha     position correction gain, between 0 and 1
+     * @param beta      velocity correction gain, between 0 and 2
+     */
+    public AlphaBetaPredictor(int width, double alpha, double beta) {
+        if (alpha <= 0 || alpha > 1 || beta < 0 || beta > 2) {
+            throw new IllegalArgumentException("alpha must be in (0, 1] and beta in [0, 2].");
+        }
+        this.alpha = alpha;
+        this.beta = beta;
+        this.lengths = new double[width];
+        this.velocities = new double[width];
+    }
+
+    @Override
+    public void update(double[] measured, long timeNanos) {
+        double dt = (timeNanos - lastTimeNanos) / 1e9;
+
+        if (!started || dt > RESET_GAP_SECONDS || dt <= 0) {
+            for (int i = 0; i < lengths.length; i++) {
+                if (!started || dt > RESET_GAP_SECONDS) velocities[i] = 0;
+                lengths[i] = measured[i];
+            }
+        } else {
+            for (int i = 0; i < lengths.length; i++) {
+                double predicted = lengths[i] + velocities[i] * dt;
+                double residual = measured[i] - predicted;
+                lengths[i] = predicted + alpha * residual;
+                velocities[i] += beta / dt * residual;
+            }
+        }
+        lastTimeNanos = timeNanos;
+        started = true;
+    }
+
+    @Override
+    public void predict(long timeNanos, double[] predicted) {
+        double horizon = started ? (timeNanos - lastTimeNanos) / 1e9 : 0;
+        for (int i = 0; i < lengths.length; i++) {
+            predicted[i] = lengths[i] + velocities[i] * horizon;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package de.gymolching.fsb.regulation.prediction;
+
+/**
+ * Constant-acceleration Kalman filter tracking each arm length, its velocity and its acceleration.
+ * Process noise is modelled as white jerk.
+ * @author sschaeffner
+ */
+public class KalmanPredictor implements Predictor {
+
+    //gap between two positions in seconds after which the filter starts over instead of tracking
+    private static final double RESET_GAP_SECONDS = 1.0;
+
+    //initial variance of the velocity and acceleration estimates
+    private static final double INITIAL_VELOCITY_VARIANCE = 1.0;
+    private static final double INITIAL_ACCELERATION_VARIANCE = 10.0;
+
+    //spectral density of the jerk driving the model
+    private final double processNoise;
+
+    //variance of a received position
+    private final double measurementNoise;
+
+    //state per arm length
+    private final double[] position, velocity, acceleration;
+
+    //upper triangle of the covariance matrix per arm length
+    private final double[] p00, p01, p02, p11, p12, p22;
+
+    //receipt time of the last position
+    private long lastTimeNanos;
+
+    //whether a position was received yet, a clock may well start at 0
+    private boolean started = false;
+
+    /**
+     * Creates a Kalman predictor.
+     * @param width             how many arm lengths a position consists of
+     * @param processNoise      spectral density of the jerk driving the model (normalized length^2 / s^5)
+     * @param measurementNoise  variance of a received position (normalized length^2)
+     */
+    public KalmanPredictor(int width, double processNoise, double measurementNoise) {
+        if (processNoise <= 0 || measurementNoise <= 0) {
+            throw new IllegalArgumentException("processNoise and measurementNoise must be greater than 0.");
+        }
+        this.processNoise = processNoise;
+        this.measurementNoise = measurementNoise;
+        this.position = new double[width];
+        this.velocity = new double[width];
+        this.acceleration = new double[width];
+        this.p00 = new double[width];
+        this.p01 = new double[width];
+        this.p02 = new double[width];
+        this.p11 = new double[width];
+        this.p12 = new double[width];
+        this.p22 = new double[width];
+    }
+
+    @Override
+    public void update(double[] measured, long timeNanos) {
+        double dt = (timeNanos - lastTimeNanos) / 1e9;
+
+        if (!started || dt > RESET_GAP_SECONDS) {
+            for (int i = 0; i < position.length; i++) reset(i, measured[i]);
+            lastTimeNanos = timeNanos;
+            started = true;
+            return;
+        }
+        if (dt <= 0) {
+            dt = 1e-6;
+        }
+
+        double h = dt * dt / 2;
+        double dt2 = dt * dt, dt3 = dt2 * dt, dt4 = dt3 * dt, dt5 = dt4 * dt;
+        double q00 = processNoise * dt5 / 20, q01 = processNoise * dt4 / 8, q02 = processNoise * dt3 / 6;
+        double q11 = processNoise * dt3 / 3, q12 = processNoise * dt2 / 2, q22 = processNoise * dt;
+
+        for (int i = 0; i < position.length; i++) {
+            //predict state
+            double x = position[i] + velocity[i] * dt + acceleration[i] * h;
+            double v = velocity[i] + acceleration[i] * dt;
+            double a = acceleration[i];
+
+            //predict covariance: F * P * F^T + Q
+            double a00 = p00[i] + dt * p01[i] + h * p02[i];
+            double a01 = p01[i] + dt * p11[i] + h * p12[i];
+            double a02 = p02[i] + dt * p12[i] + h * p22[i];
+            double a11 = p11[i] + dt * p12[i];
+            double a12 = p12[i] + dt * p22[i];
+            double n00 = a00 + dt * a01 + h * a02 + q00;
+            double n01 = a01 + dt * a02 + q01;
+            double n02 = a02 + q02;
+            double n11 = a11 + dt * a12 + q11;
+            double n12 = a12 + q12;
+            double n22 = p22[i] + q22;
+
+            //correct with the measured position
+            double s = n00 + measurementNoise;
+            double k0 = n00 / s, k1 = n01 / s, k2 = n02 / s;
+            double residual = measured[i] - x;
+            position[i] = x + k0 * residual;
+            velocity[i] = v + k1 * residual;
+            acceleration[i] = a + k2 * residual;
+
+            p00[i] = n00 - k0 * n00;
+            p01[i] = n01 - k0 * n01;
+            p02[i] = n02 - k0 * n02;
+            p11[i] = n11 - k1 * n01;
+            p12[i] = n12 - k1 * n02;
+            p22[i] = n22 - k2 * n02;
+        }
+        lastTimeNanos = timeNanos;
+        started = true;
+    }
+
+    @Override
+    public void predict(long timeNanos, double[] predicted) {
+        double horizon = started ? (timeNanos - lastTimeNanos) / 1e9 : 0;
+        for (int i = 0; i < position.length; i++) {
+            predicted[i] = position[i] + velocity[i] * horizon + acceleration[i] * horizon * horizon / 2;
+        }
+    }
+
+    private void reset(int i, double measured) {
+        position[i] = measured;
+        velocity[i] = 0;
+        acceleration[i] = 0;
+        p00[i] = measurementNoise;
+        p01[i] = 0;
+        p02[i] = 0;
+        p11[i] = INITIAL_VELOCITY_VARIANCE;
+        p12[i] = 0;
+        p22[i] = INITIAL_ACCELERATION_VARIANCE;
+    }
+}
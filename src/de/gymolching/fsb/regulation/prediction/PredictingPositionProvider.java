@@ -0,0 +1,223 @@
+package de.gymolching.fsb.regulation.prediction;
+
+import de.gymolching.fsb.Config;
+import de.gymolching.fsb.clock.Clock;
+import de.gymolching.fsb.regulation.PositionProvider;
+
+/**
+ * Hands out positions extrapolated to the time the arms are expected to actually get there,
+ * hiding network delay, regulation tick and motor response.
+ * Every prediction is later compared to the position actually received at its target time, and the error is kept per arm.
+ * @author sschaeffner
+ */
+public class PredictingPositionProvider implements PositionProvider {
+
+    //how many predictions may wait for their target time to be evaluated
+    private static final int PENDING_CAPACITY = 64;
+
+    //default prediction horizon
+    private static final int DEFAULT_HORIZON_MILLIS = 150;
+
+    //the wrapped position provider
+    private final PositionProvider source;
+
+    //predictor estimating the arms' motion
+    private final Predictor predictor;
+
+    //how far into the future positions are extrapolated
+    private final long horizonNanos;
+
+    //clock positions are timed by
+    private final Clock clock;
+
+    //most recent position received from the source
+    private final double[] measured;
+
+    //predictions waiting for their target time, as a ring buffer
+    private final long[] pendingTimes;
+    private final double[][] pendingPositions;
+    private int pendingHead;
+    private int pendingSize;
+
+    //prediction error statistics
+    private final double[] squaredErrorSum;
+    private final double[] maxError;
+    private long errorSamples;
+
+    /**
+     * Creates a predicting position provider.
+     * @param source            provider of received positions
+     * @param predictor         predictor estimating the arms' motion
+     * @param width             how many arm lengths a position consists of
+     * @param horizonMillis     how far into the future positions are extrapolated
+     */
+    public PredictingPositionProvider(PositionProvider source, Predictor predictor, int width, int horizonMillis) {
+        this(source, predictor, width, horizonMillis, Clock.system());
+    }
+
+    /**
+     * Creates a predicting position provider timed by a clock.
+     * @param source            provider of received positions
+     * @param predictor         predictor estimating the arms' motion
+     * @param width             how many arm lengths a position consists of
+     * @param horizonMillis     how far into the future positions are extrapolated
+     * @param clock             clock positions are timed by
+     */
+    public PredictingPositionProvider(PositionProvider source, Predictor predictor, int width, int horizonMillis, Clock clock) {
+        if (horizonMillis < 0) throw new IllegalArgumentException("horizonMillis must not be negative.");
+
+        this.source = source;
+        this.predictor = predictor;
+        this.horizonNanos = horizonMillis * 1000000L;
+        this.clock = clock;
+        this.measured = new double[width];
+        this.pendingTimes = new long[PENDING_CAPACITY];
+        this.pendingPositions = new double[PENDING_CAPACITY][width];
+        this.squaredErrorSum = new double[width];
+        this.maxError = new double[width];
+    }
+
+    /**
+     * Wraps a position provider with the predictor configured as predictor = none | alphabeta | kalman.
+     * Further keys are predictor.horizonMillis, predictor.alpha, predictor.beta, predictor.processNoise and predictor.measurementNoise.
+     * @param source    provider of received positions
+     * @param width     how many arm lengths a position consists of
+     * @param config    configuration to read from
+     * @return the predicting position provider or null if no predictor is configured
+     */
+    public static PredictingPositionProvider fromConfig(PositionProvider source, int width, Config config) {
+        return fromConfig(source, width, config, Clock.system());
+    }
+
+    /**
+     * Wraps a position provider with the configured predictor, timed by a clock.
+     * @param source    provider of received positions
+     * @param width     how many arm lengths a position consists of
+     * @param config    configuration to read from
+     * @param clock     clock positions are timed by
+     * @return the predicting position provider or null if no predictor is configured
+     */
+    public static PredictingPositionProvider fromConfig(PositionProvider source, int width, Config config, Clock clock) {
+        Predictor predictor;
+        String type = config.getString("predictor", "none").toLowerCase();
+        switch (type) {
+            case "none":
+                return null;
+            case "alphabeta":
+                predictor = new AlphaBetaPredictor(width, config.getDouble("predictor.alpha", 0.5), config.getDouble("predictor.beta", 0.17));
+                break;
+            case "kalman":
+                predictor = new KalmanPredictor(width, config.getDouble("predictor.processNoise", 50), config.getDouble("predictor.measurementNoise", 1e-5));
+                break;
+            default:
+                throw new IllegalArgumentException("unknown predictor " + type + ". predictor must be none, alphabeta or kalman.");
+        }
+        return new PredictingPositionProvider(source, predictor, width, config.getInt("predictor.horizonMillis", DEFAULT_HORIZON_MILLIS), clock);
+    }
+
+    @Override
+    public void getMostRecentPositionUpdate(double[] lengths) throws InterruptedException {
+        source.getMostRecentPositionUpdate(measured);
+        long now = clock.nanoTime();
+
+        evaluatePendingPredictions(now);
+        predictor.update(measured, now);
+
+        long target = now + horizonNanos;
+        predictor.predict(target, lengths);
+        for (int i = 0; i < measured.length; i++) {
+            lengths[i] = Math.max(0, Math.min(1, lengths[i]));
+        }
+
+        //remember prediction to evaluate it once its target time has passed, dropping the oldest one if full
+        if (pendingSize == PENDING_CAPACITY) {
+            pendingHead = (pendingHead + 1) % PENDING_CAPACITY;
+            pendingSize--;
+        }
+        int slot = (pendingHead + pendingSize) % PENDING_CAPACITY;
+        pendingTimes[slot] = target;
+        System.arraycopy(lengths, 0, pendingPositions[slot], 0, measured.length);
+        pendingSize++;
+    }
+
+    /**
+     * Compares every prediction whose target time has passed with the position just received.
+     * @param now   receipt time of the position in measured
+     */
+    private void evaluatePendingPredictions(long now) {
+        synchronized (squaredErrorSum) {
+            while (pendingSize > 0 && pendingTimes[pendingHead] <= now) {
+                double[] predicted = pendingPositions[pendingHead];
+                for (int i = 0; i < measured.length; i++) {
+                    double error = Math.abs(predicted[i] - measured[i]);
+                    squaredErrorSum[i] += error * error;
+                    if (error > maxError[i]) maxError[i] = error;
+                }
+                errorSamples++;
+                pendingHead = (pendingHead + 1) % PENDING_CAPACITY;
+                pendingSize--;
+            }
+        }
+    }
+
+    /**
+     * Returns the root mean square prediction error of an arm.
+     * @param arm   id of the arm
+     * @return the RMS error in normalized length
+     */
+    public double getRmsError(int arm) {
+        synchronized (squaredErrorSum) {
+            return errorSamples == 0 ? 0 : Math.sqrt(squaredErrorSum[arm] / errorSamples);
+        }
+    }
+
+    /**
+     * Returns the largest prediction error of an arm.
+     * @param arm   id of the arm
+     * @return the largest error in normalized length
+     */
+    public double getMaxError(int arm) {
+        synchronized (squaredErrorSum) {
+            return maxError[arm];
+        }
+    }
+
+    /**
+     * Returns how many predictions have been evaluated.
+     * @return how many predictions have been evaluated
+     */
+    public long getErrorSamples() {
+        synchronized (squaredErrorSum) {
+            return errorSamples;
+        }
+    }
+
+    /**
+     * Returns how far into the future positions are extrapolated.
+     * @return the prediction horizon in milliseconds
+     */
+    public long getHorizonMillis() {
+        return horizonNanos / 1000000L;
+    }
+
+    /**
+     * Returns how many arm lengths a position consists of.
+     * @return how many arm lengths a position consists of
+     */
+    public int getWidth() {
+        return measured.length;
+    }
+
+    /**
+     * Clears the prediction error statistics.
+     */
+    public void resetStatistics() {
+        synchronized (squaredErrorSum) {
+            for (int i = 0; i < measured.length; i++) {
+                squaredErrorSum[i] = 0;
+                maxError[i] = 0;
+            }
+            errorSamples = 0;
+        }
+    }
+}
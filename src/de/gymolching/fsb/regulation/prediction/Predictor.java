@@ -0,0 +1,23 @@
+package de.gymolching.fsb.regulation.prediction;
+
+/**
+ * Estimates how the arm lengths evolve from a stream of measured positions and extrapolates them into the future.
+ * Implementations allocate nothing after construction.
+ * @author sschaeffner
+ */
+public interface Predictor {
+
+    /**
+     * Feeds a received position.
+     * @param measured      normalized arm lengths
+     * @param timeNanos     time in nanoseconds at which the position was received
+     */
+    void update(double[] measured, long timeNanos);
+
+    /**
+     * Extrapolates the arm lengths to a point in time.
+     * @param timeNanos     time in nanoseconds to extrapolate to
+     * @param predicted     receives the extrapolated normalized arm lengths
+     */
+    void predict(long timeNanos, double[] predicted);
+}
@@ -0,0 +1,396 @@
+package de.gymolching.fsb.simulation;
+
+import de.gymolching.fsb.Config;
+import de.gymolching.fsb.clock.VirtualClock;
+import de.gymolching.fsb.hal.SimulatedArm;
+import de.gymolching.fsb.halApi.ArmInterface;
+import de.gymolching.fsb.kinematics.PlatformGeometry;
+import de.gymolching.fsb.kinematics.StewartKinematics;
+import de.gymolching.fsb.loadtest.Waveform;
+import de.gymolching.fsb.regulation.BrakingModel;
+import de.gymolching.fsb.regulation.MotionLimits;
+import de.gymolching.fsb.regulation.SimpleRegulationImpl;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Guards the quality of the regulation against regressions.
+ * Standard motions are driven through the whole pipeline (playback, filters, predictor, regulation, simulated arms) on a virtual clock,
+ * and the arms' positions are compared with the goals they were sent. Every scenario is measured by
+ * <ul>
+ * <li>rms: root mean square of goal minus position in steps, over all arms and samples,</li>
+ * <li>overshoot: mean distance in steps the arms came to rest past their goals,</li>
+ * <li>settle: mean time in ms from a jump of the goal until the arm stays within a step of it, only where the goal jumps,</li>
+ * <li>latency: delay in ms by which the positions follow the goals best.</li>
+ * </ul>
+ * A metric regresses when it is worse than its baseline by more than the tolerance. As the simulation is deterministic,
+ * a run without changes measures exactly the baseline.
+ * <p>
+ * Usage: java -cp fsb.jar de.gymolching.fsb.simulation.ControlQualityCheck [options]
+ * <pre>
+ * --baseline file      baseline to compare with (default: control-quality-baseline.properties)
+ * --update             writes the measured metrics as the new baseline instead of comparing
+ * --config file        configuration of the regulation, filters and predictor (default: built-in defaults)
+ * --turbulence file    recorded stream played back as the turbulence scenario, lines of time;length;length...
+ *                      (default: the load generator's noise waveform)
+ * --tolerance percent  how much worse than the baseline a metric may get (default: 5)
+ * </pre>
+ * Exits with status 1 if a metric regressed or a scenario failed to run, and with status 2 if the baseline cannot be read.
+ * @author sschaeffner
+ */
+public class ControlQualityCheck {
+
+    //default location of the baseline, relative to the working directory
+    private static final String DEFAULT_BASELINE_FILE = "control-quality-baseline.properties";
+
+    //default tolerance in percent of the baseline
+    private static final double DEFAULT_TOLERANCE_PERCENT = 5;
+
+    //what a metric may get worse by in absolute terms, so metrics near 0 do not fail on noise: steps, steps, ms, ms
+    private static final double[] ABSOLUTE_TOLERANCES = {0.05, 0.05, 20, 20};
+
+    //names and units of the metrics
+    private static final String[] METRICS = {"rms", "overshoot", "settle", "latency"};
+    private static final String[] UNITS = {"steps", "steps", "ms", "ms"};
+
+    //how often the positions are sampled, in simulated time
+    private static final long SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    //positions per second of the generated streams
+    private static final double RATE = 100;
+
+    //how far the goal has to jump at once for a settle time to be measured, and how close the arm has to stay to count as settled
+    private static final int JUMP_STEPS = 5;
+    private static final int SETTLE_TOLERANCE_STEPS = 1;
+
+    //longest latency searched for
+    private static final long MAX_LATENCY_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    //the standard motions: name, waveform, frequency in Hz, length in seconds
+    private static final Scenario[] SCENARIOS = {
+            new Scenario("step", Waveform.SQUARE, 0.05, 120),
+            new Scenario("sweep", Waveform.SWEEP, 0.05, 120),
+            new Scenario("turbulence", Waveform.NOISE, 0.2, 120)
+    };
+
+    private String baselineFile = DEFAULT_BASELINE_FILE;
+    private boolean update = false;
+    private String configFile;
+    private String turbulenceFile;
+    private double tolerancePercent = DEFAULT_TOLERANCE_PERCENT;
+
+    //reports are written here, System.out is silenced
+    private final PrintStream report = System.out;
+
+    public static void main(String[] args) throws Exception {
+        ControlQualityCheck check = new ControlQualityCheck();
+        try {
+            check.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+        System.exit(check.run());
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--update")) {
+                update = true;
+                continue;
+            }
+            if (i + 1 >= args.length) throw new IllegalArgumentException("missing value for " + option);
+            String value = args[++i];
+            switch (option) {
+                case "--baseline":
+                    baselineFile = value;
+                    break;
+                case "--config":
+                    configFile = value;
+                    break;
+                case "--turbulence":
+                    turbulenceFile = value;
+                    break;
+                case "--tolerance":
+                    try {
+                        tolerancePercent = Double.parseDouble(value);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("invalid value for --tolerance: " + value);
+                    }
+                    if (tolerancePercent < 0) throw new IllegalArgumentException("--tolerance must not be negative");
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + option);
+            }
+        }
+    }
+
+    /**
+     * Runs every scenario and compares the metrics with the baseline, or writes them as the new baseline.
+     * @return exit status
+     */
+    private int run() throws IOException, InterruptedException {
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+
+        Properties baseline = new Properties();
+        if (!update) {
+            try (InputStream in = new FileInputStream(baselineFile)) {
+                baseline.load(in);
+            } catch (IOException e) {
+                report.println("[CQ] cannot read baseline " + baselineFile + ": " + e.getMessage() + ", run with --update to create it");
+                return 2;
+            }
+        }
+
+        Config config = configFile != null ? Config.load(configFile) : Config.getInstance();
+        Properties measured = new Properties();
+        int regressions = 0;
+        boolean failed = false;
+
+        report.printf("[CQ] %-11s %-10s %10s %10s %8s%n", "scenario", "metric", "measured", "baseline", "");
+        for (Scenario scenario : SCENARIOS) {
+            double[] metrics = measure(scenario, config);
+            if (metrics == null) {
+                report.println("[CQ] " + scenario.name + ": FAIL, the scenario did not run to its end");
+                failed = true;
+                continue;
+            }
+
+            for (int m = 0; m < METRICS.length; m++) {
+                String key = scenario.name + "." + METRICS[m];
+                if (Double.isNaN(metrics[m])) continue;
+                measured.setProperty(key, String.format(Locale.ROOT, "%.3f", metrics[m]));
+
+                String verdict = "";
+                String expected = baseline.getProperty(key);
+                double limit = Double.NaN;
+                if (!update) {
+                    if (expected == null) {
+                        verdict = "new";
+                    } else {
+                        double base = Double.parseDouble(expected);
+                        limit = base * (1 + tolerancePercent / 100) + ABSOLUTE_TOLERANCES[m];
+                        if (metrics[m] > limit) {
+                            verdict = "REGRESSED";
+                            regressions++;
+                        } else if (metrics[m] < base - ABSOLUTE_TOLERANCES[m]) {
+                            verdict = "improved";
+                        }
+                    }
+                }
+                report.printf(Locale.ROOT, "[CQ] %-11s %-10s %10.3f %10s %8s %s%n", scenario.name, METRICS[m], metrics[m],
+                        expected != null ? expected : "-", UNITS[m], verdict.isEmpty() ? "" : verdict
+                                + (Double.isNaN(limit) || !verdict.equals("REGRESSED") ? "" : String.format(Locale.ROOT, " (limit %.3f)", limit)));
+            }
+        }
+
+        if (update) {
+            if (failed) {
+                report.println("[CQ] FAIL: baseline not written because a scenario failed");
+                return 1;
+            }
+            //in scenario order and without a date, so changes of the baseline diff cleanly
+            try (PrintStream out = new PrintStream(new FileOutputStream(baselineFile), false, "ISO-8859-1")) {
+                out.println("# control quality baseline, written by ControlQualityCheck --update");
+                for (Scenario scenario : SCENARIOS) {
+                    for (String metric : METRICS) {
+                        String key = scenario.name + "." + metric;
+                        if (measured.containsKey(key)) out.println(key + "=" + measured.getProperty(key));
+                    }
+                }
+            }
+            report.println("[CQ] baseline written to " + baselineFile);
+            return 0;
+        }
+        if (regressions > 0 || failed) {
+            report.println("[CQ] FAIL: " + regressions + " metric(s) regressed by more than " + tolerancePercent + "% of the baseline");
+            return 1;
+        }
+        report.println("[CQ] PASS: no metric regressed by more than " + tolerancePercent + "% of the baseline");
+        return 0;
+    }
+
+    /**
+     * Drives a scenario through the pipeline and measures it.
+     * @param scenario  the scenario
+     * @param config    configuration of the regulation, filters and predictor
+     * @return rms, overshoot, settle and latency (settle NaN if the goal never jumps), or null if the arms did not home or the regulation did not stop
+     */
+    private double[] measure(Scenario scenario, Config config) throws IOException, InterruptedException {
+        PlatformGeometry geometry = PlatformGeometry.symmetric(300, 20, 200, 20, 400, 600, 460);
+        VirtualClock clock = new VirtualClock();
+        int width = geometry.getArmAmount();
+
+        PositionPlayback playback = scenario.name.equals("turbulence") && turbulenceFile != null
+                ? PositionPlayback.load(turbulenceFile, clock)
+                : PositionPlayback.fromWaveform(new StewartKinematics(geometry), scenario.waveform, scenario.frequency, RATE, scenario.seconds, clock);
+
+        ArmInterface[] arms = new ArmInterface[width];
+        for (int i = 0; i < width; i++) {
+            double fullSpeedVelocity = MotionLimits.fromConfig(config, i).getFullSpeedVelocity();
+            arms[i] = new SimulatedArm(fullSpeedVelocity, Simulation.SIMULATED_TIME_CONSTANT, Simulation.SIMULATED_STROKE_STEPS, clock);
+        }
+        SimpleRegulationImpl regulation = new SimpleRegulationImpl(SimpleRegulationImpl.DEFAULT_PLATFORM, arms, config, clock);
+        regulation.setPositionProvider(Simulation.connect(playback, width, config, clock));
+        if (!clock.advanceUntil(regulation::isHomed, Simulation.HOMING_TIMEOUT_NANOS)) return null;
+
+        //samples goals and positions while the stream plays
+        Trace trace = new Trace(width, (int) (playback.getDurationNanos() / SAMPLE_NANOS) + 1);
+        Thread probe = clock.newThread(() -> {
+            double[] lengths = new double[width];
+            int[] goals = new int[width];
+            while (!playback.isFinished() && trace.size < trace.capacity) {
+                try {
+                    clock.sleepNanos(SAMPLE_NANOS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (!playback.copyLastPosition(lengths)) continue;
+                SimpleRegulationImpl.toSteps(lengths, goals);
+                for (int i = 0; i < width; i++) {
+                    trace.goals[i][trace.size] = goals[i];
+                    trace.positions[i][trace.size] = arms[i].getPosition();
+                }
+                trace.size++;
+            }
+        }, "probe");
+        probe.start();
+        boolean probed = clock.join(probe, clock.nanoTime() + playback.getDurationNanos() + Simulation.HOMING_TIMEOUT_NANOS);
+        boolean ended = regulation.shutdown(Simulation.REGULATION_SHUTDOWN_TIMEOUT_MILLIS);
+        if (!probed || !ended) return null;
+
+        double overshoot = 0;
+        long stops = 0;
+        for (int i = 0; i < width; i++) {
+            BrakingModel braking = regulation.getBrakingModel(i);
+            overshoot += braking.getMeanAbsoluteOvershoot() * braking.getGoalStops();
+            stops += braking.getGoalStops();
+        }
+        return new double[]{trace.rms(), stops == 0 ? 0 : overshoot / stops, trace.settleMillis(), trace.latencyMillis()};
+    }
+
+    /**
+     * A standard motion.
+     */
+    private static final class Scenario {
+        private final String name;
+        private final Waveform waveform;
+        private final double frequency;
+        private final double seconds;
+
+        private Scenario(String name, Waveform waveform, double frequency, double seconds) {
+            this.name = name;
+            this.waveform = waveform;
+            this.frequency = frequency;
+            this.seconds = seconds;
+        }
+    }
+
+    /**
+     * Goals and positions of every arm in steps, sampled every SAMPLE_NANOS.
+     */
+    private static final class Trace {
+        private final int[][] goals;
+        private final int[][] positions;
+        private final int capacity;
+        private int size;
+
+        private Trace(int width, int capacity) {
+            this.goals = new int[width][capacity];
+            this.positions = new int[width][capacity];
+            this.capacity = capacity;
+        }
+
+        /**
+         * Root mean square of goal minus position over all arms and samples.
+         */
+        private double rms() {
+            return rms(0);
+        }
+
+        /**
+         * Root mean square of the goal some samples earlier minus the position, over all arms and samples.
+         */
+        private double rms(int lag) {
+            double sum = 0;
+            long amount = 0;
+            for (int arm = 0; arm < goals.length; arm++) {
+                for (int k = lag; k < size; k++) {
+                    double error = goals[arm][k - lag] - positions[arm][k];
+                    sum += error * error;
+                    amount++;
+                }
+            }
+            return amount == 0 ? 0 : Math.sqrt(sum / amount);
+        }
+
+        /**
+         * Mean time from a jump of the goal until the arm stays within SETTLE_TOLERANCE_STEPS of it.
+         * An arm that does not settle before the next jump counts with the whole time until then.
+         * @return settle time in ms, NaN if the goal never jumps
+         */
+        private double settleMillis() {
+            double sum = 0;
+            int jumps = 0;
+            for (int arm = 0; arm < goals.length; arm++) {
+                int[] goal = goals[arm];
+                int k = 1;
+                while (k < size) {
+                    if (Math.abs(goal[k] - goal[k - 1]) < JUMP_STEPS) {
+                        k++;
+                        continue;
+                    }
+
+                    //the goal holds until it jumps again
+                    int start = k;
+                    int end = start + 1;
+                    while (end < size && Math.abs(goal[end] - goal[end - 1]) < JUMP_STEPS) end++;
+
+                    int settled = start;
+                    for (int j = start; j < end; j++) {
+                        if (Math.abs(goal[j] - positions[arm][j]) > SETTLE_TOLERANCE_STEPS) settled = j + 1;
+                    }
+                    sum += (settled - start) * SAMPLE_NANOS / 1e6;
+                    jumps++;
+                    k = end;
+                }
+            }
+            return jumps == 0 ? Double.NaN : sum / jumps;
+        }
+
+        /**
+         * Delay by which the positions follow the goals best, the lag with the smallest rms error.
+         * @return latency in ms
+         */
+        private double latencyMillis() {
+            int maxLag = (int) Math.min(size - 1, MAX_LATENCY_NANOS / SAMPLE_NANOS);
+            int best = 0;
+            double bestRms = Double.MAX_VALUE;
+            for (int lag = 0; lag <= maxLag; lag++) {
+                double rms = rms(lag);
+                if (rms < bestRms) {
+                    bestRms = rms;
+                    best = lag;
+                }
+            }
+            return best * SAMPLE_NANOS / 1e6;
+        }
+    }
+}
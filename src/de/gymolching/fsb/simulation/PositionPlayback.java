@@ -0,0 +1,203 @@
+package de.gymolching.fsb.simulation;
+
+import de.gymolching.fsb.clock.Clock;
+import de.gymolching.fsb.kinematics.StewartKinematics;
+import de.gymolching.fsb.loadtest.Waveform;
+import de.gymolching.fsb.regulation.PositionProvider;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plays back a stream of positions in place of the network server, each one at its time on a clock.
+ * Like the server, only the most recent position is handed out; positions the regulation was too slow for are skipped.
+ * Times are relative to the first request for a position. Once the stream is over, requests block until interrupted.
+ * @author sschaeffner
+ */
+public class PositionPlayback implements PositionProvider {
+
+    //amplitudes of x, y, z in mm and roll, pitch, yaw in degrees, as streamed by the load generator
+    private static final double[] AMPLITUDES = {20, 20, 30, 5, 5, 8};
+
+    //time of every position relative to the start in nanoseconds, ascending
+    private final long[] timesNanos;
+
+    //normalized arm lengths of every position
+    private final double[][] positions;
+
+    //clock the positions are timed by
+    private final Clock clock;
+
+    //clock.nanoTime() of the first request, valid once started
+    private long startNanos;
+    private boolean started;
+
+    //index of the next position to hand out
+    private int next;
+
+    //how many positions were handed out and skipped
+    private long delivered;
+    private long skipped;
+
+    /**
+     * Creates a playback.
+     * @param timesNanos    time of every position relative to the start in nanoseconds, ascending
+     * @param positions     normalized arm lengths of every position
+     * @param clock         clock the positions are timed by
+     */
+    public PositionPlayback(long[] timesNanos, double[][] positions, Clock clock) {
+        if (timesNanos.length != positions.length) {
+            throw new IllegalArgumentException("there must be exactly one time per position.");
+        }
+        for (int i = 1; i < timesNanos.length; i++) {
+            if (timesNanos[i] < timesNanos[i - 1]) throw new IllegalArgumentException("times must be ascending.");
+        }
+
+        this.timesNanos = timesNanos;
+        this.positions = positions;
+        this.clock = clock;
+    }
+
+    /**
+     * Loads a recorded stream. Every line holds the time in seconds followed by the normalized arm lengths, separated by semicolons.
+     * Empty lines and lines starting with # are ignored.
+     * @param fileName  name of the file
+     * @param clock     clock the positions are timed by
+     * @return the playback
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if a line is malformed
+     */
+    public static PositionPlayback load(String fileName, Clock clock) throws IOException {
+        List<Long> times = new ArrayList<>();
+        List<double[]> positions = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            int lineNr = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNr++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+
+                String[] fields = line.split(";");
+                if (fields.length < 2) throw new IllegalArgumentException(fileName + ":" + lineNr + ": expected time;length;length...");
+                try {
+                    times.add(Math.round(Double.parseDouble(fields[0].trim()) * 1e9));
+                    double[] position = new double[fields.length - 1];
+                    for (int i = 0; i < position.length; i++) {
+                        position[i] = Double.parseDouble(fields[i + 1].trim());
+                    }
+                    positions.add(position);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(fileName + ":" + lineNr + ": " + e.getMessage());
+                }
+            }
+        }
+
+        long[] timesNanos = new long[times.size()];
+        for (int i = 0; i < timesNanos.length; i++) {
+            timesNanos[i] = times.get(i);
+        }
+        return new PositionPlayback(timesNanos, positions.toArray(new double[0][]), clock);
+    }
+
+    /**
+     * Creates the stream the load generator sends: poses following a waveform, every degree of freedom a quarter period behind the previous one,
+     * solved into arm lengths. Poses out of reach repeat the previous position.
+     * @param kinematics    inverse kinematics of the platform
+     * @param waveform      shape of the motion
+     * @param frequency     frequency of the motion in Hz
+     * @param rate          positions per second
+     * @param seconds       length of the stream in seconds
+     * @param clock         clock the positions are timed by
+     * @return the playback
+     */
+    public static PositionPlayback fromWaveform(StewartKinematics kinematics, Waveform waveform, double frequency, double rate, double seconds, Clock clock) {
+        int amount = (int) (rate * seconds);
+        long[] timesNanos = new long[amount];
+        double[][] positions = new double[amount][kinematics.getArmAmount()];
+        double[] pose = new double[AMPLITUDES.length];
+
+        for (int i = 0; i < amount; i++) {
+            double time = i / rate;
+            timesNanos[i] = Math.round(time * 1e9);
+            for (int dof = 0; dof < pose.length; dof++) {
+                pose[dof] = AMPLITUDES[dof] * waveform.value(time + dof / (4 * frequency), frequency);
+            }
+            boolean reachable = kinematics.solve(pose[0], pose[1], pose[2],
+                    Math.toRadians(pose[3]), Math.toRadians(pose[4]), Math.toRadians(pose[5]), positions[i]);
+            if (!reachable) {
+                if (i > 0) System.arraycopy(positions[i - 1], 0, positions[i], 0, positions[i].length);
+                else kinematics.solve(0, 0, 0, 0, 0, 0, positions[i]);
+            }
+        }
+        return new PositionPlayback(timesNanos, positions, clock);
+    }
+
+    @Override
+    public void getMostRecentPositionUpdate(double[] lengths) throws InterruptedException {
+        if (!started) {
+            startNanos = clock.nanoTime();
+            started = true;
+        }
+
+        //the stream is over, block like a server without clients
+        if (next >= positions.length) {
+            synchronized (this) {
+                while (true) {
+                    clock.await(this);
+                }
+            }
+        }
+
+        long waitNanos = startNanos + timesNanos[next] - clock.nanoTime();
+        if (waitNanos > 0) clock.sleepNanos(waitNanos);
+
+        //hand out the most recent position that is due
+        long elapsed = clock.nanoTime() - startNanos;
+        while (next + 1 < positions.length && timesNanos[next + 1] <= elapsed) {
+            next++;
+            skipped++;
+        }
+        System.arraycopy(positions[next], 0, lengths, 0, lengths.length);
+        next++;
+        delivered++;
+    }
+
+    /**
+     * Copies the position handed out last, the goal the regulation is working towards before filters and prediction.
+     * @param lengths   receives the normalized arm lengths
+     * @return whether a position has been handed out yet
+     */
+    public boolean copyLastPosition(double[] lengths) {
+        if (next == 0) return false;
+        System.arraycopy(positions[next - 1], 0, lengths, 0, lengths.length);
+        return true;
+    }
+
+    /**
+     * Returns whether every position has been handed out or skipped.
+     * @return whether the stream is over
+     */
+    public boolean isFinished() {
+        return next >= positions.length;
+    }
+
+    /**
+     * Returns the time of the last position.
+     * @return length of the stream in nanoseconds
+     */
+    public long getDurationNanos() {
+        return timesNanos.length == 0 ? 0 : timesNanos[timesNanos.length - 1];
+    }
+
+    public long getDelivered() {
+        return delivered;
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+}
@@ -0,0 +1,245 @@
+package de.gymolching.fsb.simulation;
+
+import de.gymolching.fsb.Config;
+import de.gymolching.fsb.clock.Clock;
+import de.gymolching.fsb.hal.SimulatedArm;
+import de.gymolching.fsb.halApi.ArmInterface;
+import de.gymolching.fsb.logging.Level;
+import de.gymolching.fsb.logging.LogEvent;
+import de.gymolching.fsb.regulation.MotionLimits;
+import de.gymolching.fsb.regulation.MotorIdentification;
+import de.gymolching.fsb.regulation.PositionTee;
+import de.gymolching.fsb.regulation.RegulationInterface;
+import de.gymolching.fsb.regulation.SimpleRegulationImpl;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a candidate regulation on the live positions of a platform, driving simulated arms instead of the hardware.
+ * The candidate reads copies of the positions the live regulation reads, so it sees the same filtered and predicted input,
+ * and it can never hold up the live regulation. Tracking error and latency of both are recorded side by side.
+ * <p>
+ * Turned on with shadow=true. The candidate is the class named by shadow.regulation (default: SimpleRegulationImpl),
+ * which must implement RegulationInterface and have a constructor (String platformId, ArmInterface[] arms, Config config, Clock clock);
+ * it is configured by shadow.[key], falling back to [key], except that it always runs with real-time mode off at normal thread priority
+ * and neither identifies its arms nor reads or writes an identification file. The simulated arms follow the live arms' identified motor parameters
+ * where there are some, else the configured full-speed velocity with the simulation's time constant.
+ * @author sschaeffner
+ */
+public class ShadowController {
+
+    //time between two samples of goals and positions
+    private static final long SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    //longest latency looked for
+    private static final long MAX_LATENCY_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private static final LogEvent LOG_CLOSE_FAILED = new LogEvent(Level.WARN, "[SHD] closing the candidate failed: {}");
+
+    //suffix of the candidate's platform id, which labels its threads and metrics
+    private static final String PLATFORM_SUFFIX = "-shadow";
+
+    //the live regulation and the tee copying its positions
+    private final SimpleRegulationImpl live;
+    private final PositionTee tee;
+
+    //the candidate and its simulated arms
+    private final RegulationInterface candidate;
+    private final ArmInterface[] arms;
+
+    //tracking of the live regulation and of the candidate
+    private final TrackingStatistics liveStatistics;
+    private final TrackingStatistics shadowStatistics;
+
+    //clock the samples are timed by
+    private final Clock clock;
+
+    //samples goals and positions of both
+    private final Thread probe;
+
+    //whether the probe keeps running
+    private volatile boolean running;
+
+    /**
+     * Creates a shadow controller. It has to be started with start().
+     * @param live      the live regulation
+     * @param tee       tee between the live regulation and its position provider
+     * @param candidate the candidate regulation, reading from nothing yet
+     * @param arms      the candidate's simulated arms
+     * @param clock     clock the samples are timed by
+     */
+    public ShadowController(SimpleRegulationImpl live, PositionTee tee, RegulationInterface candidate, ArmInterface[] arms, Clock clock) {
+        this.live = live;
+        this.tee = tee;
+        this.candidate = candidate;
+        this.arms = arms;
+        this.clock = clock;
+        this.liveStatistics = new TrackingStatistics(arms.length, SAMPLE_NANOS, MAX_LATENCY_NANOS);
+        this.shadowStatistics = new TrackingStatistics(arms.length, SAMPLE_NANOS, MAX_LATENCY_NANOS);
+        this.probe = clock.newThread(this::run, "shadow-probe");
+        this.probe.setDaemon(true);
+    }
+
+    /**
+     * Creates the configured candidate with simulated arms, connected to the tee. It has to be started with start().
+     * Call once the live regulation is homed, so the arms' identified motor parameters are known.
+     * @param platformId    id of the platform
+     * @param live          the live regulation
+     * @param tee           tee between the live regulation and its position provider
+     * @param config        the platform's configuration
+     * @param clock         clock the candidate and the samples are timed by
+     * @return the shadow controller
+     * @throws IllegalArgumentException if the candidate cannot be created
+     */
+    public static ShadowController fromConfig(String platformId, SimpleRegulationImpl live, PositionTee tee, Config config, Clock clock) {
+        //the candidate must neither compete with the live regulation for the CPU nor identify its simulated arms into the live motors' file
+        Config candidateConfig = config.withPrefix("shadow.")
+                .with("realtime", "off")
+                .with("regulation.identify", "false")
+                .without("regulation.identificationFile");
+        ArmInterface[] arms = new ArmInterface[live.getArmAmount()];
+        for (int i = 0; i < arms.length; i++) {
+            MotorIdentification identification = live.getIdentification(i);
+            //simulated arms have no dead time, their time constant stands for the whole lag
+            arms[i] = identification != null
+                    ? new SimulatedArm(identification.getFullSpeedVelocity(), Math.max(identification.getLagSeconds(), 1e-3), Simulation.SIMULATED_STROKE_STEPS, clock)
+                    : new SimulatedArm(MotionLimits.fromConfig(config, i).getFullSpeedVelocity(), Simulation.SIMULATED_TIME_CONSTANT, Simulation.SIMULATED_STROKE_STEPS, clock);
+        }
+
+        String className = config.getString("shadow.regulation", SimpleRegulationImpl.class.getName());
+        RegulationInterface candidate = createCandidate(className, platformId + PLATFORM_SUFFIX, arms, candidateConfig, clock);
+        candidate.setPositionProvider(tee.getBranch());
+        return new ShadowController(live, tee, candidate, arms, clock);
+    }
+
+    /**
+     * Creates the candidate regulation.
+     */
+    private static RegulationInterface createCandidate(String className, String platformId, ArmInterface[] arms, Config config, Clock clock) {
+        try {
+            Class<?> type = Class.forName(className);
+            if (!RegulationInterface.class.isAssignableFrom(type)) {
+                throw new IllegalArgumentException(className + " is not a RegulationInterface");
+            }
+            Constructor<?> constructor = type.getConstructor(String.class, ArmInterface[].class, Config.class, Clock.class);
+            return (RegulationInterface) constructor.newInstance(platformId, arms, config, clock);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("shadow regulation " + className + " not found");
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(className + " has no constructor (String, ArmInterface[], Config, Clock)");
+        } catch (InvocationTargetException e) {
+            throw new IllegalArgumentException("could not create " + className + ": " + e.getCause(), e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("could not create " + className + ": " + e);
+        }
+    }
+
+    /**
+     * Starts recording.
+     */
+    public void start() {
+        running = true;
+        probe.start();
+    }
+
+    /**
+     * Samples goals and positions of both regulations while both are homed.
+     */
+    private void run() {
+        double[] lengths = new double[arms.length];
+        int[] goals = new int[arms.length];
+        int[] livePositions = new int[arms.length];
+        int[] shadowPositions = new int[arms.length];
+        while (running) {
+            try {
+                clock.sleepNanos(SAMPLE_NANOS);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (!live.isHomed() || !isCandidateHomed() || !tee.copyLatest(lengths)) continue;
+
+            SimpleRegulationImpl.toSteps(lengths, goals);
+            for (int i = 0; i < arms.length; i++) {
+                livePositions[i] = live.getPosition(i);
+                shadowPositions[i] = arms[i].getPosition();
+            }
+            liveStatistics.record(goals, livePositions);
+            shadowStatistics.record(goals, shadowPositions);
+        }
+    }
+
+    private boolean isCandidateHomed() {
+        return !(candidate instanceof SimpleRegulationImpl) || ((SimpleRegulationImpl) candidate).isHomed();
+    }
+
+    /**
+     * Stops recording and the candidate and waits for their threads.
+     * A candidate other than SimpleRegulationImpl is stopped by closing its position provider and, if it is AutoCloseable, closing it.
+     * @param timeoutMillis how long to wait for all threads together
+     * @return whether all threads ended in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean shutdown(long timeoutMillis) throws InterruptedException {
+        long deadline = clock.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        running = false;
+        clock.interrupt(probe);
+
+        //a SimpleRegulationImpl takes the closed branch for an interrupt to retry after, so it is shut down first
+        boolean ended = true;
+        if (candidate instanceof SimpleRegulationImpl) {
+            ended = ((SimpleRegulationImpl) candidate).shutdown(timeoutMillis);
+        }
+        tee.close();
+        if (candidate instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) candidate).close();
+            } catch (Exception e) {
+                LOG_CLOSE_FAILED.log(candidate.getClass().getName() + ": " + e);
+                ended = false;
+            }
+        }
+        return clock.join(probe, deadline) && ended;
+    }
+
+    /**
+     * Returns how closely the live regulation's arms follow their goals.
+     * @return the live tracking statistics
+     */
+    public TrackingStatistics getLiveStatistics() {
+        return liveStatistics;
+    }
+
+    /**
+     * Returns how closely the candidate's simulated arms follow their goals.
+     * @return the candidate's tracking statistics
+     */
+    public TrackingStatistics getShadowStatistics() {
+        return shadowStatistics;
+    }
+
+    /**
+     * Returns the candidate regulation.
+     * @return the candidate
+     */
+    public RegulationInterface getCandidate() {
+        return candidate;
+    }
+
+    /**
+     * Returns how many positions the candidate missed because it read them slower than they arrived.
+     * @return positions missed
+     */
+    public long getSkippedPositions() {
+        return tee.getSkipped();
+    }
+
+    /**
+     * Clears the tracking statistics of both.
+     */
+    public void resetStatistics() {
+        liveStatistics.reset();
+        shadowStatistics.reset();
+    }
+}
@@ -0,0 +1,242 @@
+package de.gymolching.fsb.simulation;
+
+import de.gymolching.fsb.Config;
+import de.gymolching.fsb.clock.Clock;
+import de.gymolching.fsb.clock.VirtualClock;
+import de.gymolching.fsb.hal.SimulatedArm;
+import de.gymolching.fsb.halApi.ArmInterface;
+import de.gymolching.fsb.kinematics.PlatformGeometry;
+import de.gymolching.fsb.kinematics.StewartKinematics;
+import de.gymolching.fsb.loadtest.Waveform;
+import de.gymolching.fsb.regulation.ArrivalStatistics;
+import de.gymolching.fsb.regulation.BrakingModel;
+import de.gymolching.fsb.regulation.MotionLimits;
+import de.gymolching.fsb.regulation.MotorIdentification;
+import de.gymolching.fsb.regulation.PositionProvider;
+import de.gymolching.fsb.regulation.PositionTee;
+import de.gymolching.fsb.regulation.SimpleRegulationImpl;
+import de.gymolching.fsb.regulation.filter.FilteredPositionProvider;
+import de.gymolching.fsb.regulation.prediction.PredictingPositionProvider;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the regulation with simulated arms on a virtual clock, as fast as the cpu allows instead of in real time.
+ * Positions are played back in place of the network server, through the configured filters and predictor.
+ * The same options always give the same results.
+ * <p>
+ * Usage: java -cp fsb.jar de.gymolching.fsb.simulation.Simulation [options]
+ * <pre>
+ * --config file        configuration of the regulation, filters and predictor (default: fsb.properties)
+ * --playback file      recorded stream to play back, lines of time;length;length... (default: generated from the waveform)
+ * --rate hz            positions per second of the generated stream (default: 100)
+ * --waveform name      sine, square, triangle, sweep or noise (default: sine)
+ * --frequency hz       frequency of the motion (default: 0.5)
+ * --duration s         length of the generated stream in simulated seconds (default: 600)
+ * --arms n             amount of arms of the example platform (default: 6)
+ * --verbose            keep the log output of the regulation
+ * </pre>
+ * Without kinematics.geometry configured, the symmetric example platform is used.
+ * With shadow=true, a shadow controller runs next to the regulation and both are reported.
+ * @author sschaeffner
+ */
+public class Simulation {
+
+    //simulated arm: time constant of the motor and length of the stroke in steps
+    static final double SIMULATED_TIME_CONSTANT = 0.08;
+    static final double SIMULATED_STROKE_STEPS = 40;
+
+    //how long the arms may take to their starting position, in simulated time
+    static final long HOMING_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    //how long the arms may settle after the last position, in simulated time
+    private static final long SETTLE_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    //how long to wait for the regulation's threads at the end, in simulated time
+    static final long REGULATION_SHUTDOWN_TIMEOUT_MILLIS = 1000;
+
+    private String configFile = Config.DEFAULT_FILE;
+    private String playbackFile;
+    private double rate = 100;
+    private Waveform waveform = Waveform.SINE;
+    private double frequency = 0.5;
+    private double durationSeconds = 600;
+    private int armAmount = PlatformGeometry.DEFAULT_ARM_AMOUNT;
+    private boolean verbose = false;
+
+    //reports are written here, System.out may be silenced
+    private final PrintStream report = System.out;
+
+    public static void main(String[] args) throws Exception {
+        Simulation simulation = new Simulation();
+        try {
+            simulation.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        System.exit(simulation.run() ? 0 : 1);
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--verbose")) {
+                verbose = true;
+                continue;
+            }
+            if (i + 1 >= args.length) throw new IllegalArgumentException("missing value for " + option);
+            String value = args[++i];
+            try {
+                switch (option) {
+                    case "--config":
+                        configFile = value;
+                        break;
+                    case "--playback":
+                        playbackFile = value;
+                        break;
+                    case "--rate":
+                        rate = Double.parseDouble(value);
+                        break;
+                    case "--waveform":
+                        waveform = Waveform.valueOf(value.toUpperCase());
+                        break;
+                    case "--frequency":
+                        frequency = Double.parseDouble(value);
+                        break;
+                    case "--duration":
+                        durationSeconds = Double.parseDouble(value);
+                        break;
+                    case "--arms":
+                        armAmount = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown option " + option);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid value for " + option + ": " + value);
+            }
+        }
+        if (rate <= 0 || frequency <= 0 || durationSeconds <= 0) {
+            throw new IllegalArgumentException("rate, frequency and duration must be positive");
+        }
+        if (armAmount < PlatformGeometry.MIN_ARM_AMOUNT) {
+            throw new IllegalArgumentException("a platform needs at least " + PlatformGeometry.MIN_ARM_AMOUNT + " arms");
+        }
+    }
+
+    /**
+     * Runs the simulation and reports the results.
+     * @return whether the arms homed and the regulation stopped in time
+     */
+    private boolean run() throws IOException, InterruptedException {
+        if (!verbose) System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+
+        Config config = Config.load(configFile);
+        String geometryFile = config.getString("kinematics.geometry", null);
+        PlatformGeometry geometry = geometryFile != null
+                ? PlatformGeometry.load(geometryFile)
+                : PlatformGeometry.symmetric(armAmount, 300, 20, 200, 20, 400, 600, 460);
+
+        VirtualClock clock = new VirtualClock();
+        int width = geometry.getArmAmount();
+
+        //playback -> filters -> predictor -> regulation, as on a platform
+        PositionPlayback playback = playbackFile != null
+                ? PositionPlayback.load(playbackFile, clock)
+                : PositionPlayback.fromWaveform(new StewartKinematics(geometry), waveform, frequency, rate, durationSeconds, clock);
+        PositionProvider provider = connect(playback, width, config, clock);
+
+        ArmInterface[] arms = new ArmInterface[width];
+        for (int i = 0; i < width; i++) {
+            double fullSpeedVelocity = MotionLimits.fromConfig(config, i).getFullSpeedVelocity();
+            arms[i] = new SimulatedArm(fullSpeedVelocity, SIMULATED_TIME_CONSTANT, SIMULATED_STROKE_STEPS, clock);
+        }
+        SimpleRegulationImpl regulation = new SimpleRegulationImpl(SimpleRegulationImpl.DEFAULT_PLATFORM, arms, config, clock);
+        PositionTee tee = config.getBoolean("shadow", false) ? new PositionTee(provider, width, clock) : null;
+        regulation.setPositionProvider(tee != null ? tee : provider);
+
+        report.printf("[SIM] %s, %.1f s of %s on a virtual clock%n", playbackFile != null ? "playing back " + playbackFile
+                : String.format("%s at %.2f Hz, %.0f positions/s", waveform.name().toLowerCase(), frequency, rate),
+                playback.getDurationNanos() / 1e9, regulation.isCoordinated() ? "coordinated regulation" : "regulation");
+
+        long wallStart = System.nanoTime();
+        if (!clock.advanceUntil(regulation::isHomed, HOMING_TIMEOUT_NANOS)) {
+            report.println("[SIM] FAIL: arms not at their starting position after " + TimeUnit.NANOSECONDS.toSeconds(HOMING_TIMEOUT_NANOS) + " s");
+            return false;
+        }
+        double homedSeconds = clock.nanoTime() / 1e9;
+        ShadowController shadow = null;
+        if (tee != null) {
+            try {
+                shadow = ShadowController.fromConfig(SimpleRegulationImpl.DEFAULT_PLATFORM, regulation, tee, config, clock);
+            } catch (IllegalArgumentException e) {
+                report.println("[SIM] FAIL: " + e.getMessage());
+                regulation.shutdown(REGULATION_SHUTDOWN_TIMEOUT_MILLIS);
+                return false;
+            }
+            shadow.start();
+        }
+        clock.advanceUntil(playback::isFinished, playback.getDurationNanos() + SETTLE_NANOS);
+        clock.advance(SETTLE_NANOS);
+        boolean ended = shadow == null || shadow.shutdown(REGULATION_SHUTDOWN_TIMEOUT_MILLIS);
+        ended &= regulation.shutdown(REGULATION_SHUTDOWN_TIMEOUT_MILLIS);
+        double wallSeconds = (System.nanoTime() - wallStart) / 1e9;
+        double simulatedSeconds = clock.nanoTime() / 1e9;
+
+        ArrivalStatistics statistics = regulation.getArrivalStatistics();
+        report.printf("[SIM] homed after %.1f s, %d positions played back, %d skipped%n", homedSeconds, playback.getDelivered(), playback.getSkipped());
+        report.printf("[SIM] %d positions completed, %d abandoned, arrival spread mean %.1f ms, max %.1f ms%n",
+                statistics.getCompleted(), statistics.getAbandoned(), statistics.getMeanSpreadMillis(), statistics.getMaxSpreadMillis());
+        for (int i = 0; i < width; i++) {
+            BrakingModel braking = regulation.getBrakingModel(i);
+            report.printf("[SIM] arm %d: %.1f steps/s at 100%%, coasts %.0f ms, overshoot mean %+.2f |%.2f| max %+d steps over %d stops%n",
+                    i, regulation.getMeasuredFullSpeed(i), braking.getCoastSeconds() * 1000, braking.getMeanOvershoot(),
+                    braking.getMeanAbsoluteOvershoot(), braking.getMaxOvershoot(), braking.getGoalStops());
+            MotorIdentification identification = regulation.getIdentification(i);
+            if (identification != null) {
+                report.printf("[SIM] arm %d: identified dead time %.0f ms, time constant %.0f ms, dead band %.1f%%, %.1f steps/s at 100%%%n",
+                        i, identification.getDeadTimeSeconds() * 1000, identification.getTimeConstantSeconds() * 1000,
+                        identification.getDeadBand(), identification.getFullSpeedVelocity());
+            }
+        }
+        if (shadow != null) {
+            report.printf("[SIM] shadow %s, %d positions missed%n", shadow.getCandidate().getClass().getSimpleName(), shadow.getSkippedPositions());
+            report(shadow.getLiveStatistics(), "live");
+            report(shadow.getShadowStatistics(), "shadow");
+        }
+        report.printf("[SIM] %.1f s simulated in %.1f s, %.0fx real time%n", simulatedSeconds, wallSeconds, simulatedSeconds / wallSeconds);
+        if (!ended) report.println("[SIM] FAIL: regulation did not stop within " + REGULATION_SHUTDOWN_TIMEOUT_MILLIS + " ms");
+        return ended;
+    }
+
+    private void report(TrackingStatistics statistics, String name) {
+        report.printf("[SIM] %-6s rms %.2f, max %d steps, latency %.0f ms over %d samples%n",
+                name, statistics.getRmsError(), statistics.getMaxError(), statistics.getLatencyMillis(), statistics.getSamples());
+    }
+
+    /**
+     * Connects the playback to the regulation through the configured filters, predictor and clamp.
+     */
+    static PositionProvider connect(PositionProvider playback, int width, Config config, Clock clock) {
+        PositionProvider provider = playback;
+        FilteredPositionProvider filtered = FilteredPositionProvider.fromConfig(provider, width, config, clock);
+        if (filtered != null) provider = filtered;
+        PredictingPositionProvider predicting = PredictingPositionProvider.fromConfig(provider, width, config, clock);
+        if (predicting != null) provider = predicting;
+        FilteredPositionProvider clamping = FilteredPositionProvider.clampFromConfig(provider, width, config, clock);
+        if (clamping != null) provider = clamping;
+        return provider;
+    }
+}
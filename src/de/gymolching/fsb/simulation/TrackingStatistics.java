@@ -0,0 +1,118 @@
+package de.gymolching.fsb.simulation;
+
+/**
+ * How closely a regulation's arms follow their goals, from goals and positions sampled at a fixed period.
+ * Besides the rms and the largest error, the latency is kept: the delay by which the positions follow the goals best,
+ * found as the delay with the smallest rms error, as ControlQualityCheck measures it.
+ * @author sschaeffner
+ */
+public class TrackingStatistics {
+
+    //time between two samples in nanoseconds
+    private final long sampleNanos;
+
+    //goals of the last samples of every arm in steps as a ring buffer, the latest at head
+    private final int[][] goals;
+    private int head = -1;
+
+    //sums of squared errors and amounts of errors against the goals delay samples earlier, over all arms
+    private final double[] squaredErrors;
+    private final long[] errors;
+
+    //samples recorded
+    private long samples;
+
+    //largest absolute error of an arm against its current goal in steps
+    private int maxError;
+
+    /**
+     * Creates empty statistics.
+     * @param width           amount of arms
+     * @param sampleNanos     time between two samples in nanoseconds
+     * @param maxLatencyNanos longest latency looked for in nanoseconds
+     */
+    public TrackingStatistics(int width, long sampleNanos, long maxLatencyNanos) {
+        int maxDelay = (int) (maxLatencyNanos / sampleNanos);
+        this.sampleNanos = sampleNanos;
+        this.goals = new int[width][maxDelay + 1];
+        this.squaredErrors = new double[maxDelay + 1];
+        this.errors = new long[maxDelay + 1];
+    }
+
+    /**
+     * Records a sample.
+     * @param goal      goal of every arm in steps
+     * @param position  position of every arm in steps
+     */
+    public synchronized void record(int[] goal, int[] position) {
+        int length = squaredErrors.length;
+        head = (head + 1) % length;
+        samples++;
+        for (int arm = 0; arm < goals.length; arm++) {
+            goals[arm][head] = goal[arm];
+            maxError = Math.max(maxError, Math.abs(goal[arm] - position[arm]));
+
+            int available = (int) Math.min(samples, length);
+            for (int delay = 0; delay < available; delay++) {
+                double error = goals[arm][(head - delay + length) % length] - position[arm];
+                squaredErrors[delay] += error * error;
+                errors[delay]++;
+            }
+        }
+    }
+
+    /**
+     * Returns the root mean square of goal minus position over all arms and samples.
+     * @return rms error in steps
+     */
+    public synchronized double getRmsError() {
+        return errors[0] == 0 ? 0 : Math.sqrt(squaredErrors[0] / errors[0]);
+    }
+
+    /**
+     * Returns the largest distance of an arm from its goal.
+     * @return largest error in steps
+     */
+    public synchronized int getMaxError() {
+        return maxError;
+    }
+
+    /**
+     * Returns the delay by which the positions follow the goals best.
+     * @return latency in ms
+     */
+    public synchronized double getLatencyMillis() {
+        int best = 0;
+        double bestRms = Double.MAX_VALUE;
+        for (int delay = 0; delay < squaredErrors.length; delay++) {
+            if (errors[delay] == 0) break;
+            double rms = squaredErrors[delay] / errors[delay];
+            if (rms < bestRms) {
+                bestRms = rms;
+                best = delay;
+            }
+        }
+        return best * sampleNanos / 1e6;
+    }
+
+    /**
+     * Returns how many samples were recorded.
+     * @return samples recorded
+     */
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    /**
+     * Clears the statistics.
+     */
+    public synchronized void reset() {
+        head = -1;
+        samples = 0;
+        maxError = 0;
+        for (int delay = 0; delay < squaredErrors.length; delay++) {
+            squaredErrors[delay] = 0;
+            errors[delay] = 0;
+        }
+    }
+}